@@ -1,38 +1,110 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Date; // For LocalDate conversion
 import java.time.LocalDate;
+import java.time.YearMonth;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Manages all database operations for the Sales Management System.
  * This class connects to a PostgreSQL database and performs CRUD operations
  * on 'products', 'customers', and 'sales' tables.
- * It implements IProductDAO, ICustomerDAO, and ISaleDAO for better modularity.
+ * It implements IProductDAO, ICustomerDAO, and ISaleDAO (via IDataStore) for better modularity.
+ * Read-only DAO methods can be served by streaming replicas (see ReplicaRouter); writes and
+ * reads inside a transaction always use the primary.
  */
-public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
+public class DatabaseManager implements IDataStore, IOrderDAO {
 
     // Database connection details
     private static final String DB_URL = "jdbc:postgresql://localhost:5432/sales_management_db";
     private static final String DB_USER = "postgres"; // Your PostgreSQL username
     private static final String DB_PASSWORD = "123"; // Your PostgreSQL password
+    private static final int LOGIN_TIMEOUT_SECONDS = 5; // Fail fast when the server is down
+    private static final int MAX_SIMILAR_CANDIDATES = 5000; // Upper bound of rows scored per fuzzy lookup
+
+    // Offline sales journal settings
+    private static final String JOURNAL_DIR_PROPERTY = "sales.journalDir";
+    private static final int REPLAY_BATCH_SIZE = 100;
+    private static final long REPLAY_INTERVAL_SECONDS = 15;
+
+    // Columns of 'sales' and 'sales_archive'; archived sales are read back through UNION ALL
+    private static final String SALE_COLUMNS = "sale_id, product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date";
+    private static final String SALE_READ_COLUMNS = SALE_COLUMNS + ", store_id, version";
+
+    // 'sales' is partitioned by month of sale_date; partitions are created on demand before inserts
+    private static final int PREMADE_SALES_PARTITION_MONTHS = 3; // Months ahead created with the schema
+    private static final long PRICE_HISTORY_MAX_AGE_MILLIS = 30_000; // Price changes by other processes show up within this time
+    private static final Set<String> knownSalesPartitions = ConcurrentHashMap.newKeySet(); // "<url> <month>", shared by all managers of the JVM
+
+    // Statements of every manager and of openConnection() are timed; EXPLAIN runs on an untimed connection
+    private static final SlowQueryLog slowQueryLog = SlowQueryLog.fromSystemProperties(
+            () -> DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD));
+
+    // Read-only queries go to a replica that has replayed this manager's writes (-Dsales.db.replicas)
+    private static final ReplicaRouter replicaRouter = ReplicaRouter.fromSystemProperties(DB_USER, DB_PASSWORD,
+            () -> DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD));
+
+    private final String url; // Database of this manager: the default one, or a shard
+    private final int shardIndex;
+    private final int shardCount;
+    private final ReplicaRouter replicas; // Only the default database has configured replicas
 
     private Connection connection;
+    private Connection replicaConnection; // Connection to currentReplica, opened on first use
+    private ReplicaRouter.Replica currentReplica;
+    private boolean primaryUsedSinceRead; // Set by getConnection(); the next read takes a new read-your-writes mark
+    private long readYourWritesNanos = Long.MIN_VALUE; // Replicas must be caught up to this time
+    private boolean inTransaction; // A lost connection must not be silently replaced mid-transaction
+    private boolean tablesCreated;
+    private SalesJournal salesJournal; // Takes sales while the database is unreachable
+    private InventoryService inventoryService; // Optional in-memory stock reservations, shared across managers
+    private PriceHistory priceHistory; // Loaded on first use; dropped on this manager's price writes
+    private long priceHistoryLoadedNanos;
 
     /**
      * Constructor for DatabaseManager.
      * Attempts to establish a connection to the database and create the necessary tables.
+     * Also opens the offline sales journal, so sales can still be taken when the connection fails.
      */
     public DatabaseManager() {
+        this(DB_URL, 0, 1);
+    }
+
+    /**
+     * Creates a manager for one shard of a sharded installation (see ShardedDataStore).
+     * Sale IDs from this shard's sequence are congruent to shardIndex + 1 modulo shardCount, so
+     * the shard of a sale can be told from its ID. The offline journal is kept per shard.
+     * @param url JDBC URL of the shard's database (same user and password as the default database).
+     * @param shardIndex Index of the shard, from 0.
+     * @param shardCount Number of shards; 1 for an unsharded database.
+     */
+    public DatabaseManager(String url, int shardIndex, int shardCount) {
+        this.url = url;
+        this.shardIndex = shardIndex;
+        this.shardCount = shardCount;
+        this.replicas = url.equals(DB_URL) ? replicaRouter : null;
+        openSalesJournal();
         try {
             // Register the PostgreSQL JDBC driver
             Class.forName("org.postgresql.Driver");
-            this.connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            DriverManager.setLoginTimeout(LOGIN_TIMEOUT_SECONDS);
+            this.connection = TracedConnection.wrap(DriverManager.getConnection(url, DB_USER, DB_PASSWORD), slowQueryLog);
             System.out.println("Connected to the PostgreSQL database successfully!");
             createTables(); // Ensure all necessary tables exist
         } catch (ClassNotFoundException e) {
@@ -50,14 +122,66 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
      * @throws SQLException if a database access error occurs.
      */
     public Connection getConnection() throws SQLException {
+        primaryUsedSinceRead = true; // Possibly a write: later reads must see it
+        return primaryConnection();
+    }
+
+    // The primary connection, reconnecting if it was lost
+    private Connection primaryConnection() throws SQLException {
         if (connection == null || connection.isClosed()) {
-            connection = DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD);
+            if (inTransaction) {
+                throw new SQLNonTransientConnectionException("Connection lost during transaction.", "08003");
+            }
+            connection = TracedConnection.wrap(DriverManager.getConnection(url, DB_USER, DB_PASSWORD), slowQueryLog);
+            if (!tablesCreated) {
+                createTables(); // The server was unreachable at startup
+            }
         }
         return connection;
     }
 
     /**
-     * Creates the 'products', 'customers', and 'sales' tables in the database if they do not already exist.
+     * Opens a new connection that is independent of any DatabaseManager, e.g. for background services.
+     * @return A new Connection object to the database.
+     * @throws SQLException if a database access error occurs.
+     */
+    public static Connection openConnection() throws SQLException {
+        return TracedConnection.wrap(DriverManager.getConnection(DB_URL, DB_USER, DB_PASSWORD), slowQueryLog);
+    }
+
+    /**
+     * @return The log of slow statements shared by all managers and background services, or null if it is off.
+     */
+    public static SlowQueryLog getSlowQueryLog() {
+        return slowQueryLog;
+    }
+
+    /**
+     * Routes stock checks of new sales through a shared in-memory inventory service.
+     * The service must be closed by its owner, not by this manager.
+     * @param inventoryService The service, or null to check stock in the database again.
+     */
+    public void setInventoryService(InventoryService inventoryService) {
+        this.inventoryService = inventoryService;
+    }
+
+    // Columns and constraints of the partitioned 'sales' table
+    private static final String SALES_COLUMN_DEFINITIONS =
+            "sale_id INT NOT NULL DEFAULT nextval('sales_sale_id_seq')," +
+            "product_id INT NOT NULL," +
+            "customer_id INT NOT NULL," +
+            "quantity INT NOT NULL," +
+            "unit_price_at_sale DECIMAL(10, 2) NOT NULL," +
+            "total_sale_price DECIMAL(10, 2) NOT NULL," +
+            "sale_date DATE NOT NULL," +
+            "version INT NOT NULL DEFAULT 1," +
+            "PRIMARY KEY (sale_id, sale_date)," +
+            "FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE RESTRICT," + // Prevent deleting product if sales exist
+            "FOREIGN KEY (customer_id) REFERENCES customers(customer_id) ON DELETE RESTRICT"; // Prevent deleting customer if sales exist
+
+    /**
+     * Creates the 'products', 'customers', 'sales', 'orders' and 'order_lines' tables in the database if they do not already exist.
+     * Also creates the sales archive and the bookkeeping tables used when replaying the offline sales journal.
      */
     private void createTables() {
         // Create products table
@@ -77,23 +201,212 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
                 "phone VARCHAR(20)" +
                 ");";
 
-        // Create sales table (with foreign keys to products and customers)
+        // Phonetic name keys (Soundex) for fuzzy lookups, and an index for exact name lookups
+        String addCustomerNameKeysSQL = "ALTER TABLE customers " +
+                "ADD COLUMN IF NOT EXISTS first_name_key VARCHAR(4), " +
+                "ADD COLUMN IF NOT EXISTS last_name_key VARCHAR(4);";
+        String createCustomerNameKeysIndexSQL = "CREATE INDEX IF NOT EXISTS idx_customers_name_keys ON customers(last_name_key, first_name_key);";
+        String createCustomerNameIndexSQL = "CREATE INDEX IF NOT EXISTS idx_customers_name ON customers(last_name, first_name);";
+
+        // Indexes behind the query specs of the table tabs (prefix search on lower-case text, sorting, sale filters)
+        String[] createQueryIndexesSQL = {
+                "CREATE INDEX IF NOT EXISTS idx_products_name_lower ON products (lower(name) text_pattern_ops);",
+                "CREATE INDEX IF NOT EXISTS idx_customers_first_name_lower ON customers (lower(first_name) text_pattern_ops);",
+                "CREATE INDEX IF NOT EXISTS idx_customers_last_name_lower ON customers (lower(last_name) text_pattern_ops);",
+                "CREATE INDEX IF NOT EXISTS idx_customers_email_lower ON customers (lower(email) text_pattern_ops);",
+                "CREATE INDEX IF NOT EXISTS idx_sales_sale_date ON sales (sale_date);",
+                "CREATE INDEX IF NOT EXISTS idx_sales_product_id ON sales (product_id, sale_date);",
+                "CREATE INDEX IF NOT EXISTS idx_sales_customer_id ON sales (customer_id, sale_date);"
+        };
+
+        // Create sales table (with foreign keys to products and customers), partitioned by month of sale_date.
+        // The primary key must contain the partition key; sale_id alone stays unique through its sequence.
+        String createSalesSequenceSQL = "CREATE SEQUENCE IF NOT EXISTS sales_sale_id_seq;";
         String createSalesTableSQL = "CREATE TABLE IF NOT EXISTS sales (" +
-                "sale_id SERIAL PRIMARY KEY," +
+                SALES_COLUMN_DEFINITIONS +
+                ") PARTITION BY RANGE (sale_date);";
+        String ownSalesSequenceSQL = "ALTER SEQUENCE sales_sale_id_seq OWNED BY sales.sale_id;";
+        // Create orders table (order header) and order_lines table (line items of an order)
+        String createOrdersTableSQL = "CREATE TABLE IF NOT EXISTS orders (" +
+                "order_id SERIAL PRIMARY KEY," +
+                "customer_id INT NOT NULL," +
+                "order_date DATE NOT NULL," +
+                "total_price DECIMAL(12, 2) NOT NULL," +
+                "FOREIGN KEY (customer_id) REFERENCES customers(customer_id) ON DELETE RESTRICT" +
+                ");";
+        String createOrderLinesTableSQL = "CREATE TABLE IF NOT EXISTS order_lines (" +
+                "line_id SERIAL PRIMARY KEY," +
+                "order_id INT NOT NULL," +
+                "product_id INT NOT NULL," +
+                "quantity INT NOT NULL," +
+                "unit_price_at_sale DECIMAL(10, 2) NOT NULL," +
+                "line_total DECIMAL(10, 2) NOT NULL," +
+                "FOREIGN KEY (order_id) REFERENCES orders(order_id) ON DELETE CASCADE," +
+                "FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE RESTRICT" +
+                ");";
+        String createOrderLinesIndexSQL = "CREATE INDEX IF NOT EXISTS idx_order_lines_order_id ON order_lines(order_id);";
+
+        // Sales moved out of the hot table by SalesArchiver, and the date before which all archived sales lie
+        String createSalesArchiveTableSQL = "CREATE TABLE IF NOT EXISTS sales_archive (" +
+                "sale_id INT PRIMARY KEY," +
+                "product_id INT NOT NULL," +
+                "customer_id INT NOT NULL," +
+                "quantity INT NOT NULL," +
+                "unit_price_at_sale DECIMAL(10, 2) NOT NULL," +
+                "total_sale_price DECIMAL(10, 2) NOT NULL," +
+                "sale_date DATE NOT NULL," +
+                "FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE RESTRICT," +
+                "FOREIGN KEY (customer_id) REFERENCES customers(customer_id) ON DELETE RESTRICT" +
+                ");";
+        String[] createSalesArchiveIndexesSQL = {
+                "CREATE INDEX IF NOT EXISTS idx_sales_archive_sale_date ON sales_archive (sale_date);",
+                "CREATE INDEX IF NOT EXISTS idx_sales_archive_product_id ON sales_archive (product_id, sale_date);",
+                "CREATE INDEX IF NOT EXISTS idx_sales_archive_customer_id ON sales_archive (customer_id, sale_date);"
+        };
+        // Row versions for optimistic updates; every write to a row increments its version
+        String[] addVersionColumnsSQL = {
+                "ALTER TABLE products ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 1;",
+                "ALTER TABLE customers ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 1;",
+                "ALTER TABLE sales ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 1;",
+                "ALTER TABLE sales_archive ADD COLUMN IF NOT EXISTS version INT NOT NULL DEFAULT 1;"
+        };
+        // Store of each sale; with sharding, a store's sales all live in one shard
+        String[] addStoreColumnsSQL = {
+                "ALTER TABLE sales ADD COLUMN IF NOT EXISTS store_id INT NOT NULL DEFAULT 0;",
+                "ALTER TABLE sales_archive ADD COLUMN IF NOT EXISTS store_id INT NOT NULL DEFAULT 0;",
+                "CREATE INDEX IF NOT EXISTS idx_sales_store_id ON sales (store_id, sale_date);"
+        };
+        String createSalesArchiveStateTableSQL = "CREATE TABLE IF NOT EXISTS sales_archive_state (" +
+                "id INT PRIMARY KEY CHECK (id = 1)," +
+                "archived_before DATE NOT NULL" +
+                ");";
+
+        // Keys of replayed offline sales, stored in the same transaction as the sale for idempotent replay
+        String createJournalReplayedTableSQL = "CREATE TABLE IF NOT EXISTS sales_journal_replayed (" +
+                "entry_key VARCHAR(64) PRIMARY KEY," +
+                "sale_id INT," +
+                "replayed_at TIMESTAMP NOT NULL" +
+                ");";
+
+        // Idempotency keys of submitted sales, claimed in the same transaction as the sale. A table of its own,
+        // since a unique index on the partitioned sales table would have to include sale_date
+        String createSaleSubmissionsTableSQL = "CREATE TABLE IF NOT EXISTS sale_submissions (" +
+                "idempotency_key VARCHAR(" + SaleSubmission.MAX_KEY_LENGTH + ") PRIMARY KEY," +
+                "sale_id INT," +
+                "submitted_at TIMESTAMP NOT NULL" +
+                ");";
+
+        // Offline sales that could not be applied on replay (e.g. stock ran out meanwhile)
+        String createJournalConflictsTableSQL = "CREATE TABLE IF NOT EXISTS sales_journal_conflicts (" +
+                "entry_key VARCHAR(64) PRIMARY KEY," +
                 "product_id INT NOT NULL," +
                 "customer_id INT NOT NULL," +
                 "quantity INT NOT NULL," +
                 "unit_price_at_sale DECIMAL(10, 2) NOT NULL," +
                 "total_sale_price DECIMAL(10, 2) NOT NULL," +
                 "sale_date DATE NOT NULL," +
-                "FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE RESTRICT," + // Prevent deleting product if sales exist
-                "FOREIGN KEY (customer_id) REFERENCES customers(customer_id) ON DELETE RESTRICT" + // Prevent deleting customer if sales exist
+                "reason VARCHAR(500) NOT NULL," +
+                "detected_at TIMESTAMP NOT NULL" +
+                ");";
+        // Written in batches by AuditTrail; one row per mutating DAO call
+        String createAuditLogTableSQL = "CREATE TABLE IF NOT EXISTS audit_log (" +
+                "audit_id BIGSERIAL PRIMARY KEY," +
+                "event_time TIMESTAMP NOT NULL," +
+                "actor VARCHAR(100) NOT NULL," +
+                "action VARCHAR(50) NOT NULL," +
+                "entity VARCHAR(20)," +
+                "entity_id INT," +
+                "success BOOLEAN NOT NULL," +
+                "details TEXT" +
+                ");";
+        // List prices over time; the trigger records every price change in the transaction that makes it,
+        // whichever statement (insert, update, shard copy, repricing) changes the price
+        String createPriceHistoryTableSQL = "CREATE TABLE IF NOT EXISTS product_price_history (" +
+                "product_id INT NOT NULL," +
+                "valid_from DATE NOT NULL," +
+                "price DECIMAL(10, 2) NOT NULL," +
+                "PRIMARY KEY (product_id, valid_from)," +
+                "FOREIGN KEY (product_id) REFERENCES products(product_id) ON DELETE CASCADE" +
                 ");";
+        String createPriceHistoryFunctionSQL = "CREATE OR REPLACE FUNCTION record_product_price() RETURNS trigger AS $$ " +
+                "BEGIN " +
+                "IF TG_OP = 'INSERT' OR NEW.price IS DISTINCT FROM OLD.price THEN " +
+                "INSERT INTO product_price_history (product_id, valid_from, price) VALUES (NEW.product_id, CURRENT_DATE, NEW.price) " +
+                "ON CONFLICT (product_id, valid_from) DO UPDATE SET price = EXCLUDED.price; " + // Several changes on one day: the last one counts
+                "END IF; " +
+                "RETURN NEW; " +
+                "END $$ LANGUAGE plpgsql;";
+        String priceHistoryTriggerExistsSQL = "SELECT 1 FROM pg_trigger WHERE tgname = 'products_price_history' AND tgrelid = 'products'::regclass";
+        String createPriceHistoryTriggerSQL = "CREATE TRIGGER products_price_history " +
+                "AFTER INSERT OR UPDATE OF price ON products FOR EACH ROW EXECUTE FUNCTION record_product_price();";
+        // Products from before the history existed start with their current price as of today
+        String backfillPriceHistorySQL = "INSERT INTO product_price_history (product_id, valid_from, price) " +
+                "SELECT product_id, CURRENT_DATE, price FROM products p " +
+                "WHERE NOT EXISTS (SELECT 1 FROM product_price_history h WHERE h.product_id = p.product_id);";
+        String[] createAuditLogIndexesSQL = {
+                "CREATE INDEX IF NOT EXISTS idx_audit_log_entity ON audit_log (entity, entity_id, event_time);",
+                "CREATE INDEX IF NOT EXISTS idx_audit_log_event_time ON audit_log (event_time);"
+        };
         try (Statement stmt = connection.createStatement()) {
             stmt.execute(createProductsTableSQL);
             stmt.execute(createCustomersTableSQL);
+            stmt.execute(addCustomerNameKeysSQL);
+            stmt.execute(createCustomerNameKeysIndexSQL);
+            stmt.execute(createCustomerNameIndexSQL);
+            stmt.execute(createSalesSequenceSQL);
+            migrateSalesToPartitions(); // Older databases have an unpartitioned sales table
             stmt.execute(createSalesTableSQL);
-            System.out.println("All tables (products, customers, sales) checked/created successfully.");
+            stmt.execute(ownSalesSequenceSQL);
+            YearMonth currentMonth = YearMonth.now();
+            for (int i = -1; i <= PREMADE_SALES_PARTITION_MONTHS; i++) {
+                ensureSalesPartition(connection, currentMonth.plusMonths(i).atDay(1));
+            }
+            for (String createIndexSQL : createQueryIndexesSQL) {
+                stmt.execute(createIndexSQL);
+            }
+            stmt.execute(createOrdersTableSQL);
+            stmt.execute(createOrderLinesTableSQL);
+            stmt.execute(createOrderLinesIndexSQL);
+            stmt.execute(createSalesArchiveTableSQL);
+            for (String createIndexSQL : createSalesArchiveIndexesSQL) {
+                stmt.execute(createIndexSQL);
+            }
+            stmt.execute(createSalesArchiveStateTableSQL);
+            for (String addVersionColumnSQL : addVersionColumnsSQL) {
+                stmt.execute(addVersionColumnSQL);
+            }
+            for (String addStoreColumnSQL : addStoreColumnsSQL) {
+                stmt.execute(addStoreColumnSQL);
+            }
+            if (shardCount > 1) {
+                alignSaleIdSequence();
+            }
+            stmt.execute(createJournalReplayedTableSQL);
+            stmt.execute(createJournalConflictsTableSQL);
+            stmt.execute(createSaleSubmissionsTableSQL);
+            stmt.execute(createAuditLogTableSQL);
+            for (String createIndexSQL : createAuditLogIndexesSQL) {
+                stmt.execute(createIndexSQL);
+            }
+            stmt.execute(createPriceHistoryTableSQL);
+            stmt.execute(createPriceHistoryFunctionSQL);
+            boolean triggerExists;
+            try (ResultSet rs = stmt.executeQuery(priceHistoryTriggerExistsSQL)) {
+                triggerExists = rs.next();
+            }
+            if (!triggerExists) {
+                try {
+                    stmt.execute(createPriceHistoryTriggerSQL);
+                } catch (SQLException e) {
+                    if (!"42710".equals(e.getSQLState())) { // Another manager created it at the same moment
+                        throw e;
+                    }
+                }
+            }
+            stmt.execute(backfillPriceHistorySQL);
+            tablesCreated = true;
+            backfillCustomerNameKeys();
+            System.out.println("All tables (products, customers, sales, orders) checked/created successfully.");
         } catch (SQLException e) {
             System.err.println("Error creating tables: " + e.getMessage());
             e.printStackTrace();
@@ -104,13 +417,19 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
 
     @Override
     public boolean addProduct(Product product) {
-        String insertSQL = "INSERT INTO products (name, price, stock) VALUES (?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+        String insertSQL = "INSERT INTO products (name, price, stock) VALUES (?, ?, ?) RETURNING product_id";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(insertSQL)) {
             pstmt.setString(1, product.getName());
-            pstmt.setDouble(2, product.getPrice());
+            pstmt.setBigDecimal(2, product.getPrice().toDecimal());
             pstmt.setInt(3, product.getStock());
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    product.setProductId(rs.getInt("product_id")); // Needed to copy the product to other shards
+                    priceHistory = null;
+                    return true;
+                }
+            }
+            return false;
         } catch (SQLException e) {
             System.err.println("Error adding product: " + e.getMessage());
             e.printStackTrace();
@@ -118,20 +437,39 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
         }
     }
 
+    /**
+     * Inserts or overwrites a product under its existing ID; used to keep the reference data of
+     * shards identical. The stock of an existing row is left alone, as each shard keeps its own.
+     */
+    public boolean replicateProduct(Product product) {
+        String upsertSQL = "INSERT INTO products (product_id, name, price, stock) VALUES (?, ?, ?, ?) " +
+                "ON CONFLICT (product_id) DO UPDATE SET name = EXCLUDED.name, price = EXCLUDED.price, version = products.version + 1";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(upsertSQL)) {
+            pstmt.setInt(1, product.getProductId());
+            pstmt.setString(2, product.getName());
+            pstmt.setBigDecimal(3, product.getPrice().toDecimal());
+            pstmt.setInt(4, product.getStock());
+            boolean replicated = pstmt.executeUpdate() > 0;
+            priceHistory = null;
+            return replicated;
+        } catch (SQLException e) {
+            System.err.println("Error replicating product: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     @Override
     public Product getProductById(int productId) {
-        String selectSQL = "SELECT product_id, name, price, stock FROM products WHERE product_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            pstmt.setInt(1, productId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return new Product(
-                        rs.getInt("product_id"),
-                        rs.getString("name"),
-                        rs.getDouble("price"),
-                        rs.getInt("stock")
-                );
-            }
+        String selectSQL = "SELECT product_id, name, price, stock, version FROM products WHERE product_id = ?";
+        try {
+            return onReadConnection(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    pstmt.setInt(1, productId);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() ? readProduct(rs) : null;
+                }
+            });
         } catch (SQLException e) {
             System.err.println("Error getting product by ID: " + e.getMessage());
             e.printStackTrace();
@@ -141,48 +479,191 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
 
     @Override
     public List<Product> getAllProducts() {
-        List<Product> products = new ArrayList<>();
-        String selectSQL = "SELECT product_id, name, price, stock FROM products ORDER BY product_id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(selectSQL)) {
-            while (rs.next()) {
-                products.add(new Product(
-                        rs.getInt("product_id"),
-                        rs.getString("name"),
-                        rs.getDouble("price"),
-                        rs.getInt("stock")
-                ));
-            }
+        String selectSQL = "SELECT product_id, name, price, stock, version FROM products ORDER BY product_id";
+        try {
+            return onReadConnection(conn -> {
+                List<Product> products = new ArrayList<>();
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(selectSQL)) {
+                    while (rs.next()) {
+                        products.add(readProduct(rs));
+                    }
+                }
+                return products;
+            });
         } catch (SQLException e) {
             System.err.println("Error retrieving products: " + e.getMessage());
             e.printStackTrace();
         }
-        return products;
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Product> queryProducts(QuerySpec spec) {
+        List<Object> params = new ArrayList<>();
+        String selectSQL = QueryColumns.PRODUCTS.toSql("SELECT product_id, name, price, stock, version FROM products", spec, params);
+        try {
+            return onReadConnection(conn -> {
+                List<Product> products = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    QueryColumns.bind(pstmt, params);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            products.add(readProduct(rs));
+                        }
+                    }
+                }
+                return products;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error querying products: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
     }
 
     @Override
     public boolean updateProduct(Product product) {
-        String updateSQL = "UPDATE products SET name = ?, price = ?, stock = ? WHERE product_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
+        return tryUpdateProduct(product) == UpdateResult.SUCCESS;
+    }
+
+    /**
+     * Updates a product only if it still has the version it was read with. Sales taking stock also
+     * increment the version, so stale stock values cannot overwrite them. A product without a
+     * version (0) is written unconditionally.
+     * With an inventory service the product's stock is the available stock; it is converted back to the
+     * column value, which still includes the reservations not flushed yet.
+     */
+    @Override
+    public UpdateResult tryUpdateProduct(Product product) {
+        try {
+            boolean updated = inventoryService != null
+                    ? inventoryService.writeStock(product.getProductId(), product.getStock(), stock -> writeProduct(product, stock))
+                    : writeProduct(product, product.getStock());
+            if (updated) {
+                priceHistory = null;
+                reconcileStock(product.getProductId());
+                return UpdateResult.SUCCESS;
+            }
+            return rowExists("SELECT 1 FROM products WHERE product_id = ?", product.getProductId())
+                    ? UpdateResult.CONFLICT : UpdateResult.NOT_FOUND;
+        } catch (SQLException e) {
+            System.err.println("Error updating product: " + e.getMessage());
+            e.printStackTrace();
+            return UpdateResult.ERROR;
+        }
+    }
+
+    // The compare-and-set of tryUpdateProduct; stock is the value for the column
+    private boolean writeProduct(Product product, int stock) throws SQLException {
+        String updateSQL = "UPDATE products SET name = ?, price = ?, stock = ?, version = version + 1 WHERE product_id = ?" +
+                (product.getVersion() > 0 ? " AND version = ?" : "") + " RETURNING version";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(updateSQL)) {
             pstmt.setString(1, product.getName());
-            pstmt.setDouble(2, product.getPrice());
-            pstmt.setInt(3, product.getStock());
+            pstmt.setBigDecimal(2, product.getPrice().toDecimal());
+            pstmt.setInt(3, stock);
             pstmt.setInt(4, product.getProductId());
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            if (product.getVersion() > 0) {
+                pstmt.setInt(5, product.getVersion());
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    product.setVersion(rs.getInt("version"));
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+
+    /**
+     * Sets all prices in one transaction with one batched UPDATE, so a repricing of thousands of
+     * products is a single round trip and either fully visible or not at all. The price history
+     * trigger records each change in the same transaction.
+     */
+    @Override
+    public boolean updatePrices(Map<Integer, Money> prices) {
+        String updateSQL = "UPDATE products SET price = ?, version = version + 1 WHERE product_id = ?";
+        try {
+            getConnection().setAutoCommit(false);
+            inTransaction = true;
+            try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
+                for (Map.Entry<Integer, Money> entry : prices.entrySet()) {
+                    pstmt.setBigDecimal(1, entry.getValue().toDecimal());
+                    pstmt.setInt(2, entry.getKey());
+                    pstmt.addBatch();
+                }
+                for (int rowsAffected : pstmt.executeBatch()) {
+                    if (rowsAffected == 0) {
+                        connection.rollback(); // A product does not exist; change none
+                        return false;
+                    }
+                }
+            }
+            connection.commit();
+            priceHistory = null;
+            return true;
         } catch (SQLException e) {
-            System.err.println("Error updating product: " + e.getMessage());
+            System.err.println("Error updating prices (transaction rolled back): " + e.getMessage());
             e.printStackTrace();
+            try {
+                if (connection != null && !connection.isClosed()) connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error during rollback: " + ex.getMessage());
+            }
             return false;
+        } finally {
+            inTransaction = false;
+            try {
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error re-enabling auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public Money getPriceAt(int productId, LocalDate date) {
+        return getPriceHistory().getPriceAt(productId, date);
+    }
+
+    /**
+     * Returns the price history index, loading all of product_price_history with one query when it
+     * is missing or older than 30 seconds. This manager's own price changes drop it, so they are
+     * visible right away. If loading fails, the previous index (or an empty one) is returned.
+     */
+    @Override
+    public PriceHistory getPriceHistory() {
+        if (priceHistory != null && System.nanoTime() - priceHistoryLoadedNanos < PRICE_HISTORY_MAX_AGE_MILLIS * 1_000_000) {
+            return priceHistory;
+        }
+        String selectSQL = "SELECT product_id, valid_from, price FROM product_price_history ORDER BY product_id, valid_from";
+        try {
+            priceHistory = onReadConnection(conn -> {
+                PriceHistory.Builder history = new PriceHistory.Builder();
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(selectSQL)) {
+                    while (rs.next()) {
+                        history.add(rs.getInt("product_id"), rs.getDate("valid_from").toLocalDate(), Money.of(rs.getBigDecimal("price")));
+                    }
+                }
+                return history.build();
+            });
+            priceHistoryLoadedNanos = System.nanoTime();
+        } catch (SQLException e) {
+            System.err.println("Error loading price history: " + e.getMessage());
+            e.printStackTrace();
         }
+        return priceHistory != null ? priceHistory : new PriceHistory.Builder().build();
     }
 
     @Override
     public boolean deleteProduct(int productId) {
         String deleteSQL = "DELETE FROM products WHERE product_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSQL)) {
+        try (PreparedStatement pstmt = getConnection().prepareStatement(deleteSQL)) {
             pstmt.setInt(1, productId);
             int rowsAffected = pstmt.executeUpdate();
+            reconcileStock(productId);
             return rowsAffected > 0;
         } catch (SQLException e) {
             System.err.println("Error deleting product: " + e.getMessage());
@@ -191,13 +672,27 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
         }
     }
 
+    /**
+     * Tells whether deleteProduct would be refused because sales, archived sales or order lines
+     * reference the product; lets ShardedDataStore check every shard before deleting on any.
+     * @return true if the product is referenced, or if the check failed.
+     */
+    public boolean isProductReferenced(int productId) {
+        return isReferenced("SELECT EXISTS (SELECT 1 FROM sales WHERE product_id = ?) " +
+                "OR EXISTS (SELECT 1 FROM sales_archive WHERE product_id = ?) " +
+                "OR EXISTS (SELECT 1 FROM order_lines WHERE product_id = ?)", productId);
+    }
+
     @Override
     public boolean updateProductStock(int productId, int quantityChange) {
-        String updateSQL = "UPDATE products SET stock = stock + ? WHERE product_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
+        String updateSQL = "UPDATE products SET stock = stock + ?, version = version + 1 WHERE product_id = ?";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(updateSQL)) {
             pstmt.setInt(1, quantityChange);
             pstmt.setInt(2, productId);
             int rowsAffected = pstmt.executeUpdate();
+            if (!inTransaction) {
+                reconcileStock(productId); // Inside a sale transaction this happens after commit
+            }
             return rowsAffected > 0;
         } catch (SQLException e) {
             System.err.println("Error updating product stock: " + e.getMessage());
@@ -210,14 +705,21 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
 
     @Override
     public boolean addCustomer(Customer customer) {
-        String insertSQL = "INSERT INTO customers (first_name, last_name, email, phone) VALUES (?, ?, ?, ?)";
-        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+        String insertSQL = "INSERT INTO customers (first_name, last_name, email, phone, first_name_key, last_name_key) VALUES (?, ?, ?, ?, ?, ?) RETURNING customer_id";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(insertSQL)) {
             pstmt.setString(1, customer.getFirstName());
             pstmt.setString(2, customer.getLastName());
             pstmt.setString(3, customer.getEmail());
             pstmt.setString(4, customer.getPhone());
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            pstmt.setString(5, CustomerMatcher.soundex(customer.getFirstName()));
+            pstmt.setString(6, CustomerMatcher.soundex(customer.getLastName()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    customer.setCustomerId(rs.getInt("customer_id")); // Needed to copy the customer to other shards
+                    return true;
+                }
+            }
+            return false;
         } catch (SQLException e) {
             System.err.println("Error adding customer: " + e.getMessage());
             e.printStackTrace();
@@ -225,21 +727,41 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
         }
     }
 
+    /**
+     * Inserts or overwrites a customer under its existing ID; used to keep the reference data of shards identical.
+     */
+    public boolean replicateCustomer(Customer customer) {
+        String upsertSQL = "INSERT INTO customers (customer_id, first_name, last_name, email, phone, first_name_key, last_name_key) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?) ON CONFLICT (customer_id) DO UPDATE SET first_name = EXCLUDED.first_name, " +
+                "last_name = EXCLUDED.last_name, email = EXCLUDED.email, phone = EXCLUDED.phone, " +
+                "first_name_key = EXCLUDED.first_name_key, last_name_key = EXCLUDED.last_name_key, version = customers.version + 1";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(upsertSQL)) {
+            pstmt.setInt(1, customer.getCustomerId());
+            pstmt.setString(2, customer.getFirstName());
+            pstmt.setString(3, customer.getLastName());
+            pstmt.setString(4, customer.getEmail());
+            pstmt.setString(5, customer.getPhone());
+            pstmt.setString(6, CustomerMatcher.soundex(customer.getFirstName()));
+            pstmt.setString(7, CustomerMatcher.soundex(customer.getLastName()));
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            System.err.println("Error replicating customer: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     @Override
     public Customer getCustomerById(int customerId) {
-        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone FROM customers WHERE customer_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            pstmt.setInt(1, customerId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return new Customer(
-                        rs.getInt("customer_id"),
-                        rs.getString("first_name"),
-                        rs.getString("last_name"),
-                        rs.getString("email"),
-                        rs.getString("phone")
-                );
-            }
+        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone, version FROM customers WHERE customer_id = ?";
+        try {
+            return onReadConnection(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    pstmt.setInt(1, customerId);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() ? readCustomer(rs) : null;
+                }
+            });
         } catch (SQLException e) {
             System.err.println("Error getting customer by ID: " + e.getMessage());
             e.printStackTrace();
@@ -249,48 +771,92 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
 
     @Override
     public List<Customer> getAllCustomers() {
-        List<Customer> customers = new ArrayList<>();
-        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone FROM customers ORDER BY customer_id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(selectSQL)) {
-            while (rs.next()) {
-                customers.add(new Customer(
-                        rs.getInt("customer_id"),
-                        rs.getString("first_name"),
-                        rs.getString("last_name"),
-                        rs.getString("email"),
-                        rs.getString("phone")
-                ));
-            }
+        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone, version FROM customers ORDER BY customer_id";
+        try {
+            return onReadConnection(conn -> {
+                List<Customer> customers = new ArrayList<>();
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(selectSQL)) {
+                    while (rs.next()) {
+                        customers.add(readCustomer(rs));
+                    }
+                }
+                return customers;
+            });
         } catch (SQLException e) {
             System.err.println("Error retrieving customers: " + e.getMessage());
             e.printStackTrace();
         }
-        return customers;
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Customer> queryCustomers(QuerySpec spec) {
+        List<Object> params = new ArrayList<>();
+        String selectSQL = QueryColumns.CUSTOMERS.toSql("SELECT customer_id, first_name, last_name, email, phone, version FROM customers", spec, params);
+        try {
+            return onReadConnection(conn -> {
+                List<Customer> customers = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    QueryColumns.bind(pstmt, params);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            customers.add(readCustomer(rs));
+                        }
+                    }
+                }
+                return customers;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error querying customers: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
     }
 
     @Override
     public boolean updateCustomer(Customer customer) {
-        String updateSQL = "UPDATE customers SET first_name = ?, last_name = ?, email = ?, phone = ? WHERE customer_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
+        return tryUpdateCustomer(customer) == UpdateResult.SUCCESS;
+    }
+
+    /**
+     * Updates a customer only if it still has the version it was read with.
+     * A customer without a version (0) is written unconditionally.
+     */
+    @Override
+    public UpdateResult tryUpdateCustomer(Customer customer) {
+        String updateSQL = "UPDATE customers SET first_name = ?, last_name = ?, email = ?, phone = ?, first_name_key = ?, last_name_key = ?, " +
+                "version = version + 1 WHERE customer_id = ?" + (customer.getVersion() > 0 ? " AND version = ?" : "") + " RETURNING version";
+        try (PreparedStatement pstmt = getConnection().prepareStatement(updateSQL)) {
             pstmt.setString(1, customer.getFirstName());
             pstmt.setString(2, customer.getLastName());
             pstmt.setString(3, customer.getEmail());
             pstmt.setString(4, customer.getPhone());
-            pstmt.setInt(5, customer.getCustomerId());
-            int rowsAffected = pstmt.executeUpdate();
-            return rowsAffected > 0;
+            pstmt.setString(5, CustomerMatcher.soundex(customer.getFirstName()));
+            pstmt.setString(6, CustomerMatcher.soundex(customer.getLastName()));
+            pstmt.setInt(7, customer.getCustomerId());
+            if (customer.getVersion() > 0) {
+                pstmt.setInt(8, customer.getVersion());
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (rs.next()) {
+                    customer.setVersion(rs.getInt("version"));
+                    return UpdateResult.SUCCESS;
+                }
+            }
+            return rowExists("SELECT 1 FROM customers WHERE customer_id = ?", customer.getCustomerId())
+                    ? UpdateResult.CONFLICT : UpdateResult.NOT_FOUND;
         } catch (SQLException e) {
             System.err.println("Error updating customer: " + e.getMessage());
             e.printStackTrace();
-            return false;
+            return UpdateResult.ERROR;
         }
     }
 
     @Override
     public boolean deleteCustomer(int customerId) {
         String deleteSQL = "DELETE FROM customers WHERE customer_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(deleteSQL)) {
+        try (PreparedStatement pstmt = getConnection().prepareStatement(deleteSQL)) {
             pstmt.setInt(1, customerId);
             int rowsAffected = pstmt.executeUpdate();
             return rowsAffected > 0;
@@ -301,22 +867,29 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
         }
     }
 
+    /**
+     * Tells whether deleteCustomer would be refused because sales, archived sales or orders
+     * reference the customer; lets ShardedDataStore check every shard before deleting on any.
+     * @return true if the customer is referenced, or if the check failed.
+     */
+    public boolean isCustomerReferenced(int customerId) {
+        return isReferenced("SELECT EXISTS (SELECT 1 FROM sales WHERE customer_id = ?) " +
+                "OR EXISTS (SELECT 1 FROM sales_archive WHERE customer_id = ?) " +
+                "OR EXISTS (SELECT 1 FROM orders WHERE customer_id = ?)", customerId);
+    }
+
     @Override
     public Customer getCustomerByName(String firstName, String lastName) {
-        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone FROM customers WHERE first_name = ? AND last_name = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            pstmt.setString(1, firstName);
-            pstmt.setString(2, lastName);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return new Customer(
-                        rs.getInt("customer_id"),
-                        rs.getString("first_name"),
-                        rs.getString("last_name"),
-                        rs.getString("email"),
-                        rs.getString("phone")
-                );
-            }
+        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone, version FROM customers WHERE first_name = ? AND last_name = ?";
+        try {
+            return onReadConnection(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    pstmt.setString(1, firstName);
+                    pstmt.setString(2, lastName);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() ? readCustomer(rs) : null;
+                }
+            });
         } catch (SQLException e) {
             System.err.println("Error getting customer by name: " + e.getMessage());
             e.printStackTrace();
@@ -324,13 +897,89 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
         return null;
     }
 
+    /**
+     * Finds customers similar to the probe. Candidates are narrowed with the indexed phonetic name keys
+     * (in both name orders) and the email address, then scored with CustomerMatcher.
+     */
+    @Override
+    public List<CustomerMatcher.Match> findSimilarCustomers(Customer probe, int limit) {
+        String firstKey = CustomerMatcher.soundex(probe.getFirstName());
+        String lastKey = CustomerMatcher.soundex(probe.getLastName());
+        String selectSQL = "SELECT customer_id, first_name, last_name, email, phone, version FROM customers " +
+                "WHERE (last_name_key = ? AND first_name_key = ?) OR (last_name_key = ? AND first_name_key = ?) OR email = ? " +
+                "LIMIT " + MAX_SIMILAR_CANDIDATES;
+        List<Customer> candidates = new ArrayList<>();
+        try {
+            candidates = onReadConnection(conn -> {
+                List<Customer> found = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    pstmt.setString(1, lastKey);
+                    pstmt.setString(2, firstKey);
+                    pstmt.setString(3, firstKey); // Swapped first and last name
+                    pstmt.setString(4, lastKey);
+                    pstmt.setString(5, probe.getEmail() == null ? "" : probe.getEmail().trim());
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            found.add(readCustomer(rs));
+                        }
+                    }
+                }
+                return found;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error finding similar customers: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return CustomerMatcher.rank(probe, candidates, CustomerMatcher.LOOKUP_THRESHOLD, limit);
+    }
+
+    // Computes the phonetic keys of customers created before the key columns existed
+    private void backfillCustomerNameKeys() throws SQLException {
+        String selectSQL = "SELECT customer_id, first_name, last_name FROM customers WHERE last_name_key IS NULL";
+        String updateSQL = "UPDATE customers SET first_name_key = ?, last_name_key = ? WHERE customer_id = ?";
+        int updated = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(selectSQL);
+             PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
+            while (rs.next()) {
+                pstmt.setString(1, CustomerMatcher.soundex(rs.getString("first_name")));
+                pstmt.setString(2, CustomerMatcher.soundex(rs.getString("last_name")));
+                pstmt.setInt(3, rs.getInt("customer_id"));
+                pstmt.addBatch();
+                if (++updated % 1000 == 0) {
+                    pstmt.executeBatch();
+                }
+            }
+            pstmt.executeBatch();
+        }
+        if (updated > 0) {
+            System.out.println("Computed phonetic name keys for " + updated + " customer(s).");
+        }
+    }
+
     // --- Sale DAO Implementation ---
 
     @Override
     public boolean addSale(Sale sale) {
+        // While earlier offline sales are pending, this one queues behind them to keep the order. The till
+        // never waits for the database here: the replay thread is asked for a pass right away, and once it
+        // has caught up, sales are booked (and their stock checked) directly again
+        if (salesJournal != null && salesJournal.getPendingCount() > 0) {
+            boolean journaled = journalSale(sale);
+            salesJournal.requestReplay();
+            return journaled;
+        }
+        if (inventoryService != null) {
+            return addSaleWithReservation(sale);
+        }
+        boolean committing = false;
+        boolean committed = false;
+        FlightEvents.SaleTransaction transaction = FlightEvents.SaleTransaction.begin("addSale");
         // Start a transaction for atomicity (sale + stock update)
         try {
-            connection.setAutoCommit(false); // Disable auto-commit
+            ensureSalesPartition(getConnection(), sale.getSaleDate());
+            getConnection().setAutoCommit(false); // Disable auto-commit
+            inTransaction = true;
 
             // 1. Check product stock
             Product product = getProductById(sale.getProductId());
@@ -341,14 +990,15 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
             }
 
             // 2. Insert sale record
-            String insertSQL = "INSERT INTO sales (product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date) VALUES (?, ?, ?, ?, ?, ?)";
+            String insertSQL = "INSERT INTO sales (product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date, store_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
             try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
                 pstmt.setInt(1, sale.getProductId());
                 pstmt.setInt(2, sale.getCustomerId());
                 pstmt.setInt(3, sale.getQuantity());
-                pstmt.setDouble(4, sale.getUnitPriceAtSale());
-                pstmt.setDouble(5, sale.getTotalSalePrice());
+                pstmt.setBigDecimal(4, sale.getUnitPriceAtSale().toDecimal());
+                pstmt.setBigDecimal(5, sale.getTotalSalePrice().toDecimal());
                 pstmt.setDate(6, Date.valueOf(sale.getSaleDate()));
+                pstmt.setInt(7, sale.getStoreId());
                 int rowsAffected = pstmt.executeUpdate();
 
                 if (rowsAffected == 0) {
@@ -363,86 +1013,455 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
                 return false;
             }
 
+            committing = true;
             connection.commit(); // Commit transaction if all successful
+            committed = true;
             return true;
         } catch (SQLException e) {
             System.err.println("Error adding sale (transaction rolled back): " + e.getMessage());
             try {
-                if (connection != null) connection.rollback();
+                if (connection != null && !connection.isClosed()) connection.rollback();
             } catch (SQLException ex) {
                 System.err.println("Error during rollback: " + ex.getMessage());
             }
+            // The database is unreachable: keep the till running on the offline journal.
+            // A failure during commit is not journaled, since the sale may already be stored.
+            if (!committing && isConnectionFailure(e)) {
+                return journalSale(sale);
+            }
             e.printStackTrace();
             return false;
         } finally {
+            transaction.finish(sale.getSaleId(), sale.getProductId(), committed);
+            inTransaction = false;
             try {
-                if (connection != null) connection.setAutoCommit(true); // Re-enable auto-commit
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true); // Re-enable auto-commit
             } catch (SQLException e) {
                 System.err.println("Error re-enabling auto-commit: " + e.getMessage());
             }
         }
     }
 
+    /**
+     * Claims the key first, in the sale's own transaction: a concurrent call with the same key waits on
+     * the claim until this one commits or rolls back, then either finds the stored sale or claims the key
+     * itself. Stock is checked and decreased in one conditional UPDATE after the claim, so a duplicate never
+     * touches it. Keyed sales bypass the offline journal; while the database is down the caller keeps
+     * the key and retries.
+     */
     @Override
-    public Sale getSaleById(int saleId) {
-        String selectSQL = "SELECT sale_id, product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date FROM sales WHERE sale_id = ?";
-        try (PreparedStatement pstmt = connection.prepareStatement(selectSQL)) {
-            pstmt.setInt(1, saleId);
-            ResultSet rs = pstmt.executeQuery();
-            if (rs.next()) {
-                return new Sale(
-                        rs.getInt("sale_id"),
-                        rs.getInt("product_id"),
-                        rs.getInt("customer_id"),
-                        rs.getInt("quantity"),
-                        rs.getDouble("unit_price_at_sale"),
-                        rs.getDouble("total_sale_price"),
-                        rs.getDate("sale_date").toLocalDate()
-                );
+    public SaleSubmission submitSale(Sale sale, String idempotencyKey) {
+        SaleSubmission.checkKey(idempotencyKey);
+        String claimSQL = "INSERT INTO sale_submissions (idempotency_key, submitted_at) VALUES (?, CURRENT_TIMESTAMP) ON CONFLICT (idempotency_key) DO NOTHING";
+        String findSQL = "SELECT sale_id FROM sale_submissions WHERE idempotency_key = ?";
+        String stockSQL = "UPDATE products SET stock = stock - ?, version = version + 1 WHERE product_id = ? AND stock >= ?";
+        String insertSQL = "INSERT INTO sales (product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date, store_id) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING sale_id";
+        String recordSQL = "UPDATE sale_submissions SET sale_id = ? WHERE idempotency_key = ?";
+        boolean reserved = false;
+        boolean committed = false;
+        FlightEvents.SaleTransaction transaction = FlightEvents.SaleTransaction.begin("submitSale");
+        try {
+            ensureSalesPartition(getConnection(), sale.getSaleDate());
+            getConnection().setAutoCommit(false);
+            inTransaction = true;
+
+            // 1. Claim the key; an existing key means an earlier call stored the sale
+            try (PreparedStatement claim = connection.prepareStatement(claimSQL)) {
+                claim.setString(1, idempotencyKey);
+                if (claim.executeUpdate() == 0) {
+                    Integer originalId = null;
+                    try (PreparedStatement find = connection.prepareStatement(findSQL)) {
+                        find.setString(1, idempotencyKey);
+                        try (ResultSet rs = find.executeQuery()) {
+                            if (rs.next()) {
+                                originalId = (Integer) rs.getObject("sale_id");
+                            }
+                        }
+                    }
+                    connection.rollback(); // Nothing was changed
+                    return SaleSubmission.duplicate(originalId != null ? getSaleById(originalId) : null);
+                }
+            }
+
+            // 2. Check and decrease stock (reserve it, when the inventory service owns stock)
+            if (inventoryService != null) {
+                reserved = inventoryService.reserve(sale.getProductId(), sale.getQuantity());
+                if (!reserved) {
+                    System.err.println("Insufficient stock for product ID: " + sale.getProductId());
+                    connection.rollback();
+                    return null;
+                }
+            } else {
+                try (PreparedStatement stock = connection.prepareStatement(stockSQL)) {
+                    stock.setInt(1, sale.getQuantity());
+                    stock.setInt(2, sale.getProductId());
+                    stock.setInt(3, sale.getQuantity());
+                    if (stock.executeUpdate() == 0) {
+                        System.err.println("Insufficient stock for product ID: " + sale.getProductId());
+                        connection.rollback();
+                        return null;
+                    }
+                }
+            }
+
+            // 3. Insert the sale record and 4. remember its ID under the key
+            int saleId;
+            try (PreparedStatement insert = connection.prepareStatement(insertSQL)) {
+                insert.setInt(1, sale.getProductId());
+                insert.setInt(2, sale.getCustomerId());
+                insert.setInt(3, sale.getQuantity());
+                insert.setBigDecimal(4, sale.getUnitPriceAtSale().toDecimal());
+                insert.setBigDecimal(5, sale.getTotalSalePrice().toDecimal());
+                insert.setDate(6, Date.valueOf(sale.getSaleDate()));
+                insert.setInt(7, sale.getStoreId());
+                try (ResultSet rs = insert.executeQuery()) {
+                    rs.next();
+                    saleId = rs.getInt("sale_id");
+                }
+            }
+            try (PreparedStatement record = connection.prepareStatement(recordSQL)) {
+                record.setInt(1, saleId);
+                record.setString(2, idempotencyKey);
+                record.executeUpdate();
             }
+
+            connection.commit();
+            committed = true;
+            sale.setSaleId(saleId);
+            return SaleSubmission.created(sale);
         } catch (SQLException e) {
-            System.err.println("Error getting sale by ID: " + e.getMessage());
+            System.err.println("Error submitting sale (transaction rolled back): " + e.getMessage());
             e.printStackTrace();
+            try {
+                if (connection != null && !connection.isClosed()) connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error during rollback: " + ex.getMessage());
+            }
+            return null;
+        } finally {
+            transaction.finish(sale.getSaleId(), sale.getProductId(), committed);
+            if (reserved && !committed) {
+                inventoryService.release(sale.getProductId(), sale.getQuantity());
+            }
+            inTransaction = false;
+            try {
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error re-enabling auto-commit: " + e.getMessage());
+            }
         }
-        return null;
     }
 
     @Override
-    public List<Sale> getAllSales() {
-        List<Sale> sales = new ArrayList<>();
-        String selectSQL = "SELECT sale_id, product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date FROM sales ORDER BY sale_id";
-        try (Statement stmt = connection.createStatement();
-             ResultSet rs = stmt.executeQuery(selectSQL)) {
-            while (rs.next()) {
-                sales.add(new Sale(
-                        rs.getInt("sale_id"),
-                        rs.getInt("product_id"),
-                        rs.getInt("customer_id"),
-                        rs.getInt("quantity"),
-                        rs.getDouble("unit_price_at_sale"),
-                        rs.getDouble("total_sale_price"),
-                        rs.getDate("sale_date").toLocalDate()
-                ));
-            }
+    public Sale getSaleById(int saleId) {
+        // The archive branch only runs when the sale is not in the hot table (LIMIT 1 stops the append early)
+        String selectSQL = "SELECT " + SALE_READ_COLUMNS + " FROM sales WHERE sale_id = ? " +
+                "UNION ALL SELECT " + SALE_READ_COLUMNS + " FROM sales_archive WHERE sale_id = ? LIMIT 1";
+        try {
+            return onReadConnection(conn -> {
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    pstmt.setInt(1, saleId);
+                    pstmt.setInt(2, saleId);
+                    ResultSet rs = pstmt.executeQuery();
+                    return rs.next() ? readSale(rs) : null;
+                }
+            });
+        } catch (SQLException e) {
+            System.err.println("Error getting sale by ID: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return null;
+    }
+
+    @Override
+    public List<Sale> getAllSales() {
+        String selectSQL = "SELECT " + SALE_READ_COLUMNS + " FROM sales UNION ALL SELECT " + SALE_READ_COLUMNS + " FROM sales_archive ORDER BY sale_id";
+        try {
+            return onReadConnection(conn -> {
+                List<Sale> sales = new ArrayList<>();
+                try (Statement stmt = conn.createStatement();
+                     ResultSet rs = stmt.executeQuery(selectSQL)) {
+                    while (rs.next()) {
+                        sales.add(readSale(rs));
+                    }
+                }
+                return sales;
+            });
         } catch (SQLException e) {
             System.err.println("Error retrieving sales: " + e.getMessage());
             e.printStackTrace();
         }
-        return sales;
+        return new ArrayList<>();
+    }
+
+    @Override
+    public List<Sale> querySales(QuerySpec spec) {
+        List<Object> params = new ArrayList<>();
+        String selectSQL = querySalesSql(spec, params);
+        try {
+            return onReadConnection(conn -> {
+                List<Sale> sales = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    QueryColumns.bind(pstmt, params);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            sales.add(readSale(rs));
+                        }
+                    }
+                }
+                return sales;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error querying sales: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Builds the statement of querySales; PartitionPruningCheck runs EXPLAIN on it.
+     * @param params Receives the values to bind, in placeholder order.
+     */
+    static String querySalesSql(QuerySpec spec, List<Object> params) {
+        // The archive branch is skipped (one-time filter) unless the date range starts before the archive horizon;
+        // the horizon is read in the same statement, so a concurrent archiver pass cannot hide rows
+        String archiveCondition = "";
+        LocalDate from = earliestSaleDate(spec);
+        if (from != null) {
+            archiveCondition = " WHERE ? < (SELECT archived_before FROM sales_archive_state)";
+            params.add(from);
+        }
+        String salesSource = "(SELECT " + SALE_READ_COLUMNS + " FROM sales UNION ALL SELECT " + SALE_READ_COLUMNS +
+                " FROM sales_archive" + archiveCondition + ") AS all_sales";
+        return QueryColumns.SALES.toSql("SELECT " + SALE_READ_COLUMNS + " FROM " + salesSource, spec, params);
+    }
+
+    /**
+     * Joins the names in the same statement as querySales, so one round trip returns a page that needs no
+     * product or customer map. Filters on sale columns are pushed below the joins and keep using the sales
+     * indexes; the archive is skipped the same way as in querySales.
+     */
+    @Override
+    public List<SaleView> querySaleViews(QuerySpec spec) {
+        List<Object> params = new ArrayList<>();
+        String archiveCondition = "";
+        LocalDate from = earliestSaleDate(spec);
+        if (from != null) {
+            archiveCondition = " WHERE ? < (SELECT archived_before FROM sales_archive_state)";
+            params.add(from);
+        }
+        String viewsSource = "(SELECT s.*, p.name AS product_name, c.first_name || ' ' || c.last_name AS customer_name " +
+                "FROM (SELECT " + SALE_READ_COLUMNS + " FROM sales UNION ALL SELECT " + SALE_READ_COLUMNS +
+                " FROM sales_archive" + archiveCondition + ") AS s " +
+                "LEFT JOIN products p ON p.product_id = s.product_id " +
+                "LEFT JOIN customers c ON c.customer_id = s.customer_id) AS sale_views";
+        String selectSQL = QueryColumns.SALE_VIEWS.toSql("SELECT * FROM " + viewsSource, spec, params);
+        try {
+            return onReadConnection(conn -> {
+                List<SaleView> views = new ArrayList<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    QueryColumns.bind(pstmt, params);
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            views.add(new SaleView(readSale(rs), rs.getString("product_name"), rs.getString("customer_name")));
+                        }
+                    }
+                }
+                return views;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error querying sale views: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    /**
+     * Aggregates in the database and streams the rows with a cursor, so years of sales never have to
+     * fit in memory. The archive is read only if the range starts before the archive horizon.
+     */
+    @Override
+    public boolean forEachDailyUnits(LocalDate from, LocalDate to, DailyUnitsConsumer consumer) {
+        String selectSQL = "SELECT product_id, sale_date, SUM(quantity) FROM (" +
+                "SELECT product_id, sale_date, quantity FROM sales WHERE sale_date BETWEEN ? AND ? " +
+                "UNION ALL SELECT product_id, sale_date, quantity FROM sales_archive WHERE sale_date BETWEEN ? AND ? " +
+                "AND ? < (SELECT archived_before FROM sales_archive_state)) AS all_sales " +
+                "GROUP BY product_id, sale_date ORDER BY product_id, sale_date";
+        long[] delivered = new long[1];
+        try {
+            return onReadConnection(conn -> {
+                if (delivered[0] > 0) {
+                    // onReadConnection retries on the primary, but the consumer has already seen part of the rows
+                    throw new SQLException("Reading daily units failed after " + delivered[0] + " rows; not retried.");
+                }
+                // The driver only streams with a cursor inside a transaction
+                boolean autoCommit = conn.getAutoCommit();
+                if (autoCommit) {
+                    conn.setAutoCommit(false);
+                }
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    pstmt.setFetchSize(10000);
+                    pstmt.setDate(1, Date.valueOf(from));
+                    pstmt.setDate(2, Date.valueOf(to));
+                    pstmt.setDate(3, Date.valueOf(from));
+                    pstmt.setDate(4, Date.valueOf(to));
+                    pstmt.setDate(5, Date.valueOf(from));
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            consumer.accept(rs.getInt(1), rs.getDate(2).toLocalDate(), rs.getLong(3));
+                            delivered[0]++;
+                        }
+                    }
+                } finally {
+                    if (autoCommit) {
+                        conn.rollback(); // Read only; ends the cursor's transaction
+                        conn.setAutoCommit(true);
+                    }
+                }
+                return true;
+            });
+        } catch (SQLException e) {
+            System.err.println("Error reading daily units sold: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Creates the monthly partition of 'sales' that holds the given date, unless it is known to exist.
+     * Must not run inside a sale transaction, since creating a partition locks the whole table briefly.
+     * @param conn The connection to use.
+     * @param date A sale date about to be inserted.
+     * @throws SQLException if the partition cannot be created.
+     */
+    private static void ensureSalesPartition(Connection conn, LocalDate date) throws SQLException {
+        YearMonth month = YearMonth.from(date);
+        String partitionKey = conn.getMetaData().getURL() + " " + month; // Shards are separate databases
+        if (knownSalesPartitions.contains(partitionKey)) {
+            return;
+        }
+        String createPartitionSQL = String.format("CREATE TABLE IF NOT EXISTS sales_y%04dm%02d PARTITION OF sales FOR VALUES FROM ('%s') TO ('%s')",
+                month.getYear(), month.getMonthValue(), month.atDay(1), month.plusMonths(1).atDay(1));
+        try (Statement stmt = conn.createStatement()) {
+            stmt.execute(createPartitionSQL);
+        } catch (SQLException e) {
+            // Another manager created it at the same moment (IF NOT EXISTS does not cover that race)
+            if (!"42P07".equals(e.getSQLState()) && !"23505".equals(e.getSQLState())) {
+                throw e;
+            }
+        }
+        knownSalesPartitions.add(partitionKey);
+    }
+
+    /**
+     * Converts an unpartitioned 'sales' table from older versions into the partitioned layout, in one transaction.
+     * Sale IDs and the ID sequence are kept.
+     */
+    private void migrateSalesToPartitions() throws SQLException {
+        String relkindSQL = "SELECT relkind FROM pg_class WHERE oid = to_regclass('sales')";
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery(relkindSQL)) {
+            if (!rs.next() || !"r".equals(rs.getString("relkind"))) {
+                return; // No sales table yet, or already partitioned
+            }
+        }
+        System.out.println("Migrating the sales table to monthly partitions...");
+        connection.setAutoCommit(false);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("ALTER TABLE sales RENAME TO sales_unpartitioned");
+            stmt.execute("ALTER INDEX IF EXISTS sales_pkey RENAME TO sales_unpartitioned_pkey");
+            stmt.execute("ALTER SEQUENCE sales_sale_id_seq OWNED BY NONE"); // Keep the sequence when the old table is dropped
+            stmt.execute("CREATE TABLE sales (" + SALES_COLUMN_DEFINITIONS + ") PARTITION BY RANGE (sale_date)");
+            List<LocalDate> months = new ArrayList<>();
+            try (ResultSet rs = stmt.executeQuery("SELECT DISTINCT date_trunc('month', sale_date)::date AS month FROM sales_unpartitioned")) {
+                while (rs.next()) {
+                    months.add(rs.getDate("month").toLocalDate());
+                }
+            }
+            for (LocalDate month : months) {
+                ensureSalesPartition(connection, month);
+            }
+            int moved = stmt.executeUpdate("INSERT INTO sales (" + SALE_COLUMNS + ") SELECT " + SALE_COLUMNS + " FROM sales_unpartitioned");
+            stmt.execute("DROP TABLE sales_unpartitioned"); // Its indexes go with it and are recreated on the new table
+            connection.commit();
+            System.out.println("Moved " + moved + " sales into " + months.size() + " monthly partitions.");
+        } catch (SQLException e) {
+            connection.rollback();
+            knownSalesPartitions.clear(); // Partitions created in the rolled back transaction are gone
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    // The earliest sale date a spec can match, or null when it has no lower bound on saleDate
+    private static LocalDate earliestSaleDate(QuerySpec spec) {
+        LocalDate earliest = null;
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            if (!filter.getField().equals("saleDate")) {
+                continue;
+            }
+            LocalDate bound = null;
+            switch (filter.getOp()) {
+                case EQ:
+                case GE:
+                case GT:
+                    if (filter.getValue() instanceof LocalDate) {
+                        bound = (LocalDate) filter.getValue();
+                    }
+                    break;
+                case IN:
+                    for (Object value : (java.util.Collection<?>) filter.getValue()) {
+                        if (!(value instanceof LocalDate)) {
+                            return null; // Unknown value type: do not risk skipping the archive
+                        }
+                        LocalDate date = (LocalDate) value;
+                        if (bound == null || date.isBefore(bound)) bound = date;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            // All filters must hold, so the latest lower bound wins
+            if (bound != null && (earliest == null || bound.isAfter(earliest))) {
+                earliest = bound;
+            }
+        }
+        return earliest;
     }
 
     @Override
     public boolean updateSale(Sale sale) {
+        return tryUpdateSale(sale) == UpdateResult.SUCCESS;
+    }
+
+    /**
+     * Updates a sale only if it still has the version it was read with, and adjusts stock by the quantity change.
+     * Without a version (0) the sale is checked against the version read inside the transaction, so the
+     * stock adjustment always matches the row that is replaced.
+     */
+    @Override
+    public UpdateResult tryUpdateSale(Sale sale) {
+        boolean committed = false;
+        FlightEvents.SaleTransaction transaction = FlightEvents.SaleTransaction.begin("updateSale");
         // Start a transaction for atomicity (sale update + stock adjustment)
         try {
-            connection.setAutoCommit(false); // Disable auto-commit
+            ensureSalesPartition(getConnection(), sale.getSaleDate()); // A new date may move the sale to another partition
+            getConnection().setAutoCommit(false); // Disable auto-commit
+            inTransaction = true;
+            int newVersion;
 
             // 1. Get old sale details to calculate stock difference
             Sale oldSale = getSaleById(sale.getSaleId());
             if (oldSale == null) {
                 System.err.println("Sale with ID " + sale.getSaleId() + " not found for update.");
                 connection.rollback();
-                return false;
+                return UpdateResult.NOT_FOUND;
+            }
+            int expectedVersion = sale.getVersion() > 0 ? sale.getVersion() : oldSale.getVersion();
+            if (expectedVersion != oldSale.getVersion()) {
+                connection.rollback();
+                return UpdateResult.CONFLICT;
             }
 
             int oldQuantity = oldSale.getQuantity();
@@ -455,25 +1474,32 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
                 if (product == null || product.getStock() < quantityDifference) {
                     System.err.println("Insufficient stock to increase quantity for product ID: " + sale.getProductId());
                     connection.rollback();
-                    return false;
+                    return UpdateResult.ERROR;
                 }
             }
 
-            // 3. Update sale record
-            String updateSQL = "UPDATE sales SET product_id = ?, customer_id = ?, quantity = ?, unit_price_at_sale = ?, total_sale_price = ?, sale_date = ? WHERE sale_id = ?";
+            // 3. Update sale record (compare-and-set on the version)
+            String updateSQL = "UPDATE sales SET product_id = ?, customer_id = ?, quantity = ?, unit_price_at_sale = ?, total_sale_price = ?, sale_date = ?, " +
+                    "version = version + 1 WHERE sale_id = ? AND version = ? RETURNING version";
             try (PreparedStatement pstmt = connection.prepareStatement(updateSQL)) {
                 pstmt.setInt(1, sale.getProductId());
                 pstmt.setInt(2, sale.getCustomerId());
                 pstmt.setInt(3, sale.getQuantity());
-                pstmt.setDouble(4, sale.getUnitPriceAtSale());
-                pstmt.setDouble(5, sale.getTotalSalePrice());
+                pstmt.setBigDecimal(4, sale.getUnitPriceAtSale().toDecimal());
+                pstmt.setBigDecimal(5, sale.getTotalSalePrice().toDecimal());
                 pstmt.setDate(6, Date.valueOf(sale.getSaleDate()));
                 pstmt.setInt(7, sale.getSaleId());
-                int rowsAffected = pstmt.executeUpdate();
-
-                if (rowsAffected == 0) {
-                    connection.rollback();
-                    return false;
+                pstmt.setInt(8, expectedVersion);
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    if (!rs.next()) {
+                        connection.rollback();
+                        if (!rowExists("SELECT 1 FROM sales WHERE sale_id = ?", sale.getSaleId())) {
+                            System.err.println("Sale with ID " + sale.getSaleId() + " is archived and can no longer be changed.");
+                            return UpdateResult.ERROR;
+                        }
+                        return UpdateResult.CONFLICT;
+                    }
+                    newVersion = rs.getInt("version");
                 }
             }
 
@@ -481,12 +1507,15 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
             if (quantityDifference != 0) { // Only update stock if quantity changed
                 if (!updateProductStock(sale.getProductId(), -quantityDifference)) { // Decrease stock by difference
                     connection.rollback();
-                    return false;
+                    return UpdateResult.ERROR;
                 }
             }
 
             connection.commit(); // Commit transaction
-            return true;
+            committed = true;
+            sale.setVersion(newVersion);
+            reconcileStock(sale.getProductId());
+            return UpdateResult.SUCCESS;
         } catch (SQLException e) {
             System.err.println("Error updating sale (transaction rolled back): " + e.getMessage());
             try {
@@ -495,10 +1524,12 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
                 System.err.println("Error during rollback: " + ex.getMessage());
             }
             e.printStackTrace();
-            return false;
+            return UpdateResult.ERROR;
         } finally {
+            transaction.finish(sale.getSaleId(), sale.getProductId(), committed);
+            inTransaction = false;
             try {
-                if (connection != null) connection.setAutoCommit(true); // Re-enable auto-commit
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true); // Re-enable auto-commit
             } catch (SQLException e) {
                 System.err.println("Error re-enabling auto-commit: " + e.getMessage());
             }
@@ -507,9 +1538,13 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
 
     @Override
     public boolean deleteSale(int saleId) {
+        boolean committed = false;
+        int productId = 0;
+        FlightEvents.SaleTransaction transaction = FlightEvents.SaleTransaction.begin("deleteSale");
         // Start a transaction for atomicity (sale deletion + stock return)
         try {
-            connection.setAutoCommit(false); // Disable auto-commit
+            getConnection().setAutoCommit(false); // Disable auto-commit
+            inTransaction = true;
 
             // 1. Get sale details to return stock
             Sale saleToDelete = getSaleById(saleId);
@@ -518,6 +1553,7 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
                 connection.rollback();
                 return false;
             }
+            productId = saleToDelete.getProductId();
 
             // 2. Delete sale record
             String deleteSQL = "DELETE FROM sales WHERE sale_id = ?";
@@ -526,6 +1562,7 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
                 int rowsAffected = pstmt.executeUpdate();
 
                 if (rowsAffected == 0) {
+                    System.err.println("Sale with ID " + saleId + " is archived and can no longer be deleted.");
                     connection.rollback();
                     return false;
                 }
@@ -538,6 +1575,8 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
             }
 
             connection.commit(); // Commit transaction
+            committed = true;
+            reconcileStock(saleToDelete.getProductId());
             return true;
         } catch (SQLException e) {
             System.err.println("Error deleting sale (transaction rolled back): " + e.getMessage());
@@ -549,18 +1588,711 @@ public class DatabaseManager implements IProductDAO, ICustomerDAO, ISaleDAO {
             e.printStackTrace();
             return false;
         } finally {
+            transaction.finish(saleId, productId, committed);
+            inTransaction = false;
+            try {
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true); // Re-enable auto-commit
+            } catch (SQLException e) {
+                System.err.println("Error re-enabling auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    // --- Order DAO Implementation ---
+
+    @Override
+    public boolean placeOrder(Order order) {
+        if (order.getLines().isEmpty()) {
+            System.err.println("Cannot place an order without lines.");
+            return false;
+        }
+        // Total quantity per product, sorted by ID so concurrent orders lock rows in the same order
+        Map<Integer, Integer> quantityByProduct = new TreeMap<>();
+        for (OrderLine line : order.getLines()) {
+            if (line.getQuantity() <= 0) {
+                System.err.println("Order line quantity must be positive for product ID: " + line.getProductId());
+                return false;
+            }
+            quantityByProduct.merge(line.getProductId(), line.getQuantity(), Integer::sum);
+        }
+        // With an inventory service the stock is reserved there, like for single sales, and the flush
+        // decrements products.stock; checking the column would miss reservations not flushed yet
+        boolean reserved = inventoryService != null;
+        if (reserved && !reserveOrderStock(quantityByProduct)) {
+            return false;
+        }
+
+        // Start a transaction for atomicity (order + all lines + all stock updates)
+        boolean committing = false;
+        try {
+            getConnection().setAutoCommit(false); // Disable auto-commit
+            inTransaction = true;
+
+            // 1. Lock all products of the order in ID order and check their stock (already reserved otherwise)
+            if (!reserved && !lockOrderStock(quantityByProduct)) {
+                connection.rollback(); // Rollback transaction
+                return false;
+            }
+
+            // 2. Insert order header
+            String insertOrderSQL = "INSERT INTO orders (customer_id, order_date, total_price) VALUES (?, ?, ?)";
+            int orderId;
+            try (PreparedStatement pstmt = connection.prepareStatement(insertOrderSQL, Statement.RETURN_GENERATED_KEYS)) {
+                pstmt.setInt(1, order.getCustomerId());
+                pstmt.setDate(2, Date.valueOf(order.getOrderDate()));
+                pstmt.setBigDecimal(3, order.getTotalPrice().toDecimal());
+                pstmt.executeUpdate();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    if (!keys.next()) {
+                        connection.rollback();
+                        return false;
+                    }
+                    orderId = keys.getInt(1);
+                }
+            }
+
+            // 3. Insert all order lines in one batch
+            String insertLineSQL = "INSERT INTO order_lines (order_id, product_id, quantity, unit_price_at_sale, line_total) VALUES (?, ?, ?, ?, ?)";
+            List<Integer> lineIds = new ArrayList<>();
+            try (PreparedStatement pstmt = connection.prepareStatement(insertLineSQL, Statement.RETURN_GENERATED_KEYS)) {
+                for (OrderLine line : order.getLines()) {
+                    pstmt.setInt(1, orderId);
+                    pstmt.setInt(2, line.getProductId());
+                    pstmt.setInt(3, line.getQuantity());
+                    pstmt.setBigDecimal(4, line.getUnitPriceAtSale().toDecimal());
+                    pstmt.setBigDecimal(5, line.getLineTotal().toDecimal());
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                try (ResultSet keys = pstmt.getGeneratedKeys()) {
+                    while (keys.next()) {
+                        lineIds.add(keys.getInt(1));
+                    }
+                }
+            }
+
+            // 4. Decrease stock of all products in one batch, in the same ID order (reserved stock: by the flush)
+            if (!reserved) {
+                String updateStockSQL = "UPDATE products SET stock = stock - ?, version = version + 1 WHERE product_id = ?";
+                try (PreparedStatement pstmt = connection.prepareStatement(updateStockSQL)) {
+                    for (Map.Entry<Integer, Integer> entry : quantityByProduct.entrySet()) {
+                        pstmt.setInt(1, entry.getValue());
+                        pstmt.setInt(2, entry.getKey());
+                        pstmt.addBatch();
+                    }
+                    pstmt.executeBatch();
+                }
+            }
+
+            committing = true;
+            connection.commit(); // Commit transaction if all successful
+            order.setOrderId(orderId);
+            for (int i = 0; i < lineIds.size() && i < order.getLines().size(); i++) {
+                order.getLines().get(i).setLineId(lineIds.get(i));
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error placing order (transaction rolled back): " + e.getMessage());
+            try {
+                if (connection != null && !connection.isClosed()) connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error during rollback: " + ex.getMessage());
+            }
+            // A failed commit keeps the reservations, since the order may already be stored (as in addSale)
+            if (reserved && !committing) {
+                releaseOrderStock(quantityByProduct);
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            inTransaction = false;
+            try {
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true); // Re-enable auto-commit
+            } catch (SQLException e) {
+                System.err.println("Error re-enabling auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    // Locks the order's products in ID order and checks that each has the quantity in stock
+    private boolean lockOrderStock(Map<Integer, Integer> quantityByProduct) throws SQLException {
+        String lockSQL = "SELECT product_id, stock FROM products WHERE product_id = ANY (?) ORDER BY product_id FOR UPDATE";
+        Map<Integer, Integer> stockByProduct = new LinkedHashMap<>();
+        try (PreparedStatement pstmt = connection.prepareStatement(lockSQL)) {
+            pstmt.setArray(1, connection.createArrayOf("integer", quantityByProduct.keySet().toArray()));
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    stockByProduct.put(rs.getInt("product_id"), rs.getInt("stock"));
+                }
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : quantityByProduct.entrySet()) {
+            Integer stock = stockByProduct.get(entry.getKey());
+            if (stock == null || stock < entry.getValue()) {
+                System.err.println("Insufficient stock for product ID: " + entry.getKey());
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Reserves every product of the order in the inventory service, all or none
+    private boolean reserveOrderStock(Map<Integer, Integer> quantityByProduct) {
+        Map<Integer, Integer> reserved = new TreeMap<>();
+        try {
+            for (Map.Entry<Integer, Integer> entry : quantityByProduct.entrySet()) {
+                if (!inventoryService.reserve(entry.getKey(), entry.getValue())) {
+                    System.err.println("Insufficient stock for product ID: " + entry.getKey());
+                    releaseOrderStock(reserved);
+                    return false;
+                }
+                reserved.put(entry.getKey(), entry.getValue());
+            }
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error reserving stock: " + e.getMessage());
+            e.printStackTrace();
+            releaseOrderStock(reserved);
+            return false;
+        }
+    }
+
+    private void releaseOrderStock(Map<Integer, Integer> quantityByProduct) {
+        for (Map.Entry<Integer, Integer> entry : quantityByProduct.entrySet()) {
+            inventoryService.release(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public Order getOrderById(int orderId) {
+        List<Order> orders = loadOrders(" WHERE o.order_id = ?", orderId);
+        return orders.isEmpty() ? null : orders.get(0);
+    }
+
+    @Override
+    public List<Order> getAllOrders() {
+        return loadOrders("", null);
+    }
+
+    // Loads orders with their lines in a single join, ordered by order and line ID
+    private List<Order> loadOrders(String whereClause, Integer orderId) {
+        String selectSQL = "SELECT o.order_id, o.customer_id, o.order_date, l.line_id, l.product_id, l.quantity, l.unit_price_at_sale, l.line_total " +
+                "FROM orders o JOIN order_lines l ON l.order_id = o.order_id" + whereClause + " ORDER BY o.order_id, l.line_id";
+        try {
+            return onReadConnection(conn -> {
+                Map<Integer, Order> orders = new LinkedHashMap<>();
+                try (PreparedStatement pstmt = conn.prepareStatement(selectSQL)) {
+                    if (orderId != null) {
+                        pstmt.setInt(1, orderId);
+                    }
+                    try (ResultSet rs = pstmt.executeQuery()) {
+                        while (rs.next()) {
+                            int id = rs.getInt("order_id");
+                            Order order = orders.get(id);
+                            if (order == null) {
+                                order = new Order(id, rs.getInt("customer_id"), rs.getDate("order_date").toLocalDate());
+                                orders.put(id, order);
+                            }
+                            order.addLine(new OrderLine(
+                                    rs.getInt("line_id"),
+                                    id,
+                                    rs.getInt("product_id"),
+                                    rs.getInt("quantity"),
+                                    Money.of(rs.getBigDecimal("unit_price_at_sale")),
+                                    Money.of(rs.getBigDecimal("line_total"))
+                            ));
+                        }
+                    }
+                }
+                return new ArrayList<>(orders.values());
+            });
+        } catch (SQLException e) {
+            System.err.println("Error retrieving orders: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return new ArrayList<>();
+    }
+
+    // --- Read Routing ---
+
+    @FunctionalInterface
+    private interface ReadQuery<T> {
+        T run(Connection conn) throws SQLException;
+    }
+
+    /**
+     * Runs a read-only query on a replica that contains this manager's writes, or else on the primary.
+     * If the replica fails, it is taken out of rotation and the query is retried on the primary.
+     * The query may run twice, so it must build its result from scratch.
+     */
+    private <T> T onReadConnection(ReadQuery<T> query) throws SQLException {
+        Connection replica = replicaConnection();
+        if (replica != null) {
+            try {
+                return query.run(replica);
+            } catch (SQLException e) {
+                if (isConnectionFailure(e)) {
+                    replicas.reportFailure(currentReplica, e);
+                } else {
+                    System.err.println("Replica query failed, retrying on the primary: " + e.getMessage());
+                }
+                closeReplicaConnection();
+            }
+        }
+        return query.run(primaryConnection());
+    }
+
+    // Returns a connection to a replica caught up with this manager's last write, or null to use the primary
+    private Connection replicaConnection() {
+        if (replicas == null || inTransaction) {
+            return null; // Reads inside a transaction must see its own uncommitted rows
+        }
+        if (primaryUsedSinceRead) {
+            // Calls are sequential, so everything done on the primary so far has committed by now
+            readYourWritesNanos = System.nanoTime();
+            primaryUsedSinceRead = false;
+        }
+        ReplicaRouter.Replica replica = replicas.choose(readYourWritesNanos);
+        if (replica == null) {
+            return null;
+        }
+        try {
+            if (replica != currentReplica || replicaConnection == null || replicaConnection.isClosed()) {
+                closeReplicaConnection();
+                replicaConnection = TracedConnection.wrap(replicas.open(replica), slowQueryLog);
+                currentReplica = replica;
+            }
+            return replicaConnection;
+        } catch (SQLException e) {
+            replicas.reportFailure(replica, e);
+            closeReplicaConnection();
+            return null;
+        }
+    }
+
+    private void closeReplicaConnection() {
+        try {
+            if (replicaConnection != null) replicaConnection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing replica connection: " + e.getMessage());
+        }
+        replicaConnection = null;
+        currentReplica = null;
+    }
+
+    // --- Inventory Service ---
+
+    /**
+     * Adds a sale whose stock is reserved in the inventory service instead of checked in the database.
+     * Only the sale row is written here, in its own transaction; the stock decrement reaches
+     * products.stock with the next flush, so the column lags by up to one flush interval.
+     */
+    private boolean addSaleWithReservation(Sale sale) {
+        try {
+            if (!inventoryService.reserve(sale.getProductId(), sale.getQuantity())) {
+                System.err.println("Insufficient stock for product ID: " + sale.getProductId());
+                return false;
+            }
+        } catch (SQLException e) {
+            if (isConnectionFailure(e)) {
+                return journalSale(sale);
+            }
+            System.err.println("Error reserving stock: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+
+        boolean committing = false;
+        boolean committed = false;
+        FlightEvents.SaleTransaction transaction = FlightEvents.SaleTransaction.begin("addSale");
+        String insertSQL = "INSERT INTO sales (product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date, store_id) VALUES (?, ?, ?, ?, ?, ?, ?)";
+        try {
+            ensureSalesPartition(getConnection(), sale.getSaleDate());
+            getConnection().setAutoCommit(false);
+            inTransaction = true;
+            try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+                pstmt.setInt(1, sale.getProductId());
+                pstmt.setInt(2, sale.getCustomerId());
+                pstmt.setInt(3, sale.getQuantity());
+                pstmt.setBigDecimal(4, sale.getUnitPriceAtSale().toDecimal());
+                pstmt.setBigDecimal(5, sale.getTotalSalePrice().toDecimal());
+                pstmt.setDate(6, Date.valueOf(sale.getSaleDate()));
+                pstmt.setInt(7, sale.getStoreId());
+                if (pstmt.executeUpdate() == 0) {
+                    connection.rollback();
+                    inventoryService.release(sale.getProductId(), sale.getQuantity());
+                    return false;
+                }
+            }
+            committing = true;
+            connection.commit();
+            committed = true;
+            return true;
+        } catch (SQLException e) {
+            System.err.println("Error adding sale (transaction rolled back): " + e.getMessage());
+            try {
+                if (connection != null && !connection.isClosed()) connection.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error during rollback: " + ex.getMessage());
+            }
+            // A failure during commit keeps the reservation and is not journaled, since the sale may already
+            // be stored. Otherwise the reservation is given back: the journal replay decrements stock itself.
+            if (!committing) {
+                inventoryService.release(sale.getProductId(), sale.getQuantity());
+                if (isConnectionFailure(e)) {
+                    return journalSale(sale);
+                }
+            }
+            e.printStackTrace();
+            return false;
+        } finally {
+            transaction.finish(sale.getSaleId(), sale.getProductId(), committed);
+            inTransaction = false;
             try {
-                if (connection != null) connection.setAutoCommit(true); // Re-enable auto-commit
+                if (connection != null && !connection.isClosed()) connection.setAutoCommit(true);
             } catch (SQLException e) {
                 System.err.println("Error re-enabling auto-commit: " + e.getMessage());
             }
         }
     }
 
+    // Maps the current row of a products/customers/sales query, including the row version
+    private Product readProduct(ResultSet rs) throws SQLException {
+        Product product = new Product(
+                rs.getInt("product_id"),
+                rs.getString("name"),
+                Money.of(rs.getBigDecimal("price")),
+                availableStock(rs.getInt("product_id"), rs.getInt("stock"))
+        );
+        product.setVersion(rs.getInt("version"));
+        return product;
+    }
+
+    private static Customer readCustomer(ResultSet rs) throws SQLException {
+        Customer customer = new Customer(
+                rs.getInt("customer_id"),
+                rs.getString("first_name"),
+                rs.getString("last_name"),
+                rs.getString("email"),
+                rs.getString("phone")
+        );
+        customer.setVersion(rs.getInt("version"));
+        return customer;
+    }
+
+    private static Sale readSale(ResultSet rs) throws SQLException {
+        Sale sale = new Sale(
+                rs.getInt("sale_id"),
+                rs.getInt("product_id"),
+                rs.getInt("customer_id"),
+                rs.getInt("quantity"),
+                Money.of(rs.getBigDecimal("unit_price_at_sale")),
+                Money.of(rs.getBigDecimal("total_sale_price")),
+                rs.getDate("sale_date").toLocalDate()
+        );
+        sale.setVersion(rs.getInt("version"));
+        sale.setStoreId(rs.getInt("store_id"));
+        return sale;
+    }
+
+    /**
+     * Makes this shard's sale IDs congruent to shardIndex + 1 modulo shardCount, above every existing ID,
+     * so IDs are unique across shards and name their shard.
+     */
+    private void alignSaleIdSequence() throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT increment_by, last_value FROM pg_sequences WHERE sequencename = 'sales_sale_id_seq'")) {
+            if (rs.next() && rs.getLong(1) == shardCount && rs.getObject(2) != null
+                    && Math.floorMod(rs.getLong(2) - 1, (long) shardCount) == shardIndex) {
+                return; // Already aligned; restarting it again could race with other clients of the shard
+            }
+        }
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT GREATEST((SELECT COALESCE(MAX(sale_id), 0) FROM sales), " +
+                     "(SELECT COALESCE(MAX(sale_id), 0) FROM sales_archive))")) {
+            long maxId = rs.next() ? rs.getLong(1) : 0;
+            long next = maxId + 1 + Math.floorMod(shardIndex - maxId, (long) shardCount); // (next - 1) mod shardCount == shardIndex
+            stmt.execute("ALTER SEQUENCE sales_sale_id_seq INCREMENT BY " + shardCount + " RESTART WITH " + next);
+        }
+    }
+
+    // Tells a version conflict (row exists) from a deleted row after a compare-and-set matched nothing
+    private boolean rowExists(String selectSQL, int id) throws SQLException {
+        try (PreparedStatement pstmt = getConnection().prepareStatement(selectSQL)) {
+            pstmt.setInt(1, id);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    // Runs a reference check over three tables, each bound to the same ID; on the primary, as a delete follows
+    private boolean isReferenced(String selectSQL, int id) {
+        try (PreparedStatement pstmt = getConnection().prepareStatement(selectSQL)) {
+            for (int i = 1; i <= 3; i++) {
+                pstmt.setInt(i, id);
+            }
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return !rs.next() || rs.getBoolean(1);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error checking references to " + id + ": " + e.getMessage());
+            e.printStackTrace();
+            return true; // Refuse the delete rather than risk a partial one
+        }
+    }
+
+    private int availableStock(int productId, int databaseStock) {
+        return inventoryService != null ? inventoryService.getAvailable(productId, databaseStock) : databaseStock;
+    }
+
+    private void reconcileStock(int productId) {
+        if (inventoryService != null) {
+            inventoryService.reconcile(productId);
+        }
+    }
+
+    // --- Offline Sales Journal ---
+
+    private void openSalesJournal() {
+        try {
+            Path journalDir = Paths.get(System.getProperty(JOURNAL_DIR_PROPERTY, "sales-journal"));
+            salesJournal = SalesJournal.open(shardCount > 1 ? journalDir.resolve("shard-" + shardIndex) : journalDir);
+            salesJournal.scheduleReplay(this::replayOfflineSales, REPLAY_INTERVAL_SECONDS);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Offline sales journal unavailable; sales will fail while the database is down: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * @return The number of sales taken offline that have not reached the database yet.
+     */
+    public long getPendingOfflineSaleCount() {
+        return salesJournal == null ? 0 : salesJournal.getPendingCount();
+    }
+
+    private boolean journalSale(Sale sale) {
+        if (salesJournal == null) {
+            return false;
+        }
+        try {
+            salesJournal.append(sale);
+            System.err.println("Database unavailable: sale stored in the offline journal (" +
+                    salesJournal.getPendingCount() + " pending).");
+            return true;
+        } catch (IOException e) {
+            System.err.println("Error writing sale to the offline journal: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Replays journaled offline sales into the database, oldest first, in batches of one transaction each.
+     * Uses its own short-lived connection so it never interferes with this manager's transactions.
+     * Each entry's key is stored with the sale, so entries replayed before a crash are skipped.
+     * Sales that no longer fit the stock (or reference deleted rows) are written to
+     * sales_journal_conflicts instead of the sales table and reported on stderr.
+     * Passes of all managers sharing the journal run one at a time; a call waits for a running pass.
+     */
+    public void replayOfflineSales() {
+        if (salesJournal == null || salesJournal.getPendingCount() == 0) {
+            return;
+        }
+        salesJournal.runReplay(this::replayPending);
+    }
+
+    private void replayPending() {
+        if (salesJournal.getPendingCount() == 0) {
+            return; // A pass that ran while this one waited replayed everything
+        }
+        // Runs on the journal's replay thread, so it never touches this manager's connection, which
+        // may be serving a request on another thread at the same moment
+        try (Connection replayConnection = TracedConnection.wrap(DriverManager.getConnection(url, DB_USER, DB_PASSWORD), slowQueryLog)) {
+            if (!schemaExists(replayConnection)) {
+                return; // The database came back empty; a manager creates the schema on its next call
+            }
+            int replayed = 0;
+            List<SalesJournal.JournalEntry> batch;
+            while (!(batch = salesJournal.readPending(REPLAY_BATCH_SIZE)).isEmpty()) {
+                for (SalesJournal.JournalEntry entry : batch) {
+                    ensureSalesPartition(replayConnection, entry.getSale().getSaleDate());
+                }
+                replayBatch(replayConnection, batch);
+                salesJournal.acknowledge(batch.get(batch.size() - 1));
+                replayed += batch.size();
+            }
+            System.out.println("Replayed " + replayed + " offline sale(s) into the database.");
+        } catch (SQLException e) {
+            // Still offline; the next scheduled attempt will retry
+        } catch (IOException e) {
+            System.err.println("Error reading the offline sales journal: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    private static boolean schemaExists(Connection conn) throws SQLException {
+        try (Statement stmt = conn.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT to_regclass('sales_journal_replayed') IS NOT NULL")) {
+            return rs.next() && rs.getBoolean(1);
+        }
+    }
+
+    private void replayBatch(Connection conn, List<SalesJournal.JournalEntry> batch) throws SQLException {
+        String claimSQL = "INSERT INTO sales_journal_replayed (entry_key, replayed_at) VALUES (?, CURRENT_TIMESTAMP) ON CONFLICT (entry_key) DO NOTHING";
+        String lockSQL = "SELECT stock FROM products WHERE product_id = ? FOR UPDATE";
+        String insertSQL = "INSERT INTO sales (product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date, store_id) VALUES (?, ?, ?, ?, ?, ?, ?) RETURNING sale_id";
+        String linkSQL = "UPDATE sales_journal_replayed SET sale_id = ? WHERE entry_key = ?";
+        String stockSQL = "UPDATE products SET stock = stock - ?, version = version + 1 WHERE product_id = ?";
+        String conflictSQL = "INSERT INTO sales_journal_conflicts (entry_key, product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date, reason, detected_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, CURRENT_TIMESTAMP)";
+
+        // With an inventory service, stock is reserved there like for any other sale: checking products.stock
+        // would miss reservations not flushed yet. Reservations of this batch are given back if it fails
+        List<Sale> reserved = new ArrayList<>();
+        boolean committing = false;
+        conn.setAutoCommit(false);
+        try (PreparedStatement claim = conn.prepareStatement(claimSQL);
+             PreparedStatement lock = conn.prepareStatement(lockSQL);
+             PreparedStatement insert = conn.prepareStatement(insertSQL);
+             PreparedStatement link = conn.prepareStatement(linkSQL);
+             PreparedStatement stock = conn.prepareStatement(stockSQL);
+             PreparedStatement conflict = conn.prepareStatement(conflictSQL)) {
+            for (SalesJournal.JournalEntry entry : batch) {
+                Sale sale = entry.getSale();
+
+                // 1. Claim the entry key; an existing key means it was replayed before
+                claim.setString(1, entry.getEntryKey());
+                if (claim.executeUpdate() == 0) {
+                    continue;
+                }
+
+                // 2. Check stock and apply the sale, isolated by a savepoint
+                Savepoint savepoint = conn.setSavepoint();
+                String conflictReason = null;
+                boolean reservedHere = false;
+                try {
+                    if (inventoryService != null) {
+                        reservedHere = inventoryService.reserve(sale.getProductId(), sale.getQuantity());
+                        if (!reservedHere) {
+                            conflictReason = "Insufficient stock or product no longer exists: " +
+                                    inventoryService.getAvailable(sale.getProductId(), 0) + " available, " + sale.getQuantity() + " sold offline.";
+                        }
+                    } else {
+                        lock.setInt(1, sale.getProductId());
+                        try (ResultSet rs = lock.executeQuery()) {
+                            if (!rs.next()) {
+                                conflictReason = "Product " + sale.getProductId() + " no longer exists.";
+                            } else if (rs.getInt("stock") < sale.getQuantity()) {
+                                conflictReason = "Insufficient stock: " + rs.getInt("stock") + " available, " + sale.getQuantity() + " sold offline.";
+                            }
+                        }
+                    }
+                    if (conflictReason == null) {
+                        insert.setInt(1, sale.getProductId());
+                        insert.setInt(2, sale.getCustomerId());
+                        insert.setInt(3, sale.getQuantity());
+                        insert.setBigDecimal(4, sale.getUnitPriceAtSale().toDecimal());
+                        insert.setBigDecimal(5, sale.getTotalSalePrice().toDecimal());
+                        insert.setDate(6, Date.valueOf(sale.getSaleDate()));
+                        insert.setInt(7, sale.getStoreId());
+                        try (ResultSet rs = insert.executeQuery()) {
+                            rs.next();
+                            link.setInt(1, rs.getInt("sale_id")); // The claimed key names the sale it produced
+                        }
+                        link.setString(2, entry.getEntryKey());
+                        link.executeUpdate();
+                        if (reservedHere) {
+                            reserved.add(sale); // The service's flush decrements products.stock
+                        } else {
+                            stock.setInt(1, sale.getQuantity());
+                            stock.setInt(2, sale.getProductId());
+                            stock.executeUpdate();
+                        }
+                    }
+                } catch (SQLException e) {
+                    if (reservedHere && !reserved.contains(sale)) {
+                        inventoryService.release(sale.getProductId(), sale.getQuantity());
+                    }
+                    if (isConnectionFailure(e)) {
+                        throw e;
+                    }
+                    conn.rollback(savepoint); // Keeps the claimed key, drops the partial sale
+                    conflictReason = e.getMessage();
+                }
+
+                // 3. Record conflicts so nothing sold offline is lost
+                if (conflictReason != null) {
+                    conflict.setString(1, entry.getEntryKey());
+                    conflict.setInt(2, sale.getProductId());
+                    conflict.setInt(3, sale.getCustomerId());
+                    conflict.setInt(4, sale.getQuantity());
+                    conflict.setBigDecimal(5, sale.getUnitPriceAtSale().toDecimal());
+                    conflict.setBigDecimal(6, sale.getTotalSalePrice().toDecimal());
+                    conflict.setDate(7, Date.valueOf(sale.getSaleDate()));
+                    conflict.setString(8, conflictReason.length() > 500 ? conflictReason.substring(0, 500) : conflictReason);
+                    conflict.executeUpdate();
+                    System.err.println("Offline sale conflict (product ID " + sale.getProductId() + ", quantity " +
+                            sale.getQuantity() + ", " + sale.getSaleDate() + "): " + conflictReason);
+                }
+            }
+            committing = true;
+            conn.commit();
+        } catch (SQLException e) {
+            try {
+                conn.rollback();
+            } catch (SQLException ex) {
+                System.err.println("Error during rollback: " + ex.getMessage());
+            }
+            // A failed commit keeps the reservations, since the sales may already be stored (as in addSale)
+            if (!committing) {
+                for (Sale sale : reserved) {
+                    inventoryService.release(sale.getProductId(), sale.getQuantity());
+                }
+            }
+            throw e;
+        } finally {
+            try {
+                if (!conn.isClosed()) conn.setAutoCommit(true);
+            } catch (SQLException e) {
+                System.err.println("Error re-enabling auto-commit: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Lists offline sales that could not be applied during replay, newest first.
+     * @return One line per conflict, describing the sale and the reason.
+     */
+    public List<String> getOfflineSaleConflicts() {
+        List<String> conflicts = new ArrayList<>();
+        String selectSQL = "SELECT product_id, customer_id, quantity, sale_date, reason, detected_at FROM sales_journal_conflicts ORDER BY detected_at DESC";
+        try (Statement stmt = getConnection().createStatement();
+             ResultSet rs = stmt.executeQuery(selectSQL)) {
+            while (rs.next()) {
+                conflicts.add(rs.getTimestamp("detected_at") + " - product " + rs.getInt("product_id") +
+                        ", customer " + rs.getInt("customer_id") + ", quantity " + rs.getInt("quantity") +
+                        ", sold " + rs.getDate("sale_date") + ": " + rs.getString("reason"));
+            }
+        } catch (SQLException e) {
+            System.err.println("Error retrieving offline sale conflicts: " + e.getMessage());
+            e.printStackTrace();
+        }
+        return conflicts;
+    }
+
+    // SQLState class 08 is "connection exception"
+    private static boolean isConnectionFailure(SQLException e) {
+        return e instanceof SQLNonTransientConnectionException || e instanceof SQLTransientConnectionException ||
+                (e.getSQLState() != null && e.getSQLState().startsWith("08"));
+    }
+
     /**
      * Closes the database connection.
      */
+    @Override
     public void closeConnection() {
+        closeReplicaConnection();
         try {
             if (connection != null && !connection.isClosed()) {
                 connection.close();
@@ -0,0 +1,385 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Records who changed what: every mutating DAO call (add*, submit*, update*, tryUpdate*, delete*, placeOrder)
+ * made through an audited data store becomes an audit event.
+ *
+ * Callers only claim a slot in a lock-free ring buffer (one CAS) and publish the event; they never
+ * block and never do I/O. A single background thread drains the buffer, renders the events and writes
+ * them in batches, either to the 'audit_log' table (created by DatabaseManager) or to a rolling local
+ * file. If the buffer is full because the writer fell behind, the event is dropped and counted rather
+ * than slowing down the caller. Table batches that fail are written to the file instead.
+ *
+ * Call arguments are rendered by the writer thread, so they show the state after the call (e.g. the
+ * ID assigned to a new sale). Callers must not modify objects after passing them to a DAO.
+ *
+ * Configuration (see {@link #fromSystemProperties}):
+ *   -Dsales.audit         table (default for postgres), file (default otherwise) or off
+ *   -Dsales.audit.dir     directory of the rolling file, default: working directory
+ */
+public class AuditTrail {
+
+    private static final int CAPACITY = 1 << 14; // Power of two, so slots are found with a mask
+    private static final int BATCH_SIZE = 500;
+    private static final long IDLE_PARK_NANOS = 20_000_000L; // Writer poll interval when the buffer is empty
+    private static final long MAX_FILE_BYTES = 10L * 1024 * 1024;
+    private static final int KEPT_FILES = 5;
+    private static final String FILE_NAME = "audit.log";
+    private static final int MAX_DETAILS_LENGTH = 2000;
+    private static final List<String> MUTATING_PREFIXES = List.of("add", "submit", "update", "tryUpdate", "delete", "placeOrder");
+
+    private static final ThreadLocal<String> currentActor = new ThreadLocal<>();
+
+    /**
+     * One mutating call. Rendered to text by the writer thread.
+     */
+    private static final class Event {
+        final long timeMillis = System.currentTimeMillis();
+        final String actor;
+        final String action;
+        final Object[] args;
+        final Object result;
+
+        Event(String actor, String action, Object[] args, Object result) {
+            this.actor = actor;
+            this.action = action;
+            this.args = args;
+            this.result = result;
+        }
+    }
+
+    // Ring buffer: a slot holds event n once published[n & mask] == n
+    private final AtomicReferenceArray<Event> slots = new AtomicReferenceArray<>(CAPACITY);
+    private final AtomicLongArray published = new AtomicLongArray(CAPACITY);
+    private final AtomicLong claimed = new AtomicLong(); // Next sequence to hand to a producer
+    private final AtomicLong consumed = new AtomicLong(); // Next sequence the writer will read
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final String defaultActor;
+    private final ConnectionSource connectionSource; // null = file only
+    private final Path directory;
+    private final Thread writer;
+    private volatile boolean closed;
+    private Connection connection; // Writer thread only
+
+    /**
+     * Creates the trail and starts its writer thread.
+     * @param defaultActor Who is recorded for calls made without {@link #runAs}, e.g. the OS user of the GUI.
+     * @param connectionSource Opens the connection events are written to 'audit_log' with, or null to write the file only.
+     * @param directory Where the rolling audit file is written.
+     */
+    public AuditTrail(String defaultActor, ConnectionSource connectionSource, Path directory) {
+        this.defaultActor = defaultActor;
+        this.connectionSource = connectionSource;
+        this.directory = directory;
+        for (int i = 0; i < CAPACITY; i++) {
+            published.set(i, -1);
+        }
+        this.writer = new Thread(this::writeLoop, "audit-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Creates the trail configured by -Dsales.audit and -Dsales.audit.dir.
+     * @param defaultActor Who is recorded for calls made without {@link #runAs}.
+     * @return The trail, or null if auditing is off.
+     */
+    public static AuditTrail fromSystemProperties(String defaultActor) {
+        String mode = System.getProperty("sales.audit",
+                DataStoreFactory.usesDefaultDatabase() ? "table" : "file");
+        if (mode.equals("off")) {
+            return null;
+        }
+        Path directory = Paths.get(System.getProperty("sales.audit.dir", "."));
+        return new AuditTrail(defaultActor, mode.equals("table") ? DatabaseManager::openConnection : null, directory);
+    }
+
+    /**
+     * Proxy layer (see DaoProxies) that audits the mutating calls of the wrapped store; other calls
+     * pass straight through.
+     */
+    public DaoProxies.Interceptor auditing() {
+        return (target, method, args, next) -> {
+            if (!isMutating(method.getName())) {
+                return next.proceed();
+            }
+            Object result;
+            try {
+                result = next.proceed();
+            } catch (Throwable e) {
+                publish(new Event(actor(), method.getName(), args, e));
+                throw e;
+            }
+            publish(new Event(actor(), method.getName(), args, result));
+            return result;
+        };
+    }
+
+    /**
+     * Runs an action with the given actor recorded for the audited calls it makes on this thread,
+     * e.g. an API request on behalf of a client.
+     */
+    public static <T, E extends Exception> T runAs(String actor, ThrowingSupplier<T, E> action) throws E {
+        String previous = currentActor.get();
+        currentActor.set(actor);
+        try {
+            return action.get();
+        } finally {
+            currentActor.set(previous);
+        }
+    }
+
+    @FunctionalInterface
+    public interface ThrowingSupplier<T, E extends Exception> {
+        T get() throws E;
+    }
+
+    /** @return Events dropped because the buffer was full. */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /**
+     * Writes the events still in the buffer and stops the writer.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join(10_000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Producers ---
+
+    private void publish(Event event) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - consumed.get() >= CAPACITY) {
+                dropped.incrementAndGet(); // Writer is a full buffer behind; never make the caller wait
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+        int slot = (int) (sequence & (CAPACITY - 1));
+        slots.set(slot, event);
+        published.set(slot, sequence); // Volatile write publishes the event to the writer
+    }
+
+    private String actor() {
+        String actor = currentActor.get();
+        return actor != null ? actor : defaultActor;
+    }
+
+    private static boolean isMutating(String methodName) {
+        for (String prefix : MUTATING_PREFIXES) {
+            if (methodName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- Writer Thread ---
+
+    private void writeLoop() {
+        List<Event> batch = new ArrayList<>(BATCH_SIZE);
+        while (true) {
+            boolean stopping = closed;
+            long next = consumed.get();
+            while (batch.size() < BATCH_SIZE) {
+                int slot = (int) (next & (CAPACITY - 1));
+                if (published.get(slot) != next) {
+                    break; // Not published yet (or not claimed at all)
+                }
+                batch.add(slots.get(slot));
+                slots.set(slot, null);
+                next++;
+            }
+            consumed.set(next); // Frees the slots for producers
+            if (!batch.isEmpty()) {
+                write(batch);
+                batch.clear();
+            } else if (stopping) {
+                break;
+            } else {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            if (connection != null) connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing audit connection: " + e.getMessage());
+        }
+    }
+
+    private void write(List<Event> batch) {
+        if (connectionSource != null) {
+            try {
+                writeToTable(batch);
+                return;
+            } catch (SQLException e) {
+                System.err.println("Error writing audit events to the database, writing them to " + FILE_NAME + ": " + e.getMessage());
+                connection = null;
+            }
+        }
+        try {
+            writeToFile(batch);
+        } catch (IOException e) {
+            System.err.println("Error writing " + batch.size() + " audit events: " + e.getMessage());
+        }
+    }
+
+    private void writeToTable(List<Event> batch) throws SQLException {
+        String insertSQL = "INSERT INTO audit_log (event_time, actor, action, entity, entity_id, success, details) " +
+                "VALUES (?, ?, ?, ?, ?, ?, ?)";
+        if (connection == null || connection.isClosed()) {
+            connection = connectionSource.open();
+        }
+        connection.setAutoCommit(false);
+        try (PreparedStatement pstmt = connection.prepareStatement(insertSQL)) {
+            for (Event event : batch) {
+                Object entity = entity(event);
+                pstmt.setTimestamp(1, new Timestamp(event.timeMillis));
+                pstmt.setString(2, event.actor);
+                pstmt.setString(3, event.action);
+                pstmt.setString(4, entityName(event, entity));
+                int entityId = entityId(entity, event.args);
+                if (entityId > 0) {
+                    pstmt.setInt(5, entityId);
+                } else {
+                    pstmt.setNull(5, Types.INTEGER);
+                }
+                pstmt.setBoolean(6, succeeded(event.result));
+                pstmt.setString(7, details(event, entity));
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    // Appends JSON lines to audit.log; rolls to audit.log.1 ... audit.log.5 when the file is full
+    private void writeToFile(List<Event> batch) throws IOException {
+        Files.createDirectories(directory);
+        Path file = directory.resolve(FILE_NAME);
+        if (Files.exists(file) && Files.size(file) > MAX_FILE_BYTES) {
+            for (int i = KEPT_FILES - 1; i >= 1; i--) {
+                Path older = directory.resolve(FILE_NAME + "." + i);
+                if (Files.exists(older)) {
+                    Files.move(older, directory.resolve(FILE_NAME + "." + (i + 1)), StandardCopyOption.REPLACE_EXISTING);
+                }
+            }
+            Files.move(file, directory.resolve(FILE_NAME + ".1"), StandardCopyOption.REPLACE_EXISTING);
+        }
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (Event event : batch) {
+                Object entity = entity(event);
+                int entityId = entityId(entity, event.args);
+                out.write("{\"time\":" + JsonUtil.quote(Instant.ofEpochMilli(event.timeMillis).toString()) +
+                        ",\"actor\":" + JsonUtil.quote(event.actor) +
+                        ",\"action\":" + JsonUtil.quote(event.action) +
+                        ",\"entity\":" + JsonUtil.quote(entityName(event, entity)) +
+                        ",\"entityId\":" + (entityId > 0 ? String.valueOf(entityId) : "null") +
+                        ",\"success\":" + succeeded(event.result) +
+                        ",\"details\":" + JsonUtil.quote(details(event, entity)) + "}");
+                out.newLine();
+            }
+        }
+    }
+
+    // --- Rendering (writer thread) ---
+
+    private static Object entity(Event event) {
+        if (event.args != null) {
+            for (Object arg : event.args) {
+                if (arg instanceof Product || arg instanceof Customer || arg instanceof Sale || arg instanceof Order) {
+                    return arg;
+                }
+            }
+        }
+        return null;
+    }
+
+    // "Product", "Customer", "Sale" or "Order", from the argument or else from the method name
+    private static String entityName(Event event, Object entity) {
+        if (entity != null) {
+            return entity.getClass().getSimpleName();
+        }
+        for (String name : new String[]{"Product", "Customer", "Sale", "Order"}) {
+            if (event.action.contains(name)) {
+                return name;
+            }
+        }
+        return null;
+    }
+
+    private static int entityId(Object entity, Object[] args) {
+        if (entity instanceof Product) return ((Product) entity).getProductId();
+        if (entity instanceof Customer) return ((Customer) entity).getCustomerId();
+        if (entity instanceof Sale) return ((Sale) entity).getSaleId();
+        if (entity instanceof Order) return ((Order) entity).getOrderId();
+        return args != null && args.length > 0 && args[0] instanceof Integer ? (Integer) args[0] : 0;
+    }
+
+    private static boolean succeeded(Object result) {
+        return Boolean.TRUE.equals(result) || result == UpdateResult.SUCCESS || result instanceof SaleSubmission;
+    }
+
+    private static String details(Event event, Object entity) {
+        String details;
+        if (entity instanceof Product) {
+            details = JsonUtil.toJson((Product) entity);
+        } else if (entity instanceof Customer) {
+            details = JsonUtil.toJson((Customer) entity);
+        } else if (entity instanceof Sale) {
+            details = JsonUtil.toJson((Sale) entity);
+        } else if (entity instanceof Order) {
+            Order order = (Order) entity;
+            details = "{\"customerId\":" + order.getCustomerId() + ",\"lines\":" + order.getLines().size() +
+                    ",\"totalPrice\":" + order.getTotalPrice() + "}";
+        } else {
+            details = "args=" + Arrays.toString(event.args);
+        }
+        if (event.result instanceof Throwable) {
+            details += " failed: " + event.result;
+        } else if (event.result instanceof UpdateResult) {
+            details += " result=" + event.result;
+        } else if (event.result instanceof SaleSubmission && ((SaleSubmission) event.result).isDuplicate()) {
+            details += " duplicate";
+        }
+        return details.length() <= MAX_DETAILS_LENGTH ? details : details.substring(0, MAX_DETAILS_LENGTH) + "...";
+    }
+}
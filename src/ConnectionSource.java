@@ -0,0 +1,13 @@
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Opens a new JDBC connection for a component that keeps its own connection apart from the
+ * DatabaseManager instances (InventoryService, SalesArchiver, SlowQueryLog, AuditTrail, ReplicaRouter).
+ * DatabaseManager::openConnection fits.
+ */
+@FunctionalInterface
+public interface ConnectionSource {
+    /** @return A new connection; the caller closes it. */
+    Connection open() throws SQLException;
+}
@@ -8,6 +8,7 @@ public class Customer {
     private String lastName;
     private String email;
     private String phone;
+    private int version; // Row version for optimistic updates; 0 = not read from the database
 
     // Constructor for creating new Customer objects (ID will be generated by DB)
     public Customer(String firstName, String lastName, String email, String phone) {
@@ -47,6 +48,10 @@ public class Customer {
         return phone;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     // Setters
     public void setCustomerId(int customerId) {
         this.customerId = customerId;
@@ -68,6 +73,10 @@ public class Customer {
         this.phone = phone;
     }
 
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Customer{" +
@@ -0,0 +1,291 @@
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Fuzzy matching of customers.
+ * Names are compared with Jaro-Winkler similarity (in both first/last orders, so swapped
+ * names still match); email and phone only count when both customers have them.
+ * Phonetic keys (Soundex) are used for blocking: only customers sharing a key are compared,
+ * which keeps lookups and duplicate detection far away from all-pairs comparison.
+ */
+public final class CustomerMatcher {
+
+    /** Score from which two customers are considered the same person. */
+    public static final double DEFAULT_THRESHOLD = 0.88;
+
+    /** Lower score used when looking customers up, where near misses are still useful suggestions. */
+    public static final double LOOKUP_THRESHOLD = 0.75;
+
+    // Weights of the compared fields; email and phone only count when both sides have them
+    private static final double NAME_WEIGHT = 0.6;
+    private static final double EMAIL_WEIGHT = 0.2;
+    private static final double PHONE_WEIGHT = 0.2;
+
+    private CustomerMatcher() {
+    }
+
+    /**
+     * A customer together with its similarity to a probe.
+     */
+    public static class Match {
+        private final Customer customer;
+        private final double score;
+
+        public Match(Customer customer, double score) {
+            this.customer = customer;
+            this.score = score;
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+
+        public double getScore() {
+            return score;
+        }
+    }
+
+    /**
+     * The normalized fields of a customer, computed once so that it can be compared many times.
+     */
+    public static class Profile {
+        private final Customer customer;
+        final String first;
+        final String last;
+        final String email;
+        final String phone;
+
+        Profile(Customer customer) {
+            this.customer = customer;
+            this.first = normalize(customer.getFirstName());
+            this.last = normalize(customer.getLastName());
+            this.email = normalizeEmail(customer.getEmail());
+            this.phone = phoneDigits(customer.getPhone());
+        }
+
+        public Customer getCustomer() {
+            return customer;
+        }
+    }
+
+    /** @return The comparison profile of a customer. */
+    public static Profile profile(Customer customer) {
+        return new Profile(customer);
+    }
+
+    /**
+     * Scores how likely two customer records describe the same person.
+     * @return A score between 0 (unrelated) and 1 (identical).
+     */
+    public static double similarity(Customer a, Customer b) {
+        return similarity(new Profile(a), new Profile(b));
+    }
+
+    /**
+     * Scores how likely two customer profiles describe the same person.
+     * @return A score between 0 (unrelated) and 1 (identical).
+     */
+    public static double similarity(Profile a, Profile b) {
+        return score(a, b, 0);
+    }
+
+    /**
+     * Checks whether two profiles score at least the threshold. Cheaper than {@link #similarity}
+     * for clear non-matches, because names are not compared when email and phone already rule them out.
+     */
+    public static boolean isMatch(Profile a, Profile b, double threshold) {
+        return score(a, b, threshold) >= threshold;
+    }
+
+    // Returns the similarity, or -1 as soon as it cannot reach the threshold
+    private static double score(Profile a, Profile b, double threshold) {
+        double weighted = 0;
+        double weights = NAME_WEIGHT;
+        if (!a.email.isEmpty() && !b.email.isEmpty()) {
+            weighted += EMAIL_WEIGHT * (a.email.equals(b.email) ? 1 : 0);
+            weights += EMAIL_WEIGHT;
+        }
+        if (!a.phone.isEmpty() && !b.phone.isEmpty()) {
+            weighted += PHONE_WEIGHT * (a.phone.equals(b.phone) ? 1 : 0);
+            weights += PHONE_WEIGHT;
+        }
+        if ((weighted + NAME_WEIGHT) / weights < threshold) {
+            return -1; // Even identical names would not be enough
+        }
+        double nameScore = Math.max(
+                (jaroWinkler(a.first, b.first) + jaroWinkler(a.last, b.last)) / 2,
+                (jaroWinkler(a.first, b.last) + jaroWinkler(a.last, b.first)) / 2 * 0.95); // Swapped names, slightly penalized
+        return (weighted + NAME_WEIGHT * nameScore) / weights;
+    }
+
+    /**
+     * Ranks candidates by similarity to a probe.
+     * @param probe The customer to look for (ID is ignored).
+     * @param candidates The customers to compare with, e.g. those sharing a blocking key.
+     * @param threshold Minimum score to be included.
+     * @param limit Maximum number of matches.
+     * @return The best matches, best first.
+     */
+    public static List<Match> rank(Customer probe, List<Customer> candidates, double threshold, int limit) {
+        Profile probeProfile = new Profile(probe);
+        List<Match> matches = new ArrayList<>();
+        for (Customer candidate : candidates) {
+            double score = score(probeProfile, new Profile(candidate), threshold);
+            if (score >= threshold) {
+                matches.add(new Match(candidate, score));
+            }
+        }
+        matches.sort(Comparator.comparingDouble(Match::getScore).reversed());
+        return matches.size() > limit ? new ArrayList<>(matches.subList(0, limit)) : matches;
+    }
+
+    /**
+     * Blocking keys of a customer profile. Two customers are only compared when they share at least one key.
+     * @return Keys for the (order-independent) phonetic name, the email address and the phone number.
+     */
+    public static List<String> blockingKeys(Profile profile) {
+        List<String> keys = new ArrayList<>(3);
+        String first = soundex(profile.first);
+        String last = soundex(profile.last);
+        keys.add("n:" + (first.compareTo(last) <= 0 ? first + last : last + first));
+        if (!profile.email.isEmpty()) {
+            keys.add("e:" + profile.email);
+        }
+        if (!profile.phone.isEmpty()) {
+            keys.add("p:" + profile.phone);
+        }
+        return keys;
+    }
+
+    /**
+     * American Soundex code of a name, e.g. "Robert" and "Rupert" -> "R163".
+     * @return The four-character code, or "" for a name without letters.
+     */
+    public static String soundex(String name) {
+        String normalized = normalize(name);
+        StringBuilder code = new StringBuilder(4);
+        char previousDigit = 0;
+        for (int i = 0; i < normalized.length() && code.length() < 4; i++) {
+            char c = normalized.charAt(i);
+            if (c < 'a' || c > 'z') {
+                continue;
+            }
+            char digit = soundexDigit(c);
+            if (code.length() == 0) {
+                code.append(Character.toUpperCase(c));
+            } else if (digit != '0' && digit != previousDigit) {
+                code.append(digit);
+            }
+            if (c != 'h' && c != 'w') {
+                previousDigit = digit; // H and W do not separate equal codes
+            }
+        }
+        if (code.length() == 0) {
+            return "";
+        }
+        while (code.length() < 4) {
+            code.append('0');
+        }
+        return code.toString();
+    }
+
+    // --- Helpers ---
+
+    private static char soundexDigit(char c) {
+        switch (c) {
+            case 'b': case 'f': case 'p': case 'v':
+                return '1';
+            case 'c': case 'g': case 'j': case 'k': case 'q': case 's': case 'x': case 'z':
+                return '2';
+            case 'd': case 't':
+                return '3';
+            case 'l':
+                return '4';
+            case 'm': case 'n':
+                return '5';
+            case 'r':
+                return '6';
+            default:
+                return '0'; // Vowels, h, w, y
+        }
+    }
+
+    static String normalize(String text) {
+        if (text == null) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(text.length());
+        for (char c : text.trim().toLowerCase(Locale.ROOT).toCharArray()) {
+            if (Character.isLetterOrDigit(c)) {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static String normalizeEmail(String email) {
+        return email == null ? "" : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    // The last ten digits, so "+1 (555) 010-0100" and "555-010-0100" compare equal; too short numbers are ignored
+    private static String phoneDigits(String phone) {
+        if (phone == null) {
+            return "";
+        }
+        StringBuilder digits = new StringBuilder();
+        for (char c : phone.toCharArray()) {
+            if (c >= '0' && c <= '9') {
+                digits.append(c);
+            }
+        }
+        if (digits.length() < 7) {
+            return "";
+        }
+        return digits.length() > 10 ? digits.substring(digits.length() - 10) : digits.toString();
+    }
+
+    // Jaro-Winkler similarity of two strings (1 = equal, 0 = nothing in common)
+    static double jaroWinkler(String s1, String s2) {
+        if (s1.equals(s2)) {
+            return s1.isEmpty() ? 0 : 1;
+        }
+        if (s1.isEmpty() || s2.isEmpty()) {
+            return 0;
+        }
+        int matchDistance = Math.max(0, Math.max(s1.length(), s2.length()) / 2 - 1);
+        boolean[] matched1 = new boolean[s1.length()];
+        boolean[] matched2 = new boolean[s2.length()];
+        int matches = 0;
+        for (int i = 0; i < s1.length(); i++) {
+            int start = Math.max(0, i - matchDistance);
+            int end = Math.min(i + matchDistance + 1, s2.length());
+            for (int j = start; j < end; j++) {
+                if (!matched2[j] && s1.charAt(i) == s2.charAt(j)) {
+                    matched1[i] = true;
+                    matched2[j] = true;
+                    matches++;
+                    break;
+                }
+            }
+        }
+        if (matches == 0) {
+            return 0;
+        }
+        int transpositions = 0;
+        for (int i = 0, j = 0; i < s1.length(); i++) {
+            if (!matched1[i]) continue;
+            while (!matched2[j]) j++;
+            if (s1.charAt(i) != s2.charAt(j)) transpositions++;
+            j++;
+        }
+        double m = matches;
+        double jaro = (m / s1.length() + m / s2.length() + (m - transpositions / 2.0) / m) / 3;
+        int prefix = 0;
+        while (prefix < 4 && prefix < s1.length() && prefix < s2.length() && s1.charAt(prefix) == s2.charAt(prefix)) {
+            prefix++;
+        }
+        return jaro + prefix * 0.1 * (1 - jaro);
+    }
+}
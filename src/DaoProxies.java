@@ -0,0 +1,145 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Wraps a data store in one dynamic proxy that runs a chain of interceptors around every call:
+ * tracing (Tracer), auditing (AuditTrail), flight recording (FlightEvents) and sale change
+ * listeners. However many layers are configured, a call goes through one reflective dispatch.
+ *
+ * The proxy implements all interfaces of the store's class hierarchy (e.g. IOrderDAO as well as
+ * IDataStore), so callers can still test for the optional DAO interfaces. Object methods
+ * (toString, equals, hashCode) go straight to the store.
+ */
+public final class DaoProxies {
+
+    // The ISaleDAO writes reported to SaleChangeListeners; resolved once, so a renamed method fails at startup
+    private static final Method ADD_SALE = saleMethod("addSale", Sale.class);
+    private static final Method SUBMIT_SALE = saleMethod("submitSale", Sale.class, String.class);
+    private static final Method UPDATE_SALE = saleMethod("updateSale", Sale.class);
+    private static final Method TRY_UPDATE_SALE = saleMethod("tryUpdateSale", Sale.class);
+    private static final Method DELETE_SALE = saleMethod("deleteSale", int.class);
+
+    private DaoProxies() {
+    }
+
+    /**
+     * One layer of the proxy.
+     */
+    @FunctionalInterface
+    public interface Interceptor {
+        /**
+         * @param target The wrapped store, e.g. for extra reads that should not pass through the other layers.
+         * @param method The interface method called.
+         * @param args The call's arguments (null for none).
+         * @param next Runs the rest of the chain and the call itself; returns its result or throws its exception.
+         * @return The result for the caller.
+         */
+        Object intercept(Object target, Method method, Object[] args, Invocation next) throws Throwable;
+    }
+
+    /** The rest of an intercepted call. */
+    @FunctionalInterface
+    public interface Invocation {
+        Object proceed() throws Throwable;
+    }
+
+    /**
+     * Wraps a store in one proxy running the given interceptors, the first one outermost.
+     * Null interceptors (layers that are switched off) are skipped.
+     * @return The proxy, or the store itself if no interceptor is left.
+     */
+    public static <T> T wrap(T target, Class<T> type, Interceptor... interceptors) {
+        List<Interceptor> layers = new ArrayList<>();
+        for (Interceptor interceptor : interceptors) {
+            if (interceptor != null) {
+                layers.add(interceptor);
+            }
+        }
+        if (layers.isEmpty()) {
+            return target;
+        }
+        Interceptor[] chain = layers.toArray(new Interceptor[0]);
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return invoke(target, method, args);
+            }
+            return call(target, method, args, chain, 0);
+        };
+        Set<Class<?>> interfaces = new LinkedHashSet<>();
+        for (Class<?> c = target.getClass(); c != null; c = c.getSuperclass()) {
+            interfaces.addAll(Arrays.asList(c.getInterfaces()));
+        }
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), interfaces.toArray(new Class<?>[0]), handler));
+    }
+
+    /**
+     * Reports the sales added, edited and deleted through the proxy to a listener, after each successful call.
+     * Before an edit or delete the old sale is read by ID from the store, so the listener gets both versions.
+     * A repeated submitSale (a duplicate) is not reported, since its first call already was.
+     */
+    public static Interceptor saleChanges(SaleChangeListener listener) {
+        return (target, method, args, next) -> {
+            boolean update = sameMethod(method, UPDATE_SALE) || sameMethod(method, TRY_UPDATE_SALE);
+            boolean delete = sameMethod(method, DELETE_SALE);
+            Sale before = null;
+            if (update) {
+                before = ((ISaleDAO) target).getSaleById(((Sale) args[0]).getSaleId());
+            } else if (delete) {
+                before = ((ISaleDAO) target).getSaleById((Integer) args[0]);
+            }
+            Object result = next.proceed();
+            boolean success = Boolean.TRUE.equals(result) || result == UpdateResult.SUCCESS
+                    || (result instanceof SaleSubmission && !((SaleSubmission) result).isDuplicate());
+            if (!success) {
+                return result;
+            }
+            if (sameMethod(method, ADD_SALE) || sameMethod(method, SUBMIT_SALE)) {
+                listener.saleAdded((Sale) args[0]);
+            } else if (update) {
+                listener.saleUpdated(before, (Sale) args[0]);
+            } else if (delete && before != null) {
+                listener.saleDeleted(before);
+            }
+            return result;
+        };
+    }
+
+    // --- Helpers ---
+
+    private static Object call(Object target, Method method, Object[] args, Interceptor[] chain, int index) throws Throwable {
+        if (index == chain.length) {
+            return invoke(target, method, args);
+        }
+        return chain[index].intercept(target, method, args, () -> call(target, method, args, chain, index + 1));
+    }
+
+    // Calls the store, rethrowing what the method threw rather than the reflection wrapper
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    // The proxy passes the Method of whichever interface it found first, so compare signatures, not declaring classes
+    private static boolean sameMethod(Method method, Method saleMethod) {
+        return method.getName().equals(saleMethod.getName())
+                && Arrays.equals(method.getParameterTypes(), saleMethod.getParameterTypes());
+    }
+
+    private static Method saleMethod(String name, Class<?>... parameterTypes) {
+        try {
+            return ISaleDAO.class.getMethod(name, parameterTypes);
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("ISaleDAO has no method " + name, e);
+        }
+    }
+}
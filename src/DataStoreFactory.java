@@ -0,0 +1,86 @@
+import java.io.IOException;
+import java.nio.file.Paths;
+
+/**
+ * Creates the storage backend selected at startup.
+ * The backend is chosen with -Dsales.backend:
+ *   postgres (default) - DatabaseManager against the PostgreSQL server
+ *   file               - FileDataStore in the directory given by -Dsales.dataDir (default "sales-data")
+ *   memory             - InMemoryDataStore; persisted to -Dsales.snapshotFile every -Dsales.snapshotSeconds
+ *                        (default 60) when a snapshot file is given, otherwise purely in memory
+ *   sharded            - ShardedDataStore over the PostgreSQL databases listed in -Dsales.shards, sales
+ *                        split by store; -Dsales.storeId is the store this process books sales for
+ *
+ * When SalesApiServer attaches an InventoryService to the postgres backend, sales reserve stock in memory
+ * and products.stock lags the booked sales by up to one flush interval (-Dsales.inventory.flushMillis).
+ * Stores read stock through the service, but other applications reading the table see the lag.
+ */
+public final class DataStoreFactory {
+
+    public static final String BACKEND_PROPERTY = "sales.backend";
+    public static final String DATA_DIR_PROPERTY = "sales.dataDir";
+    public static final String SNAPSHOT_FILE_PROPERTY = "sales.snapshotFile";
+    public static final String SNAPSHOT_SECONDS_PROPERTY = "sales.snapshotSeconds";
+
+    public static final String BACKEND_POSTGRES = "postgres";
+    public static final String BACKEND_FILE = "file";
+    public static final String BACKEND_MEMORY = "memory";
+    public static final String BACKEND_SHARDED = "sharded";
+
+    private DataStoreFactory() {
+    }
+
+    /** @return The configured backend name, normalized to lower case. */
+    public static String configuredBackend() {
+        return System.getProperty(BACKEND_PROPERTY, BACKEND_POSTGRES).trim().toLowerCase();
+    }
+
+    /**
+     * @return Whether the configured backend opens one connection per instance (and must not be shared
+     * between threads), as opposed to a single thread-safe instance that all callers share.
+     */
+    public static boolean usesConnectionPerInstance() {
+        String backend = configuredBackend();
+        return backend.equals(BACKEND_POSTGRES) || backend.equals(BACKEND_SHARDED);
+    }
+
+    /** @return Whether the configured backend is the single PostgreSQL database that DatabaseManager connects to. */
+    public static boolean usesDefaultDatabase() {
+        return configuredBackend().equals(BACKEND_POSTGRES);
+    }
+
+    /**
+     * Creates a new instance of the configured backend.
+     * @return The data store.
+     * @throws IllegalStateException if the backend is unknown or cannot be opened.
+     */
+    public static IDataStore create() {
+        String backend = configuredBackend();
+        switch (backend) {
+            case BACKEND_POSTGRES:
+                return new DatabaseManager();
+            case BACKEND_FILE:
+                String dataDir = System.getProperty(DATA_DIR_PROPERTY, "sales-data");
+                try {
+                    return new FileDataStore(Paths.get(dataDir));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not open the file data store in " + dataDir + ": " + e.getMessage(), e);
+                }
+            case BACKEND_MEMORY:
+                String snapshotFile = System.getProperty(SNAPSHOT_FILE_PROPERTY);
+                if (snapshotFile == null) {
+                    return new InMemoryDataStore();
+                }
+                try {
+                    return new InMemoryDataStore(Paths.get(snapshotFile), Long.getLong(SNAPSHOT_SECONDS_PROPERTY, 60));
+                } catch (IOException e) {
+                    throw new IllegalStateException("Could not load the in-memory store snapshot " + snapshotFile + ": " + e.getMessage(), e);
+                }
+            case BACKEND_SHARDED:
+                return ShardedDataStore.fromSystemProperties();
+            default:
+                throw new IllegalStateException("Unknown storage backend '" + backend + "'. Use " +
+                        BACKEND_POSTGRES + ", " + BACKEND_FILE + ", " + BACKEND_MEMORY + " or " + BACKEND_SHARDED + ".");
+        }
+    }
+}
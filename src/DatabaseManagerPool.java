@@ -0,0 +1,93 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * A fixed-size pool of data store instances, normally DatabaseManagers that each own a JDBC connection.
+ * DatabaseManager keeps a single connection and toggles auto-commit for its transactions,
+ * so concurrent callers must never share one instance. The pool hands out one manager
+ * per request and takes it back when the request is done.
+ * Thread-safe backends such as FileDataStore can fill every slot with the same instance.
+ */
+public class DatabaseManagerPool {
+
+    private final BlockingQueue<IDataStore> idleManagers;
+    private final List<IDataStore> allManagers;
+    private final long borrowTimeoutMillis;
+
+    /**
+     * Creates the pool and opens all of its connections up front.
+     * @param size Number of pooled managers (and therefore database connections).
+     * @param borrowTimeoutMillis How long a caller waits for a free manager before giving up.
+     * @param storeSupplier Creates the data store for each slot.
+     */
+    public DatabaseManagerPool(int size, long borrowTimeoutMillis, Supplier<IDataStore> storeSupplier) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Pool size must be positive.");
+        }
+        this.idleManagers = new ArrayBlockingQueue<>(size);
+        this.allManagers = new ArrayList<>(size);
+        this.borrowTimeoutMillis = borrowTimeoutMillis;
+        for (int i = 0; i < size; i++) {
+            IDataStore manager = storeSupplier.get();
+            allManagers.add(manager);
+            idleManagers.add(manager);
+        }
+    }
+
+    /**
+     * Borrows a manager, runs the given work with it and returns it to the pool.
+     * @param work The DAO work to perform.
+     * @return The result of the work.
+     * @throws PoolExhaustedException if no manager became free within the borrow timeout.
+     */
+    public <T> T withManager(Function<IDataStore, T> work) {
+        IDataStore manager;
+        try {
+            manager = idleManagers.poll(borrowTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PoolExhaustedException("Interrupted while waiting for a database connection.");
+        }
+        if (manager == null) {
+            throw new PoolExhaustedException("No database connection available within " + borrowTimeoutMillis + " ms.");
+        }
+        try {
+            return work.apply(manager);
+        } finally {
+            idleManagers.offer(manager);
+        }
+    }
+
+    /** @return The number of managers currently idle in the pool. */
+    public int getIdleCount() {
+        return idleManagers.size();
+    }
+
+    /** @return The total number of managers in the pool. */
+    public int getSize() {
+        return allManagers.size();
+    }
+
+    /**
+     * Closes every pooled connection. Closing a shared instance more than once is harmless.
+     */
+    public void close() {
+        for (IDataStore manager : allManagers) {
+            manager.closeConnection();
+        }
+    }
+
+    /**
+     * Thrown when a caller cannot obtain a pooled manager in time.
+     */
+    public static class PoolExhaustedException extends RuntimeException {
+        public PoolExhaustedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,462 @@
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Forecasts the daily demand of every product from its sales history and derives a reorder point,
+ * the days of cover left and the expected stock-out date.
+ *
+ * The forecast is simple exponential smoothing over daily units sold: each day moves the level
+ * (expected units per day) by alpha times the day's error, and the smoothed squared error gives the
+ * variance of daily demand. The reorder point covers the expected demand over the supplier lead time
+ * plus safety stock for the chosen service level:
+ *
+ *   reorderPoint = ceil(level * leadTimeDays + serviceZ * sqrt(variance * leadTimeDays))
+ *
+ * Only complete days are used, so today's partial sales never drag the level down. Days without
+ * sales are smoothed in closed form, so a product costs time in proportion to its days with sales,
+ * not to the length of the history. A run reads the daily totals of the days since the previous
+ * run (the first run reads historyDays of history) with one streaming, aggregated query, hands the
+ * products to a worker pool in batches and updates only the products that sold something; the
+ * others are carried forward when they are read. Sales entered or edited for days that were already
+ * processed are picked up on the next start.
+ *
+ * Configuration (see {@link #fromSystemProperties}):
+ *   -Dsales.forecast                  false to turn forecasting off (default true)
+ *   -Dsales.forecast.alpha            smoothing factor, default 0.2
+ *   -Dsales.forecast.leadTimeDays     supplier lead time, default 7
+ *   -Dsales.forecast.serviceZ         safety factor, default 1.65 (about 95% of lead times without a stock-out)
+ *   -Dsales.forecast.historyDays      history read by the first run, default 1095
+ *   -Dsales.forecast.intervalMinutes  time between runs, default 15
+ */
+public class DemandForecaster {
+
+    private static final int BATCH_PRODUCTS = 2048; // Products per worker task
+    private static final int MAX_WARNINGS = 500;
+
+    /**
+     * The smoothed demand of one product as of the end of lastDay. Immutable; replaced on update.
+     */
+    private static final class State {
+        final double level;
+        final double variance;
+        final long lastDay; // Epoch day
+
+        State(double level, double variance, long lastDay) {
+            this.level = level;
+            this.variance = variance;
+            this.lastDay = lastDay;
+        }
+    }
+
+    /**
+     * The forecast for one product at its current stock.
+     */
+    public static final class Forecast {
+        private final int productId;
+        private final String productName;
+        private final int stock;
+        private final double dailyDemand;
+        private final int reorderPoint;
+
+        private Forecast(int productId, String productName, int stock, double dailyDemand, int reorderPoint) {
+            this.productId = productId;
+            this.productName = productName;
+            this.stock = stock;
+            this.dailyDemand = dailyDemand;
+            this.reorderPoint = reorderPoint;
+        }
+
+        public int getProductId() {
+            return productId;
+        }
+
+        public String getProductName() {
+            return productName;
+        }
+
+        public int getStock() {
+            return stock;
+        }
+
+        /** @return Expected units sold per day. */
+        public double getDailyDemand() {
+            return dailyDemand;
+        }
+
+        /** @return Stock level at or below which the product should be reordered. */
+        public int getReorderPoint() {
+            return reorderPoint;
+        }
+
+        /** @return Whether the stock is at or below the reorder point of a product that sells. */
+        public boolean isLow() {
+            return dailyDemand > 0 && stock <= reorderPoint;
+        }
+
+        /** @return Days until the stock runs out at the expected demand, or -1 if the product does not sell. */
+        public double getDaysOfCover() {
+            if (dailyDemand <= 0) {
+                return -1;
+            }
+            return Math.max(stock, 0) / dailyDemand;
+        }
+
+        /** @return The expected stock-out date, or null if the product does not sell. */
+        public LocalDate getStockOutDate() {
+            double days = getDaysOfCover();
+            return days < 0 ? null : LocalDate.now().plusDays((long) Math.floor(days));
+        }
+    }
+
+    private final IDataStore store;
+    private final double alpha;
+    private final double leadTimeDays;
+    private final double serviceZ;
+    private final int historyDays;
+    private final ConcurrentHashMap<Integer, State> states = new ConcurrentHashMap<>();
+    private final ExecutorService workers;
+    private final ScheduledExecutorService scheduler;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile List<Forecast> warnings = Collections.emptyList();
+    private volatile LocalDate processedThrough; // Last complete day included in the states; null before the first run
+    private volatile boolean closed;
+
+    /**
+     * Creates the forecaster and schedules a run every intervalMinutes, the first one right away.
+     * With intervalMinutes 0 nothing is scheduled and the caller calls {@link #run}, e.g. from a JobScheduler job.
+     * @param store The store to read sales and stock from; used by the forecaster thread only,
+     *              so a connection-per-instance backend needs an instance of its own.
+     * @param alpha Smoothing factor, between 0 and 1; higher values follow recent days more closely.
+     * @param leadTimeDays Days between reordering and the goods arriving.
+     * @param serviceZ Safety factor (standard deviations of lead-time demand held as safety stock).
+     * @param historyDays Days of history read by the first run.
+     * @param intervalMinutes Time between runs, or 0 to leave the scheduling to the caller.
+     */
+    public DemandForecaster(IDataStore store, double alpha, double leadTimeDays, double serviceZ,
+                            int historyDays, long intervalMinutes) {
+        if (alpha <= 0 || alpha > 1) {
+            throw new IllegalArgumentException("alpha must be in (0, 1].");
+        }
+        if (leadTimeDays <= 0 || historyDays < 1) {
+            throw new IllegalArgumentException("Lead time and history must be positive.");
+        }
+        this.store = store;
+        this.alpha = alpha;
+        this.leadTimeDays = leadTimeDays;
+        this.serviceZ = serviceZ;
+        this.historyDays = historyDays;
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "demand-forecaster-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        if (intervalMinutes <= 0) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "demand-forecaster");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::runQuietly, 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /** @return Whether forecasting is turned on (-Dsales.forecast, default true). */
+    public static boolean isEnabled() {
+        return Boolean.parseBoolean(System.getProperty("sales.forecast", "true"));
+    }
+
+    /**
+     * Creates the forecaster configured by -Dsales.forecast and related properties.
+     * @param jobs If not null, the runs are scheduled as the "Demand forecast" job there, where they can
+     *             be watched, started and cancelled; otherwise the forecaster schedules them itself.
+     * @return The forecaster, or null if forecasting is turned off.
+     */
+    public static DemandForecaster fromSystemProperties(IDataStore store, JobScheduler jobs) {
+        if (!isEnabled()) {
+            return null;
+        }
+        long intervalMinutes = Long.getLong("sales.forecast.intervalMinutes", 15);
+        DemandForecaster forecaster = new DemandForecaster(store,
+                Double.parseDouble(System.getProperty("sales.forecast.alpha", "0.2")),
+                Double.parseDouble(System.getProperty("sales.forecast.leadTimeDays", "7")),
+                Double.parseDouble(System.getProperty("sales.forecast.serviceZ", "1.65")),
+                Integer.getInteger("sales.forecast.historyDays", 1095),
+                jobs != null ? 0 : intervalMinutes);
+        if (jobs != null) {
+            jobs.schedule("Demand forecast", JobScheduler.fixedDelay(Duration.ZERO, Duration.ofMinutes(intervalMinutes)), 1,
+                    context -> forecaster.run(context::isCancelled));
+        }
+        return forecaster;
+    }
+
+    /** Registers a callback run on the forecaster thread after each run. */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /** @return Whether the first run has finished, i.e. forecasts are based on the full history. */
+    public boolean isReady() {
+        return processedThrough != null;
+    }
+
+    /**
+     * Forecasts one product at the given stock.
+     * @return The forecast; a product without sales in the history has zero demand.
+     */
+    public Forecast forecast(int productId, String productName, int stock) {
+        LocalDate through = processedThrough;
+        State state = states.get(productId);
+        if (through == null || state == null) {
+            return new Forecast(productId, productName, stock, 0, 0);
+        }
+        state = carryForward(state, through.toEpochDay());
+        double leadTimeDemand = state.level * leadTimeDays;
+        double safetyStock = serviceZ * Math.sqrt(state.variance * leadTimeDays);
+        int reorderPoint = (int) Math.min(Integer.MAX_VALUE, Math.ceil(leadTimeDemand + safetyStock - 1e-9));
+        return new Forecast(productId, productName, stock, state.level, reorderPoint);
+    }
+
+    /** Forecasts a product at its stock in the given row. */
+    public Forecast forecast(Product product) {
+        return forecast(product.getProductId(), product.getName(), product.getStock());
+    }
+
+    /**
+     * @return The products at or below their reorder point after the last run, the soonest stock-out first
+     *         (at most 500).
+     */
+    public List<Forecast> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * Brings the forecasts up to yesterday, then refreshes the warnings from the current stock.
+     * Called by the scheduler; callers other than the forecaster thread must not overlap with it.
+     * @return The number of products whose forecast was updated from new sales.
+     */
+    public int run() {
+        return run(() -> false);
+    }
+
+    /**
+     * Like {@link #run()}, but stops reading once cancelled becomes true; the forecasts are then unchanged.
+     * @throws CancellationException if the run was cancelled.
+     */
+    public int run(BooleanSupplier cancelled) {
+        LocalDate yesterday = LocalDate.now().minusDays(1);
+        LocalDate from = processedThrough == null ? yesterday.minusDays(historyDays - 1) : processedThrough.plusDays(1);
+        int updated = 0;
+        if (!from.isAfter(yesterday)) {
+            long started = System.nanoTime();
+            updated = readAndUpdate(from, yesterday, cancelled);
+            if (updated < 0) {
+                return 0; // Nothing is marked processed; the next run reads the same days again
+            }
+            processedThrough = yesterday;
+            System.out.println("Demand forecast updated for " + updated + " products from sales of " + from + ".." + yesterday +
+                    " in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started) + " ms.");
+        }
+        refreshWarnings();
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+        return updated;
+    }
+
+    /**
+     * Stops the forecaster after the running pass.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        workers.shutdownNow();
+    }
+
+    // --- Helpers ---
+
+    // Streams the daily units of from..to and smooths them product by product on the worker pool.
+    // Returns the number of products updated, or -1 if reading failed (then no state has changed).
+    private int readAndUpdate(LocalDate from, LocalDate to, BooleanSupplier cancelled) {
+        List<Future<Smoothed>> futures = new ArrayList<>();
+        List<ProductDays> batch = new ArrayList<>();
+        ProductDays[] current = {null};
+        boolean success = store.forEachDailyUnits(from, to, (productId, day, units) -> {
+            if (current[0] == null || current[0].productId != productId) {
+                if (cancelled.getAsBoolean()) {
+                    throw new CancellationException("Demand forecast run cancelled.");
+                }
+                if (batch.size() == BATCH_PRODUCTS) {
+                    futures.add(submit(new ArrayList<>(batch)));
+                    batch.clear();
+                }
+                current[0] = new ProductDays(productId);
+                batch.add(current[0]);
+            }
+            current[0].add(day.toEpochDay(), units);
+        });
+        if (!batch.isEmpty()) {
+            futures.add(submit(batch));
+        }
+        // The new states are only published once every batch is done, so a failed read changes nothing
+        List<Smoothed> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<Smoothed> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return -1;
+        } catch (ExecutionException e) {
+            System.err.println("Error updating the demand forecast: " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
+            return -1;
+        }
+        if (!success) {
+            return -1;
+        }
+        int updated = 0;
+        for (Smoothed result : results) {
+            for (int i = 0; i < result.productIds.length; i++) {
+                states.put(result.productIds[i], result.states[i]);
+            }
+            updated += result.productIds.length;
+        }
+        return updated;
+    }
+
+    private Future<Smoothed> submit(List<ProductDays> batch) {
+        return workers.submit(() -> {
+            Smoothed result = new Smoothed(batch.size());
+            for (int i = 0; i < batch.size(); i++) {
+                ProductDays product = batch.get(i);
+                result.productIds[i] = product.productId;
+                result.states[i] = smooth(states.get(product.productId), product);
+            }
+            return result;
+        });
+    }
+
+    // Applies the days with sales of one product; the days in between had zero sales
+    private State smooth(State state, ProductDays product) {
+        for (int i = 0; i < product.size; i++) {
+            long day = product.days[i];
+            double units = product.units[i];
+            if (state == null) {
+                // First sale in the history: the level starts at that day's units, the days before are skipped
+                state = new State(units, 0, day);
+                continue;
+            }
+            state = carryForward(state, day - 1);
+            double error = units - state.level;
+            state = new State(state.level + alpha * error, (1 - alpha) * state.variance + alpha * error * error, day);
+        }
+        return state;
+    }
+
+    // Smooths the days after state.lastDay up to and including throughDay as days without sales.
+    // With d = 1 - alpha and k days, the level becomes L * d^k and the variance V * d^k + L^2 * d^(k-1) * (1 - d^k).
+    private State carryForward(State state, long throughDay) {
+        long days = throughDay - state.lastDay;
+        if (days <= 0) {
+            return state;
+        }
+        double decay = 1 - alpha;
+        double decayK = Math.pow(decay, days);
+        double level = state.level;
+        double variance = state.variance * decayK + level * level * Math.pow(decay, days - 1) * (1 - decayK);
+        return new State(level * decayK, variance, throughDay);
+    }
+
+    private void refreshWarnings() {
+        List<Forecast> low = new ArrayList<>();
+        for (Product product : store.getAllProducts()) {
+            Forecast forecast = forecast(product);
+            if (forecast.isLow()) {
+                low.add(forecast);
+            }
+        }
+        low.sort(Comparator.comparingDouble(Forecast::getDaysOfCover));
+        warnings = Collections.unmodifiableList(low.size() > MAX_WARNINGS ? new ArrayList<>(low.subList(0, MAX_WARNINGS)) : low);
+    }
+
+    private void runQuietly() {
+        if (closed) {
+            return;
+        }
+        try {
+            run();
+        } catch (RuntimeException e) {
+            // Keep the schedule alive; the next run retries the same days
+            System.err.println("Demand forecast run failed: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * The days with sales of one product in the range being read, in day order.
+     */
+    private static final class ProductDays {
+        final int productId;
+        long[] days = new long[8];
+        long[] units = new long[8];
+        int size;
+
+        ProductDays(int productId) {
+            this.productId = productId;
+        }
+
+        void add(long day, long unitsSold) {
+            if (size == days.length) {
+                days = Arrays.copyOf(days, size * 2);
+                units = Arrays.copyOf(units, size * 2);
+            }
+            days[size] = day;
+            units[size] = unitsSold;
+            size++;
+        }
+    }
+
+    /**
+     * The new states of one batch of products, by position.
+     */
+    private static final class Smoothed {
+        final int[] productIds;
+        final State[] states;
+
+        Smoothed(int size) {
+            productIds = new int[size];
+            states = new State[size];
+        }
+    }
+}
@@ -0,0 +1,149 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.stream.IntStream;
+
+/**
+ * Finds groups of customer records that probably describe the same person.
+ *
+ * Customers are grouped into blocks by the keys from {@link CustomerMatcher#blockingKeys}
+ * (phonetic name, email, phone), and only customers in the same block are compared.
+ * Small blocks are compared pair by pair; large blocks (common names) are sorted by name and
+ * each customer is compared with its next few neighbours only. Matching pairs are merged into
+ * groups with union-find, so A~B and B~C end up in one group.
+ *
+ * Profiles, blocks and comparisons are processed in parallel on the common fork-join pool.
+ */
+public class DuplicateCustomerDetector {
+
+    private static final int FULL_COMPARISON_BLOCK_SIZE = 40; // Larger blocks use the sorted-neighbourhood window
+    private static final int NEIGHBOURHOOD_WINDOW = 12;
+
+    private final double threshold;
+
+    public DuplicateCustomerDetector() {
+        this(CustomerMatcher.DEFAULT_THRESHOLD);
+    }
+
+    /**
+     * @param threshold Minimum similarity for two customers to be treated as duplicates.
+     */
+    public DuplicateCustomerDetector(double threshold) {
+        this.threshold = threshold;
+    }
+
+    /**
+     * Finds duplicate groups.
+     * @param customers All customers to check.
+     * @return Groups of at least two customers, each sorted by customer ID, ordered by their first ID.
+     */
+    public List<List<Customer>> findDuplicates(List<Customer> customers) {
+        int n = customers.size();
+        CustomerMatcher.Profile[] profiles = new CustomerMatcher.Profile[n];
+        IntStream.range(0, n).parallel().forEach(i -> profiles[i] = CustomerMatcher.profile(customers.get(i)));
+
+        // 1. Blocking: (key hash, customer index) pairs sorted so that each block is one run.
+        //    A hash collision only merges two blocks, which costs comparisons but never loses a match.
+        long[] keyed = IntStream.range(0, n).parallel()
+                .mapToObj(i -> CustomerMatcher.blockingKeys(profiles[i]).stream()
+                        .mapToLong(key -> ((long) key.hashCode() << 32) | i))
+                .flatMapToLong(keys -> keys)
+                .toArray();
+        Arrays.parallelSort(keyed);
+        List<int[]> blocks = new ArrayList<>();
+        for (int start = 0; start < keyed.length; ) {
+            int end = start + 1;
+            while (end < keyed.length && (keyed[end] >>> 32) == (keyed[start] >>> 32)) {
+                end++;
+            }
+            if (end - start > 1) {
+                int[] members = new int[end - start];
+                for (int k = start; k < end; k++) {
+                    members[k - start] = (int) keyed[k];
+                }
+                blocks.add(members);
+            }
+            start = end;
+        }
+
+        // 2. Compare within blocks; collect matching pairs
+        ConcurrentLinkedQueue<int[]> pairs = new ConcurrentLinkedQueue<>();
+        blocks.parallelStream().forEach(members -> compareBlock(members, profiles, pairs));
+
+        // 3. Merge pairs into groups
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int[] pair : pairs) {
+            union(parent, pair[0], pair[1]);
+        }
+        Map<Integer, List<Customer>> groups = new HashMap<>();
+        for (int[] pair : pairs) {
+            groups.putIfAbsent(find(parent, pair[0]), new ArrayList<>());
+        }
+        for (int i = 0; i < n; i++) {
+            List<Customer> group = groups.get(find(parent, i));
+            if (group != null) {
+                group.add(customers.get(i));
+            }
+        }
+
+        List<List<Customer>> result = new ArrayList<>(groups.values());
+        for (List<Customer> group : result) {
+            group.sort(Comparator.comparingInt(Customer::getCustomerId));
+        }
+        result.sort(Comparator.comparingInt(group -> group.get(0).getCustomerId()));
+        return result;
+    }
+
+    private void compareBlock(int[] members, CustomerMatcher.Profile[] profiles, ConcurrentLinkedQueue<int[]> pairs) {
+        if (members.length <= FULL_COMPARISON_BLOCK_SIZE) {
+            for (int a = 0; a < members.length; a++) {
+                for (int b = a + 1; b < members.length; b++) {
+                    comparePair(members[a], members[b], profiles, pairs);
+                }
+            }
+            return;
+        }
+        // Sorted neighbourhood: near-identical names end up next to each other
+        Integer[] sorted = new Integer[members.length];
+        String[] sortKeys = new String[members.length];
+        for (int k = 0; k < members.length; k++) {
+            sorted[k] = k;
+            sortKeys[k] = profiles[members[k]].last + ' ' + profiles[members[k]].first;
+        }
+        Arrays.sort(sorted, Comparator.comparing(k -> sortKeys[k]));
+        for (int a = 0; a < sorted.length; a++) {
+            for (int b = a + 1; b < sorted.length && b <= a + NEIGHBOURHOOD_WINDOW; b++) {
+                comparePair(members[sorted[a]], members[sorted[b]], profiles, pairs);
+            }
+        }
+    }
+
+    private void comparePair(int a, int b, CustomerMatcher.Profile[] profiles, ConcurrentLinkedQueue<int[]> pairs) {
+        if (CustomerMatcher.isMatch(profiles[a], profiles[b], threshold)) {
+            pairs.add(new int[]{a, b});
+        }
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]]; // Path halving
+            i = parent[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parent, int a, int b) {
+        int rootA = find(parent, a);
+        int rootB = find(parent, b);
+        if (rootA != rootB) {
+            parent[Math.max(rootA, rootB)] = Math.min(rootA, rootB);
+        }
+    }
+}
@@ -0,0 +1,846 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.zip.CRC32;
+
+/**
+ * Pure-Java embedded storage backend that implements the product, customer and sale DAOs on local files.
+ * Intended for branch stores without a PostgreSQL install and for fast tests.
+ *
+ * Storage layout:
+ * - All changes are appended to a memory-mapped log file ("sales-NNNNNN.log").
+ *   Each record is [int length][int crc32][payload] and holds every change of one DAO call,
+ *   so a record is also the unit of atomicity (e.g. a sale insert plus its stock decrement).
+ * - Records are forced to disk before the call returns. On startup the log is replayed into
+ *   in-memory int-keyed indexes; a torn or corrupt tail record is discarded (crash recovery).
+ * - When most of the log is superseded data, it is compacted into a new generation file that
+ *   holds one record per live row, and the old generation is removed.
+ *
+ * The same rules as the PostgreSQL schema apply: unique product names and customer emails,
+ * sales must reference existing products and customers, and products or customers with sales
+ * cannot be deleted. addSale, updateSale and deleteSale follow DatabaseManager's stock logic.
+ */
+public class FileDataStore implements IDataStore {
+
+    private static final long MAGIC = 0x534D534C4F473031L; // "SMSLOG01"
+    private static final int HEADER_SIZE = 8;
+    private static final int RECORD_HEADER_SIZE = 8; // length + crc32
+    private static final int INITIAL_CAPACITY = 1 << 20;
+    private static final long MAX_CAPACITY = Integer.MAX_VALUE;
+    private static final String LOG_PREFIX = "sales-";
+    private static final String LOG_SUFFIX = ".log";
+    private static final long COMPACTION_MIN_OPS = 10_000; // Don't bother compacting small logs
+    private static final int COMPACTION_OPS_PER_RECORD = 1000;
+
+    // Log operation types
+    private static final byte OP_PUT_PRODUCT = 1;
+    private static final byte OP_DELETE_PRODUCT = 2;
+    private static final byte OP_PUT_CUSTOMER = 3;
+    private static final byte OP_DELETE_CUSTOMER = 4;
+    private static final byte OP_PUT_SALE = 5;
+    private static final byte OP_DELETE_SALE = 6;
+    private static final byte OP_SEQUENCES = 7;
+
+    private final Path directory;
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // Log file state
+    private long generation;
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+    private int writePosition;
+    private long opsInLog;
+
+    // In-memory indexes rebuilt from the log
+    private final IntObjectHashMap<Product> products = new IntObjectHashMap<>();
+    private final IntObjectHashMap<Customer> customers = new IntObjectHashMap<>();
+    private final Map<String, Integer> submittedSaleIds = new HashMap<>(); // Idempotency keys; not logged, so kept until restart
+    private final IntObjectHashMap<Sale> sales = new IntObjectHashMap<>();
+    private final Map<String, Integer> productIdByName = new HashMap<>();
+    private final Map<String, Integer> customerIdByEmail = new HashMap<>();
+    private final IntIntHashMap saleCountByProduct = new IntIntHashMap();
+    private final IntIntHashMap saleCountByCustomer = new IntIntHashMap();
+    private int lastProductId;
+    private int lastCustomerId;
+    private int lastSaleId;
+
+    /**
+     * Opens (or creates) the store in the given directory and recovers its state from the log.
+     * @param directory The directory holding the log files.
+     * @throws IOException if the log cannot be opened or is not a sales log.
+     */
+    public FileDataStore(Path directory) throws IOException {
+        this.directory = directory;
+        Files.createDirectories(directory);
+        openLatestGeneration();
+        System.out.println("Opened file data store in " + directory.toAbsolutePath() + " (" +
+                products.size() + " products, " + customers.size() + " customers, " + sales.size() + " sales).");
+    }
+
+    // --- Product DAO Implementation ---
+
+    @Override
+    public boolean addProduct(Product product) {
+        lock.writeLock().lock();
+        try {
+            if (product.getName() == null || productIdByName.containsKey(product.getName())) {
+                System.err.println("Error adding product: name is missing or already exists.");
+                return false;
+            }
+            int productId = lastProductId + 1;
+            RecordBuilder record = new RecordBuilder();
+            record.putProduct(productId, product.getName(), product.getPrice(), product.getStock());
+            if (!commit(record, "adding product")) {
+                return false;
+            }
+            product.setProductId(productId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Product getProductById(int productId) {
+        lock.readLock().lock();
+        try {
+            Product product = products.get(productId);
+            return product == null ? null : copyOf(product);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Product> getAllProducts() {
+        lock.readLock().lock();
+        try {
+            List<Product> result = new ArrayList<>(products.size());
+            for (Product product : products.values()) {
+                result.add(copyOf(product));
+            }
+            result.sort(Comparator.comparingInt(Product::getProductId));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateProduct(Product product) {
+        lock.writeLock().lock();
+        try {
+            if (!products.containsKey(product.getProductId())) {
+                return false;
+            }
+            Integer owner = product.getName() == null ? null : productIdByName.get(product.getName());
+            if (product.getName() == null || (owner != null && owner != product.getProductId())) {
+                System.err.println("Error updating product: name is missing or already exists.");
+                return false;
+            }
+            RecordBuilder record = new RecordBuilder();
+            record.putProduct(product.getProductId(), product.getName(), product.getPrice(), product.getStock());
+            return commit(record, "updating product");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteProduct(int productId) {
+        lock.writeLock().lock();
+        try {
+            if (!products.containsKey(productId)) {
+                return false;
+            }
+            if (saleCountByProduct.getOrDefault(productId, 0) > 0) {
+                System.err.println("Error deleting product: it is referenced by existing sales.");
+                return false;
+            }
+            RecordBuilder record = new RecordBuilder();
+            record.deleteProduct(productId);
+            return commit(record, "deleting product");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateProductStock(int productId, int quantityChange) {
+        lock.writeLock().lock();
+        try {
+            Product product = products.get(productId);
+            if (product == null) {
+                return false;
+            }
+            RecordBuilder record = new RecordBuilder();
+            record.putProduct(productId, product.getName(), product.getPrice(), product.getStock() + quantityChange);
+            return commit(record, "updating product stock");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Customer DAO Implementation ---
+
+    @Override
+    public boolean addCustomer(Customer customer) {
+        lock.writeLock().lock();
+        try {
+            if (customer.getFirstName() == null || customer.getLastName() == null ||
+                    (customer.getEmail() != null && customerIdByEmail.containsKey(customer.getEmail()))) {
+                System.err.println("Error adding customer: name is missing or email already exists.");
+                return false;
+            }
+            int customerId = lastCustomerId + 1;
+            RecordBuilder record = new RecordBuilder();
+            record.putCustomer(customerId, customer.getFirstName(), customer.getLastName(), customer.getEmail(), customer.getPhone());
+            if (!commit(record, "adding customer")) {
+                return false;
+            }
+            customer.setCustomerId(customerId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer getCustomerById(int customerId) {
+        lock.readLock().lock();
+        try {
+            Customer customer = customers.get(customerId);
+            return customer == null ? null : copyOf(customer);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Customer> getAllCustomers() {
+        lock.readLock().lock();
+        try {
+            List<Customer> result = new ArrayList<>(customers.size());
+            for (Customer customer : customers.values()) {
+                result.add(copyOf(customer));
+            }
+            result.sort(Comparator.comparingInt(Customer::getCustomerId));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateCustomer(Customer customer) {
+        lock.writeLock().lock();
+        try {
+            if (!customers.containsKey(customer.getCustomerId())) {
+                return false;
+            }
+            Integer owner = customer.getEmail() == null ? null : customerIdByEmail.get(customer.getEmail());
+            if (customer.getFirstName() == null || customer.getLastName() == null ||
+                    (owner != null && owner != customer.getCustomerId())) {
+                System.err.println("Error updating customer: name is missing or email already exists.");
+                return false;
+            }
+            RecordBuilder record = new RecordBuilder();
+            record.putCustomer(customer.getCustomerId(), customer.getFirstName(), customer.getLastName(),
+                    customer.getEmail(), customer.getPhone());
+            return commit(record, "updating customer");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteCustomer(int customerId) {
+        lock.writeLock().lock();
+        try {
+            if (!customers.containsKey(customerId)) {
+                return false;
+            }
+            if (saleCountByCustomer.getOrDefault(customerId, 0) > 0) {
+                System.err.println("Error deleting customer: they are referenced by existing sales.");
+                return false;
+            }
+            RecordBuilder record = new RecordBuilder();
+            record.deleteCustomer(customerId);
+            return commit(record, "deleting customer");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer getCustomerByName(String firstName, String lastName) {
+        lock.readLock().lock();
+        try {
+            Customer match = null;
+            for (Customer customer : customers.values()) {
+                if (customer.getFirstName().equals(firstName) && customer.getLastName().equals(lastName) &&
+                        (match == null || customer.getCustomerId() < match.getCustomerId())) {
+                    match = customer;
+                }
+            }
+            return match == null ? null : copyOf(match);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // --- Sale DAO Implementation ---
+
+    @Override
+    public boolean addSale(Sale sale) {
+        lock.writeLock().lock();
+        try {
+            // 1. Check product stock
+            Product product = products.get(sale.getProductId());
+            if (product == null || product.getStock() < sale.getQuantity()) {
+                System.err.println("Insufficient stock for product ID: " + sale.getProductId());
+                return false;
+            }
+            if (!customers.containsKey(sale.getCustomerId())) {
+                System.err.println("Error adding sale: customer ID " + sale.getCustomerId() + " does not exist.");
+                return false;
+            }
+
+            // 2. Insert sale record and 3. decrease stock, as one log record
+            int saleId = lastSaleId + 1;
+            RecordBuilder record = new RecordBuilder();
+            record.putSale(saleId, sale.getProductId(), sale.getCustomerId(), sale.getQuantity(),
+                    sale.getUnitPriceAtSale(), sale.getTotalSalePrice(), sale.getSaleDate());
+            record.putProduct(product.getProductId(), product.getName(), product.getPrice(), product.getStock() - sale.getQuantity());
+            if (!commit(record, "adding sale")) {
+                return false;
+            }
+            sale.setSaleId(saleId);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public SaleSubmission submitSale(Sale sale, String idempotencyKey) {
+        SaleSubmission.checkKey(idempotencyKey);
+        lock.writeLock().lock(); // Held across addSale (reentrant), so two calls with one key cannot both add
+        try {
+            Integer originalId = submittedSaleIds.get(idempotencyKey);
+            if (originalId != null) {
+                return SaleSubmission.duplicate(getSaleById(originalId));
+            }
+            if (!addSale(sale)) {
+                return null;
+            }
+            submittedSaleIds.put(idempotencyKey, sale.getSaleId());
+            return SaleSubmission.created(sale);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Sale getSaleById(int saleId) {
+        lock.readLock().lock();
+        try {
+            Sale sale = sales.get(saleId);
+            return sale == null ? null : copyOf(sale);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Sale> getAllSales() {
+        lock.readLock().lock();
+        try {
+            List<Sale> result = new ArrayList<>(sales.size());
+            for (Sale sale : sales.values()) {
+                result.add(copyOf(sale));
+            }
+            result.sort(Comparator.comparingInt(Sale::getSaleId));
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateSale(Sale sale) {
+        lock.writeLock().lock();
+        try {
+            // 1. Get old sale details to calculate stock difference
+            Sale oldSale = sales.get(sale.getSaleId());
+            if (oldSale == null) {
+                System.err.println("Sale with ID " + sale.getSaleId() + " not found for update.");
+                return false;
+            }
+            int quantityDifference = sale.getQuantity() - oldSale.getQuantity();
+
+            // 2. Check product stock if quantity increased
+            Product product = products.get(sale.getProductId());
+            if (product == null || (quantityDifference > 0 && product.getStock() < quantityDifference)) {
+                System.err.println("Insufficient stock to increase quantity for product ID: " + sale.getProductId());
+                return false;
+            }
+            if (!customers.containsKey(sale.getCustomerId())) {
+                System.err.println("Error updating sale: customer ID " + sale.getCustomerId() + " does not exist.");
+                return false;
+            }
+
+            // 3. Update sale record and 4. adjust product stock, as one log record
+            RecordBuilder record = new RecordBuilder();
+            record.putSale(sale.getSaleId(), sale.getProductId(), sale.getCustomerId(), sale.getQuantity(),
+                    sale.getUnitPriceAtSale(), sale.getTotalSalePrice(), sale.getSaleDate());
+            if (quantityDifference != 0) {
+                record.putProduct(product.getProductId(), product.getName(), product.getPrice(), product.getStock() - quantityDifference);
+            }
+            return commit(record, "updating sale");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteSale(int saleId) {
+        lock.writeLock().lock();
+        try {
+            // 1. Get sale details to return stock
+            Sale saleToDelete = sales.get(saleId);
+            if (saleToDelete == null) {
+                System.err.println("Sale with ID " + saleId + " not found for deletion.");
+                return false;
+            }
+            Product product = products.get(saleToDelete.getProductId());
+
+            // 2. Delete sale record and 3. return quantity to stock, as one log record
+            RecordBuilder record = new RecordBuilder();
+            record.deleteSale(saleId);
+            record.putProduct(product.getProductId(), product.getName(), product.getPrice(), product.getStock() + saleToDelete.getQuantity());
+            return commit(record, "deleting sale");
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Closes the log file. The store must not be used afterwards.
+     */
+    @Override
+    public void closeConnection() {
+        lock.writeLock().lock();
+        try {
+            if (channel != null && channel.isOpen()) {
+                buffer.force();
+                channel.close();
+                System.out.println("File data store closed.");
+            }
+        } catch (IOException e) {
+            System.err.println("Error closing file data store: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // --- Log Writing ---
+
+    /**
+     * Appends the record durably, then applies it to the in-memory indexes.
+     * Nothing is applied if the write fails, so a failed call leaves no partial change behind.
+     * Must be called with the write lock held.
+     */
+    private boolean commit(RecordBuilder record, String action) {
+        byte[] payload = record.toByteArray();
+        try {
+            append(payload);
+            applyRecord(payload);
+        } catch (IOException e) {
+            System.err.println("Error " + action + " (log write failed): " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+        compactIfNeeded();
+        return true;
+    }
+
+    private void append(byte[] payload) throws IOException {
+        if (channel == null || !channel.isOpen()) {
+            throw new IOException("File data store is closed.");
+        }
+        int recordSize = RECORD_HEADER_SIZE + payload.length;
+        ensureCapacity((long) writePosition + recordSize + 4); // Keep room for a zero terminator
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        buffer.putInt(writePosition + 4, (int) crc.getValue());
+        buffer.put(writePosition + RECORD_HEADER_SIZE, payload);
+        buffer.putInt(writePosition, payload.length); // Length last; the CRC still guards against reordered page writes
+        buffer.force(writePosition, recordSize);
+        writePosition += recordSize;
+    }
+
+    private void ensureCapacity(long required) throws IOException {
+        if (required <= buffer.capacity()) {
+            return;
+        }
+        if (required > MAX_CAPACITY) {
+            throw new IOException("Sales log exceeds the maximum mappable size; compaction is required.");
+        }
+        long newCapacity = Math.min(Math.max((long) buffer.capacity() * 2, required), MAX_CAPACITY);
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, newCapacity);
+    }
+
+    // --- Recovery ---
+
+    private void openLatestGeneration() throws IOException {
+        long latest = 0;
+        List<Path> logs = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, LOG_PREFIX + "*")) {
+            for (Path path : stream) {
+                String fileName = path.getFileName().toString();
+                if (!fileName.endsWith(LOG_SUFFIX)) {
+                    Files.deleteIfExists(path); // Leftover from an interrupted compaction
+                    continue;
+                }
+                logs.add(path);
+                latest = Math.max(latest, parseGeneration(fileName));
+            }
+        }
+        generation = Math.max(latest, 1);
+        for (Path path : logs) {
+            if (parseGeneration(path.getFileName().toString()) < generation) {
+                Files.deleteIfExists(path); // Superseded by a completed compaction
+            }
+        }
+        recover(logPath(generation));
+    }
+
+    private void recover(Path logFile) throws IOException {
+        channel = FileChannel.open(logFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, INITIAL_CAPACITY));
+
+        if (size < HEADER_SIZE || buffer.getLong(0) == 0) {
+            buffer.putLong(0, MAGIC);
+            buffer.force(0, HEADER_SIZE);
+            writePosition = HEADER_SIZE;
+            return;
+        }
+        if (buffer.getLong(0) != MAGIC) {
+            channel.close();
+            throw new IOException(logFile + " is not a sales log.");
+        }
+
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || (long) position + RECORD_HEADER_SIZE + length > buffer.capacity()) {
+                break;
+            }
+            byte[] payload = new byte[length];
+            buffer.get(position + RECORD_HEADER_SIZE, payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            if ((int) crc.getValue() != buffer.getInt(position + 4)) {
+                break; // Torn write from a crash: everything from here on is discarded
+            }
+            applyRecord(payload);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        writePosition = position;
+
+        if (position + 4 <= buffer.capacity() && buffer.getInt(position) != 0) {
+            System.err.println("Discarding incomplete record at offset " + position + " of " + logFile.getFileName());
+            byte[] zeros = new byte[8192];
+            for (int offset = position; offset < buffer.capacity(); offset += zeros.length) {
+                buffer.put(offset, zeros, 0, Math.min(zeros.length, buffer.capacity() - offset));
+            }
+            buffer.force();
+        }
+    }
+
+    private void applyRecord(byte[] payload) throws IOException {
+        ByteBuffer in = ByteBuffer.wrap(payload);
+        while (in.hasRemaining()) {
+            byte op = in.get();
+            opsInLog++;
+            switch (op) {
+                case OP_PUT_PRODUCT: {
+                    Product product = new Product(in.getInt(), readString(in), Money.ofCents(in.getLong()), in.getInt());
+                    Product old = products.put(product.getProductId(), product);
+                    if (old != null) productIdByName.remove(old.getName());
+                    productIdByName.put(product.getName(), product.getProductId());
+                    lastProductId = Math.max(lastProductId, product.getProductId());
+                    break;
+                }
+                case OP_DELETE_PRODUCT: {
+                    Product old = products.remove(in.getInt());
+                    if (old != null) productIdByName.remove(old.getName());
+                    break;
+                }
+                case OP_PUT_CUSTOMER: {
+                    Customer customer = new Customer(in.getInt(), readString(in), readString(in),
+                            readString(in), readString(in));
+                    Customer old = customers.put(customer.getCustomerId(), customer);
+                    if (old != null && old.getEmail() != null) customerIdByEmail.remove(old.getEmail());
+                    if (customer.getEmail() != null) customerIdByEmail.put(customer.getEmail(), customer.getCustomerId());
+                    lastCustomerId = Math.max(lastCustomerId, customer.getCustomerId());
+                    break;
+                }
+                case OP_DELETE_CUSTOMER: {
+                    Customer old = customers.remove(in.getInt());
+                    if (old != null && old.getEmail() != null) customerIdByEmail.remove(old.getEmail());
+                    break;
+                }
+                case OP_PUT_SALE: {
+                    Sale sale = new Sale(in.getInt(), in.getInt(), in.getInt(), in.getInt(),
+                            Money.ofCents(in.getLong()), Money.ofCents(in.getLong()), LocalDate.ofEpochDay(in.getLong()));
+                    Sale old = sales.put(sale.getSaleId(), sale);
+                    if (old != null) {
+                        saleCountByProduct.addTo(old.getProductId(), -1);
+                        saleCountByCustomer.addTo(old.getCustomerId(), -1);
+                    }
+                    saleCountByProduct.addTo(sale.getProductId(), 1);
+                    saleCountByCustomer.addTo(sale.getCustomerId(), 1);
+                    lastSaleId = Math.max(lastSaleId, sale.getSaleId());
+                    break;
+                }
+                case OP_DELETE_SALE: {
+                    Sale old = sales.remove(in.getInt());
+                    if (old != null) {
+                        saleCountByProduct.addTo(old.getProductId(), -1);
+                        saleCountByCustomer.addTo(old.getCustomerId(), -1);
+                    }
+                    break;
+                }
+                case OP_SEQUENCES:
+                    lastProductId = Math.max(lastProductId, in.getInt());
+                    lastCustomerId = Math.max(lastCustomerId, in.getInt());
+                    lastSaleId = Math.max(lastSaleId, in.getInt());
+                    break;
+                default:
+                    throw new IOException("Unknown log operation type: " + op);
+            }
+        }
+    }
+
+    // --- Compaction ---
+
+    private void compactIfNeeded() {
+        long liveRows = (long) products.size() + customers.size() + sales.size();
+        if (opsInLog > COMPACTION_MIN_OPS && opsInLog > 2 * liveRows) {
+            try {
+                compact();
+            } catch (IOException e) {
+                System.err.println("Error compacting sales log (will retry later): " + e.getMessage());
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Rewrites the live rows into a new log generation and switches to it.
+     * The new file is written under a temporary name and only renamed once it is complete and forced,
+     * so a crash during compaction leaves the previous generation in charge.
+     * Must be called with the write lock held.
+     */
+    private void compact() throws IOException {
+        long nextGeneration = generation + 1;
+        Path target = logPath(nextGeneration);
+        Path temp = directory.resolve(target.getFileName() + ".tmp");
+        long opsWritten = 0;
+
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).putLong(0, MAGIC);
+            writeFully(out, header);
+
+            RecordBuilder record = new RecordBuilder();
+            record.sequences(lastProductId, lastCustomerId, lastSaleId);
+            for (Product p : products.values()) {
+                record.putProduct(p.getProductId(), p.getName(), p.getPrice(), p.getStock());
+                if (record.opCount >= COMPACTION_OPS_PER_RECORD) record = flushRecord(out, record);
+            }
+            for (Customer c : customers.values()) {
+                record.putCustomer(c.getCustomerId(), c.getFirstName(), c.getLastName(), c.getEmail(), c.getPhone());
+                if (record.opCount >= COMPACTION_OPS_PER_RECORD) record = flushRecord(out, record);
+            }
+            for (Sale s : sales.values()) {
+                record.putSale(s.getSaleId(), s.getProductId(), s.getCustomerId(), s.getQuantity(),
+                        s.getUnitPriceAtSale(), s.getTotalSalePrice(), s.getSaleDate());
+                if (record.opCount >= COMPACTION_OPS_PER_RECORD) record = flushRecord(out, record);
+            }
+            flushRecord(out, record);
+            opsWritten = 1 + (long) products.size() + customers.size() + sales.size();
+            out.force(true);
+        }
+        Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE);
+
+        // Switch to the new generation; the old mapping is released when it is garbage collected
+        Path oldLog = logPath(generation);
+        channel.close();
+        generation = nextGeneration;
+        channel = FileChannel.open(target, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        writePosition = (int) channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(channel.size() + INITIAL_CAPACITY, INITIAL_CAPACITY));
+        opsInLog = opsWritten;
+        try {
+            Files.deleteIfExists(oldLog);
+        } catch (IOException e) {
+            // Some platforms refuse to delete a file that is still mapped; it is removed on the next startup
+            System.err.println("Old sales log will be removed on next startup: " + e.getMessage());
+        }
+        System.out.println("Compacted sales log into generation " + generation + ".");
+    }
+
+    private RecordBuilder flushRecord(FileChannel out, RecordBuilder record) throws IOException {
+        if (record.opCount == 0) {
+            return record;
+        }
+        byte[] payload = record.toByteArray();
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer bytes = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length);
+        bytes.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        writeFully(out, bytes);
+        return new RecordBuilder();
+    }
+
+    private static void writeFully(FileChannel out, ByteBuffer bytes) throws IOException {
+        while (bytes.hasRemaining()) {
+            out.write(bytes);
+        }
+    }
+
+    // --- Helpers ---
+
+    private Path logPath(long logGeneration) {
+        return directory.resolve(String.format("%s%06d%s", LOG_PREFIX, logGeneration, LOG_SUFFIX));
+    }
+
+    private static long parseGeneration(String fileName) {
+        try {
+            return Long.parseLong(fileName.substring(LOG_PREFIX.length(), fileName.length() - LOG_SUFFIX.length()));
+        } catch (RuntimeException e) {
+            return 0;
+        }
+    }
+
+    private static String readString(ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] utf8 = new byte[length];
+        in.get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+
+    private static Product copyOf(Product p) {
+        return new Product(p.getProductId(), p.getName(), p.getPrice(), p.getStock());
+    }
+
+    private static Customer copyOf(Customer c) {
+        return new Customer(c.getCustomerId(), c.getFirstName(), c.getLastName(), c.getEmail(), c.getPhone());
+    }
+
+    private static Sale copyOf(Sale s) {
+        return new Sale(s.getSaleId(), s.getProductId(), s.getCustomerId(), s.getQuantity(),
+                s.getUnitPriceAtSale(), s.getTotalSalePrice(), s.getSaleDate());
+    }
+
+    /**
+     * Encodes the operations of one log record into a growable byte buffer.
+     */
+    private static class RecordBuilder {
+        private ByteBuffer bytes = ByteBuffer.allocate(64);
+        private int opCount;
+
+        void putProduct(int productId, String name, Money price, int stock) {
+            ensureRoom(1 + 4 + 8 + 4).put(OP_PUT_PRODUCT).putInt(productId);
+            writeString(name);
+            ensureRoom(12).putLong(price.cents()).putInt(stock);
+            opCount++;
+        }
+
+        void deleteProduct(int productId) {
+            ensureRoom(5).put(OP_DELETE_PRODUCT).putInt(productId);
+            opCount++;
+        }
+
+        void putCustomer(int customerId, String firstName, String lastName, String email, String phone) {
+            ensureRoom(5).put(OP_PUT_CUSTOMER).putInt(customerId);
+            writeString(firstName);
+            writeString(lastName);
+            writeString(email);
+            writeString(phone);
+            opCount++;
+        }
+
+        void deleteCustomer(int customerId) {
+            ensureRoom(5).put(OP_DELETE_CUSTOMER).putInt(customerId);
+            opCount++;
+        }
+
+        void putSale(int saleId, int productId, int customerId, int quantity, Money unitPrice, Money totalPrice,
+                     LocalDate saleDate) {
+            ensureRoom(1 + 16 + 16 + 8).put(OP_PUT_SALE)
+                    .putInt(saleId).putInt(productId).putInt(customerId).putInt(quantity)
+                    .putLong(unitPrice.cents()).putLong(totalPrice.cents())
+                    .putLong(saleDate.toEpochDay());
+            opCount++;
+        }
+
+        void deleteSale(int saleId) {
+            ensureRoom(5).put(OP_DELETE_SALE).putInt(saleId);
+            opCount++;
+        }
+
+        void sequences(int lastProductId, int lastCustomerId, int lastSaleId) {
+            ensureRoom(13).put(OP_SEQUENCES).putInt(lastProductId).putInt(lastCustomerId).putInt(lastSaleId);
+            opCount++;
+        }
+
+        // Strings are written as a UTF-8 byte length (-1 for null) followed by the bytes
+        private void writeString(String value) {
+            if (value == null) {
+                ensureRoom(4).putInt(-1);
+                return;
+            }
+            byte[] utf8 = value.getBytes(StandardCharsets.UTF_8);
+            ensureRoom(4 + utf8.length).putInt(utf8.length).put(utf8);
+        }
+
+        private ByteBuffer ensureRoom(int needed) {
+            if (bytes.remaining() < needed) {
+                ByteBuffer larger = ByteBuffer.allocate(Math.max(bytes.capacity() * 2, bytes.position() + needed));
+                bytes.flip();
+                larger.put(bytes);
+                bytes = larger;
+            }
+            return bytes;
+        }
+
+        byte[] toByteArray() {
+            byte[] payload = new byte[bytes.position()];
+            bytes.get(0, payload);
+            return payload;
+        }
+    }
+}
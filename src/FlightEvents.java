@@ -0,0 +1,191 @@
+import java.util.Collection;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Custom JDK Flight Recorder events, so a recording shows the business operations next to GC pauses,
+ * lock stalls and allocation: DAO calls, the SQL they run, sale transactions and table reloads in
+ * the GUI. All events are in the "Sales Management" category and named "sales.*".
+ *
+ * An event is created and timed on every operation but only filled in and written while a recording
+ * has enabled it (shouldCommit), so outside a recording an operation costs a few field writes.
+ * -Dsales.jfr=false removes the instrumentation (the DAO proxy layer and the connection wrapper) entirely.
+ *
+ * Usage: java -XX:StartFlightRecording=filename=sales.jfr ... then open the file in JDK Mission Control,
+ * or print it with: jfr print --events sales.DaoCall,sales.Sql sales.jfr
+ */
+public final class FlightEvents {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("sales.jfr", "true"));
+
+    private FlightEvents() {
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /**
+     * One call of a DAO method, recorded by the proxy layer of {@link #daoCallEvents}.
+     */
+    @Name("sales.DaoCall")
+    @Label("DAO Call")
+    @Category({"Sales Management", "Database"})
+    @Description("A call of a data store method, including the SQL it ran")
+    @StackTrace(false)
+    public static final class DaoCall extends Event {
+        @Label("Method")
+        String method;
+
+        @Label("Outcome")
+        @Description("true/false, the UpdateResult, \"duplicate\" for a repeated submitSale, the exception class, or \"rows\" for reads")
+        String outcome;
+
+        @Label("Rows")
+        @Description("Size of a returned list, 1 or 0 for a single row, -1 for writes")
+        long rows;
+    }
+
+    /**
+     * One statement execution, commit or rollback on a connection wrapped by TracedConnection.
+     * For queries the event is written once the result set has been read, with the row count;
+     * its duration is the execution only.
+     */
+    @Name("sales.Sql")
+    @Label("SQL Statement")
+    @Category({"Sales Management", "Database"})
+    @Description("A JDBC statement execution, or COMMIT/ROLLBACK")
+    @StackTrace(false)
+    public static final class Sql extends Event {
+        @Label("SQL")
+        String sql;
+
+        @Label("Rows")
+        @Description("Rows read or changed; -1 if unknown")
+        long rows;
+    }
+
+    /**
+     * A sale transaction of DatabaseManager (add, submit, update or delete), from its start to its
+     * commit or rollback.
+     */
+    @Name("sales.SaleTransaction")
+    @Label("Sale Transaction")
+    @Category({"Sales Management", "Database"})
+    @StackTrace(false)
+    public static final class SaleTransaction extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Sale ID")
+        @Description("0 if not known, e.g. for addSale, which does not read back the new ID")
+        int saleId;
+
+        @Label("Product ID")
+        int productId;
+
+        @Label("Committed")
+        boolean committed;
+
+        /** @return A started event; pass it to {@link #finish} in the transaction's finally block. */
+        public static SaleTransaction begin(String operation) {
+            SaleTransaction event = new SaleTransaction();
+            event.operation = operation;
+            event.begin();
+            return event;
+        }
+
+        public void finish(int saleId, int productId, boolean committed) {
+            end();
+            if (shouldCommit()) {
+                this.saleId = saleId;
+                this.productId = productId;
+                this.committed = committed;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * A reload of one of the GUI's tables, on the event dispatch thread.
+     */
+    @Name("sales.TableReload")
+    @Label("Table Reload")
+    @Category({"Sales Management", "GUI"})
+    @StackTrace(false)
+    public static final class TableReload extends Event {
+        @Label("Table")
+        String table;
+
+        @Label("Rows")
+        long rows;
+
+        /** @return A started event; pass it to {@link #finish} once the table is filled. */
+        public static TableReload begin(String table) {
+            TableReload event = new TableReload();
+            event.table = table;
+            event.begin();
+            return event;
+        }
+
+        public void finish(long rows) {
+            end();
+            if (shouldCommit()) {
+                this.rows = rows;
+                commit();
+            }
+        }
+    }
+
+    /**
+     * Proxy layer (see DaoProxies) that makes each call of the wrapped store a DaoCall event.
+     * Put it innermost, so the events time the store and not the other layers.
+     * @return The layer, or null with -Dsales.jfr=false.
+     */
+    public static DaoProxies.Interceptor daoCallEvents() {
+        if (!ENABLED) {
+            return null;
+        }
+        return (target, method, args, next) -> {
+            DaoCall event = new DaoCall();
+            event.begin();
+            Object result;
+            try {
+                result = next.proceed();
+            } catch (Throwable e) {
+                event.end();
+                if (event.shouldCommit()) {
+                    event.method = method.getName();
+                    event.outcome = e.getClass().getSimpleName();
+                    event.rows = -1;
+                    event.commit();
+                }
+                throw e;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.method = method.getName();
+                if (result instanceof Boolean || result instanceof UpdateResult) {
+                    event.outcome = result.toString();
+                    event.rows = -1;
+                } else if (method.getReturnType() == SaleSubmission.class) {
+                    event.outcome = result == null ? "false" : ((SaleSubmission) result).isDuplicate() ? "duplicate" : "true";
+                    event.rows = -1;
+                } else if (result instanceof Collection) {
+                    event.outcome = "rows";
+                    event.rows = ((Collection<?>) result).size();
+                } else {
+                    event.outcome = method.getReturnType() == void.class ? "done" : "rows";
+                    event.rows = method.getReturnType() == void.class ? -1 : (result != null ? 1 : 0);
+                }
+                event.commit();
+            }
+            return result;
+        };
+    }
+}
@@ -10,12 +10,30 @@ public interface ICustomerDAO {
     // Get all customers
     List<Customer> getAllCustomers();
 
+    // Get the customers matching a query spec (filters, sort, page); see QueryColumns for the field names.
+    // The default filters all customers in memory; SQL backends translate the spec to an indexed query.
+    default List<Customer> queryCustomers(QuerySpec spec) {
+        return QueryColumns.CUSTOMERS.apply(getAllCustomers(), spec);
+    }
+
     // Update customer details
     boolean updateCustomer(Customer customer);
 
+    // Update customer details only if the row still has the version the customer was read with (compare-and-set).
+    // The default cannot detect conflicts; DatabaseManager checks the version.
+    default UpdateResult tryUpdateCustomer(Customer customer) {
+        return updateCustomer(customer) ? UpdateResult.SUCCESS : UpdateResult.ERROR;
+    }
+
     // Delete customer by ID
     boolean deleteCustomer(int customerId);
 
     // Get customer by first and last name
     Customer getCustomerByName(String firstName, String lastName);
+
+    // Find customers that probably are the given person (typos, swapped names, same email/phone), best first.
+    // The default compares against all customers; backends with an index should narrow the candidates first.
+    default List<CustomerMatcher.Match> findSimilarCustomers(Customer probe, int limit) {
+        return CustomerMatcher.rank(probe, getAllCustomers(), CustomerMatcher.LOOKUP_THRESHOLD, limit);
+    }
 }
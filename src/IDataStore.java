@@ -0,0 +1,58 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A complete storage backend for the Sales Management System.
+ * Combines the product, customer and sale DAOs so the GUI and the API server
+ * can work against any backend (PostgreSQL, local files, ...) through one type.
+ */
+public interface IDataStore extends IProductDAO, ICustomerDAO, ISaleDAO {
+    // Release the connection or files held by the backend
+    void closeConnection();
+
+    // Get the sales matching a query spec, each with its product name and customer full name
+    // (null if that product or customer is gone); see QueryColumns.SALE_VIEWS for the field names.
+    // The default pages the sales first and looks up only the names of that page, unless the spec
+    // filters or sorts on a name; SQL backends join in one indexed query.
+    default List<SaleView> querySaleViews(QuerySpec spec) {
+        if (!QueryColumns.refersTo(spec, "productName") && !QueryColumns.refersTo(spec, "customerName")) {
+            Map<Integer, String> productNames = new HashMap<>();
+            Map<Integer, String> customerNames = new HashMap<>();
+            List<SaleView> views = new ArrayList<>();
+            for (Sale sale : querySales(spec)) {
+                String productName = productNames.computeIfAbsent(sale.getProductId(), id -> {
+                    Product product = getProductById(id);
+                    return product != null ? product.getName() : null;
+                });
+                String customerName = customerNames.computeIfAbsent(sale.getCustomerId(), id -> {
+                    Customer customer = getCustomerById(id);
+                    return customer != null ? customer.getFirstName() + " " + customer.getLastName() : null;
+                });
+                views.add(new SaleView(sale, productName, customerName));
+            }
+            return views;
+        }
+        Map<Integer, String> productNames = new HashMap<>();
+        for (Product product : getAllProducts()) {
+            productNames.put(product.getProductId(), product.getName());
+        }
+        Map<Integer, String> customerNames = new HashMap<>();
+        for (Customer customer : getAllCustomers()) {
+            customerNames.put(customer.getCustomerId(), customer.getFirstName() + " " + customer.getLastName());
+        }
+        // The sale fields still narrow the read, e.g. to a date range
+        QuerySpec salesSpec = new QuerySpec();
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            if (!filter.getField().equals("productName") && !filter.getField().equals("customerName")) {
+                salesSpec.where(filter.getField(), filter.getOp(), filter.getValue());
+            }
+        }
+        List<SaleView> views = new ArrayList<>();
+        for (Sale sale : querySales(salesSpec)) {
+            views.add(new SaleView(sale, productNames.get(sale.getProductId()), customerNames.get(sale.getCustomerId())));
+        }
+        return QueryColumns.SALE_VIEWS.apply(views, spec);
+    }
+}
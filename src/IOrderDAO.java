@@ -0,0 +1,12 @@
+import java.util.List;
+
+public interface IOrderDAO {
+    // Place an order: check and decrease stock for all lines in one transaction; sets the generated IDs
+    boolean placeOrder(Order order);
+
+    // Get order (with its lines) by ID
+    Order getOrderById(int orderId);
+
+    // Get all orders (with their lines)
+    List<Order> getAllOrders();
+}
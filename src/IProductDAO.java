@@ -1,4 +1,6 @@
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
 
 public interface IProductDAO {
     // Add a new product
@@ -10,9 +12,54 @@ public interface IProductDAO {
     // Get all products
     List<Product> getAllProducts();
 
+    // Get the products matching a query spec (filters, sort, page); see QueryColumns for the field names.
+    // The default filters all products in memory; SQL backends translate the spec to an indexed query.
+    default List<Product> queryProducts(QuerySpec spec) {
+        return QueryColumns.PRODUCTS.apply(getAllProducts(), spec);
+    }
+
     // Update product details
     boolean updateProduct(Product product);
 
+    // Update product details only if the row still has the version the product was read with (compare-and-set).
+    // The default cannot detect conflicts; DatabaseManager checks the version.
+    default UpdateResult tryUpdateProduct(Product product) {
+        return updateProduct(product) ? UpdateResult.SUCCESS : UpdateResult.ERROR;
+    }
+
+    // Set new list prices for many products (productId -> price) at once; all or none are changed.
+    // The default updates the products one by one and cannot undo earlier ones; DatabaseManager uses one batched transaction.
+    default boolean updatePrices(Map<Integer, Money> prices) {
+        boolean success = true;
+        for (Map.Entry<Integer, Money> entry : prices.entrySet()) {
+            Product product = getProductById(entry.getKey());
+            if (product == null) {
+                return false;
+            }
+            product.setPrice(entry.getValue());
+            success &= updateProduct(product);
+        }
+        return success;
+    }
+
+    // Get the list price a product had on a date; null if the product or its price on that date is unknown.
+    // The default has no history and returns the current price; DatabaseManager looks it up in getPriceHistory().
+    default Money getPriceAt(int productId, LocalDate date) {
+        Product product = getProductById(productId);
+        return product == null ? null : product.getPrice();
+    }
+
+    // Get the list prices of all products over time, for point-in-time lookups and price reports.
+    // The default has no history and treats the current prices as valid since always; DatabaseManager
+    // records every price change in product_price_history.
+    default PriceHistory getPriceHistory() {
+        PriceHistory.Builder history = new PriceHistory.Builder();
+        for (Product product : getAllProducts()) {
+            history.add(product.getProductId(), PriceHistory.SINCE_ALWAYS, product.getPrice());
+        }
+        return history.build();
+    }
+
     // Delete product by ID
     boolean deleteProduct(int productId);
 
@@ -1,18 +1,86 @@
+import java.time.LocalDate;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 public interface ISaleDAO {
     // Add a new sale and update product stock
     boolean addSale(Sale sale);
 
+    // Add a sale at most once per client-generated idempotency key (see SaleSubmission.checkKey), so a
+    // caller can retry after a timeout: a key that already stored a sale returns that sale, marked as a
+    // duplicate, without booking it or its stock again. Returns null if the sale was not stored (e.g.
+    // insufficient stock or no database); the key stays unused and the same call can be retried.
+    SaleSubmission submitSale(Sale sale, String idempotencyKey);
+
     // Get sale by ID
     Sale getSaleById(int saleId);
 
     // Get all sales
     List<Sale> getAllSales();
 
+    // Get the sales matching a query spec (filters, sort, page); see QueryColumns for the field names.
+    // The default filters all sales in memory; SQL backends translate the spec to an indexed query.
+    default List<Sale> querySales(QuerySpec spec) {
+        return QueryColumns.SALES.apply(getAllSales(), spec);
+    }
+
+    // Get the sales dated from..to (both inclusive), oldest first.
+    // Goes through querySales, so SQL backends only read the partitions of that date range.
+    default List<Sale> getSalesBetween(LocalDate from, LocalDate to) {
+        return querySales(new QuerySpec()
+                .where("saleDate", QuerySpec.Op.GE, from)
+                .where("saleDate", QuerySpec.Op.LE, to)
+                .orderBy("saleDate", true));
+    }
+
+    // Get the sales of one product dated from..to (both inclusive), oldest first
+    default List<Sale> getSalesBetweenForProduct(int productId, LocalDate from, LocalDate to) {
+        return querySales(new QuerySpec()
+                .where("productId", QuerySpec.Op.EQ, productId)
+                .where("saleDate", QuerySpec.Op.GE, from)
+                .where("saleDate", QuerySpec.Op.LE, to)
+                .orderBy("saleDate", true));
+    }
+
+    // Get the sales of one customer dated from..to (both inclusive), oldest first
+    default List<Sale> getSalesBetweenForCustomer(int customerId, LocalDate from, LocalDate to) {
+        return querySales(new QuerySpec()
+                .where("customerId", QuerySpec.Op.EQ, customerId)
+                .where("saleDate", QuerySpec.Op.GE, from)
+                .where("saleDate", QuerySpec.Op.LE, to)
+                .orderBy("saleDate", true));
+    }
+
+    // Receives the units sold of one product on one day (see forEachDailyUnits)
+    @FunctionalInterface
+    interface DailyUnitsConsumer {
+        void accept(int productId, LocalDate day, long units);
+    }
+
+    // Pass the units sold per product and day from..to (both inclusive) to the consumer, ordered by product, then day.
+    // Days without sales are left out. Returns false if reading failed; rows passed before the failure are not repeated.
+    // The default sums getSalesBetween in memory; SQL backends aggregate with GROUP BY and stream the rows.
+    default boolean forEachDailyUnits(LocalDate from, LocalDate to, DailyUnitsConsumer consumer) {
+        TreeMap<Long, Long> units = new TreeMap<>(); // (productId << 32 | epochDay) -> units
+        for (Sale sale : getSalesBetween(from, to)) {
+            units.merge(((long) sale.getProductId() << 32) | sale.getSaleDate().toEpochDay(), (long) sale.getQuantity(), Long::sum);
+        }
+        for (Map.Entry<Long, Long> entry : units.entrySet()) {
+            consumer.accept((int) (entry.getKey() >> 32), LocalDate.ofEpochDay(entry.getKey() & 0xFFFFFFFFL), entry.getValue());
+        }
+        return true;
+    }
+
     // Update sale and adjust stock if needed
     boolean updateSale(Sale sale);
 
+    // Update sale details only if the row still has the version the sale was read with (compare-and-set).
+    // The default cannot detect conflicts; DatabaseManager checks the version.
+    default UpdateResult tryUpdateSale(Sale sale) {
+        return updateSale(sale) ? UpdateResult.SUCCESS : UpdateResult.ERROR;
+    }
+
     // Delete sale and return quantity to stock
     boolean deleteSale(int saleId);
 }
@@ -0,0 +1,693 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory storage backend that implements the product, customer and sale DAOs without a database.
+ * Useful as a very fast test double, as a cache tier, or as the store of a single-terminal deployment.
+ *
+ * Products and sales are kept as struct-of-arrays (one primitive array per column) located through
+ * open-addressing int-keyed maps, so lookups never box IDs and scans touch contiguous memory.
+ * Stock lives in an AtomicIntegerArray: stock checks and decrements are compare-and-set loops that
+ * run concurrently under a shared lock, and only structural changes (adding or deleting rows,
+ * renaming) take the exclusive lock.
+ *
+ * Optionally the whole store is written to a snapshot file at a fixed interval and on close,
+ * and reloaded from it on startup.
+ */
+public class InMemoryDataStore implements IDataStore {
+
+    private static final int SNAPSHOT_MAGIC = 0x534D5331; // "SMS1"
+    private static final int INITIAL_CAPACITY = 64;
+
+    // Lock order: catalogLock before salesLock
+    private final ReentrantReadWriteLock catalogLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock salesLock = new ReentrantReadWriteLock();
+
+    // Products (struct-of-arrays, slot located through productSlots)
+    private final IntIntHashMap productSlots = new IntIntHashMap();
+    private final Map<String, Integer> productIdByName = new HashMap<>();
+    private int[] productIds = new int[INITIAL_CAPACITY];
+    private String[] productNames = new String[INITIAL_CAPACITY];
+    private long[] productPriceCents = new long[INITIAL_CAPACITY];
+    private AtomicIntegerArray productStocks = new AtomicIntegerArray(INITIAL_CAPACITY);
+    private int productCount;
+
+    // Customers
+    private final IntObjectHashMap<Customer> customers = new IntObjectHashMap<>();
+    private final Map<String, Integer> customerIdByEmail = new HashMap<>();
+
+    // Sales (struct-of-arrays, slot located through saleSlots)
+    private final IntIntHashMap saleSlots = new IntIntHashMap();
+    private final IntIntHashMap saleCountByProduct = new IntIntHashMap();
+    private final IntIntHashMap saleCountByCustomer = new IntIntHashMap();
+    private int[] saleIds = new int[INITIAL_CAPACITY];
+    private int[] saleProductIds = new int[INITIAL_CAPACITY];
+    private int[] saleCustomerIds = new int[INITIAL_CAPACITY];
+    private int[] saleQuantities = new int[INITIAL_CAPACITY];
+    private long[] saleUnitPriceCents = new long[INITIAL_CAPACITY];
+    private long[] saleTotalCents = new long[INITIAL_CAPACITY];
+    private int[] saleEpochDays = new int[INITIAL_CAPACITY];
+    private int saleCount;
+
+    private int lastProductId;
+    private int lastCustomerId;
+    private int lastSaleId;
+
+    // Sale ID per idempotency key of submitSale; guarded by its own monitor, and not part of snapshots
+    private final Map<String, Integer> submittedSaleIds = new HashMap<>();
+
+    private final Path snapshotFile;
+    private ScheduledExecutorService snapshotScheduler;
+    private final Object snapshotLock = new Object(); // One save at a time: saves share the temporary file
+
+    /**
+     * Creates an empty store without persistence.
+     */
+    public InMemoryDataStore() {
+        this.snapshotFile = null;
+    }
+
+    /**
+     * Creates a store that is loaded from and periodically saved to a snapshot file.
+     * @param snapshotFile The snapshot file (loaded if it exists).
+     * @param snapshotIntervalSeconds How often to save the snapshot; 0 saves only on close.
+     * @throws IOException if an existing snapshot cannot be read.
+     */
+    public InMemoryDataStore(Path snapshotFile, long snapshotIntervalSeconds) throws IOException {
+        this.snapshotFile = snapshotFile;
+        if (Files.exists(snapshotFile)) {
+            loadSnapshot(snapshotFile);
+            System.out.println("Loaded in-memory store snapshot from " + snapshotFile.toAbsolutePath() + ".");
+        }
+        if (snapshotIntervalSeconds > 0) {
+            snapshotScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "in-memory-store-snapshot");
+                thread.setDaemon(true);
+                return thread;
+            });
+            snapshotScheduler.scheduleWithFixedDelay(this::saveSnapshotQuietly,
+                    snapshotIntervalSeconds, snapshotIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    // --- Product DAO Implementation ---
+
+    @Override
+    public boolean addProduct(Product product) {
+        catalogLock.writeLock().lock();
+        try {
+            if (product.getName() == null || productIdByName.containsKey(product.getName())) {
+                System.err.println("Error adding product: name is missing or already exists.");
+                return false;
+            }
+            int productId = ++lastProductId;
+            insertProduct(productId, product.getName(), product.getPrice().cents(), product.getStock());
+            product.setProductId(productId);
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Product getProductById(int productId) {
+        catalogLock.readLock().lock();
+        try {
+            int slot = productSlots.getOrDefault(productId, -1);
+            return slot < 0 ? null : productAt(slot);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Product> getAllProducts() {
+        catalogLock.readLock().lock();
+        try {
+            List<Product> result = new ArrayList<>(productCount);
+            for (int slot = 0; slot < productCount; slot++) {
+                result.add(productAt(slot));
+            }
+            result.sort(Comparator.comparingInt(Product::getProductId));
+            return result;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateProduct(Product product) {
+        catalogLock.writeLock().lock();
+        try {
+            int slot = productSlots.getOrDefault(product.getProductId(), -1);
+            if (slot < 0) {
+                return false;
+            }
+            Integer owner = product.getName() == null ? null : productIdByName.get(product.getName());
+            if (product.getName() == null || (owner != null && owner != product.getProductId())) {
+                System.err.println("Error updating product: name is missing or already exists.");
+                return false;
+            }
+            productIdByName.remove(productNames[slot]);
+            productIdByName.put(product.getName(), product.getProductId());
+            productNames[slot] = product.getName();
+            productPriceCents[slot] = product.getPrice().cents();
+            productStocks.set(slot, product.getStock());
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteProduct(int productId) {
+        catalogLock.writeLock().lock();
+        try {
+            int slot = productSlots.getOrDefault(productId, -1);
+            if (slot < 0) {
+                return false;
+            }
+            // Sales only change while the catalog read lock is held, so the count is stable here
+            if (saleCountByProduct.getOrDefault(productId, 0) > 0) {
+                System.err.println("Error deleting product: it is referenced by existing sales.");
+                return false;
+            }
+            productIdByName.remove(productNames[slot]);
+            productSlots.remove(productId);
+            int last = --productCount;
+            if (slot != last) { // Move the last row into the gap
+                productIds[slot] = productIds[last];
+                productNames[slot] = productNames[last];
+                productPriceCents[slot] = productPriceCents[last];
+                productStocks.set(slot, productStocks.get(last));
+                productSlots.put(productIds[slot], slot);
+            }
+            productNames[last] = null;
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateProductStock(int productId, int quantityChange) {
+        catalogLock.readLock().lock();
+        try {
+            int slot = productSlots.getOrDefault(productId, -1);
+            if (slot < 0) {
+                return false;
+            }
+            productStocks.addAndGet(slot, quantityChange);
+            return true;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // --- Customer DAO Implementation ---
+
+    @Override
+    public boolean addCustomer(Customer customer) {
+        catalogLock.writeLock().lock();
+        try {
+            if (customer.getFirstName() == null || customer.getLastName() == null ||
+                    (customer.getEmail() != null && customerIdByEmail.containsKey(customer.getEmail()))) {
+                System.err.println("Error adding customer: name is missing or email already exists.");
+                return false;
+            }
+            int customerId = ++lastCustomerId;
+            putCustomer(new Customer(customerId, customer.getFirstName(), customer.getLastName(),
+                    customer.getEmail(), customer.getPhone()));
+            customer.setCustomerId(customerId);
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer getCustomerById(int customerId) {
+        catalogLock.readLock().lock();
+        try {
+            Customer customer = customers.get(customerId);
+            return customer == null ? null : copyOf(customer);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Customer> getAllCustomers() {
+        catalogLock.readLock().lock();
+        try {
+            List<Customer> result = new ArrayList<>(customers.size());
+            for (Customer customer : customers.values()) {
+                result.add(copyOf(customer));
+            }
+            result.sort(Comparator.comparingInt(Customer::getCustomerId));
+            return result;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateCustomer(Customer customer) {
+        catalogLock.writeLock().lock();
+        try {
+            Customer old = customers.get(customer.getCustomerId());
+            if (old == null) {
+                return false;
+            }
+            Integer owner = customer.getEmail() == null ? null : customerIdByEmail.get(customer.getEmail());
+            if (customer.getFirstName() == null || customer.getLastName() == null ||
+                    (owner != null && owner != customer.getCustomerId())) {
+                System.err.println("Error updating customer: name is missing or email already exists.");
+                return false;
+            }
+            if (old.getEmail() != null) customerIdByEmail.remove(old.getEmail());
+            putCustomer(copyOf(customer));
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteCustomer(int customerId) {
+        catalogLock.writeLock().lock();
+        try {
+            Customer old = customers.get(customerId);
+            if (old == null) {
+                return false;
+            }
+            if (saleCountByCustomer.getOrDefault(customerId, 0) > 0) {
+                System.err.println("Error deleting customer: they are referenced by existing sales.");
+                return false;
+            }
+            customers.remove(customerId);
+            if (old.getEmail() != null) customerIdByEmail.remove(old.getEmail());
+            return true;
+        } finally {
+            catalogLock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Customer getCustomerByName(String firstName, String lastName) {
+        catalogLock.readLock().lock();
+        try {
+            Customer match = null;
+            for (Customer customer : customers.values()) {
+                if (customer.getFirstName().equals(firstName) && customer.getLastName().equals(lastName) &&
+                        (match == null || customer.getCustomerId() < match.getCustomerId())) {
+                    match = customer;
+                }
+            }
+            return match == null ? null : copyOf(match);
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    // --- Sale DAO Implementation ---
+
+    @Override
+    public boolean addSale(Sale sale) {
+        catalogLock.readLock().lock();
+        try {
+            int productSlot = productSlots.getOrDefault(sale.getProductId(), -1);
+            if (!customers.containsKey(sale.getCustomerId())) {
+                System.err.println("Error adding sale: customer ID " + sale.getCustomerId() + " does not exist.");
+                return false;
+            }
+            // 1. Check and decrease stock in one atomic step
+            if (productSlot < 0 || !tryDecrementStock(productSlot, sale.getQuantity())) {
+                System.err.println("Insufficient stock for product ID: " + sale.getProductId());
+                return false;
+            }
+            // 2. Insert sale record
+            salesLock.writeLock().lock();
+            try {
+                int saleId = ++lastSaleId;
+                insertSale(saleId, sale.getProductId(), sale.getCustomerId(), sale.getQuantity(),
+                        sale.getUnitPriceAtSale().cents(), sale.getTotalSalePrice().cents(), (int) sale.getSaleDate().toEpochDay());
+                sale.setSaleId(saleId);
+            } finally {
+                salesLock.writeLock().unlock();
+            }
+            return true;
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public SaleSubmission submitSale(Sale sale, String idempotencyKey) {
+        SaleSubmission.checkKey(idempotencyKey);
+        synchronized (submittedSaleIds) {
+            Integer originalId = submittedSaleIds.get(idempotencyKey);
+            if (originalId != null) {
+                return SaleSubmission.duplicate(getSaleById(originalId));
+            }
+            if (!addSale(sale)) {
+                return null;
+            }
+            submittedSaleIds.put(idempotencyKey, sale.getSaleId());
+            return SaleSubmission.created(sale);
+        }
+    }
+
+    @Override
+    public Sale getSaleById(int saleId) {
+        salesLock.readLock().lock();
+        try {
+            int slot = saleSlots.getOrDefault(saleId, -1);
+            return slot < 0 ? null : saleAt(slot);
+        } finally {
+            salesLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Sale> getAllSales() {
+        salesLock.readLock().lock();
+        try {
+            List<Sale> result = new ArrayList<>(saleCount);
+            for (int slot = 0; slot < saleCount; slot++) {
+                result.add(saleAt(slot));
+            }
+            result.sort(Comparator.comparingInt(Sale::getSaleId));
+            return result;
+        } finally {
+            salesLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean updateSale(Sale sale) {
+        catalogLock.readLock().lock();
+        try {
+            salesLock.writeLock().lock();
+            try {
+                // 1. Get old sale details to calculate stock difference
+                int slot = saleSlots.getOrDefault(sale.getSaleId(), -1);
+                if (slot < 0) {
+                    System.err.println("Sale with ID " + sale.getSaleId() + " not found for update.");
+                    return false;
+                }
+                int quantityDifference = sale.getQuantity() - saleQuantities[slot];
+                int productSlot = productSlots.getOrDefault(sale.getProductId(), -1);
+                if (productSlot < 0 || !customers.containsKey(sale.getCustomerId())) {
+                    System.err.println("Error updating sale: product or customer does not exist.");
+                    return false;
+                }
+
+                // 2. Check and adjust product stock atomically
+                if (quantityDifference > 0 && !tryDecrementStock(productSlot, quantityDifference)) {
+                    System.err.println("Insufficient stock to increase quantity for product ID: " + sale.getProductId());
+                    return false;
+                } else if (quantityDifference < 0) {
+                    productStocks.addAndGet(productSlot, -quantityDifference);
+                }
+
+                // 3. Update sale record
+                saleCountByProduct.addTo(saleProductIds[slot], -1);
+                saleCountByCustomer.addTo(saleCustomerIds[slot], -1);
+                writeSale(slot, sale.getSaleId(), sale.getProductId(), sale.getCustomerId(), sale.getQuantity(),
+                        sale.getUnitPriceAtSale().cents(), sale.getTotalSalePrice().cents(), (int) sale.getSaleDate().toEpochDay());
+                return true;
+            } finally {
+                salesLock.writeLock().unlock();
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public boolean deleteSale(int saleId) {
+        catalogLock.readLock().lock();
+        try {
+            salesLock.writeLock().lock();
+            try {
+                int slot = saleSlots.getOrDefault(saleId, -1);
+                if (slot < 0) {
+                    System.err.println("Sale with ID " + saleId + " not found for deletion.");
+                    return false;
+                }
+                // Return product quantity to stock
+                int productSlot = productSlots.getOrDefault(saleProductIds[slot], -1);
+                if (productSlot >= 0) {
+                    productStocks.addAndGet(productSlot, saleQuantities[slot]);
+                }
+                removeSale(slot);
+                return true;
+            } finally {
+                salesLock.writeLock().unlock();
+            }
+        } finally {
+            catalogLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Stops periodic persistence and writes a final snapshot if persistence is enabled.
+     */
+    @Override
+    public void closeConnection() {
+        if (snapshotScheduler != null) {
+            snapshotScheduler.shutdown();
+            try {
+                snapshotScheduler.awaitTermination(30, TimeUnit.SECONDS); // Let a periodic save in progress finish
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            snapshotScheduler = null;
+        }
+        if (snapshotFile != null) {
+            saveSnapshotQuietly();
+        }
+    }
+
+    // --- Snapshot Persistence ---
+
+    /**
+     * Writes a consistent snapshot of the whole store. The file is written under a temporary
+     * name and moved into place, so a crash never leaves a half-written snapshot behind.
+     * Saves are serialized, since concurrent ones would write the same temporary file.
+     * @param target The snapshot file.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public void saveSnapshot(Path target) throws IOException {
+        synchronized (snapshotLock) {
+            writeSnapshot(target);
+        }
+    }
+
+    private void writeSnapshot(Path target) throws IOException {
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        catalogLock.readLock().lock();
+        salesLock.readLock().lock();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(lastProductId);
+            out.writeInt(lastCustomerId);
+            out.writeInt(lastSaleId);
+            out.writeInt(productCount);
+            for (int slot = 0; slot < productCount; slot++) {
+                out.writeInt(productIds[slot]);
+                out.writeUTF(productNames[slot]);
+                out.writeLong(productPriceCents[slot]);
+                out.writeInt(productStocks.get(slot));
+            }
+            out.writeInt(customers.size());
+            for (Customer customer : customers.values()) {
+                out.writeInt(customer.getCustomerId());
+                writeNullableUTF(out, customer.getFirstName());
+                writeNullableUTF(out, customer.getLastName());
+                writeNullableUTF(out, customer.getEmail());
+                writeNullableUTF(out, customer.getPhone());
+            }
+            out.writeInt(saleCount);
+            for (int slot = 0; slot < saleCount; slot++) {
+                out.writeInt(saleIds[slot]);
+                out.writeInt(saleProductIds[slot]);
+                out.writeInt(saleCustomerIds[slot]);
+                out.writeInt(saleQuantities[slot]);
+                out.writeLong(saleUnitPriceCents[slot]);
+                out.writeLong(saleTotalCents[slot]);
+                out.writeInt(saleEpochDays[slot]);
+            }
+        } finally {
+            salesLock.readLock().unlock();
+            catalogLock.readLock().unlock();
+        }
+        Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void loadSnapshot(Path source) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(source)))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException(source + " is not an in-memory store snapshot.");
+            }
+            lastProductId = in.readInt();
+            lastCustomerId = in.readInt();
+            lastSaleId = in.readInt();
+            int products = in.readInt();
+            for (int i = 0; i < products; i++) {
+                insertProduct(in.readInt(), in.readUTF(), in.readLong(), in.readInt());
+            }
+            int customerTotal = in.readInt();
+            for (int i = 0; i < customerTotal; i++) {
+                putCustomer(new Customer(in.readInt(), readNullableUTF(in), readNullableUTF(in),
+                        readNullableUTF(in), readNullableUTF(in)));
+            }
+            int sales = in.readInt();
+            for (int i = 0; i < sales; i++) {
+                insertSale(in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                        in.readLong(), in.readLong(), in.readInt());
+            }
+        }
+    }
+
+    private void saveSnapshotQuietly() {
+        try {
+            saveSnapshot(snapshotFile);
+        } catch (IOException e) {
+            System.err.println("Error saving in-memory store snapshot: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // --- Row Helpers (callers hold the appropriate locks) ---
+
+    private boolean tryDecrementStock(int productSlot, int quantity) {
+        while (true) {
+            int current = productStocks.get(productSlot);
+            if (current < quantity) {
+                return false;
+            }
+            if (productStocks.compareAndSet(productSlot, current, current - quantity)) {
+                return true;
+            }
+        }
+    }
+
+    private void insertProduct(int productId, String name, long priceCents, int stock) {
+        if (productCount == productIds.length) {
+            int capacity = productIds.length * 2;
+            productIds = Arrays.copyOf(productIds, capacity);
+            productNames = Arrays.copyOf(productNames, capacity);
+            productPriceCents = Arrays.copyOf(productPriceCents, capacity);
+            AtomicIntegerArray stocks = new AtomicIntegerArray(capacity);
+            for (int i = 0; i < productCount; i++) {
+                stocks.set(i, productStocks.get(i));
+            }
+            productStocks = stocks;
+        }
+        int slot = productCount++;
+        productIds[slot] = productId;
+        productNames[slot] = name;
+        productPriceCents[slot] = priceCents;
+        productStocks.set(slot, stock);
+        productSlots.put(productId, slot);
+        productIdByName.put(name, productId);
+    }
+
+    private Product productAt(int slot) {
+        return new Product(productIds[slot], productNames[slot], Money.ofCents(productPriceCents[slot]), productStocks.get(slot));
+    }
+
+    private void putCustomer(Customer customer) {
+        customers.put(customer.getCustomerId(), customer);
+        if (customer.getEmail() != null) {
+            customerIdByEmail.put(customer.getEmail(), customer.getCustomerId());
+        }
+    }
+
+    private void insertSale(int saleId, int productId, int customerId, int quantity, long unitPriceCents,
+                            long totalCents, int epochDay) {
+        if (saleCount == saleIds.length) {
+            int capacity = saleIds.length * 2;
+            saleIds = Arrays.copyOf(saleIds, capacity);
+            saleProductIds = Arrays.copyOf(saleProductIds, capacity);
+            saleCustomerIds = Arrays.copyOf(saleCustomerIds, capacity);
+            saleQuantities = Arrays.copyOf(saleQuantities, capacity);
+            saleUnitPriceCents = Arrays.copyOf(saleUnitPriceCents, capacity);
+            saleTotalCents = Arrays.copyOf(saleTotalCents, capacity);
+            saleEpochDays = Arrays.copyOf(saleEpochDays, capacity);
+        }
+        int slot = saleCount++;
+        writeSale(slot, saleId, productId, customerId, quantity, unitPriceCents, totalCents, epochDay);
+        saleSlots.put(saleId, slot);
+    }
+
+    private void writeSale(int slot, int saleId, int productId, int customerId, int quantity, long unitPriceCents,
+                           long totalCents, int epochDay) {
+        saleIds[slot] = saleId;
+        saleProductIds[slot] = productId;
+        saleCustomerIds[slot] = customerId;
+        saleQuantities[slot] = quantity;
+        saleUnitPriceCents[slot] = unitPriceCents;
+        saleTotalCents[slot] = totalCents;
+        saleEpochDays[slot] = epochDay;
+        saleCountByProduct.addTo(productId, 1);
+        saleCountByCustomer.addTo(customerId, 1);
+    }
+
+    private void removeSale(int slot) {
+        saleCountByProduct.addTo(saleProductIds[slot], -1);
+        saleCountByCustomer.addTo(saleCustomerIds[slot], -1);
+        saleSlots.remove(saleIds[slot]);
+        int last = --saleCount;
+        if (slot != last) { // Move the last row into the gap
+            saleIds[slot] = saleIds[last];
+            saleProductIds[slot] = saleProductIds[last];
+            saleCustomerIds[slot] = saleCustomerIds[last];
+            saleQuantities[slot] = saleQuantities[last];
+            saleUnitPriceCents[slot] = saleUnitPriceCents[last];
+            saleTotalCents[slot] = saleTotalCents[last];
+            saleEpochDays[slot] = saleEpochDays[last];
+            saleSlots.put(saleIds[slot], slot);
+        }
+    }
+
+    private Sale saleAt(int slot) {
+        return new Sale(saleIds[slot], saleProductIds[slot], saleCustomerIds[slot], saleQuantities[slot],
+                Money.ofCents(saleUnitPriceCents[slot]), Money.ofCents(saleTotalCents[slot]), LocalDate.ofEpochDay(saleEpochDays[slot]));
+    }
+
+    private static Customer copyOf(Customer c) {
+        return new Customer(c.getCustomerId(), c.getFirstName(), c.getLastName(), c.getEmail(), c.getPhone());
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+}
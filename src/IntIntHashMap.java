@@ -0,0 +1,147 @@
+/**
+ * An open-addressing hash map from primitive int keys to primitive int values.
+ * Uses linear probing with backward-shift deletion and a separate occupancy array,
+ * so neither keys nor values are boxed. Not thread-safe.
+ */
+public class IntIntHashMap {
+
+    private static final float LOAD_FACTOR = 0.6f;
+
+    private int[] keys;
+    private int[] values;
+    private boolean[] used;
+    private int size;
+    private int mask;
+    private int resizeThreshold;
+
+    public IntIntHashMap() {
+        this(16);
+    }
+
+    public IntIntHashMap(int expectedSize) {
+        allocate(IntObjectHashMap.tableSizeFor((int) (Math.max(expectedSize, 4) / LOAD_FACTOR) + 1));
+    }
+
+    /** @return The value mapped to the key, or the given default if there is none. */
+    public int getOrDefault(int key, int defaultValue) {
+        int index = IntObjectHashMap.hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                return values[index];
+            }
+            index = (index + 1) & mask;
+        }
+        return defaultValue;
+    }
+
+    public boolean containsKey(int key) {
+        int index = IntObjectHashMap.hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    /** Maps the key to the value, replacing any previous value. */
+    public void put(int key, int value) {
+        int index = IntObjectHashMap.hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                values[index] = value;
+                return;
+            }
+            index = (index + 1) & mask;
+        }
+        used[index] = true;
+        keys[index] = key;
+        values[index] = value;
+        if (++size > resizeThreshold) {
+            rehash(keys.length * 2);
+        }
+    }
+
+    /**
+     * Adds the delta to the key's value (treating a missing key as 0).
+     * The entry is removed when the result is 0, which keeps counter maps small.
+     * @return The new value.
+     */
+    public int addTo(int key, int delta) {
+        int updated = getOrDefault(key, 0) + delta;
+        if (updated == 0) {
+            remove(key);
+        } else {
+            put(key, updated);
+        }
+        return updated;
+    }
+
+    /** Removes the mapping for the key, if present. */
+    public boolean remove(int key) {
+        int index = IntObjectHashMap.hash(key) & mask;
+        while (used[index]) {
+            if (keys[index] == key) {
+                shiftBack(index);
+                size--;
+                return true;
+            }
+            index = (index + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        java.util.Arrays.fill(used, false);
+        size = 0;
+    }
+
+    private void shiftBack(int gap) {
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            if (!used[index]) {
+                break;
+            }
+            int home = IntObjectHashMap.hash(keys[index]) & mask;
+            boolean homeBetween = gap <= index ? (home > gap && home <= index) : (home > gap || home <= index);
+            if (!homeBetween) {
+                keys[gap] = keys[index];
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        used[gap] = false;
+    }
+
+    private void rehash(int newCapacity) {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        boolean[] oldUsed = used;
+        allocate(newCapacity);
+        for (int i = 0; i < oldUsed.length; i++) {
+            if (oldUsed[i]) {
+                int index = IntObjectHashMap.hash(oldKeys[i]) & mask;
+                while (used[index]) {
+                    index = (index + 1) & mask;
+                }
+                used[index] = true;
+                keys[index] = oldKeys[i];
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new int[capacity];
+        used = new boolean[capacity];
+        mask = capacity - 1;
+        resizeThreshold = (int) (capacity * LOAD_FACTOR);
+    }
+}
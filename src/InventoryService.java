@@ -0,0 +1,352 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Keeps the available stock of each product in memory so that concurrent checkouts in one JVM
+ * can reserve stock with a compare-and-set instead of a read-then-update against the database.
+ *
+ * Reservations are applied to products.stock later, in JDBC batches, by a background flusher.
+ * Changes made to products.stock by anyone else (stock edits, updated or deleted sales, other
+ * applications) are picked up by reconciliation, which compares the database value with the
+ * value this service expects and shifts the in-memory count by the difference.
+ *
+ * Stock reserved but not yet flushed is lost if the JVM dies; keep the flush interval short.
+ * A single instance is meant to be shared by every DatabaseManager of the JVM.
+ */
+public class InventoryService {
+
+    private static final int LOAD_LOCK_STRIPES = 64; // Power of two
+
+    private final ConnectionSource connectionSource;
+    private final Map<Integer, StockCounter> counters = new ConcurrentHashMap<>();
+    private final Object[] loadLocks = new Object[LOAD_LOCK_STRIPES];
+    private final ReentrantLock databaseLock = new ReentrantLock(); // Guards the connection; one flush at a time
+    private final ScheduledExecutorService scheduler;
+    private Connection connection;
+    private volatile boolean closed;
+
+    /**
+     * Stock of one product.
+     * available: what checkouts may still reserve.
+     * unflushed: reserved quantity not yet written to products.stock.
+     * expectedDatabaseStock: what products.stock holds if nobody else changed it (guarded by databaseLock).
+     */
+    private static class StockCounter {
+        final AtomicInteger available;
+        final AtomicInteger unflushed = new AtomicInteger();
+        int expectedDatabaseStock;
+
+        StockCounter(int stock) {
+            this.available = new AtomicInteger(stock);
+            this.expectedDatabaseStock = stock;
+        }
+    }
+
+    /**
+     * Creates the service and starts its background flusher.
+     * @param connectionSource Opens the service's own database connection.
+     * @param flushIntervalMillis How often reservations are written to products.stock.
+     * @param reconcileIntervalSeconds How often all tracked products are compared with the database, or 0
+     *                                 if the caller runs {@link #reconcileAll}, e.g. from a JobScheduler job.
+     */
+    public InventoryService(ConnectionSource connectionSource, long flushIntervalMillis, long reconcileIntervalSeconds) {
+        this.connectionSource = connectionSource;
+        for (int i = 0; i < loadLocks.length; i++) {
+            loadLocks[i] = new Object();
+        }
+        // The flusher keeps its own thread rather than a JobScheduler job: it runs several times a second,
+        // and a flush skipped because the job pool is busy would leave sold stock unwritten
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "inventory-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+        if (reconcileIntervalSeconds > 0) {
+            scheduler.scheduleWithFixedDelay(this::reconcileQuietly, reconcileIntervalSeconds, reconcileIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Reserves stock for a sale. Only the first reservation of a product touches the database.
+     * @param productId The product.
+     * @param quantity The quantity to take (must be positive).
+     * @return true if the stock was available and is now reserved; false if there is not enough
+     *         stock or the product does not exist.
+     * @throws SQLException if the product's stock had to be loaded and the database failed.
+     */
+    public boolean reserve(int productId, int quantity) throws SQLException {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive.");
+        }
+        StockCounter counter = counterFor(productId);
+        if (counter == null) {
+            return false;
+        }
+        int current;
+        do {
+            current = counter.available.get();
+            if (current < quantity) {
+                return false;
+            }
+        } while (!counter.available.compareAndSet(current, current - quantity));
+        counter.unflushed.addAndGet(quantity);
+        return true;
+    }
+
+    /**
+     * Gives back stock reserved by {@link #reserve} that was not used (e.g. the sale insert failed).
+     * @param productId The product.
+     * @param quantity The quantity reserved earlier.
+     */
+    public void release(int productId, int quantity) {
+        StockCounter counter = counters.get(productId);
+        if (counter != null) {
+            counter.unflushed.addAndGet(-quantity);
+            counter.available.addAndGet(quantity);
+        }
+    }
+
+    /**
+     * @return The stock still available for the product, or the given fallback if it is not tracked.
+     */
+    public int getAvailable(int productId, int fallback) {
+        StockCounter counter = counters.get(productId);
+        return counter != null ? counter.available.get() : fallback;
+    }
+
+    /**
+     * A write of an absolute products.stock value, see {@link #writeStock}.
+     */
+    @FunctionalInterface
+    public interface StockWrite<T> {
+        T write(int databaseStock) throws SQLException;
+    }
+
+    /**
+     * Writes a stock value that was read through this service (so it is the available stock) back to
+     * products.stock, e.g. for a product edit. Reservations not flushed yet are still in the column and
+     * will be subtracted by the next flush, so the value written is the available stock plus those;
+     * no flush runs during the write. Call {@link #reconcile} afterwards.
+     * @param productId The product.
+     * @param availableStock The stock as the caller sees it.
+     * @param write Writes the given value to products.stock.
+     * @return What the write returned.
+     */
+    public <T> T writeStock(int productId, int availableStock, StockWrite<T> write) throws SQLException {
+        databaseLock.lock();
+        try {
+            StockCounter counter = counters.get(productId);
+            return write.write(availableStock + (counter != null ? counter.unflushed.get() : 0));
+        } finally {
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all unflushed reservations to products.stock in one batch.
+     * @throws SQLException if the batch fails; the reservations stay queued for the next flush.
+     */
+    public void flush() throws SQLException {
+        databaseLock.lock();
+        try {
+            flushLocked();
+        } finally {
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Brings one product in line with the database right away. Call after changing its stock outside
+     * the service. Changes still inside an open transaction are caught by the next periodic reconcile.
+     * @param productId The product.
+     */
+    public void reconcile(int productId) {
+        if (!counters.containsKey(productId)) {
+            return; // Loaded fresh on its next reservation
+        }
+        databaseLock.lock();
+        try {
+            flushLocked();
+            reconcileLocked(List.of(productId));
+        } catch (SQLException e) {
+            System.err.println("Error reconciling stock for product ID " + productId + ": " + e.getMessage());
+        } finally {
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Compares every tracked product with the database and adopts changes made elsewhere.
+     * @throws SQLException if the database cannot be read.
+     */
+    public void reconcileAll() throws SQLException {
+        databaseLock.lock();
+        try {
+            flushLocked();
+            reconcileLocked(new ArrayList<>(counters.keySet()));
+        } finally {
+            databaseLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the flusher, writes the remaining reservations and closes the connection.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        scheduler.shutdown();
+        databaseLock.lock();
+        try {
+            flushLocked();
+        } catch (SQLException e) {
+            System.err.println("Error flushing reserved stock on close: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            try {
+                if (connection != null) connection.close();
+            } catch (SQLException e) {
+                System.err.println("Error closing inventory connection: " + e.getMessage());
+            }
+            databaseLock.unlock();
+        }
+    }
+
+    // --- Helpers ---
+
+    private StockCounter counterFor(int productId) throws SQLException {
+        StockCounter counter = counters.get(productId);
+        if (counter != null) {
+            return counter;
+        }
+        // Striped so that first reservations of different products load in parallel
+        synchronized (loadLocks[IntObjectHashMap.hash(productId) & (LOAD_LOCK_STRIPES - 1)]) {
+            counter = counters.get(productId);
+            if (counter == null) {
+                databaseLock.lock();
+                try {
+                    Integer stock = readStock(productId);
+                    if (stock == null) {
+                        return null;
+                    }
+                    counter = new StockCounter(stock);
+                    counters.put(productId, counter);
+                } finally {
+                    databaseLock.unlock();
+                }
+            }
+            return counter;
+        }
+    }
+
+    private void flushLocked() throws SQLException {
+        List<Integer> productIds = new ArrayList<>();
+        List<Integer> quantities = new ArrayList<>();
+        for (Map.Entry<Integer, StockCounter> entry : counters.entrySet()) {
+            int quantity = entry.getValue().unflushed.getAndSet(0);
+            if (quantity != 0) {
+                productIds.add(entry.getKey());
+                quantities.add(quantity);
+            }
+        }
+        if (productIds.isEmpty()) {
+            return;
+        }
+        String updateSQL = "UPDATE products SET stock = stock - ?, version = version + 1 WHERE product_id = ?";
+        try {
+            Connection conn = connection();
+            conn.setAutoCommit(false);
+            try (PreparedStatement pstmt = conn.prepareStatement(updateSQL)) {
+                for (int i = 0; i < productIds.size(); i++) {
+                    pstmt.setInt(1, quantities.get(i));
+                    pstmt.setInt(2, productIds.get(i));
+                    pstmt.addBatch();
+                }
+                pstmt.executeBatch();
+                conn.commit();
+            } catch (SQLException e) {
+                conn.rollback();
+                throw e;
+            } finally {
+                conn.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            // Put the quantities back so the next flush retries them
+            for (int i = 0; i < productIds.size(); i++) {
+                StockCounter counter = counters.get(productIds.get(i));
+                if (counter != null) counter.unflushed.addAndGet(quantities.get(i));
+            }
+            throw e;
+        }
+        for (int i = 0; i < productIds.size(); i++) {
+            StockCounter counter = counters.get(productIds.get(i));
+            if (counter != null) counter.expectedDatabaseStock -= quantities.get(i);
+        }
+    }
+
+    private void reconcileLocked(List<Integer> productIds) throws SQLException {
+        for (int productId : productIds) {
+            StockCounter counter = counters.get(productId);
+            if (counter == null) {
+                continue;
+            }
+            Integer stock = readStock(productId);
+            if (stock == null) {
+                counters.remove(productId); // Product deleted
+                continue;
+            }
+            int externalChange = stock - counter.expectedDatabaseStock;
+            if (externalChange != 0) {
+                counter.expectedDatabaseStock = stock;
+                counter.available.addAndGet(externalChange);
+            }
+        }
+    }
+
+    private Integer readStock(int productId) throws SQLException {
+        String selectSQL = "SELECT stock FROM products WHERE product_id = ?";
+        try (PreparedStatement pstmt = connection().prepareStatement(selectSQL)) {
+            pstmt.setInt(1, productId);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                return rs.next() ? rs.getInt("stock") : null;
+            }
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = connectionSource.open();
+        }
+        return connection;
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (SQLException e) {
+            System.err.println("Error flushing reserved stock (will retry): " + e.getMessage());
+        }
+    }
+
+    private void reconcileQuietly() {
+        try {
+            reconcileAll();
+        } catch (SQLException e) {
+            System.err.println("Error reconciling stock (will retry): " + e.getMessage());
+        }
+    }
+}
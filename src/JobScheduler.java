@@ -0,0 +1,630 @@
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs named background jobs on a schedule, so periodic maintenance and batch work (summary
+ * refreshes, index warm-up, archiving, reconciliation) does not need threads of its own.
+ *
+ * A job has a trigger: a fixed delay between the end of one run and the start of the next, or a
+ * cron expression such as "30 2 * * *" (02:30 every night). A timer thread starts due runs on a
+ * bounded worker pool. A run that would exceed the job's concurrency limit, or that finds the pool
+ * and its queue full, is skipped and recorded as such; runs are never queued up behind each other.
+ *
+ * Cancellation is cooperative: {@link #cancel} marks the job's running runs, and long jobs check
+ * {@link Context#isCancelled()} between steps. Each job keeps its last runs with start time,
+ * duration and outcome for display.
+ *
+ * Configuration (see {@link #fromSystemProperties}):
+ *   -Dsales.jobs.threads  worker threads, default 2
+ */
+public class JobScheduler {
+
+    private static final int QUEUE_CAPACITY = 16;
+    private static final int HISTORY_SIZE = 50;
+
+    /**
+     * The work of a job. Exceptions mark the run as failed; the job stays scheduled.
+     */
+    @FunctionalInterface
+    public interface Job {
+        void run(Context context) throws Exception;
+    }
+
+    /**
+     * Handed to each run of a job.
+     */
+    public static final class Context {
+        private final String jobName;
+        private volatile boolean cancelled;
+
+        private Context(String jobName) {
+            this.jobName = jobName;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        /** @return Whether the run was asked to stop; long jobs check this between steps. */
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        /** @throws CancellationException if the run was asked to stop. */
+        public void checkCancelled() {
+            if (cancelled) {
+                throw new CancellationException("Job " + jobName + " was cancelled.");
+            }
+        }
+    }
+
+    /**
+     * When a job runs.
+     */
+    public interface Trigger {
+        /** @return The first run for a job scheduled at the given time. */
+        default Instant first(Instant now) {
+            return next(now);
+        }
+
+        /**
+         * @return The next run after the given time: the end of the previous run for fixed-delay
+         *         triggers, the time the previous run was due otherwise.
+         */
+        Instant next(Instant after);
+
+        /** @return Whether the next run is timed from the end of the previous one. */
+        default boolean isFixedDelay() {
+            return false;
+        }
+    }
+
+    /** @return A trigger that runs a job after initialDelay, then delay after each run has ended. */
+    public static Trigger fixedDelay(Duration initialDelay, Duration delay) {
+        if (delay.isNegative() || delay.isZero()) {
+            throw new IllegalArgumentException("The delay must be positive.");
+        }
+        return new Trigger() {
+            @Override
+            public Instant first(Instant now) {
+                return now.plus(initialDelay);
+            }
+
+            @Override
+            public Instant next(Instant after) {
+                return after.plus(delay);
+            }
+
+            @Override
+            public boolean isFixedDelay() {
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                long millis = delay.toMillis();
+                String every = millis % 60000 == 0 ? millis / 60000 + " min" : millis % 1000 == 0 ? millis / 1000 + " s" : millis + " ms";
+                return "every " + every + " after the previous run";
+            }
+        };
+    }
+
+    /**
+     * @return A trigger for a five-field cron expression (minute hour day-of-month month day-of-week)
+     *         in the system time zone; see {@link Cron}.
+     * @throws IllegalArgumentException if the expression is invalid or never matches.
+     */
+    public static Trigger cron(String expression) {
+        return new Cron(expression, ZoneId.systemDefault());
+    }
+
+    /** How a run ended. */
+    public enum Outcome { SUCCEEDED, FAILED, CANCELLED, SKIPPED }
+
+    /**
+     * One run of a job, or one skipped start.
+     */
+    public static final class Run {
+        private final String jobName;
+        private final Instant started;
+        private final long durationMillis;
+        private final Outcome outcome;
+        private final String message;
+
+        private Run(String jobName, Instant started, long durationMillis, Outcome outcome, String message) {
+            this.jobName = jobName;
+            this.started = started;
+            this.durationMillis = durationMillis;
+            this.outcome = outcome;
+            this.message = message;
+        }
+
+        public String getJobName() {
+            return jobName;
+        }
+
+        public Instant getStarted() {
+            return started;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public Outcome getOutcome() {
+            return outcome;
+        }
+
+        /** @return The error or the reason a start was skipped, or null. */
+        public String getMessage() {
+            return message;
+        }
+    }
+
+    /**
+     * A snapshot of one job for display.
+     */
+    public static final class JobInfo {
+        private final String name;
+        private final String trigger;
+        private final Instant nextRun;
+        private final int running;
+        private final int maxConcurrent;
+        private final Run lastRun;
+
+        private JobInfo(String name, String trigger, Instant nextRun, int running, int maxConcurrent, Run lastRun) {
+            this.name = name;
+            this.trigger = trigger;
+            this.nextRun = nextRun;
+            this.running = running;
+            this.maxConcurrent = maxConcurrent;
+            this.lastRun = lastRun;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getTrigger() {
+            return trigger;
+        }
+
+        /** @return When the job runs next, or null while a fixed-delay job runs. */
+        public Instant getNextRun() {
+            return nextRun;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        public int getMaxConcurrent() {
+            return maxConcurrent;
+        }
+
+        /** @return The most recent run, or null if the job has not run yet. */
+        public Run getLastRun() {
+            return lastRun;
+        }
+    }
+
+    // A scheduled job and its state
+    private static final class Entry {
+        final String name;
+        final Trigger trigger;
+        final int maxConcurrent;
+        final Job job;
+        final AtomicInteger running = new AtomicInteger();
+        final Set<Context> active = ConcurrentHashMap.newKeySet();
+        final Deque<Run> history = new ArrayDeque<>(); // Newest first; guarded by itself
+        volatile Instant nextRun;
+
+        Entry(String name, Trigger trigger, int maxConcurrent, Job job) {
+            this.name = name;
+            this.trigger = trigger;
+            this.maxConcurrent = maxConcurrent;
+            this.job = job;
+        }
+    }
+
+    private final Map<String, Entry> jobs = new LinkedHashMap<>(); // Guarded by itself; registration order
+    private final ThreadPoolExecutor workers;
+    private final ScheduledExecutorService timer;
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+    private volatile boolean closed;
+
+    /**
+     * Creates the scheduler; jobs are added with {@link #schedule}.
+     * @param threads Worker threads, i.e. runs that can execute at the same time across all jobs.
+     */
+    public JobScheduler(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one worker thread is required.");
+        }
+        AtomicInteger workerCount = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(QUEUE_CAPACITY), r -> {
+            Thread thread = new Thread(r, "job-worker-" + workerCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "job-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Creates the scheduler configured by -Dsales.jobs.threads.
+     */
+    public static JobScheduler fromSystemProperties() {
+        return new JobScheduler(Integer.getInteger("sales.jobs.threads", 2));
+    }
+
+    /**
+     * Adds a job.
+     * @param name Unique name, shown in the Jobs view.
+     * @param trigger When the job runs.
+     * @param maxConcurrent Runs of this job allowed at the same time; further starts are skipped.
+     * @param job The work.
+     * @throws IllegalArgumentException if a job of that name exists.
+     */
+    public void schedule(String name, Trigger trigger, int maxConcurrent, Job job) {
+        if (maxConcurrent < 1) {
+            throw new IllegalArgumentException("maxConcurrent must be positive.");
+        }
+        Entry entry = new Entry(name, trigger, maxConcurrent, job);
+        synchronized (jobs) {
+            if (jobs.containsKey(name)) {
+                throw new IllegalArgumentException("A job named " + name + " is already scheduled.");
+            }
+            jobs.put(name, entry);
+        }
+        scheduleAt(entry, trigger.first(Instant.now()));
+        notifyListeners();
+    }
+
+    /**
+     * Starts a run of the job now, outside its schedule; the concurrency limit still applies.
+     * @return Whether the run was started.
+     */
+    public boolean runNow(String name) {
+        Entry entry = entry(name);
+        return entry != null && start(entry, false);
+    }
+
+    /**
+     * Asks the running runs of a job to stop.
+     * @return The number of runs asked.
+     */
+    public int cancel(String name) {
+        Entry entry = entry(name);
+        if (entry == null) {
+            return 0;
+        }
+        int asked = 0;
+        for (Context context : entry.active) {
+            context.cancelled = true;
+            asked++;
+        }
+        return asked;
+    }
+
+    /** @return A snapshot of every job, in registration order. */
+    public List<JobInfo> getJobs() {
+        List<JobInfo> infos = new ArrayList<>();
+        for (Entry entry : entries()) {
+            Run lastRun;
+            synchronized (entry.history) {
+                lastRun = entry.history.peekFirst();
+            }
+            infos.add(new JobInfo(entry.name, entry.trigger.toString(), entry.nextRun, entry.running.get(),
+                    entry.maxConcurrent, lastRun));
+        }
+        return infos;
+    }
+
+    /** @return The last runs of a job, newest first (at most 50). */
+    public List<Run> getHistory(String name) {
+        Entry entry = entry(name);
+        if (entry == null) {
+            return new ArrayList<>();
+        }
+        synchronized (entry.history) {
+            return new ArrayList<>(entry.history);
+        }
+    }
+
+    /**
+     * @return Every job with its schedule and last run as JSON, e.g. for the API server's /metrics/jobs.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"jobs\":[");
+        boolean first = true;
+        for (JobInfo job : getJobs()) {
+            if (!first) json.append(',');
+            first = false;
+            json.append("{\"name\":").append(JsonUtil.quote(job.getName()))
+                    .append(",\"trigger\":").append(JsonUtil.quote(job.getTrigger()))
+                    .append(",\"nextRun\":").append(JsonUtil.quote(job.getNextRun() == null ? null : job.getNextRun().toString()))
+                    .append(",\"running\":").append(job.getRunning());
+            Run lastRun = job.getLastRun();
+            if (lastRun != null) {
+                json.append(",\"lastRun\":{\"started\":").append(JsonUtil.quote(lastRun.getStarted().toString()))
+                        .append(",\"durationMillis\":").append(lastRun.getDurationMillis())
+                        .append(",\"outcome\":").append(JsonUtil.quote(lastRun.getOutcome().name()))
+                        .append(",\"message\":").append(JsonUtil.quote(lastRun.getMessage()))
+                        .append('}');
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /** Registers a callback run whenever a run starts, ends or is skipped; it runs on a scheduler thread. */
+    public void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Stops the timer, asks running jobs to stop and waits up to 30 seconds for them to end.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        timer.shutdownNow();
+        for (Entry entry : entries()) {
+            cancel(entry.name);
+        }
+        workers.shutdown();
+        try {
+            workers.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // --- Helpers ---
+
+    private void scheduleAt(Entry entry, Instant when) {
+        if (closed) {
+            return;
+        }
+        entry.nextRun = when;
+        long delayMillis = Math.max(0, Duration.between(Instant.now(), when).toMillis());
+        try {
+            timer.schedule(() -> fire(entry), delayMillis, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Closed in the meantime
+        }
+    }
+
+    // Timer thread: starts a due run and, for cron triggers, schedules the next one right away
+    private void fire(Entry entry) {
+        boolean started = start(entry, true);
+        if (!entry.trigger.isFixedDelay()) {
+            scheduleAt(entry, entry.trigger.next(Instant.now()));
+        } else if (!started) {
+            scheduleAt(entry, entry.trigger.next(Instant.now())); // Try again one delay later
+        }
+    }
+
+    private boolean start(Entry entry, boolean scheduled) {
+        if (closed) {
+            return false;
+        }
+        while (true) {
+            int running = entry.running.get();
+            if (running >= entry.maxConcurrent) {
+                record(entry, new Run(entry.name, Instant.now(), 0, Outcome.SKIPPED,
+                        running + " run(s) still in progress"));
+                return false;
+            }
+            if (entry.running.compareAndSet(running, running + 1)) {
+                break;
+            }
+        }
+        Context context = new Context(entry.name);
+        entry.active.add(context);
+        if (scheduled && entry.trigger.isFixedDelay()) {
+            entry.nextRun = null; // Not known until this run ends
+        }
+        try {
+            workers.execute(() -> execute(entry, context, scheduled));
+        } catch (RejectedExecutionException e) {
+            entry.active.remove(context);
+            entry.running.decrementAndGet();
+            record(entry, new Run(entry.name, Instant.now(), 0, Outcome.SKIPPED, "all workers busy"));
+            return false;
+        }
+        notifyListeners();
+        return true;
+    }
+
+    // Worker thread: runs the job and records the outcome
+    private void execute(Entry entry, Context context, boolean scheduled) {
+        Instant started = Instant.now();
+        long startNanos = System.nanoTime();
+        Outcome outcome = Outcome.SUCCEEDED;
+        String message = null;
+        try {
+            entry.job.run(context);
+            if (context.cancelled) {
+                outcome = Outcome.CANCELLED;
+            }
+        } catch (CancellationException e) {
+            outcome = Outcome.CANCELLED;
+        } catch (Exception e) {
+            outcome = Outcome.FAILED;
+            message = e.toString();
+            System.err.println("Job " + entry.name + " failed: " + e.getMessage());
+            e.printStackTrace();
+        } finally {
+            entry.active.remove(context);
+            entry.running.decrementAndGet();
+        }
+        record(entry, new Run(entry.name, started, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), outcome, message));
+        if (scheduled && entry.trigger.isFixedDelay()) {
+            scheduleAt(entry, entry.trigger.next(Instant.now()));
+        }
+    }
+
+    private void record(Entry entry, Run run) {
+        synchronized (entry.history) {
+            entry.history.addFirst(run);
+            if (entry.history.size() > HISTORY_SIZE) {
+                entry.history.removeLast();
+            }
+        }
+        notifyListeners();
+    }
+
+    private void notifyListeners() {
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    private Entry entry(String name) {
+        synchronized (jobs) {
+            return jobs.get(name);
+        }
+    }
+
+    private List<Entry> entries() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    /**
+     * A five-field cron expression: minute (0-59), hour (0-23), day of month (1-31), month (1-12)
+     * and day of week (0-7, 0 and 7 are Sunday). Each field is "*" or a comma-separated list of
+     * values, ranges "a-b" and steps "* /n" or "a-b/n" (without the space). As in cron, when both day
+     * fields are restricted, a day matches if either matches.
+     */
+    static final class Cron implements Trigger {
+        private final String expression;
+        private final ZoneId zone;
+        private final BitSet minutes, hours, daysOfMonth, months, daysOfWeek;
+        private final boolean anyDayOfMonth, anyDayOfWeek;
+
+        Cron(String expression, ZoneId zone) {
+            String[] fields = expression.trim().split("\\s+");
+            if (fields.length != 5) {
+                throw new IllegalArgumentException("A cron expression has 5 fields: " + expression);
+            }
+            this.expression = expression.trim();
+            this.zone = zone;
+            this.minutes = parseField(fields[0], 0, 59);
+            this.hours = parseField(fields[1], 0, 23);
+            this.daysOfMonth = parseField(fields[2], 1, 31);
+            this.months = parseField(fields[3], 1, 12);
+            this.daysOfWeek = parseField(fields[4], 0, 7);
+            if (daysOfWeek.get(7)) {
+                daysOfWeek.set(0);
+            }
+            this.anyDayOfMonth = fields[2].equals("*");
+            this.anyDayOfWeek = fields[4].equals("*");
+            next(Instant.now()); // Fails fast for expressions that never match, e.g. 30 February
+        }
+
+        @Override
+        public Instant next(Instant after) {
+            ZonedDateTime time = after.atZone(zone).truncatedTo(ChronoUnit.MINUTES).plusMinutes(1);
+            ZonedDateTime limit = time.plusYears(5);
+            while (time.isBefore(limit)) {
+                if (!months.get(time.getMonthValue())) {
+                    time = time.withDayOfMonth(1).truncatedTo(ChronoUnit.DAYS).plusMonths(1);
+                } else if (!dayMatches(time)) {
+                    time = time.truncatedTo(ChronoUnit.DAYS).plusDays(1);
+                } else if (!hours.get(time.getHour())) {
+                    time = time.truncatedTo(ChronoUnit.HOURS).plusHours(1);
+                } else if (!minutes.get(time.getMinute())) {
+                    time = time.plusMinutes(1);
+                } else {
+                    return time.toInstant();
+                }
+            }
+            throw new IllegalArgumentException("The cron expression never matches: " + expression);
+        }
+
+        @Override
+        public String toString() {
+            return "cron " + expression;
+        }
+
+        private boolean dayMatches(ZonedDateTime time) {
+            boolean dayOfMonth = daysOfMonth.get(time.getDayOfMonth());
+            boolean dayOfWeek = daysOfWeek.get(time.getDayOfWeek().getValue() % 7);
+            if (!anyDayOfMonth && !anyDayOfWeek) {
+                return dayOfMonth || dayOfWeek;
+            }
+            return dayOfMonth && dayOfWeek;
+        }
+
+        private static BitSet parseField(String field, int min, int max) {
+            BitSet values = new BitSet(max + 1);
+            for (String part : field.split(",")) {
+                int step = 1;
+                int slash = part.indexOf('/');
+                if (slash >= 0) {
+                    step = parseNumber(part.substring(slash + 1), 1, max, field);
+                    part = part.substring(0, slash);
+                }
+                int from, to;
+                if (part.equals("*")) {
+                    from = min;
+                    to = max;
+                } else if (part.indexOf('-') > 0) {
+                    from = parseNumber(part.substring(0, part.indexOf('-')), min, max, field);
+                    to = parseNumber(part.substring(part.indexOf('-') + 1), from, max, field);
+                } else {
+                    from = parseNumber(part, min, max, field);
+                    to = slash >= 0 ? max : from;
+                }
+                for (int value = from; value <= to; value += step) {
+                    values.set(value);
+                }
+            }
+            return values;
+        }
+
+        private static int parseNumber(String text, int min, int max, String field) {
+            try {
+                int value = Integer.parseInt(text);
+                if (value >= min && value <= max) {
+                    return value;
+                }
+            } catch (NumberFormatException e) {
+                // Reported below
+            }
+            throw new IllegalArgumentException("Invalid cron field: " + field);
+        }
+    }
+}
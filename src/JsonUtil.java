@@ -0,0 +1,204 @@
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Minimal JSON helpers for the HTTP API.
+ * Serializes the POJOs by hand and parses flat request bodies (one object of
+ * string, number, boolean or null values), which is all the API needs.
+ */
+public final class JsonUtil {
+
+    private JsonUtil() {
+    }
+
+    // --- Serialization ---
+
+    public static String toJson(Product product) {
+        return "{\"productId\":" + product.getProductId() +
+                ",\"name\":" + quote(product.getName()) +
+                ",\"price\":" + product.getPrice() +
+                ",\"stock\":" + product.getStock() +
+                ",\"version\":" + product.getVersion() +
+                '}';
+    }
+
+    public static String toJson(Customer customer) {
+        return "{\"customerId\":" + customer.getCustomerId() +
+                ",\"firstName\":" + quote(customer.getFirstName()) +
+                ",\"lastName\":" + quote(customer.getLastName()) +
+                ",\"email\":" + quote(customer.getEmail()) +
+                ",\"phone\":" + quote(customer.getPhone()) +
+                ",\"version\":" + customer.getVersion() +
+                '}';
+    }
+
+    public static String toJson(Sale sale) {
+        return "{\"saleId\":" + sale.getSaleId() +
+                ",\"productId\":" + sale.getProductId() +
+                ",\"customerId\":" + sale.getCustomerId() +
+                ",\"quantity\":" + sale.getQuantity() +
+                ",\"unitPriceAtSale\":" + sale.getUnitPriceAtSale() +
+                ",\"totalSalePrice\":" + sale.getTotalSalePrice() +
+                ",\"saleDate\":" + quote(sale.getSaleDate() == null ? null : sale.getSaleDate().toString()) +
+                ",\"storeId\":" + sale.getStoreId() +
+                ",\"version\":" + sale.getVersion() +
+                '}';
+    }
+
+    /**
+     * Serializes a list using the given element serializer.
+     */
+    public static <T> String toJsonArray(List<T> items, Function<T, String> serializer) {
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < items.size(); i++) {
+            if (i > 0) json.append(',');
+            json.append(serializer.apply(items.get(i)));
+        }
+        return json.append(']').toString();
+    }
+
+    /**
+     * @return A JSON object with a single "error" message field.
+     */
+    public static String error(String message) {
+        return "{\"error\":" + quote(message) + '}';
+    }
+
+    /**
+     * Quotes and escapes a string value, or returns null for a null value.
+     */
+    public static String quote(String value) {
+        if (value == null) {
+            return "null";
+        }
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"': quoted.append("\\\""); break;
+                case '\\': quoted.append("\\\\"); break;
+                case '\n': quoted.append("\\n"); break;
+                case '\r': quoted.append("\\r"); break;
+                case '\t': quoted.append("\\t"); break;
+                default:
+                    if (c < 0x20) {
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        quoted.append(c);
+                    }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    // --- Parsing ---
+
+    /**
+     * Parses a flat JSON object into a map of field name to raw value text.
+     * String values are unescaped, numbers and booleans are kept as written, and null becomes a null entry.
+     * @param json The JSON text.
+     * @return The parsed fields.
+     * @throws IllegalArgumentException if the text is not a flat JSON object.
+     */
+    public static Map<String, String> parseObject(String json) {
+        Parser parser = new Parser(json);
+        Map<String, String> fields = new HashMap<>();
+        parser.skipWhitespace();
+        parser.expect('{');
+        parser.skipWhitespace();
+        if (parser.peek() == '}') {
+            parser.pos++;
+            return fields;
+        }
+        while (true) {
+            parser.skipWhitespace();
+            String name = parser.readString();
+            parser.skipWhitespace();
+            parser.expect(':');
+            parser.skipWhitespace();
+            fields.put(name, parser.readValue());
+            parser.skipWhitespace();
+            char next = parser.next();
+            if (next == '}') break;
+            if (next != ',') throw new IllegalArgumentException("Expected ',' or '}' at position " + (parser.pos - 1));
+        }
+        parser.skipWhitespace();
+        if (parser.pos != json.length()) {
+            throw new IllegalArgumentException("Unexpected trailing content at position " + parser.pos);
+        }
+        return fields;
+    }
+
+    private static class Parser {
+        private final String text;
+        private int pos;
+
+        Parser(String text) {
+            this.text = text;
+        }
+
+        char peek() {
+            if (pos >= text.length()) throw new IllegalArgumentException("Unexpected end of JSON.");
+            return text.charAt(pos);
+        }
+
+        char next() {
+            char c = peek();
+            pos++;
+            return c;
+        }
+
+        void expect(char expected) {
+            if (next() != expected) throw new IllegalArgumentException("Expected '" + expected + "' at position " + (pos - 1));
+        }
+
+        void skipWhitespace() {
+            while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) pos++;
+        }
+
+        String readValue() {
+            char c = peek();
+            if (c == '"') {
+                return readString();
+            }
+            int start = pos;
+            while (pos < text.length() && ",}".indexOf(text.charAt(pos)) < 0 && !Character.isWhitespace(text.charAt(pos))) {
+                pos++;
+            }
+            String literal = text.substring(start, pos);
+            if (literal.isEmpty() || literal.startsWith("{") || literal.startsWith("[")) {
+                throw new IllegalArgumentException("Only flat JSON values are supported (position " + start + ").");
+            }
+            return literal.equals("null") ? null : literal;
+        }
+
+        String readString() {
+            expect('"');
+            StringBuilder value = new StringBuilder();
+            while (true) {
+                char c = next();
+                if (c == '"') return value.toString();
+                if (c != '\\') {
+                    value.append(c);
+                    continue;
+                }
+                char escaped = next();
+                switch (escaped) {
+                    case 'n': value.append('\n'); break;
+                    case 'r': value.append('\r'); break;
+                    case 't': value.append('\t'); break;
+                    case 'b': value.append('\b'); break;
+                    case 'f': value.append('\f'); break;
+                    case 'u':
+                        if (pos + 4 > text.length()) throw new IllegalArgumentException("Bad unicode escape.");
+                        value.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+                        pos += 4;
+                        break;
+                    default: value.append(escaped);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * An amount of money held as a whole number of cents (minor units): 12.50 is stored as 1250.
+ * Matches the DECIMAL(10, 2) columns of the schema, so values round-trip to the database exactly.
+ *
+ * Instances are immutable and arithmetic is exact; overflow throws ArithmeticException instead of
+ * wrapping. Unlike double, sums of many amounts never drift (0.10 + 0.20 is 0.30), and unlike
+ * BigDecimal, an amount is one long. Loops that add up many amounts (totals, reports) should sum
+ * {@link #cents()} into a long and wrap the result once, so they allocate nothing per row.
+ *
+ * Money extends Number so that the generic query code (QueryColumns) can compare prices with
+ * numeric filter values; doubleValue() is the amount in whole currency units.
+ */
+public final class Money extends Number implements Comparable<Money> {
+
+    private static final long serialVersionUID = 1L;
+    private static final int CACHED_WHOLE_AMOUNTS = 1000; // 0.00 .. 999.00, the common list prices
+    private static final int MAX_UNIT_DIGITS = 15; // Parsed amounts stay far from long overflow
+
+    public static final Money ZERO;
+    private static final Money[] WHOLE_AMOUNTS = new Money[CACHED_WHOLE_AMOUNTS];
+
+    static {
+        for (int i = 0; i < CACHED_WHOLE_AMOUNTS; i++) {
+            WHOLE_AMOUNTS[i] = new Money(i * 100L);
+        }
+        ZERO = WHOLE_AMOUNTS[0];
+    }
+
+    private final long cents;
+
+    private Money(long cents) {
+        this.cents = cents;
+    }
+
+    /** @return The amount with the given number of cents. */
+    public static Money ofCents(long cents) {
+        if (cents >= 0 && cents % 100 == 0 && cents < CACHED_WHOLE_AMOUNTS * 100L) {
+            return WHOLE_AMOUNTS[(int) (cents / 100)];
+        }
+        return new Money(cents);
+    }
+
+    /**
+     * Converts a DECIMAL value read through JDBC; more than two decimal places are rounded half up.
+     * @return The amount, or null for SQL NULL.
+     */
+    public static Money of(BigDecimal amount) {
+        if (amount == null) {
+            return null;
+        }
+        return ofCents(amount.setScale(2, RoundingMode.HALF_UP).unscaledValue().longValueExact());
+    }
+
+    /**
+     * Parses user or API input such as "12", "12.5", "-3.05" or "+7.00" without going through double.
+     * @throws NumberFormatException if the text is not a plain decimal number with at most two decimal places.
+     */
+    public static Money parse(String text) {
+        String s = text == null ? "" : text.trim();
+        int i = 0;
+        boolean negative = false;
+        if (!s.isEmpty() && (s.charAt(0) == '-' || s.charAt(0) == '+')) {
+            negative = s.charAt(0) == '-';
+            i++;
+        }
+        long units = 0;
+        int unitDigits = 0;
+        for (; i < s.length() && s.charAt(i) != '.'; i++, unitDigits++) {
+            if (unitDigits == MAX_UNIT_DIGITS) {
+                throw new NumberFormatException("Amount too large: " + text);
+            }
+            units = units * 10 + digit(s, i);
+        }
+        long fraction = 0;
+        int fractionDigits = 0;
+        if (i < s.length()) {
+            for (i++; i < s.length(); i++, fractionDigits++) {
+                if (fractionDigits == 2) {
+                    throw new NumberFormatException("At most two decimal places are allowed: " + text);
+                }
+                fraction = fraction * 10 + digit(s, i);
+            }
+        }
+        if (unitDigits + fractionDigits == 0) {
+            throw new NumberFormatException("Not an amount of money: " + text);
+        }
+        long cents = units * 100 + (fractionDigits == 1 ? fraction * 10 : fraction);
+        return ofCents(negative ? -cents : cents);
+    }
+
+    /** @return The amount in cents. */
+    public long cents() {
+        return cents;
+    }
+
+    public Money plus(Money other) {
+        return ofCents(Math.addExact(cents, other.cents));
+    }
+
+    public Money minus(Money other) {
+        return ofCents(Math.subtractExact(cents, other.cents));
+    }
+
+    /** @return The amount multiplied by a quantity, e.g. a unit price times the quantity sold. */
+    public Money times(int quantity) {
+        return ofCents(Math.multiplyExact(cents, (long) quantity));
+    }
+
+    public boolean isNegative() {
+        return cents < 0;
+    }
+
+    /** @return The amount as a DECIMAL with two decimal places, for JDBC. */
+    public BigDecimal toDecimal() {
+        return BigDecimal.valueOf(cents, 2);
+    }
+
+    @Override
+    public int compareTo(Money other) {
+        return Long.compare(cents, other.cents);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return o instanceof Money && ((Money) o).cents == cents;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(cents);
+    }
+
+    /** @return The amount with exactly two decimal places, e.g. "12.50" or "-0.05". */
+    @Override
+    public String toString() {
+        return format(cents);
+    }
+
+    /** Formats an amount in cents like {@link #toString()}, without creating a Money. */
+    public static String format(long cents) {
+        long abs = Math.abs(cents);
+        long fraction = abs % 100;
+        return (cents < 0 ? "-" : "") + (abs / 100) + (fraction < 10 ? ".0" : ".") + fraction;
+    }
+
+    // --- Number ---
+
+    @Override
+    public int intValue() {
+        return (int) longValue();
+    }
+
+    /** @return The whole currency units, truncated toward zero. */
+    @Override
+    public long longValue() {
+        return cents / 100;
+    }
+
+    @Override
+    public float floatValue() {
+        return (float) doubleValue();
+    }
+
+    @Override
+    public double doubleValue() {
+        return cents / 100.0;
+    }
+
+    private static int digit(String s, int index) {
+        char c = s.charAt(index);
+        if (c < '0' || c > '9') {
+            throw new NumberFormatException("Not an amount of money: " + s);
+        }
+        return c - '0';
+    }
+}
@@ -0,0 +1,84 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Represents a multi-line Order (a customer's basket) in the Sales Management System.
+ * The order header holds the customer and date; the products are in its OrderLines.
+ */
+public class Order {
+    private int orderId;
+    private int customerId;
+    private LocalDate orderDate;
+    private final List<OrderLine> lines = new ArrayList<>();
+
+    // Constructor for creating new Order objects (ID will be generated by DAO)
+    public Order(int customerId, LocalDate orderDate) {
+        this.customerId = customerId;
+        this.orderDate = orderDate;
+    }
+
+    // Constructor for retrieving Order objects from the database (with ID)
+    public Order(int orderId, int customerId, LocalDate orderDate) {
+        this.orderId = orderId;
+        this.customerId = customerId;
+        this.orderDate = orderDate;
+    }
+
+    // Adds a line item to the order
+    public void addLine(OrderLine line) {
+        lines.add(line);
+    }
+
+    // Getters
+    public int getOrderId() {
+        return orderId;
+    }
+
+    public int getCustomerId() {
+        return customerId;
+    }
+
+    public LocalDate getOrderDate() {
+        return orderDate;
+    }
+
+    public List<OrderLine> getLines() {
+        return lines;
+    }
+
+    // Sum of all line totals
+    public Money getTotalPrice() {
+        long totalCents = 0;
+        for (OrderLine line : lines) {
+            totalCents = Math.addExact(totalCents, line.getLineTotal().cents());
+        }
+        return Money.ofCents(totalCents);
+    }
+
+    // Setters
+    public void setOrderId(int orderId) {
+        this.orderId = orderId;
+        for (OrderLine line : lines) {
+            line.setOrderId(orderId);
+        }
+    }
+
+    public void setCustomerId(int customerId) {
+        this.customerId = customerId;
+    }
+
+    public void setOrderDate(LocalDate orderDate) {
+        this.orderDate = orderDate;
+    }
+
+    @Override
+    public String toString() {
+        return "Order{" +
+                "orderId=" + orderId +
+                ", customerId=" + customerId +
+                ", orderDate=" + orderDate +
+                ", lines=" + lines +
+                '}';
+    }
+}
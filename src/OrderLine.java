@@ -0,0 +1,81 @@
+/**
+ * Represents one line item of an Order in the Sales Management System.
+ * This POJO links a Product to its Order.
+ */
+public class OrderLine {
+    private int lineId;
+    private int orderId;
+    private int productId;
+    private int quantity;
+    private Money unitPriceAtSale; // Price of the product at the time of the order
+    private Money lineTotal; // Calculated total price for this line
+
+    // Constructor for creating new OrderLine objects (IDs will be generated by DAO)
+    public OrderLine(int productId, int quantity, Money unitPriceAtSale) {
+        this.productId = productId;
+        this.quantity = quantity;
+        this.unitPriceAtSale = unitPriceAtSale;
+        this.lineTotal = unitPriceAtSale.times(quantity); // Initial calculation
+    }
+
+    // Constructor for retrieving OrderLine objects from the database (with all fields)
+    public OrderLine(int lineId, int orderId, int productId, int quantity, Money unitPriceAtSale, Money lineTotal) {
+        this.lineId = lineId;
+        this.orderId = orderId;
+        this.productId = productId;
+        this.quantity = quantity;
+        this.unitPriceAtSale = unitPriceAtSale;
+        this.lineTotal = lineTotal;
+    }
+
+    // Getters
+    public int getLineId() {
+        return lineId;
+    }
+
+    public int getOrderId() {
+        return orderId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public int getQuantity() {
+        return quantity;
+    }
+
+    public Money getUnitPriceAtSale() {
+        return unitPriceAtSale;
+    }
+
+    public Money getLineTotal() {
+        return lineTotal;
+    }
+
+    // Setters
+    public void setLineId(int lineId) {
+        this.lineId = lineId;
+    }
+
+    public void setOrderId(int orderId) {
+        this.orderId = orderId;
+    }
+
+    public void setQuantity(int quantity) {
+        this.quantity = quantity;
+        this.lineTotal = this.unitPriceAtSale.times(this.quantity); // Recalculate total
+    }
+
+    @Override
+    public String toString() {
+        return "OrderLine{" +
+                "lineId=" + lineId +
+                ", orderId=" + orderId +
+                ", productId=" + productId +
+                ", quantity=" + quantity +
+                ", unitPriceAtSale=" + unitPriceAtSale +
+                ", lineTotal=" + lineTotal +
+                '}';
+    }
+}
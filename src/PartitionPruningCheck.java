@@ -0,0 +1,139 @@
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Checks against the configured PostgreSQL database that a date-bounded querySales reads only the
+ * monthly partitions of its date range. Runs EXPLAIN on the statement querySales sends and compares the
+ * sales_yYYYYmMM tables in the plan with the months of the range.
+ *
+ * The schema creates the partitions from last month to three months ahead, so every checked range
+ * has partitions on both sides that must not show up.
+ *
+ * The GUI and the API server run the check as the "Partition pruning check" job, a minute after
+ * startup (when their stores have prepared the schema) and then daily; a plan that stops pruning
+ * makes the run fail with the plan in its error, visible in the Jobs tab and /metrics/jobs.
+ *
+ * Usage: java PartitionPruningCheck (exits with status 1 if a query scans other partitions)
+ */
+public final class PartitionPruningCheck {
+
+    private static final Pattern PARTITION_NAME = Pattern.compile("\\bsales_y\\d{4}m\\d{2}\\b");
+
+    private PartitionPruningCheck() {
+    }
+
+    public static void main(String[] args) {
+        DatabaseManager manager = new DatabaseManager();
+        boolean passed;
+        try (Connection conn = DatabaseManager.openConnection()) {
+            manager.getConnection(); // Creates the schema and the premade partitions
+            List<String> failures = runChecks(conn);
+            for (String failure : failures) {
+                System.out.println(failure);
+            }
+            passed = failures.isEmpty();
+        } catch (SQLException e) {
+            System.err.println("Partition pruning check could not run: " + e.getMessage());
+            e.printStackTrace();
+            passed = false;
+        } finally {
+            manager.closeConnection();
+        }
+        System.out.println(passed ? "Partition pruning check passed." : "Partition pruning check FAILED.");
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Schedules the check as the "Partition pruning check" job, when the backend is the default database.
+     * A run whose plans scan other partitions fails with an IllegalStateException listing them.
+     */
+    public static void schedule(JobScheduler jobs) {
+        if (!DataStoreFactory.usesDefaultDatabase()) {
+            return; // Like the archive, the check covers the default database only
+        }
+        jobs.schedule("Partition pruning check", JobScheduler.fixedDelay(Duration.ofMinutes(1), Duration.ofDays(1)), 1, context -> {
+            try (Connection conn = DatabaseManager.openConnection()) {
+                List<String> failures = runChecks(conn);
+                if (!failures.isEmpty()) {
+                    throw new IllegalStateException(String.join("\n", failures));
+                }
+            }
+        });
+    }
+
+    /**
+     * Runs all checks on a database whose schema is prepared.
+     * @return One report per check that failed, with the plan; empty if all passed.
+     */
+    public static List<String> runChecks(Connection conn) throws SQLException {
+        List<String> failures = new ArrayList<>();
+        YearMonth month = YearMonth.now();
+        check(conn, failures, "one month", new QuerySpec()
+                .where("saleDate", QuerySpec.Op.GE, month.atDay(1))
+                .where("saleDate", QuerySpec.Op.LE, month.atEndOfMonth())
+                .orderBy("saleDate", true), month, month);
+        check(conn, failures, "across a month boundary", new QuerySpec()
+                .where("saleDate", QuerySpec.Op.GE, month.atDay(15))
+                .where("saleDate", QuerySpec.Op.LE, month.plusMonths(1).atDay(10))
+                .orderBy("saleDate", true), month, month.plusMonths(1));
+        check(conn, failures, "one product in one month", new QuerySpec()
+                .where("productId", QuerySpec.Op.EQ, 1)
+                .where("saleDate", QuerySpec.Op.GE, month.plusMonths(1).atDay(1))
+                .where("saleDate", QuerySpec.Op.LT, month.plusMonths(2).atDay(1)), month.plusMonths(1), month.plusMonths(1));
+        return failures;
+    }
+
+    /**
+     * Explains the querySales statement of the spec and compares the partitions it scans with first..last.
+     * Adds a report to failures unless exactly the partitions of first..last appear in the plan.
+     */
+    private static void check(Connection conn, List<String> failures, String name, QuerySpec spec,
+                              YearMonth first, YearMonth last) throws SQLException {
+        List<Object> params = new ArrayList<>();
+        String explainSQL = "EXPLAIN " + DatabaseManager.querySalesSql(spec, params);
+        List<String> plan = new ArrayList<>();
+        Set<String> scanned = new TreeSet<>();
+        try (PreparedStatement pstmt = conn.prepareStatement(explainSQL)) {
+            QueryColumns.bind(pstmt, params);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    String line = rs.getString(1);
+                    plan.add(line);
+                    Matcher matcher = PARTITION_NAME.matcher(line);
+                    while (matcher.find()) {
+                        scanned.add(matcher.group());
+                    }
+                }
+            }
+        }
+        Set<String> expected = new TreeSet<>();
+        for (YearMonth month = first; !month.isAfter(last); month = month.plusMonths(1)) {
+            expected.add(partitionName(month.atDay(1)));
+        }
+        if (scanned.equals(expected)) {
+            return;
+        }
+        StringBuilder report = new StringBuilder("FAILED  " + name + ": expected " + expected + ", plan scans " + scanned);
+        for (String line : plan) {
+            report.append("\n        ").append(line);
+        }
+        failures.add(report.toString());
+    }
+
+    private static String partitionName(LocalDate date) {
+        return String.format("sales_y%04dm%02d", date.getYear(), date.getMonthValue());
+    }
+}
@@ -0,0 +1,158 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * The list prices of all products over time, as an in-memory interval index: per product, the
+ * dates from which each price was valid, in order. A lookup is a binary search over one product's
+ * intervals, so reports can ask for the price of every sold product on its sale date without a
+ * query per row.
+ *
+ * Instances are immutable once built and can be shared between threads. A product's price is
+ * unknown (null) before its first recorded interval, e.g. for dates before price history existed.
+ */
+public final class PriceHistory {
+
+    /** Valid-from date for prices whose start is unknown, used by backends without history. */
+    public static final LocalDate SINCE_ALWAYS = LocalDate.of(1, 1, 1);
+
+    /**
+     * A list price change of one product.
+     */
+    public static final class PriceChange {
+        private final int productId;
+        private final LocalDate date;
+        private final Money oldPrice;
+        private final Money newPrice;
+
+        private PriceChange(int productId, LocalDate date, Money oldPrice, Money newPrice) {
+            this.productId = productId;
+            this.date = date;
+            this.oldPrice = oldPrice;
+            this.newPrice = newPrice;
+        }
+
+        public int getProductId() {
+            return productId;
+        }
+
+        /** @return The first day of the new price. */
+        public LocalDate getDate() {
+            return date;
+        }
+
+        /** @return The price before the change, or null for the first recorded price. */
+        public Money getOldPrice() {
+            return oldPrice;
+        }
+
+        public Money getNewPrice() {
+            return newPrice;
+        }
+    }
+
+    // One product's intervals: price i is valid from validFrom[i] (epoch day) until validFrom[i + 1]
+    private static final class Intervals {
+        final long[] validFrom;
+        final long[] cents;
+
+        Intervals(long[] validFrom, long[] cents) {
+            this.validFrom = validFrom;
+            this.cents = cents;
+        }
+    }
+
+    private final IntObjectHashMap<Intervals> products;
+
+    private PriceHistory(IntObjectHashMap<Intervals> products) {
+        this.products = products;
+    }
+
+    /**
+     * @return The list price of the product on the date, or null if the product has no price recorded
+     *         on or before that date.
+     */
+    public Money getPriceAt(int productId, LocalDate date) {
+        Intervals intervals = products.get(productId);
+        if (intervals == null) {
+            return null;
+        }
+        int index = Arrays.binarySearch(intervals.validFrom, date.toEpochDay());
+        if (index < 0) {
+            index = -index - 2; // The interval that started before the date
+            if (index < 0) {
+                return null;
+            }
+        }
+        return Money.ofCents(intervals.cents[index]);
+    }
+
+    /** @return The price changes dated from..to (both inclusive), newest first. */
+    public List<PriceChange> getChangesBetween(LocalDate from, LocalDate to) {
+        long fromDay = from.toEpochDay();
+        long toDay = to.toEpochDay();
+        List<PriceChange> changes = new ArrayList<>();
+        products.forEachKey(productId -> {
+            Intervals intervals = products.get(productId);
+            for (int i = 0; i < intervals.validFrom.length; i++) {
+                long day = intervals.validFrom[i];
+                if (day >= fromDay && day <= toDay) {
+                    changes.add(new PriceChange(productId, LocalDate.ofEpochDay(day),
+                            i > 0 ? Money.ofCents(intervals.cents[i - 1]) : null, Money.ofCents(intervals.cents[i])));
+                }
+            }
+        });
+        changes.sort(Comparator.comparing(PriceChange::getDate).reversed().thenComparingInt(PriceChange::getProductId));
+        return changes;
+    }
+
+    /** @return The number of products with at least one recorded price. */
+    public int getProductCount() {
+        return products.size();
+    }
+
+    /**
+     * Collects price intervals; rows must arrive grouped by product, in valid-from order within a product
+     * (as from ORDER BY product_id, valid_from).
+     */
+    public static final class Builder {
+        private final IntObjectHashMap<Intervals> products = new IntObjectHashMap<>();
+        private int currentProduct;
+        private long[] validFrom = new long[4];
+        private long[] cents = new long[4];
+        private int size;
+
+        public Builder add(int productId, LocalDate from, Money price) {
+            if (size > 0 && productId != currentProduct) {
+                finishProduct();
+            }
+            currentProduct = productId;
+            long day = from.toEpochDay();
+            if (size > 0 && day <= validFrom[size - 1]) {
+                throw new IllegalArgumentException("Price intervals of product " + productId + " are not in date order.");
+            }
+            if (size == validFrom.length) {
+                validFrom = Arrays.copyOf(validFrom, size * 2);
+                cents = Arrays.copyOf(cents, size * 2);
+            }
+            validFrom[size] = day;
+            cents[size] = price.cents();
+            size++;
+            return this;
+        }
+
+        public PriceHistory build() {
+            if (size > 0) {
+                finishProduct();
+            }
+            return new PriceHistory(products);
+        }
+
+        private void finishProduct() {
+            products.put(currentProduct, new Intervals(Arrays.copyOf(validFrom, size), Arrays.copyOf(cents, size)));
+            size = 0;
+        }
+    }
+}
@@ -5,18 +5,19 @@
 public class Product {
     private int productId;
     private String name;
-    private double price;
+    private Money price;
     private int stock;
+    private int version; // Row version for optimistic updates; 0 = not read from the database
 
     // Constructor for creating new Product objects (ID will be generated by DB)
-    public Product(String name, double price, int stock) {
+    public Product(String name, Money price, int stock) {
         this.name = name;
         this.price = price;
         this.stock = stock;
     }
 
     // Constructor for retrieving Product objects from the database (with ID)
-    public Product(int productId, String name, double price, int stock) {
+    public Product(int productId, String name, Money price, int stock) {
         this.productId = productId;
         this.name = name;
         this.price = price;
@@ -32,7 +33,7 @@ public class Product {
         return name;
     }
 
-    public double getPrice() {
+    public Money getPrice() {
         return price;
     }
 
@@ -40,6 +41,10 @@ public class Product {
         return stock;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
     // Setters
     public void setProductId(int productId) {
         this.productId = productId;
@@ -49,7 +54,7 @@ public class Product {
         this.name = name;
     }
 
-    public void setPrice(double price) {
+    public void setPrice(Money price) {
         this.price = price;
     }
 
@@ -57,6 +62,10 @@ public class Product {
         this.stock = stock;
     }
 
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
     @Override
     public String toString() {
         return "Product{" +
@@ -0,0 +1,327 @@
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+/**
+ * The queryable fields of an entity: logical field name, SQL column and getter.
+ * Translates a QuerySpec to SQL (only whitelisted columns, values always bound as parameters)
+ * and evaluates the same QuerySpec in memory for backends without SQL.
+ *
+ * Fields:
+ *   products:  id, name, price, stock
+ *   customers: id, firstName, lastName, email, phone
+ *   sales:     id, productId, customerId, quantity, unitPrice, totalPrice, saleDate, storeId
+ *   sale views: the sales fields plus productName, customerName
+ */
+public final class QueryColumns<T> {
+
+    private static final int MAX_IN_VALUES = 1000;
+
+    public static final QueryColumns<Product> PRODUCTS = new QueryColumns<Product>("product_id")
+            .add("id", "product_id", Product::getProductId)
+            .add("name", "name", Product::getName)
+            .add("price", "price", Product::getPrice)
+            .add("stock", "stock", Product::getStock);
+
+    public static final QueryColumns<Customer> CUSTOMERS = new QueryColumns<Customer>("customer_id")
+            .add("id", "customer_id", Customer::getCustomerId)
+            .add("firstName", "first_name", Customer::getFirstName)
+            .add("lastName", "last_name", Customer::getLastName)
+            .add("email", "email", Customer::getEmail)
+            .add("phone", "phone", Customer::getPhone);
+
+    public static final QueryColumns<Sale> SALES = new QueryColumns<Sale>("sale_id")
+            .add("id", "sale_id", Sale::getSaleId)
+            .add("productId", "product_id", Sale::getProductId)
+            .add("customerId", "customer_id", Sale::getCustomerId)
+            .add("quantity", "quantity", Sale::getQuantity)
+            .add("unitPrice", "unit_price_at_sale", Sale::getUnitPriceAtSale)
+            .add("totalPrice", "total_sale_price", Sale::getTotalSalePrice)
+            .add("saleDate", "sale_date", Sale::getSaleDate)
+            .add("storeId", "store_id", Sale::getStoreId);
+
+    public static final QueryColumns<SaleView> SALE_VIEWS = new QueryColumns<SaleView>("sale_id")
+            .add("id", "sale_id", v -> v.getSale().getSaleId())
+            .add("productId", "product_id", v -> v.getSale().getProductId())
+            .add("customerId", "customer_id", v -> v.getSale().getCustomerId())
+            .add("quantity", "quantity", v -> v.getSale().getQuantity())
+            .add("unitPrice", "unit_price_at_sale", v -> v.getSale().getUnitPriceAtSale())
+            .add("totalPrice", "total_sale_price", v -> v.getSale().getTotalSalePrice())
+            .add("saleDate", "sale_date", v -> v.getSale().getSaleDate())
+            .add("storeId", "store_id", v -> v.getSale().getStoreId())
+            .add("productName", "product_name", SaleView::getProductName)
+            .add("customerName", "customer_name", SaleView::getCustomerName);
+
+    private static class Column<T> {
+        final String sql;
+        final Function<T, Object> getter;
+
+        Column(String sql, Function<T, Object> getter) {
+            this.sql = sql;
+            this.getter = getter;
+        }
+    }
+
+    private final String idColumn;
+    private final Map<String, Column<T>> columns = new LinkedHashMap<>();
+
+    private QueryColumns(String idColumn) {
+        this.idColumn = idColumn;
+    }
+
+    private QueryColumns<T> add(String field, String sqlColumn, Function<T, Object> getter) {
+        columns.put(field, new Column<>(sqlColumn, getter));
+        return this;
+    }
+
+    // --- SQL ---
+
+    /**
+     * Appends WHERE, ORDER BY and LIMIT/OFFSET clauses for the spec to a SELECT.
+     * @param select The statement up to and including the FROM clause.
+     * @param spec The query.
+     * @param params Receives the values to bind, in placeholder order.
+     * @return The complete SQL.
+     * @throws IllegalArgumentException for unknown fields or unsupported values.
+     */
+    public String toSql(String select, QuerySpec spec, List<Object> params) {
+        StringBuilder sql = new StringBuilder(toWhereSql(select, spec, params));
+        if (spec.getSortField() != null) {
+            String direction = spec.isAscending() ? " ASC" : " DESC";
+            sql.append(" ORDER BY ").append(column(spec.getSortField()).sql).append(direction)
+                    .append(", ").append(idColumn).append(direction);
+        } else {
+            sql.append(" ORDER BY ").append(idColumn);
+        }
+        if (spec.getLimit() > 0) {
+            sql.append(" LIMIT ").append(spec.getLimit());
+        }
+        if (spec.getOffset() > 0) {
+            sql.append(" OFFSET ").append(spec.getOffset());
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Appends only the WHERE clause of the spec, e.g. for a DELETE or a COUNT.
+     * @return The SQL with the WHERE clause (or unchanged when there are no filters).
+     */
+    public String toWhereSql(String statement, QuerySpec spec, List<Object> params) {
+        StringBuilder sql = new StringBuilder(statement);
+        String separator = " WHERE ";
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            sql.append(separator).append(predicateSql(column(filter.getField()).sql, filter, params));
+            separator = " AND ";
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Binds the collected parameters to a statement, starting at index 1.
+     */
+    public static void bind(PreparedStatement pstmt, List<Object> params) throws SQLException {
+        for (int i = 0; i < params.size(); i++) {
+            Object value = params.get(i);
+            if (value instanceof LocalDate) {
+                pstmt.setDate(i + 1, Date.valueOf((LocalDate) value));
+            } else if (value instanceof Money) {
+                pstmt.setBigDecimal(i + 1, ((Money) value).toDecimal());
+            } else {
+                pstmt.setObject(i + 1, value);
+            }
+        }
+    }
+
+    private static String predicateSql(String column, QuerySpec.Filter filter, List<Object> params) {
+        Object value = filter.getValue();
+        switch (filter.getOp()) {
+            case EQ:
+                params.add(value);
+                return column + " = ?";
+            case LT:
+                params.add(value);
+                return column + " < ?";
+            case LE:
+                params.add(value);
+                return column + " <= ?";
+            case GT:
+                params.add(value);
+                return column + " > ?";
+            case GE:
+                params.add(value);
+                return column + " >= ?";
+            case STARTS_WITH:
+                // Matches the lower(column) text_pattern_ops indexes
+                params.add(escapeLike(value.toString().toLowerCase(Locale.ROOT)) + "%");
+                return "lower(" + column + ") LIKE ?";
+            case CONTAINS:
+                params.add("%" + escapeLike(value.toString().toLowerCase(Locale.ROOT)) + "%");
+                return "lower(" + column + ") LIKE ?";
+            case IN:
+                Collection<?> values = inValues(value);
+                if (values.isEmpty()) {
+                    return "FALSE";
+                }
+                StringBuilder in = new StringBuilder(column).append(" IN (");
+                for (Object element : values) {
+                    if (in.charAt(in.length() - 1) != '(') in.append(", ");
+                    in.append('?');
+                    params.add(element);
+                }
+                return in.append(')').toString();
+            default:
+                throw new IllegalArgumentException("Unsupported operator: " + filter.getOp());
+        }
+    }
+
+    private static String escapeLike(String text) {
+        return text.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    /** @return Whether the spec filters or sorts on the field. */
+    public static boolean refersTo(QuerySpec spec, String field) {
+        if (field.equals(spec.getSortField())) {
+            return true;
+        }
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            if (filter.getField().equals(field)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // --- In Memory ---
+
+    /**
+     * Evaluates the spec over rows already in memory (for backends without SQL).
+     * @return A new list with the matching rows of the requested page, in the requested order.
+     */
+    public List<T> apply(List<T> rows, QuerySpec spec) {
+        List<Predicate<T>> predicates = new ArrayList<>();
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            predicates.add(predicate(column(filter.getField()).getter, filter));
+        }
+        List<T> result = new ArrayList<>();
+        for (T row : rows) {
+            boolean matches = true;
+            for (Predicate<T> predicate : predicates) {
+                if (!predicate.test(row)) {
+                    matches = false;
+                    break;
+                }
+            }
+            if (matches) {
+                result.add(row);
+            }
+        }
+
+        result.sort(comparator(spec));
+
+        int from = Math.min(spec.getOffset(), result.size());
+        int to = spec.getLimit() > 0 ? Math.min(from + spec.getLimit(), result.size()) : result.size();
+        return new ArrayList<>(result.subList(from, to));
+    }
+
+    /**
+     * @return The row order of the spec: its sort field (nulls first), ties broken by ID; by ID if it has no sort field.
+     */
+    public Comparator<T> comparator(QuerySpec spec) {
+        Function<T, Object> idGetter = columns.get("id").getter;
+        Comparator<T> order = (a, b) -> compareValues(idGetter.apply(a), idGetter.apply(b));
+        if (spec.getSortField() != null) {
+            Function<T, Object> sortGetter = column(spec.getSortField()).getter;
+            Comparator<T> bySortField = (a, b) -> compareValues(sortGetter.apply(a), sortGetter.apply(b));
+            order = bySortField.thenComparing(order);
+            if (!spec.isAscending()) {
+                order = order.reversed();
+            }
+        }
+        return order;
+    }
+
+    private static <T> Predicate<T> predicate(Function<T, Object> getter, QuerySpec.Filter filter) {
+        Object value = filter.getValue();
+        switch (filter.getOp()) {
+            case EQ:
+                return row -> getter.apply(row) != null && compareValues(getter.apply(row), value) == 0;
+            case LT:
+                return row -> getter.apply(row) != null && compareValues(getter.apply(row), value) < 0;
+            case LE:
+                return row -> getter.apply(row) != null && compareValues(getter.apply(row), value) <= 0;
+            case GT:
+                return row -> getter.apply(row) != null && compareValues(getter.apply(row), value) > 0;
+            case GE:
+                return row -> getter.apply(row) != null && compareValues(getter.apply(row), value) >= 0;
+            case STARTS_WITH: {
+                String prefix = value.toString().toLowerCase(Locale.ROOT);
+                return row -> getter.apply(row) != null && getter.apply(row).toString().toLowerCase(Locale.ROOT).startsWith(prefix);
+            }
+            case CONTAINS: {
+                String part = value.toString().toLowerCase(Locale.ROOT);
+                return row -> getter.apply(row) != null && getter.apply(row).toString().toLowerCase(Locale.ROOT).contains(part);
+            }
+            case IN: {
+                Collection<?> values = inValues(value);
+                return row -> {
+                    Object actual = getter.apply(row);
+                    for (Object candidate : values) {
+                        if (actual != null && compareValues(actual, candidate) == 0) return true;
+                    }
+                    return false;
+                };
+            }
+            default:
+                throw new IllegalArgumentException("Unsupported operator: " + filter.getOp());
+        }
+    }
+
+    // Numbers compare by value regardless of type; nulls sort first
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static int compareValues(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == null ? (b == null ? 0 : -1) : 1;
+        }
+        if (a instanceof Money && b instanceof Money) {
+            return ((Money) a).compareTo((Money) b);
+        }
+        if (a instanceof Number && b instanceof Number) {
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof String || b instanceof String) {
+            return a.toString().compareToIgnoreCase(b.toString());
+        }
+        return ((Comparable) a).compareTo(b);
+    }
+
+    // --- Helpers ---
+
+    private Column<T> column(String field) {
+        Column<T> column = columns.get(field);
+        if (column == null) {
+            throw new IllegalArgumentException("Unknown query field: " + field + ". Known fields: " + columns.keySet());
+        }
+        return column;
+    }
+
+    private static Collection<?> inValues(Object value) {
+        if (!(value instanceof Collection)) {
+            throw new IllegalArgumentException("IN needs a collection of values.");
+        }
+        Collection<?> values = (Collection<?>) value;
+        if (values.size() > MAX_IN_VALUES) {
+            throw new IllegalArgumentException("IN supports at most " + MAX_IN_VALUES + " values.");
+        }
+        return values;
+    }
+}
@@ -0,0 +1,101 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a query against one of the DAOs: filter predicates, a sort key and a page.
+ * Field names are the logical names listed in {@link QueryColumns} (e.g. "name", "saleDate"),
+ * never SQL; backends translate them through a whitelist.
+ *
+ * Example: new QuerySpec().where("stock", QuerySpec.Op.LE, 5).orderBy("name", true).page(0, 200)
+ */
+public class QuerySpec {
+
+    /** Comparison operators. STARTS_WITH and CONTAINS are case-insensitive; IN takes a collection. */
+    public enum Op {
+        EQ, LT, LE, GT, GE, STARTS_WITH, CONTAINS, IN
+    }
+
+    /**
+     * One predicate: field, operator and value.
+     */
+    public static class Filter {
+        private final String field;
+        private final Op op;
+        private final Object value;
+
+        public Filter(String field, Op op, Object value) {
+            this.field = field;
+            this.op = op;
+            this.value = value;
+        }
+
+        public String getField() {
+            return field;
+        }
+
+        public Op getOp() {
+            return op;
+        }
+
+        public Object getValue() {
+            return value;
+        }
+    }
+
+    private final List<Filter> filters = new ArrayList<>();
+    private String sortField;
+    private boolean ascending = true;
+    private int offset;
+    private int limit; // 0 = no limit
+
+    /** Adds a predicate; all predicates must hold. */
+    public QuerySpec where(String field, Op op, Object value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Filter value for " + field + " must not be null.");
+        }
+        filters.add(new Filter(field, op, value));
+        return this;
+    }
+
+    /** Sorts by the field; ties are broken by ID so pages are stable. */
+    public QuerySpec orderBy(String field, boolean ascending) {
+        this.sortField = field;
+        this.ascending = ascending;
+        return this;
+    }
+
+    /**
+     * Restricts the result to a page.
+     * @param offset Number of rows to skip.
+     * @param limit Maximum number of rows (0 for no limit).
+     */
+    public QuerySpec page(int offset, int limit) {
+        if (offset < 0 || limit < 0) {
+            throw new IllegalArgumentException("Offset and limit must not be negative.");
+        }
+        this.offset = offset;
+        this.limit = limit;
+        return this;
+    }
+
+    public List<Filter> getFilters() {
+        return Collections.unmodifiableList(filters);
+    }
+
+    public String getSortField() {
+        return sortField;
+    }
+
+    public boolean isAscending() {
+        return ascending;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getLimit() {
+        return limit;
+    }
+}
@@ -0,0 +1,238 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Chooses a PostgreSQL streaming replica for read-only queries, based on how far each replica
+ * has replayed the primary's write-ahead log.
+ *
+ * A monitor thread samples the primary's current WAL position (LSN) with the time the sample was
+ * taken, and each replica's replay position. A replica that has replayed the LSN of a sample
+ * contains every transaction committed before that sample was taken, so it is "caught up to" the
+ * sample time. This gives read-your-writes without any extra round trip on the write path:
+ * a session that committed at time W reads from a replica only once it is caught up to W
+ * (see {@link #choose(long)}). Replicas that lag more than maxLagMillis, are unreachable or are
+ * not in recovery are not chosen; callers then read from the primary.
+ *
+ * Configuration (see {@link #fromSystemProperties}):
+ *   -Dsales.db.replicas              comma-separated JDBC URLs (same user and password as the primary)
+ *   -Dsales.db.replicaMaxLagMillis   default 5000
+ *   -Dsales.db.replicaCheckMillis    default 500
+ */
+public class ReplicaRouter {
+
+    private static final int MAX_PRIMARY_SAMPLES = 120;
+    private static final String PRIMARY_LSN_SQL = "SELECT pg_wal_lsn_diff(pg_current_wal_lsn(), '0/0')::bigint";
+    private static final String REPLICA_LSN_SQL = "SELECT pg_is_in_recovery(), pg_wal_lsn_diff(pg_last_wal_replay_lsn(), '0/0')::bigint";
+
+    /**
+     * One replica endpoint and what the monitor last learned about it.
+     */
+    public static final class Replica {
+        private final String url;
+        private volatile boolean healthy;
+        private volatile long caughtUpToNanos = Long.MIN_VALUE; // System.nanoTime() of the newest primary sample it has replayed
+        private Connection monitorConnection; // Monitor thread only
+        private boolean warnedNotStandby; // Monitor thread only
+
+        private Replica(String url) {
+            this.url = url;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+    }
+
+    private final List<Replica> replicas = new ArrayList<>();
+    private final String user;
+    private final String password;
+    private final ConnectionSource primarySource;
+    private final long maxLagNanos;
+    private final AtomicInteger nextReplica = new AtomicInteger();
+    private final Deque<long[]> primarySamples = new ArrayDeque<>(); // {sampledAtNanos, lsn}; monitor thread only
+    private final ScheduledExecutorService monitor;
+    private Connection primaryConnection; // Monitor thread only
+
+    /**
+     * Creates the router and starts monitoring the replicas.
+     * @param urls JDBC URLs of the replicas.
+     * @param user Database user for the replicas.
+     * @param password Database password for the replicas.
+     * @param primarySource Opens the monitor's connection to the primary.
+     * @param maxLagMillis Replicas further behind than this are not used.
+     * @param checkIntervalMillis Time between monitor checks.
+     */
+    public ReplicaRouter(List<String> urls, String user, String password, ConnectionSource primarySource,
+                         long maxLagMillis, long checkIntervalMillis) {
+        for (String url : urls) {
+            replicas.add(new Replica(url));
+        }
+        this.user = user;
+        this.password = password;
+        this.primarySource = primarySource;
+        this.maxLagNanos = TimeUnit.MILLISECONDS.toNanos(maxLagMillis);
+        this.monitor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "replica-monitor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        monitor.scheduleWithFixedDelay(this::check, 0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Creates the router configured by -Dsales.db.replicas and related properties.
+     * @return The router, or null if no replicas are configured.
+     */
+    public static ReplicaRouter fromSystemProperties(String user, String password, ConnectionSource primarySource) {
+        String urls = System.getProperty("sales.db.replicas", "").trim();
+        if (urls.isEmpty()) {
+            return null;
+        }
+        List<String> replicaUrls = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                replicaUrls.add(url.trim());
+            }
+        }
+        return new ReplicaRouter(replicaUrls, user, password, primarySource,
+                Long.getLong("sales.db.replicaMaxLagMillis", 5000),
+                Long.getLong("sales.db.replicaCheckMillis", 500));
+    }
+
+    /**
+     * Chooses a healthy replica that contains all writes committed before the given time, round robin.
+     * @param notBeforeNanos System.nanoTime() after the caller's last commit, or Long.MIN_VALUE if it has not written.
+     * @return The replica, or null if the caller must read from the primary.
+     */
+    public Replica choose(long notBeforeNanos) {
+        long now = System.nanoTime();
+        int start = Math.floorMod(nextReplica.getAndIncrement(), replicas.size());
+        for (int i = 0; i < replicas.size(); i++) {
+            Replica replica = replicas.get((start + i) % replicas.size());
+            long caughtUpTo = replica.caughtUpToNanos;
+            if (replica.healthy && caughtUpTo != Long.MIN_VALUE
+                    && caughtUpTo - notBeforeNanos >= 0 && now - caughtUpTo <= maxLagNanos) {
+                return replica;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Opens a read-only connection to a replica.
+     */
+    public Connection open(Replica replica) throws SQLException {
+        Connection connection = DriverManager.getConnection(replica.url, user, password);
+        connection.setReadOnly(true);
+        return connection;
+    }
+
+    /**
+     * Takes a replica out of rotation after a connection failure; the monitor puts it back once it answers again.
+     */
+    public void reportFailure(Replica replica, SQLException e) {
+        if (replica.healthy) {
+            replica.healthy = false;
+            System.err.println("Replica " + replica.url + " failed, reading from the primary: " + e.getMessage());
+        }
+    }
+
+    /** Stops the monitor and closes its connections. */
+    public void close() {
+        monitor.shutdownNow();
+        closeQuietly(primaryConnection);
+        for (Replica replica : replicas) {
+            closeQuietly(replica.monitorConnection);
+        }
+    }
+
+    // --- Monitor ---
+
+    private void check() {
+        try {
+            samplePrimary();
+        } catch (SQLException e) {
+            System.err.println("Error reading the primary's WAL position: " + e.getMessage());
+            closeQuietly(primaryConnection);
+            primaryConnection = null;
+        }
+        for (Replica replica : replicas) {
+            checkReplica(replica);
+        }
+    }
+
+    private void samplePrimary() throws SQLException {
+        if (primaryConnection == null || primaryConnection.isClosed()) {
+            primaryConnection = primarySource.open();
+        }
+        long sampledAt = System.nanoTime(); // Taken before the query, so every commit before it is covered by the LSN
+        try (Statement stmt = primaryConnection.createStatement();
+             ResultSet rs = stmt.executeQuery(PRIMARY_LSN_SQL)) {
+            if (rs.next()) {
+                primarySamples.addLast(new long[]{sampledAt, rs.getLong(1)});
+                if (primarySamples.size() > MAX_PRIMARY_SAMPLES) {
+                    primarySamples.removeFirst();
+                }
+            }
+        }
+    }
+
+    private void checkReplica(Replica replica) {
+        try {
+            if (replica.monitorConnection == null || replica.monitorConnection.isClosed()) {
+                replica.monitorConnection = DriverManager.getConnection(replica.url, user, password);
+            }
+            try (Statement stmt = replica.monitorConnection.createStatement();
+                 ResultSet rs = stmt.executeQuery(REPLICA_LSN_SQL)) {
+                if (!rs.next() || !rs.getBoolean(1)) {
+                    if (!replica.warnedNotStandby) {
+                        System.err.println("Replica " + replica.url + " is not a standby; it will not be used.");
+                        replica.warnedNotStandby = true;
+                    }
+                    replica.healthy = false;
+                    return;
+                }
+                long replayedLsn = rs.getLong(2);
+                // Newest primary sample the replica has replayed; samples are in time and LSN order
+                for (long[] sample : primarySamples) {
+                    if (sample[1] > replayedLsn) {
+                        break;
+                    }
+                    if (replica.caughtUpToNanos == Long.MIN_VALUE || sample[0] - replica.caughtUpToNanos > 0) {
+                        replica.caughtUpToNanos = sample[0];
+                    }
+                }
+                if (!replica.healthy) {
+                    System.out.println("Replica " + replica.url + " is available for reads.");
+                }
+                replica.healthy = true;
+            }
+        } catch (SQLException e) {
+            if (replica.healthy) {
+                System.err.println("Replica " + replica.url + " is unreachable: " + e.getMessage());
+            }
+            replica.healthy = false;
+            closeQuietly(replica.monitorConnection);
+            replica.monitorConnection = null;
+        }
+    }
+
+    private static void closeQuietly(Connection connection) {
+        try {
+            if (connection != null) connection.close();
+        } catch (SQLException e) {
+            // Already broken; nothing to release
+        }
+    }
+}
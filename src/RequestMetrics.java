@@ -0,0 +1,90 @@
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Collects request-level latency metrics for the HTTP API, grouped by route.
+ * Each route keeps a request count, error count, total and max latency, and a
+ * histogram with power-of-two microsecond buckets used to estimate percentiles.
+ * Recording is lock-free so it can be called from many virtual threads at once.
+ */
+public class RequestMetrics {
+
+    // Bucket i holds latencies in [2^(i-1), 2^i) microseconds; the last bucket is open-ended
+    private static final int BUCKET_COUNT = 32;
+
+    private final Map<String, RouteStats> statsByRoute = new ConcurrentHashMap<>();
+
+    /**
+     * Records one finished request.
+     * @param route The route key, e.g. "GET /api/products".
+     * @param elapsedNanos The time spent handling the request.
+     * @param error Whether the request ended with a server or client error.
+     */
+    public void record(String route, long elapsedNanos, boolean error) {
+        statsByRoute.computeIfAbsent(route, r -> new RouteStats()).record(elapsedNanos, error);
+    }
+
+    /**
+     * Renders all collected metrics as a JSON object keyed by route.
+     * @return The metrics as JSON text.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{");
+        boolean first = true;
+        for (Map.Entry<String, RouteStats> entry : new TreeMap<>(statsByRoute).entrySet()) {
+            if (!first) json.append(',');
+            first = false;
+            RouteStats stats = entry.getValue();
+            long count = stats.count.sum();
+            json.append(JsonUtil.quote(entry.getKey())).append(":{")
+                    .append("\"count\":").append(count)
+                    .append(",\"errors\":").append(stats.errors.sum())
+                    .append(",\"meanMicros\":").append(count == 0 ? 0 : stats.totalNanos.sum() / count / 1000)
+                    .append(",\"p50Micros\":").append(stats.percentileMicros(0.50))
+                    .append(",\"p95Micros\":").append(stats.percentileMicros(0.95))
+                    .append(",\"p99Micros\":").append(stats.percentileMicros(0.99))
+                    .append(",\"maxMicros\":").append(stats.maxNanos.get() / 1000)
+                    .append('}');
+        }
+        return json.append('}').toString();
+    }
+
+    /**
+     * Latency statistics for a single route.
+     */
+    private static class RouteStats {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder errors = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+
+        void record(long elapsedNanos, boolean error) {
+            count.increment();
+            if (error) errors.increment();
+            totalNanos.add(elapsedNanos);
+            maxNanos.accumulate(elapsedNanos);
+            long micros = Math.max(elapsedNanos / 1000, 0);
+            int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+            buckets.incrementAndGet(bucket);
+        }
+
+        // Returns the upper bound of the bucket containing the given percentile, capped at the observed max
+        long percentileMicros(double percentile) {
+            long total = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) total += buckets.get(i);
+            if (total == 0) return 0;
+            long target = (long) Math.ceil(total * percentile);
+            long seen = 0;
+            for (int i = 0; i < BUCKET_COUNT; i++) {
+                seen += buckets.get(i);
+                if (seen >= target) return Math.min(1L << i, maxNanos.get() / 1000);
+            }
+            return maxNanos.get() / 1000;
+        }
+    }
+}
@@ -9,22 +9,24 @@ public class Sale {
     private int productId;
     private int customerId;
     private int quantity;
-    private double unitPriceAtSale; // Price of the product at the time of sale
-    private double totalSalePrice; // Calculated total price for this sale
+    private Money unitPriceAtSale; // Price of the product at the time of sale
+    private Money totalSalePrice; // Calculated total price for this sale
     private LocalDate saleDate;
+    private int version; // Row version for optimistic updates; 0 = not read from the database
+    private int storeId; // Store the sale was made in; decides its shard (0 = default store)
 
     // Constructor for creating new Sale objects (ID and total price will be generated by DAO)
-    public Sale(int productId, int customerId, int quantity, double unitPriceAtSale, LocalDate saleDate) {
+    public Sale(int productId, int customerId, int quantity, Money unitPriceAtSale, LocalDate saleDate) {
         this.productId = productId;
         this.customerId = customerId;
         this.quantity = quantity;
         this.unitPriceAtSale = unitPriceAtSale;
         this.saleDate = saleDate;
-        this.totalSalePrice = unitPriceAtSale * quantity; // Initial calculation
+        this.totalSalePrice = unitPriceAtSale.times(quantity); // Initial calculation
     }
 
     // Constructor for retrieving Sale objects from the database (with all fields)
-    public Sale(int saleId, int productId, int customerId, int quantity, double unitPriceAtSale, double totalSalePrice, LocalDate saleDate) {
+    public Sale(int saleId, int productId, int customerId, int quantity, Money unitPriceAtSale, Money totalSalePrice, LocalDate saleDate) {
         this.saleId = saleId;
         this.productId = productId;
         this.customerId = customerId;
@@ -51,11 +53,11 @@ public class Sale {
         return quantity;
     }
 
-    public double getUnitPriceAtSale() {
+    public Money getUnitPriceAtSale() {
         return unitPriceAtSale;
     }
 
-    public double getTotalSalePrice() {
+    public Money getTotalSalePrice() {
         return totalSalePrice;
     }
 
@@ -63,6 +65,14 @@ public class Sale {
         return saleDate;
     }
 
+    public int getVersion() {
+        return version;
+    }
+
+    public int getStoreId() {
+        return storeId;
+    }
+
     // Setters
     public void setSaleId(int saleId) {
         this.saleId = saleId;
@@ -78,15 +88,15 @@ public class Sale {
 
     public void setQuantity(int quantity) {
         this.quantity = quantity;
-        this.totalSalePrice = this.unitPriceAtSale * this.quantity; // Recalculate total
+        this.totalSalePrice = this.unitPriceAtSale.times(this.quantity); // Recalculate total
     }
 
-    public void setUnitPriceAtSale(double unitPriceAtSale) {
+    public void setUnitPriceAtSale(Money unitPriceAtSale) {
         this.unitPriceAtSale = unitPriceAtSale;
-        this.totalSalePrice = this.unitPriceAtSale * this.quantity; // Recalculate total
+        this.totalSalePrice = this.unitPriceAtSale.times(this.quantity); // Recalculate total
     }
 
-    public void setTotalSalePrice(double totalSalePrice) {
+    public void setTotalSalePrice(Money totalSalePrice) {
         this.totalSalePrice = totalSalePrice;
     }
 
@@ -94,6 +104,14 @@ public class Sale {
         this.saleDate = saleDate;
     }
 
+    public void setVersion(int version) {
+        this.version = version;
+    }
+
+    public void setStoreId(int storeId) {
+        this.storeId = storeId;
+    }
+
     @Override
     public String toString() {
         return "Sale{" +
@@ -104,6 +122,7 @@ public class Sale {
                 ", unitPriceAtSale=" + unitPriceAtSale +
                 ", totalSalePrice=" + totalSalePrice +
                 ", saleDate=" + saleDate +
+                ", storeId=" + storeId +
                 '}';
     }
 }
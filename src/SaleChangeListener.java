@@ -0,0 +1,19 @@
+/**
+ * Receives the sales changed through a data store wrapped with {@link DaoProxies#saleChanges}, after
+ * each successful change. Called on the thread that made the change.
+ */
+public interface SaleChangeListener {
+
+    /** A sale was added by addSale, or by the first submitSale of its idempotency key. */
+    void saleAdded(Sale sale);
+
+    /**
+     * A sale was changed by updateSale or tryUpdateSale.
+     * @param before The sale as read just before the change, or null if it could not be read.
+     * @param after The sale as passed to the update.
+     */
+    void saleUpdated(Sale before, Sale after);
+
+    /** A sale was deleted; only reported if it could be read just before. */
+    void saleDeleted(Sale before);
+}
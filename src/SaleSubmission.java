@@ -0,0 +1,49 @@
+/**
+ * Result of ISaleDAO.submitSale: the stored sale, and whether an earlier call with the same
+ * idempotency key had already stored it (so this call changed nothing).
+ */
+public final class SaleSubmission {
+
+    /** Longest accepted idempotency key (e.g. a UUID is 36 characters). */
+    public static final int MAX_KEY_LENGTH = 64;
+
+    private final Sale sale;
+    private final boolean duplicate;
+
+    private SaleSubmission(Sale sale, boolean duplicate) {
+        this.sale = sale;
+        this.duplicate = duplicate;
+    }
+
+    /** @return The result of the call that stored the sale. */
+    public static SaleSubmission created(Sale sale) {
+        return new SaleSubmission(sale, false);
+    }
+
+    /** @return The result of a repeated call; the sale is the one stored by the first call. */
+    public static SaleSubmission duplicate(Sale original) {
+        return new SaleSubmission(original, true);
+    }
+
+    /**
+     * @return The sale with its ID; for a duplicate, the sale as stored by the first call,
+     *         or null if it has been deleted since.
+     */
+    public Sale getSale() {
+        return sale;
+    }
+
+    public boolean isDuplicate() {
+        return duplicate;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the key is empty or longer than MAX_KEY_LENGTH.
+     */
+    public static String checkKey(String idempotencyKey) {
+        if (idempotencyKey == null || idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+            throw new IllegalArgumentException("Idempotency key must have 1 to " + MAX_KEY_LENGTH + " characters.");
+        }
+        return idempotencyKey;
+    }
+}
@@ -0,0 +1,29 @@
+/**
+ * A sale joined with the names of its product and customer, as shown in the Sales tab.
+ * Read in one query, so the names are those of the same moment as the sale row.
+ */
+public final class SaleView {
+    private final Sale sale;
+    private final String productName;
+    private final String customerName;
+
+    public SaleView(Sale sale, String productName, String customerName) {
+        this.sale = sale;
+        this.productName = productName;
+        this.customerName = customerName;
+    }
+
+    public Sale getSale() {
+        return sale;
+    }
+
+    /** @return The product name, or null if the product no longer exists. */
+    public String getProductName() {
+        return productName;
+    }
+
+    /** @return The customer's first and last name, or null if the customer no longer exists. */
+    public String getCustomerName() {
+        return customerName;
+    }
+}
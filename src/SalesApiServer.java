@@ -0,0 +1,570 @@
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Headless entry point that exposes the product, customer and sale DAO operations
+ * as a JSON HTTP API on the JDK's built-in HTTP server.
+ * Every request runs on its own virtual thread and borrows a DatabaseManager from a
+ * shared pool, so many POS terminals can be served by one JVM without each of them
+ * holding a database connection. The backend follows -Dsales.backend like the GUI.
+ *
+ * Routes:
+ *   GET/POST          /api/products            GET/PUT/DELETE /api/products/{id}
+ *   POST              /api/products/{id}/stock
+ *   GET/POST          /api/customers           GET/PUT/DELETE /api/customers/{id}
+ *   GET/POST          /api/sales               GET/PUT/DELETE /api/sales/{id}
+ *   GET               /metrics                 GET            /health
+ *   GET               /metrics/slow-queries    GET            /metrics/jobs
+ *
+ * POST /api/sales takes an optional Idempotency-Key header (1-64 characters, e.g. a UUID made by the
+ * terminal): a retry with the same key gets the response of the first call instead of a second sale.
+ */
+public class SalesApiServer {
+
+    private static final int DEFAULT_PORT = 8080;
+    private static final int DEFAULT_POOL_SIZE = 10;
+    private static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 5000;
+    private static final long DEFAULT_INVENTORY_FLUSH_MILLIS = 200;
+    private static final long DEFAULT_INVENTORY_RECONCILE_SECONDS = 5;
+
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final DatabaseManagerPool pool;
+    private final JobScheduler jobs;
+    private final RequestMetrics metrics = new RequestMetrics();
+
+    /**
+     * Creates the server bound to the given port.
+     * @param port The TCP port to listen on.
+     * @param pool The pool of database managers shared by all requests.
+     * @param jobs The background jobs (archiving, stock reconciliation), reported by /metrics/jobs.
+     * @throws IOException if the port cannot be bound.
+     */
+    public SalesApiServer(int port, DatabaseManagerPool pool, JobScheduler jobs) throws IOException {
+        this.pool = pool;
+        this.jobs = jobs;
+        this.server = HttpServer.create(new InetSocketAddress(port), 0);
+        this.executor = Executors.newVirtualThreadPerTaskExecutor(); // One virtual thread per request
+        server.setExecutor(executor);
+        server.createContext("/api/products", this::handleProducts);
+        server.createContext("/api/customers", this::handleCustomers);
+        server.createContext("/api/sales", this::handleSales);
+        server.createContext("/metrics", exchange -> handleGet(exchange, "/metrics",
+                () -> new ApiResponse(200, metrics.toJson())));
+        server.createContext("/metrics/slow-queries", exchange -> handleGet(exchange, "/metrics/slow-queries", () -> {
+            SlowQueryLog slowQueryLog = DataStoreFactory.usesConnectionPerInstance() ? DatabaseManager.getSlowQueryLog() : null;
+            return slowQueryLog != null
+                    ? new ApiResponse(200, slowQueryLog.toJson())
+                    : new ApiResponse(404, JsonUtil.error("The slow query log is off."));
+        }));
+        server.createContext("/metrics/jobs", exchange -> handleGet(exchange, "/metrics/jobs",
+                () -> new ApiResponse(200, this.jobs.toJson())));
+        server.createContext("/health", exchange -> handleGet(exchange, "/health",
+                () -> new ApiResponse(200, "{\"status\":\"UP\",\"idleConnections\":" + pool.getIdleCount() +
+                        ",\"poolSize\":" + pool.getSize() + "}")));
+    }
+
+    /** Starts accepting requests. */
+    public void start() {
+        server.start();
+        System.out.println("Sales API server listening on port " + server.getAddress().getPort());
+    }
+
+    /** Stops the server and closes all pooled connections. */
+    public void stop() {
+        server.stop(1);
+        executor.shutdown();
+        pool.close();
+        System.out.println("Sales API server stopped.");
+    }
+
+    // --- Route Handlers ---
+
+    private void handleProducts(HttpExchange exchange) {
+        String method = exchange.getRequestMethod();
+        String[] segments = pathSegments(exchange, "/api/products");
+
+        if (segments.length == 0) {
+            if (method.equals("GET")) {
+                handle(exchange, "GET /api/products", () -> pool.withManager(db ->
+                        new ApiResponse(200, JsonUtil.toJsonArray(db.getAllProducts(), JsonUtil::toJson))));
+            } else if (method.equals("POST")) {
+                handle(exchange, "POST /api/products", () -> {
+                    Map<String, String> body = JsonUtil.parseObject(readBody(exchange));
+                    Product product = new Product(requireText(body, "name"),
+                            requireMoney(body, "price"), requireInt(body, "stock"));
+                    return pool.withManager(db -> db.addProduct(product)
+                            ? new ApiResponse(201, "{\"created\":true}")
+                            : new ApiResponse(409, JsonUtil.error("Failed to add product. Name might already exist.")));
+                });
+            } else {
+                methodNotAllowed(exchange, method + " /api/products");
+            }
+            return;
+        }
+
+        if (segments.length == 2 && segments[1].equals("stock") && method.equals("POST")) {
+            handle(exchange, "POST /api/products/{id}/stock", () -> {
+                int productId = parseId(segments[0]);
+                int quantityChange = requireInt(JsonUtil.parseObject(readBody(exchange)), "quantityChange");
+                return pool.withManager(db -> db.updateProductStock(productId, quantityChange)
+                        ? new ApiResponse(200, "{\"updated\":true}")
+                        : new ApiResponse(404, JsonUtil.error("Product not found.")));
+            });
+            return;
+        }
+
+        if (segments.length != 1) {
+            handle(exchange, method + " /api/products/*", () -> new ApiResponse(404, JsonUtil.error("Unknown route.")));
+            return;
+        }
+
+        switch (method) {
+            case "GET":
+                handle(exchange, "GET /api/products/{id}", () -> {
+                    int productId = parseId(segments[0]);
+                    Product product = pool.withManager(db -> db.getProductById(productId));
+                    return product != null
+                            ? new ApiResponse(200, JsonUtil.toJson(product))
+                            : new ApiResponse(404, JsonUtil.error("Product not found."));
+                });
+                break;
+            case "PUT":
+                handle(exchange, "PUT /api/products/{id}", () -> {
+                    int productId = parseId(segments[0]);
+                    Map<String, String> body = JsonUtil.parseObject(readBody(exchange));
+                    Product product = new Product(productId, requireText(body, "name"),
+                            requireMoney(body, "price"), requireInt(body, "stock"));
+                    product.setVersion(optionalVersion(body));
+                    return updateResponse(pool.withManager(db -> db.tryUpdateProduct(product)), product.getVersion(),
+                            "Product", "Failed to update product. Name might already exist.");
+                });
+                break;
+            case "DELETE":
+                handle(exchange, "DELETE /api/products/{id}", () -> {
+                    int productId = parseId(segments[0]);
+                    return pool.withManager(db -> db.deleteProduct(productId)
+                            ? new ApiResponse(200, "{\"deleted\":true}")
+                            : new ApiResponse(409, JsonUtil.error("Failed to delete product. It might be referenced by existing sales.")));
+                });
+                break;
+            default:
+                methodNotAllowed(exchange, method + " /api/products/{id}");
+        }
+    }
+
+    private void handleCustomers(HttpExchange exchange) {
+        String method = exchange.getRequestMethod();
+        String[] segments = pathSegments(exchange, "/api/customers");
+
+        if (segments.length == 0) {
+            if (method.equals("GET")) {
+                handle(exchange, "GET /api/customers", () -> {
+                    Map<String, String> query = queryParameters(exchange);
+                    if (query.containsKey("firstName") && query.containsKey("lastName")) {
+                        Customer customer = pool.withManager(db -> db.getCustomerByName(query.get("firstName"), query.get("lastName")));
+                        return customer != null
+                                ? new ApiResponse(200, JsonUtil.toJson(customer))
+                                : new ApiResponse(404, JsonUtil.error("Customer not found."));
+                    }
+                    return pool.withManager(db ->
+                            new ApiResponse(200, JsonUtil.toJsonArray(db.getAllCustomers(), JsonUtil::toJson)));
+                });
+            } else if (method.equals("POST")) {
+                handle(exchange, "POST /api/customers", () -> {
+                    Map<String, String> body = JsonUtil.parseObject(readBody(exchange));
+                    Customer customer = new Customer(requireText(body, "firstName"), requireText(body, "lastName"),
+                            body.get("email"), body.get("phone"));
+                    return pool.withManager(db -> db.addCustomer(customer)
+                            ? new ApiResponse(201, "{\"created\":true}")
+                            : new ApiResponse(409, JsonUtil.error("Failed to add customer. Email might already exist.")));
+                });
+            } else {
+                methodNotAllowed(exchange, method + " /api/customers");
+            }
+            return;
+        }
+
+        if (segments.length != 1) {
+            handle(exchange, method + " /api/customers/*", () -> new ApiResponse(404, JsonUtil.error("Unknown route.")));
+            return;
+        }
+
+        switch (method) {
+            case "GET":
+                handle(exchange, "GET /api/customers/{id}", () -> {
+                    int customerId = parseId(segments[0]);
+                    Customer customer = pool.withManager(db -> db.getCustomerById(customerId));
+                    return customer != null
+                            ? new ApiResponse(200, JsonUtil.toJson(customer))
+                            : new ApiResponse(404, JsonUtil.error("Customer not found."));
+                });
+                break;
+            case "PUT":
+                handle(exchange, "PUT /api/customers/{id}", () -> {
+                    int customerId = parseId(segments[0]);
+                    Map<String, String> body = JsonUtil.parseObject(readBody(exchange));
+                    Customer customer = new Customer(customerId, requireText(body, "firstName"), requireText(body, "lastName"),
+                            body.get("email"), body.get("phone"));
+                    customer.setVersion(optionalVersion(body));
+                    return updateResponse(pool.withManager(db -> db.tryUpdateCustomer(customer)), customer.getVersion(),
+                            "Customer", "Failed to update customer. Email might already exist.");
+                });
+                break;
+            case "DELETE":
+                handle(exchange, "DELETE /api/customers/{id}", () -> {
+                    int customerId = parseId(segments[0]);
+                    return pool.withManager(db -> db.deleteCustomer(customerId)
+                            ? new ApiResponse(200, "{\"deleted\":true}")
+                            : new ApiResponse(409, JsonUtil.error("Failed to delete customer. They might be referenced by existing sales.")));
+                });
+                break;
+            default:
+                methodNotAllowed(exchange, method + " /api/customers/{id}");
+        }
+    }
+
+    private void handleSales(HttpExchange exchange) {
+        String method = exchange.getRequestMethod();
+        String[] segments = pathSegments(exchange, "/api/sales");
+
+        if (segments.length == 0) {
+            if (method.equals("GET")) {
+                handle(exchange, "GET /api/sales", () -> pool.withManager(db ->
+                        new ApiResponse(200, JsonUtil.toJsonArray(db.getAllSales(), JsonUtil::toJson))));
+            } else if (method.equals("POST")) {
+                handle(exchange, "POST /api/sales", () -> {
+                    Map<String, String> body = JsonUtil.parseObject(readBody(exchange));
+                    int productId = requireInt(body, "productId");
+                    int customerId = requireInt(body, "customerId");
+                    int quantity = requirePositiveQuantity(body);
+                    LocalDate date = optionalDate(body);
+                    int storeId = body.get("storeId") != null ? requireInt(body, "storeId") : 0; // 0 = the server's default store
+                    String idempotencyKey = exchange.getRequestHeaders().getFirst("Idempotency-Key");
+                    if (idempotencyKey != null) {
+                        SaleSubmission.checkKey(idempotencyKey);
+                    }
+                    return pool.withManager(db -> {
+                        // Like the GUI, the unit price defaults to the product's current price
+                        Money unitPrice = body.get("unitPriceAtSale") != null ? requireMoney(body, "unitPriceAtSale") : null;
+                        if (unitPrice == null) {
+                            Product product = db.getProductById(productId);
+                            if (product == null) {
+                                return new ApiResponse(404, JsonUtil.error("Product not found."));
+                            }
+                            unitPrice = product.getPrice();
+                        }
+                        Sale sale = new Sale(productId, customerId, quantity, unitPrice, date);
+                        sale.setStoreId(storeId);
+                        if (idempotencyKey != null) {
+                            SaleSubmission submission = db.submitSale(sale, idempotencyKey);
+                            if (submission == null) {
+                                return new ApiResponse(409, JsonUtil.error("Failed to add sale. Check stock or database connection."));
+                            }
+                            if (submission.getSale() == null) {
+                                return new ApiResponse(409, JsonUtil.error("The sale of this idempotency key has been deleted."));
+                            }
+                            // A duplicate gets the same response as the call that stored the sale
+                            return new ApiResponse(201, "{\"created\":true,\"saleId\":" + submission.getSale().getSaleId() + "}");
+                        }
+                        return db.addSale(sale)
+                                ? new ApiResponse(201, "{\"created\":true}")
+                                : new ApiResponse(409, JsonUtil.error("Failed to add sale. Check stock or database connection."));
+                    });
+                });
+            } else {
+                methodNotAllowed(exchange, method + " /api/sales");
+            }
+            return;
+        }
+
+        if (segments.length != 1) {
+            handle(exchange, method + " /api/sales/*", () -> new ApiResponse(404, JsonUtil.error("Unknown route.")));
+            return;
+        }
+
+        switch (method) {
+            case "GET":
+                handle(exchange, "GET /api/sales/{id}", () -> {
+                    int saleId = parseId(segments[0]);
+                    Sale sale = pool.withManager(db -> db.getSaleById(saleId));
+                    return sale != null
+                            ? new ApiResponse(200, JsonUtil.toJson(sale))
+                            : new ApiResponse(404, JsonUtil.error("Sale not found."));
+                });
+                break;
+            case "PUT":
+                handle(exchange, "PUT /api/sales/{id}", () -> {
+                    int saleId = parseId(segments[0]);
+                    Map<String, String> body = JsonUtil.parseObject(readBody(exchange));
+                    int quantity = requirePositiveQuantity(body);
+                    Money unitPrice = requireMoney(body, "unitPriceAtSale");
+                    Sale sale = new Sale(saleId, requireInt(body, "productId"), requireInt(body, "customerId"),
+                            quantity, unitPrice, unitPrice.times(quantity), optionalDate(body));
+                    sale.setVersion(optionalVersion(body));
+                    return updateResponse(pool.withManager(db -> db.tryUpdateSale(sale)), sale.getVersion(),
+                            "Sale", "Failed to update sale. Check stock or database connection.");
+                });
+                break;
+            case "DELETE":
+                handle(exchange, "DELETE /api/sales/{id}", () -> {
+                    int saleId = parseId(segments[0]);
+                    return pool.withManager(db -> db.deleteSale(saleId)
+                            ? new ApiResponse(200, "{\"deleted\":true}")
+                            : new ApiResponse(404, JsonUtil.error("Failed to delete sale. Check if ID exists.")));
+                });
+                break;
+            default:
+                methodNotAllowed(exchange, method + " /api/sales/{id}");
+        }
+    }
+
+    // --- Request Plumbing ---
+
+    /**
+     * Runs a route action, writes its response and records the request latency.
+     * Input errors become 400 responses, pool exhaustion becomes 503 and anything else 500.
+     */
+    private void handle(HttpExchange exchange, String route, RouteAction action) {
+        long start = System.nanoTime();
+        ApiResponse response;
+        try {
+            response = AuditTrail.runAs(actor(exchange), action::run);
+        } catch (IllegalArgumentException | DateTimeParseException ex) {
+            response = new ApiResponse(400, JsonUtil.error(ex.getMessage()));
+        } catch (DatabaseManagerPool.PoolExhaustedException ex) {
+            response = new ApiResponse(503, JsonUtil.error(ex.getMessage()));
+        } catch (Exception ex) {
+            System.err.println("Unexpected error handling " + route + ": " + ex.getMessage());
+            ex.printStackTrace();
+            response = new ApiResponse(500, JsonUtil.error("An unexpected error occurred."));
+        }
+        try {
+            byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(response.status, bytes.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(bytes);
+            }
+        } catch (IOException e) {
+            System.err.println("Error writing response for " + route + ": " + e.getMessage());
+        } finally {
+            exchange.close();
+            metrics.record(route, System.nanoTime() - start, response.status >= 400);
+        }
+    }
+
+    // Who audited changes are recorded for: the X-User header if the client sends one, else its address
+    private static String actor(HttpExchange exchange) {
+        String user = exchange.getRequestHeaders().getFirst("X-User");
+        return user != null && !user.isBlank() ? "api:" + user.trim()
+                : "api@" + exchange.getRemoteAddress().getAddress().getHostAddress();
+    }
+
+    private void methodNotAllowed(HttpExchange exchange, String route) {
+        handle(exchange, route, () -> new ApiResponse(405, JsonUtil.error("Method not allowed.")));
+    }
+
+    // A read-only route at exactly one path: the server's contexts also match longer paths, which get 404
+    private void handleGet(HttpExchange exchange, String path, RouteAction action) {
+        String method = exchange.getRequestMethod();
+        if (!exchange.getRequestURI().getPath().equals(path)) {
+            handle(exchange, method + " " + path + "/*", () -> new ApiResponse(404, JsonUtil.error("Unknown route.")));
+        } else if (!method.equals("GET")) {
+            methodNotAllowed(exchange, method + " " + path);
+        } else {
+            handle(exchange, "GET " + path, action);
+        }
+    }
+
+    private static String[] pathSegments(HttpExchange exchange, String prefix) {
+        String rest = exchange.getRequestURI().getPath().substring(prefix.length());
+        while (rest.startsWith("/")) rest = rest.substring(1);
+        while (rest.endsWith("/")) rest = rest.substring(0, rest.length() - 1);
+        return rest.isEmpty() ? new String[0] : rest.split("/");
+    }
+
+    private static Map<String, String> queryParameters(HttpExchange exchange) {
+        Map<String, String> parameters = new HashMap<>();
+        String query = exchange.getRequestURI().getRawQuery();
+        if (query == null || query.isEmpty()) {
+            return parameters;
+        }
+        for (String pair : query.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return parameters;
+    }
+
+    private static String readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            return new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static int parseId(String text) {
+        try {
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid ID: " + text);
+        }
+    }
+
+    private static String requireText(Map<String, String> body, String field) {
+        String value = body.get(field);
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("Field '" + field + "' is required.");
+        }
+        return value.trim();
+    }
+
+    private static int requireInt(Map<String, String> body, String field) {
+        try {
+            return Integer.parseInt(requireText(body, field));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Field '" + field + "' must be a whole number.");
+        }
+    }
+
+    private static Money requireMoney(Map<String, String> body, String field) {
+        try {
+            return Money.parse(requireText(body, field));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Field '" + field + "' must be an amount with at most two decimal places.");
+        }
+    }
+
+    private static int requirePositiveQuantity(Map<String, String> body) {
+        int quantity = requireInt(body, "quantity");
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be a positive number.");
+        }
+        return quantity;
+    }
+
+    private static LocalDate optionalDate(Map<String, String> body) {
+        String date = body.get("saleDate");
+        return date == null || date.isEmpty() ? LocalDate.now() : LocalDate.parse(date);
+    }
+
+    // The row version the client read (optional "version" field); 0 updates without a conflict check
+    private static int optionalVersion(Map<String, String> body) {
+        String version = body.get("version");
+        try {
+            return version == null || version.isEmpty() ? 0 : Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Field 'version' must be a whole number.");
+        }
+    }
+
+    // Maps an optimistic update to 200 (with the new version), 409 for a concurrent change, 404 or 422
+    private static ApiResponse updateResponse(UpdateResult result, int newVersion, String entity, String errorMessage) {
+        switch (result) {
+            case SUCCESS:
+                return new ApiResponse(200, "{\"updated\":true,\"version\":" + newVersion + "}");
+            case CONFLICT:
+                return new ApiResponse(409, JsonUtil.error(entity + " was changed by someone else. Reload it and try again."));
+            case NOT_FOUND:
+                return new ApiResponse(404, JsonUtil.error(entity + " not found."));
+            default:
+                return new ApiResponse(422, JsonUtil.error(errorMessage));
+        }
+    }
+
+    @FunctionalInterface
+    private interface RouteAction {
+        ApiResponse run() throws Exception;
+    }
+
+    private static class ApiResponse {
+        final int status;
+        final String body;
+
+        ApiResponse(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    /**
+     * Starts the headless API server.
+     * Port and pool size can be given as arguments or via -Dsales.api.port / -Dsales.api.poolSize.
+     * With the postgres backend, stock is reserved through a shared InventoryService unless -Dsales.inventory=false;
+     * -Dsales.inventory.flushMillis and -Dsales.inventory.reconcileSeconds tune it.
+     * Sales older than -Dsales.archive.horizonDays are moved to the archive in the background when that property is set
+     * (postgres only); -Dsales.archive.batchSize, .pauseMillis and .intervalMinutes tune it.
+     * Changes are audited per -Dsales.audit (see AuditTrail); clients can name their user in an X-User header.
+     * @param args Optional: [port] [poolSize].
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : Integer.getInteger("sales.api.port", DEFAULT_PORT);
+        int poolSize = args.length > 1 ? Integer.parseInt(args[1]) : Integer.getInteger("sales.api.poolSize", DEFAULT_POOL_SIZE);
+
+        DatabaseManagerPool pool;
+        InventoryService inventoryService = null;
+        JobScheduler jobs = JobScheduler.fromSystemProperties();
+        SalesArchiver salesArchiver = SalesArchiver.fromSystemProperties(jobs); // Only with the postgres backend
+        PartitionPruningCheck.schedule(jobs);
+        AuditTrail auditTrail = AuditTrail.fromSystemProperties("api");
+        if (DataStoreFactory.usesConnectionPerInstance()) {
+            // All pooled managers reserve stock through one in-memory service instead of racing on products.stock.
+            // It works on the default database, not on shards
+            if (DataStoreFactory.usesDefaultDatabase() && Boolean.parseBoolean(System.getProperty("sales.inventory", "true"))) {
+                InventoryService inventory = new InventoryService(DatabaseManager::openConnection,
+                        Long.getLong("sales.inventory.flushMillis", DEFAULT_INVENTORY_FLUSH_MILLIS), 0);
+                long reconcileSeconds = Long.getLong("sales.inventory.reconcileSeconds", DEFAULT_INVENTORY_RECONCILE_SECONDS);
+                jobs.schedule("Inventory reconcile", JobScheduler.fixedDelay(Duration.ofSeconds(reconcileSeconds),
+                        Duration.ofSeconds(reconcileSeconds)), 1, context -> inventory.reconcileAll());
+                inventoryService = inventory;
+            }
+            InventoryService sharedInventory = inventoryService;
+            pool = new DatabaseManagerPool(poolSize, DEFAULT_BORROW_TIMEOUT_MILLIS, () -> {
+                IDataStore store = DataStoreFactory.create();
+                if (sharedInventory != null && store instanceof DatabaseManager) {
+                    ((DatabaseManager) store).setInventoryService(sharedInventory);
+                }
+                return DaoProxies.wrap(store, IDataStore.class,
+                        auditTrail != null ? auditTrail.auditing() : null, FlightEvents.daoCallEvents());
+            });
+        } else {
+            IDataStore sharedStore = DaoProxies.wrap(DataStoreFactory.create(), IDataStore.class, // Thread-safe backend: every slot shares it
+                    auditTrail != null ? auditTrail.auditing() : null, FlightEvents.daoCallEvents());
+            pool = new DatabaseManagerPool(poolSize, DEFAULT_BORROW_TIMEOUT_MILLIS, () -> sharedStore);
+        }
+        SalesApiServer apiServer = new SalesApiServer(port, pool, jobs);
+        InventoryService inventoryToClose = inventoryService;
+        SalesArchiver archiverToClose = salesArchiver;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            jobs.close(); // Ends the running archive pass and reconcile first
+            if (archiverToClose != null) {
+                archiverToClose.close();
+            }
+            apiServer.stop();
+            if (inventoryToClose != null) {
+                inventoryToClose.close(); // Writes the last reservations to products.stock
+            }
+            if (auditTrail != null) {
+                auditTrail.close();
+            }
+        }));
+        apiServer.start();
+    }
+}
@@ -0,0 +1,197 @@
+import java.sql.Connection;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Moves sales older than a horizon from the hot 'sales' table into 'sales_archive', so that the
+ * table checkout writes to, and every index and FK check on it, stays small.
+ *
+ * Each batch is one short transaction: it deletes up to batchSize old sales, inserts them into the
+ * archive and raises the archived-before date in 'sales_archive_state'. Rows locked by a running
+ * checkout or sale edit are skipped (FOR UPDATE SKIP LOCKED) and picked up by a later pass, and
+ * the batches are separated by a pause, so archiving never holds locks checkout has to wait for.
+ *
+ * All archived sales have a sale_date before the archived-before date. DatabaseManager reads the
+ * archive only for queries whose date range starts before it. The tables are created by DatabaseManager.
+ */
+public class SalesArchiver {
+
+    private static final String SALE_COLUMNS = "sale_id, product_id, customer_id, quantity, unit_price_at_sale, total_sale_price, sale_date, store_id";
+    private static final int DEFAULT_BATCH_SIZE = 500;
+    private static final long DEFAULT_PAUSE_MILLIS = 200;
+    private static final long DEFAULT_INTERVAL_MINUTES = 60;
+
+    private final ConnectionSource connectionSource;
+    private final int horizonDays;
+    private final int batchSize;
+    private final long pauseMillis;
+    private final ScheduledExecutorService scheduler; // null when a JobScheduler runs the passes
+    private Connection connection; // Used by the thread running the passes only
+    private volatile boolean closed;
+
+    /**
+     * Creates the archiver and schedules a pass every intervalMinutes, the first one right away.
+     * With intervalMinutes 0 nothing is scheduled and the caller calls {@link #archivePass}, e.g. from a JobScheduler job.
+     * @param connectionSource Opens the archiver's own database connection.
+     * @param horizonDays Sales older than this many days are archived.
+     * @param batchSize Sales moved per transaction.
+     * @param pauseMillis Pause between batches.
+     * @param intervalMinutes Time between passes, or 0 to leave the scheduling to the caller.
+     */
+    public SalesArchiver(ConnectionSource connectionSource, int horizonDays, int batchSize,
+                         long pauseMillis, long intervalMinutes) {
+        if (horizonDays < 1 || batchSize < 1) {
+            throw new IllegalArgumentException("Horizon and batch size must be positive.");
+        }
+        this.connectionSource = connectionSource;
+        this.horizonDays = horizonDays;
+        this.batchSize = batchSize;
+        this.pauseMillis = pauseMillis;
+        if (intervalMinutes <= 0) {
+            this.scheduler = null;
+            return;
+        }
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "sales-archiver");
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::archiveQuietly, 0, intervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * Creates the archiver configured by -Dsales.archive.horizonDays and related properties.
+     * @param jobs If not null, the passes are scheduled as the "Sales archive" job there, where they can
+     *             be watched, started and cancelled; otherwise the archiver schedules them itself.
+     * @return The archiver, or null unless a horizon is set and the backend is the default database.
+     */
+    public static SalesArchiver fromSystemProperties(JobScheduler jobs) {
+        Integer horizonDays = Integer.getInteger("sales.archive.horizonDays");
+        if (horizonDays == null || !DataStoreFactory.usesDefaultDatabase()) {
+            return null; // The archive lives in the default database, not on shards
+        }
+        long intervalMinutes = Long.getLong("sales.archive.intervalMinutes", DEFAULT_INTERVAL_MINUTES);
+        SalesArchiver archiver = new SalesArchiver(DatabaseManager::openConnection, horizonDays,
+                Integer.getInteger("sales.archive.batchSize", DEFAULT_BATCH_SIZE),
+                Long.getLong("sales.archive.pauseMillis", DEFAULT_PAUSE_MILLIS),
+                jobs != null ? 0 : intervalMinutes);
+        if (jobs != null) {
+            jobs.schedule("Sales archive", JobScheduler.fixedDelay(Duration.ZERO, Duration.ofMinutes(intervalMinutes)), 1,
+                    context -> archiver.archivePass(context::isCancelled));
+        }
+        return archiver;
+    }
+
+    /**
+     * Archives all sales older than the horizon, batch by batch. Stops early when the archiver is closed.
+     * Passes must not overlap; the scheduler (or the job's concurrency limit of 1) ensures that.
+     * @return The number of sales moved.
+     * @throws SQLException if a batch fails; its sales stay in the hot table.
+     */
+    public int archivePass() throws SQLException {
+        return archivePass(() -> false);
+    }
+
+    /**
+     * Like {@link #archivePass()}, but also stops between batches once cancelled returns true.
+     */
+    public int archivePass(BooleanSupplier cancelled) throws SQLException {
+        LocalDate archiveBefore = LocalDate.now().minusDays(horizonDays);
+        int total = 0;
+        while (!closed && !cancelled.getAsBoolean()) {
+            int moved = archiveBatch(archiveBefore);
+            total += moved;
+            if (moved < batchSize) {
+                break;
+            }
+            try {
+                Thread.sleep(pauseMillis); // Leave I/O and WAL bandwidth to checkout
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        if (total > 0) {
+            System.out.println("Archived " + total + " sales dated before " + archiveBefore + ".");
+        }
+        return total;
+    }
+
+    /**
+     * Stops the archiver after the running batch and closes its connection.
+     * With a JobScheduler, close the scheduler first, so no pass is running.
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        try {
+            if (connection != null) connection.close();
+        } catch (SQLException e) {
+            System.err.println("Error closing archiver connection: " + e.getMessage());
+        }
+    }
+
+    // --- Helpers ---
+
+    private int archiveBatch(LocalDate archiveBefore) throws SQLException {
+        // The horizon is raised in the same transaction as the rows move, so readers never see
+        // archived rows above it
+        String raiseHorizonSQL = "INSERT INTO sales_archive_state (id, archived_before) VALUES (1, ?) " +
+                "ON CONFLICT (id) DO UPDATE SET archived_before = GREATEST(sales_archive_state.archived_before, EXCLUDED.archived_before)";
+        String moveSQL = "WITH moved AS (" +
+                "DELETE FROM sales WHERE (sale_id, sale_date) IN (" + // The date lets each row be found in its partition
+                "SELECT sale_id, sale_date FROM sales WHERE sale_date < ? ORDER BY sale_date LIMIT ? FOR UPDATE SKIP LOCKED) " +
+                "RETURNING " + SALE_COLUMNS + ") " +
+                "INSERT INTO sales_archive (" + SALE_COLUMNS + ") SELECT " + SALE_COLUMNS + " FROM moved";
+        Connection conn = connection();
+        conn.setAutoCommit(false);
+        try (PreparedStatement raiseHorizon = conn.prepareStatement(raiseHorizonSQL);
+             PreparedStatement move = conn.prepareStatement(moveSQL)) {
+            raiseHorizon.setDate(1, Date.valueOf(archiveBefore));
+            raiseHorizon.executeUpdate();
+            move.setDate(1, Date.valueOf(archiveBefore));
+            move.setInt(2, batchSize);
+            int moved = move.executeUpdate();
+            conn.commit();
+            return moved;
+        } catch (SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    private Connection connection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = connectionSource.open();
+        }
+        return connection;
+    }
+
+    private void archiveQuietly() {
+        try {
+            archivePass();
+        } catch (SQLException e) {
+            System.err.println("Error archiving sales (will retry): " + e.getMessage());
+        }
+    }
+}
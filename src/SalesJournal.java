@@ -0,0 +1,311 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * Durable local journal for sales taken while the database is unreachable.
+ * Sales are appended to "offline-sales.journal" as [int length][int crc32][payload] records and
+ * the file is fsync'd before append returns, so an accepted sale survives a crash or power loss.
+ * A separate "offline-sales.position" file records how far the journal has been replayed into the
+ * database; it is replaced atomically after each replayed batch.
+ *
+ * Every entry carries a unique key. The replay side stores that key in the same transaction as the
+ * sale, so replaying an entry twice (e.g. after a crash between commit and position update) is harmless.
+ * One journal instance exists per directory and is shared by all DatabaseManagers in the JVM.
+ */
+public class SalesJournal {
+
+    private static final String JOURNAL_FILE = "offline-sales.journal";
+    private static final String POSITION_FILE = "offline-sales.position";
+    private static final int RECORD_HEADER_SIZE = 8; // length + crc32
+
+    private static final Map<Path, SalesJournal> OPEN_JOURNALS = new HashMap<>();
+
+    private final Path journalFile;
+    private final Path positionFile;
+    private final FileChannel channel;
+    private long replayedOffset; // Offset of the first entry not yet replayed
+    private long pendingCount;
+    private ScheduledExecutorService replayScheduler;
+    private final ReentrantLock replayLock = new ReentrantLock(); // Not the monitor: appends go on during a replay
+    private final AtomicBoolean replayRequested = new AtomicBoolean(); // An extra pass is queued on the replay thread
+    private Runnable replayTask;
+
+    /**
+     * Returns the shared journal for the directory, opening it on first use.
+     * @param directory The journal directory.
+     * @return The journal.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public static synchronized SalesJournal open(Path directory) throws IOException {
+        Path key = directory.toAbsolutePath().normalize();
+        SalesJournal journal = OPEN_JOURNALS.get(key);
+        if (journal == null) {
+            journal = new SalesJournal(key);
+            OPEN_JOURNALS.put(key, journal);
+        }
+        return journal;
+    }
+
+    private SalesJournal(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.journalFile = directory.resolve(JOURNAL_FILE);
+        this.positionFile = directory.resolve(POSITION_FILE);
+        this.channel = FileChannel.open(journalFile, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.replayedOffset = Files.exists(positionFile)
+                ? Long.parseLong(Files.readString(positionFile, StandardCharsets.UTF_8).trim()) : 0;
+        recover();
+        if (pendingCount > 0) {
+            System.out.println(pendingCount + " offline sale(s) waiting in " + journalFile + " to be synced.");
+        }
+    }
+
+    /**
+     * Durably appends a sale to the journal.
+     * @param sale The sale taken while offline.
+     * @return The journal entry, including its idempotency key.
+     * @throws IOException if the entry could not be written and synced.
+     */
+    public synchronized JournalEntry append(Sale sale) throws IOException {
+        String entryKey = UUID.randomUUID().toString();
+        byte[] keyBytes = entryKey.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer payload = ByteBuffer.allocate(4 + keyBytes.length + 16 + 16 + 8);
+        payload.putInt(keyBytes.length).put(keyBytes)
+                .putInt(sale.getProductId()).putInt(sale.getCustomerId()).putInt(sale.getQuantity()).putInt(sale.getStoreId())
+                .putLong(sale.getUnitPriceAtSale().cents()).putLong(sale.getTotalSalePrice().cents())
+                .putLong(sale.getSaleDate().toEpochDay());
+        byte[] payloadBytes = payload.array();
+
+        CRC32 crc = new CRC32();
+        crc.update(payloadBytes);
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payloadBytes.length);
+        record.putInt(payloadBytes.length).putInt((int) crc.getValue()).put(payloadBytes).flip();
+
+        long offset = channel.size();
+        while (record.hasRemaining()) {
+            channel.write(record, offset + record.position());
+        }
+        channel.force(true); // fsync before the till is told the sale was accepted
+        pendingCount++;
+        return new JournalEntry(entryKey, copyOf(sale), offset + RECORD_HEADER_SIZE + payloadBytes.length);
+    }
+
+    /**
+     * Reads the oldest entries that have not been replayed yet, in journal order.
+     * @param limit Maximum number of entries to return.
+     * @return The pending entries.
+     */
+    public synchronized List<JournalEntry> readPending(int limit) throws IOException {
+        List<JournalEntry> entries = new ArrayList<>();
+        long offset = replayedOffset;
+        while (entries.size() < limit) {
+            JournalEntry entry = readEntry(offset);
+            if (entry == null) {
+                break;
+            }
+            entries.add(entry);
+            offset = entry.nextOffset;
+        }
+        return entries;
+    }
+
+    /**
+     * Marks every entry up to and including the given one as replayed.
+     * When the whole journal has been replayed it is truncated to start afresh.
+     * @param lastReplayed The last entry that is now safely stored in the database.
+     */
+    public synchronized void acknowledge(JournalEntry lastReplayed) throws IOException {
+        long acknowledged = 0;
+        for (long offset = replayedOffset; offset < lastReplayed.nextOffset; ) {
+            JournalEntry entry = readEntry(offset);
+            if (entry == null) break;
+            acknowledged++;
+            offset = entry.nextOffset;
+        }
+        pendingCount = Math.max(0, pendingCount - acknowledged);
+        if (pendingCount == 0 && lastReplayed.nextOffset >= channel.size()) {
+            channel.truncate(0);
+            channel.force(true);
+            writePosition(0);
+        } else {
+            writePosition(lastReplayed.nextOffset);
+        }
+    }
+
+    /** @return The number of journaled sales that still have to be replayed. */
+    public synchronized long getPendingCount() {
+        return pendingCount;
+    }
+
+    /**
+     * Runs a replay pass once no other pass (scheduled, or requested by a sale) is running, so passes
+     * never acknowledge entries out of order.
+     * @param replayTask Replays pending entries and acknowledges them.
+     */
+    public void runReplay(Runnable replayTask) {
+        replayLock.lock();
+        try {
+            replayTask.run();
+        } finally {
+            replayLock.unlock();
+        }
+    }
+
+    /**
+     * Starts the background replay task once per journal. Later calls are ignored.
+     * @param replayTask The task that replays pending entries into the database.
+     * @param intervalSeconds How often to try.
+     */
+    public synchronized void scheduleReplay(Runnable replayTask, long intervalSeconds) {
+        if (replayScheduler != null) {
+            return;
+        }
+        this.replayTask = replayTask;
+        replayScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "offline-sales-replay");
+            thread.setDaemon(true);
+            return thread;
+        });
+        replayScheduler.scheduleWithFixedDelay(this::replayQuietly, intervalSeconds, intervalSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Queues a replay pass on the replay thread right away instead of waiting for the next scheduled one.
+     * Returns at once; while a requested pass is still queued, further requests are ignored.
+     */
+    public synchronized void requestReplay() {
+        if (replayScheduler != null && replayRequested.compareAndSet(false, true)) {
+            replayScheduler.execute(() -> {
+                replayRequested.set(false); // Sales journaled from here on need another pass
+                replayQuietly();
+            });
+        }
+    }
+
+    // --- Helpers ---
+
+    private void replayQuietly() {
+        try {
+            replayTask.run();
+        } catch (RuntimeException e) {
+            System.err.println("Error replaying offline sales: " + e.getMessage());
+            e.printStackTrace();
+        }
+    }
+
+    // Counts pending entries and cuts off a torn tail left by a crash during append
+    private void recover() throws IOException {
+        if (replayedOffset > channel.size()) {
+            replayedOffset = channel.size();
+        }
+        long offset = replayedOffset;
+        JournalEntry entry;
+        while ((entry = readEntry(offset)) != null) {
+            pendingCount++;
+            offset = entry.nextOffset;
+        }
+        if (offset < channel.size()) {
+            System.err.println("Discarding incomplete offline sale record at offset " + offset + " of " + journalFile);
+            channel.truncate(offset);
+            channel.force(true);
+        }
+    }
+
+    private JournalEntry readEntry(long offset) throws IOException {
+        if (offset + RECORD_HEADER_SIZE > channel.size()) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        readFully(header, offset);
+        int length = header.getInt(0);
+        if (length <= 0 || offset + RECORD_HEADER_SIZE + length > channel.size()) {
+            return null;
+        }
+        ByteBuffer payload = ByteBuffer.allocate(length);
+        readFully(payload, offset + RECORD_HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        if ((int) crc.getValue() != header.getInt(4)) {
+            return null;
+        }
+        payload.flip();
+        byte[] keyBytes = new byte[payload.getInt()];
+        payload.get(keyBytes);
+        int productId = payload.getInt();
+        int customerId = payload.getInt();
+        int quantity = payload.getInt();
+        int storeId = payload.getInt(); // Reserved (0) in entries written before sharding
+        Money unitPrice = Money.ofCents(payload.getLong());
+        Money totalPrice = Money.ofCents(payload.getLong());
+        LocalDate saleDate = LocalDate.ofEpochDay(payload.getLong());
+        Sale sale = new Sale(0, productId, customerId, quantity, unitPrice, totalPrice, saleDate);
+        sale.setStoreId(storeId);
+        return new JournalEntry(new String(keyBytes, StandardCharsets.UTF_8), sale, offset + RECORD_HEADER_SIZE + length);
+    }
+
+    private void readFully(ByteBuffer target, long offset) throws IOException {
+        while (target.hasRemaining()) {
+            if (channel.read(target, offset + target.position()) < 0) {
+                throw new IOException("Unexpected end of offline sales journal.");
+            }
+        }
+    }
+
+    private void writePosition(long offset) throws IOException {
+        Path temp = positionFile.resolveSibling(POSITION_FILE + ".tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            out.write(ByteBuffer.wrap(Long.toString(offset).getBytes(StandardCharsets.UTF_8)));
+            out.force(true);
+        }
+        Files.move(temp, positionFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        replayedOffset = offset;
+    }
+
+    private static Sale copyOf(Sale s) {
+        Sale copy = new Sale(s.getSaleId(), s.getProductId(), s.getCustomerId(), s.getQuantity(),
+                s.getUnitPriceAtSale(), s.getTotalSalePrice(), s.getSaleDate());
+        copy.setStoreId(s.getStoreId());
+        return copy;
+    }
+
+    /**
+     * A sale stored in the journal, with the key used to replay it idempotently.
+     */
+    public static class JournalEntry {
+        private final String entryKey;
+        private final Sale sale;
+        private final long nextOffset;
+
+        JournalEntry(String entryKey, Sale sale, long nextOffset) {
+            this.entryKey = entryKey;
+            this.sale = sale;
+            this.nextOffset = nextOffset;
+        }
+
+        public String getEntryKey() {
+            return entryKey;
+        }
+
+        public Sale getSale() {
+            return sale;
+        }
+    }
+}
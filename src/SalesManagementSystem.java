@@ -1,33 +1,44 @@
 import javax.swing.*;
 import javax.swing.table.DefaultTableModel;
 import java.awt.*;
+import java.math.BigDecimal;
 import java.time.LocalDate;
 import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Vector;
 import java.util.Map;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 
 /**
  * SalesManagementSystem is a Java Swing application for managing sales, products, and customers.
  * It interacts with a PostgreSQL database via the DatabaseManager class, using POJO and DAO patterns.
+ * The storage backend is chosen at startup with -Dsales.backend (see DataStoreFactory).
  */
 public class SalesManagementSystem extends JFrame {
 
-    private DatabaseManager dbManager; // Instance of our database manager
+    private IDataStore dbManager; // Storage backend (PostgreSQL by default), with each call traced
+    private DatabaseManager databaseStore; // The untraced backend when it is PostgreSQL, for its offline journal
+    private AuditTrail auditTrail; // Records the changes made in this window; null if -Dsales.audit=off
+    private final JobScheduler jobScheduler = JobScheduler.fromSystemProperties(); // Periodic background work
+    private DemandForecaster demandForecaster; // Reorder points for the Products tab; null if -Dsales.forecast=false
+    private IDataStore forecastStore; // The forecaster's own backend instance; null if it shares this window's
+    private SalesArchiver salesArchiver; // The "Sales archive" job's archiver; null unless -Dsales.archive.horizonDays is set
 
     // --- GUI Components ---
     private JTabbedPane tabbedPane;
 
     // Product Tab Components
     private JTextField productIdField, productNameField, productPriceField, productStockField;
-    private JButton addProductButton, updateProductButton, deleteProductButton;
+    private JButton addProductButton, updateProductButton, deleteProductButton, repricePageButton, priceChangesButton;
     private JTable productsTable;
     private DefaultTableModel productsTableModel;
+    private JLabel stockWarningLabel;
+    private JButton showStockWarningsButton;
 
     // Customer Tab Components
     private JTextField customerIdField, customerFirstNameField, customerLastNameField, customerEmailField, customerPhoneField;
     private JButton addCustomerButton, updateCustomerButton, deleteCustomerButton;
+    private JButton findSimilarCustomersButton, findDuplicateCustomersButton;
     private JTable customersTable;
     private DefaultTableModel customersTableModel;
 
@@ -38,11 +49,52 @@ public class SalesManagementSystem extends JFrame {
     private JTable salesTable;
     private DefaultTableModel salesTableModel;
 
-    // Maps to store ID-to-Name for ComboBoxes
-    private Map<String, Integer> productNameToIdMap;
-    private Map<Integer, String> productIdToNameMap;
-    private Map<String, Integer> customerNameToIdMap;
-    private Map<Integer, String> customerIdToNameMap;
+    // Basket Components (Sale tab) and Orders Tab Components; only when the backend supports orders
+    private JButton addToBasketButton, removeFromBasketButton, placeOrderButton;
+    private JLabel basketTotalLabel;
+    private DefaultTableModel basketTableModel;
+    private JTable basketTable;
+    private List<OrderLine> basketLines = new ArrayList<>();
+    private DefaultTableModel ordersTableModel;
+
+    // Dashboard Tab Components; fed by the sales booked through dbManager, never by queries
+    private static final int DASHBOARD_REFRESH_MILLIS = 1000;
+    private static final int TOP_MOVERS = 10;
+    private final SalesWindowAggregator salesWindows = new SalesWindowAggregator();
+    private JLabel[][] dashboardTotalLabels; // [window][revenue, units, sales]
+    private JLabel salesRateLabel;
+    private long[] salesPerMinute = new long[0];
+    private JPanel salesPerMinuteChart;
+    private DefaultTableModel topMoversTableModel;
+
+    // Jobs Tab Components
+    private DefaultTableModel jobsTableModel, jobHistoryTableModel;
+    private JTable jobsTable;
+
+    // ID-to-name maps for the name columns of the other tables (ID-keyed maps avoid boxing the IDs).
+    // Loaded in the background with the indexes below, then updated row by row on the EDT.
+    private IntObjectHashMap<String> productIdToNameMap;
+    private IntObjectHashMap<String> customerIdToNameMap;
+
+    // Typeahead indexes behind the product and customer pickers; a picked label maps back to its ID through idOf
+    private static final int MAX_SUGGESTIONS = 50;
+    private final SearchIndex productSearchIndex = new SearchIndex();
+    private final SearchIndex customerSearchIndex = new SearchIndex();
+
+    // Filters and paging of the tables; filtering, sorting and paging run as queries on the backend
+    private static final int PAGE_SIZE = 200;
+    private static final int DEFAULT_SALES_DAYS = 30; // The Sales tab opens on the last 30 days
+    private TablePager productsPager, customersPager, salesPager;
+    private JTextField productNameFilterField, productMaxStockFilterField;
+    private JTextField customerLastNameFilterField, customerEmailFilterField;
+    private JComboBox<String> saleProductFilterComboBox, saleCustomerFilterComboBox;
+    private JTextField saleFromDateFilterField, saleToDateFilterField;
+
+    // Row versions of the rows on the current pages; sent with updates so concurrent changes are detected
+    private final IntIntHashMap productVersions = new IntIntHashMap();
+    private final IntIntHashMap customerVersions = new IntIntHashMap();
+    private final IntIntHashMap saleVersions = new IntIntHashMap();
+    private final IntObjectHashMap<Sale> pageSales = new IntObjectHashMap<>(); // Sales on the current page, by ID
 
 
     /**
@@ -52,30 +104,69 @@ public class SalesManagementSystem extends JFrame {
     public SalesManagementSystem() {
         super("Advanced Sales Management System"); // Set window title
 
-        dbManager = new DatabaseManager(); // Initialize the database manager
-        productNameToIdMap = new HashMap<>();
-        productIdToNameMap = new HashMap<>();
-        customerNameToIdMap = new HashMap<>();
-        customerIdToNameMap = new HashMap<>();
+        IDataStore store = DataStoreFactory.create(); // Initialize the configured storage backend
+        databaseStore = store instanceof DatabaseManager ? (DatabaseManager) store : null;
+        auditTrail = AuditTrail.fromSystemProperties("gui:" + System.getProperty("user.name"));
+        // One proxy for all layers, outermost first; flight events are innermost, so they time the backend only
+        dbManager = DaoProxies.wrap(store, IDataStore.class, Tracer.callSpans(), DaoProxies.saleChanges(salesWindows),
+                auditTrail != null ? auditTrail.auditing() : null, FlightEvents.daoCallEvents());
+        if (DemandForecaster.isEnabled()) {
+            // The forecaster reads on its own thread; a connection-per-instance backend gets an instance of its own
+            forecastStore = DataStoreFactory.usesConnectionPerInstance() ? DataStoreFactory.create() : null;
+            demandForecaster = DemandForecaster.fromSystemProperties(forecastStore != null ? forecastStore : dbManager, jobScheduler);
+        }
+        jobScheduler.schedule("Search index rebuild", JobScheduler.cron(System.getProperty("sales.jobs.indexRebuildCron", "0 3 * * *")),
+                1, this::rebuildSearchIndexes);
+        salesArchiver = SalesArchiver.fromSystemProperties(jobScheduler);
+        PartitionPruningCheck.schedule(jobScheduler);
+        productIdToNameMap = new IntObjectHashMap<>();
+        customerIdToNameMap = new IntObjectHashMap<>();
 
         // Set up the main frame
         setSize(1200, 700);
         setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+        addWindowListener(new java.awt.event.WindowAdapter() {
+            @Override
+            public void windowClosing(java.awt.event.WindowEvent e) {
+                if (auditTrail != null) {
+                    auditTrail.close(); // Write the remaining audit events while the database is still reachable
+                }
+                jobScheduler.close();
+                if (salesArchiver != null) {
+                    salesArchiver.close();
+                }
+                if (demandForecaster != null) {
+                    demandForecaster.close();
+                }
+                if (forecastStore != null) {
+                    forecastStore.closeConnection();
+                }
+                dbManager.closeConnection(); // Release the connection or flush the local log
+            }
+        });
         setLocationRelativeTo(null); // Center the window on the screen
         setLayout(new BorderLayout()); // Use BorderLayout for the main frame
 
         tabbedPane = new JTabbedPane();
         add(tabbedPane, BorderLayout.CENTER);
+        add(createStatusBar(), BorderLayout.SOUTH);
 
         // --- Setup Tabs ---
         setupProductTab();
         setupCustomerTab();
         setupSaleTab();
+        if (dbManager instanceof IOrderDAO) {
+            setupOrderTab();
+        }
+        setupDashboardTab();
+        setupJobsTab();
 
-        // Load initial data for all tables and combo boxes
+        // Load initial data for all tables; the lookups behind the pickers load in the background
+        loadLookupsInBackground();
         loadProductsData();
         loadCustomersData();
         loadSalesData();
+        loadOrdersData();
 
         // Make the frame visible
         setVisible(true);
@@ -118,11 +209,33 @@ public class SalesManagementSystem extends JFrame {
         buttonPanel.add(addProductButton);
         buttonPanel.add(updateProductButton);
         buttonPanel.add(deleteProductButton);
+        repricePageButton = new JButton("Reprice Page...");
+        priceChangesButton = new JButton("Price Changes");
+        buttonPanel.add(repricePageButton);
+        buttonPanel.add(priceChangesButton);
+
+        if (demandForecaster != null) {
+            // Low-stock warnings from the demand forecast, refreshed after each forecaster run
+            JPanel southPanel = new JPanel(new BorderLayout(5, 5));
+            southPanel.add(buttonPanel, BorderLayout.CENTER);
+            JPanel warningPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 10, 0));
+            stockWarningLabel = new JLabel("Forecasting demand...");
+            showStockWarningsButton = new JButton("Show Low Stock");
+            showStockWarningsButton.setEnabled(false);
+            showStockWarningsButton.addActionListener(e -> showStockWarnings());
+            warningPanel.add(stockWarningLabel);
+            warningPanel.add(showStockWarningsButton);
+            southPanel.add(warningPanel, BorderLayout.SOUTH);
+            productPanel.add(southPanel, BorderLayout.SOUTH);
+            demandForecaster.addListener(() -> SwingUtilities.invokeLater(this::refreshStockWarnings));
+        } else {
+            productPanel.add(buttonPanel, BorderLayout.SOUTH);
+        }
 
-        productPanel.add(buttonPanel, BorderLayout.SOUTH);
-
-        // Table for Products
-        String[] productColumnNames = {"ID", "Name", "Price", "Stock"};
+        // Table for Products; the forecast columns are computed, so they cannot be sorted on
+        String[] productColumnNames = demandForecaster != null
+                ? new String[]{"ID", "Name", "Price", "Stock", "Demand/Day", "Reorder At", "Stock-out"}
+                : new String[]{"ID", "Name", "Price", "Stock"};
         productsTableModel = new DefaultTableModel(productColumnNames, 0);
         productsTable = new JTable(productsTableModel);
         productsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
@@ -138,13 +251,26 @@ public class SalesManagementSystem extends JFrame {
             }
         });
 
+        // Filters and paging for Products
+        String[] productSortFields = demandForecaster != null
+                ? new String[]{"id", "name", "price", "stock", null, null, null}
+                : new String[]{"id", "name", "price", "stock"};
+        productsPager = new TablePager(productsTable, productSortFields, PAGE_SIZE, this::loadProductsPage);
+        productNameFilterField = new JTextField(15);
+        productMaxStockFilterField = new JTextField(5);
+        JPanel filterPanel = createFilterPanel(this::loadProductsPage,
+                "Name starts with:", productNameFilterField,
+                "Stock at most:", productMaxStockFilterField);
+
         JScrollPane productScrollPane = new JScrollPane(productsTable);
-        productPanel.add(productScrollPane, BorderLayout.CENTER);
+        productPanel.add(createTablePanel(filterPanel, productScrollPane, productsPager), BorderLayout.CENTER);
 
         // Add action listeners
-        addProductButton.addActionListener(e -> addProduct());
-        updateProductButton.addActionListener(e -> updateProduct());
-        deleteProductButton.addActionListener(e -> deleteProduct());
+        addProductButton.addActionListener(traced("Add Product", this::addProduct));
+        updateProductButton.addActionListener(traced("Update Product", this::updateProduct));
+        deleteProductButton.addActionListener(traced("Delete Product", this::deleteProduct));
+        repricePageButton.addActionListener(traced("Reprice Page", this::repricePage));
+        priceChangesButton.addActionListener(traced("Price Changes", this::showPriceChanges));
 
         tabbedPane.addTab("Product Management", productPanel);
     }
@@ -186,9 +312,14 @@ public class SalesManagementSystem extends JFrame {
         updateCustomerButton = new JButton("Update Customer");
         deleteCustomerButton = new JButton("Delete Customer");
 
+        findSimilarCustomersButton = new JButton("Find Similar");
+        findDuplicateCustomersButton = new JButton("Find Duplicates");
+
         buttonPanel.add(addCustomerButton);
         buttonPanel.add(updateCustomerButton);
         buttonPanel.add(deleteCustomerButton);
+        buttonPanel.add(findSimilarCustomersButton);
+        buttonPanel.add(findDuplicateCustomersButton);
 
         customerPanel.add(buttonPanel, BorderLayout.SOUTH);
 
@@ -210,13 +341,23 @@ public class SalesManagementSystem extends JFrame {
             }
         });
 
+        // Filters and paging for Customers
+        customersPager = new TablePager(customersTable, new String[]{"id", "firstName", "lastName", "email", "phone"}, PAGE_SIZE, this::loadCustomersPage);
+        customerLastNameFilterField = new JTextField(15);
+        customerEmailFilterField = new JTextField(15);
+        JPanel filterPanel = createFilterPanel(this::loadCustomersPage,
+                "Last name starts with:", customerLastNameFilterField,
+                "Email starts with:", customerEmailFilterField);
+
         JScrollPane customerScrollPane = new JScrollPane(customersTable);
-        customerPanel.add(customerScrollPane, BorderLayout.CENTER);
+        customerPanel.add(createTablePanel(filterPanel, customerScrollPane, customersPager), BorderLayout.CENTER);
 
         // Add action listeners
-        addCustomerButton.addActionListener(e -> addCustomer());
-        updateCustomerButton.addActionListener(e -> updateCustomer());
-        deleteCustomerButton.addActionListener(e -> deleteCustomer());
+        addCustomerButton.addActionListener(traced("Add Customer", this::addCustomer));
+        updateCustomerButton.addActionListener(traced("Update Customer", this::updateCustomer));
+        deleteCustomerButton.addActionListener(traced("Delete Customer", this::deleteCustomer));
+        findSimilarCustomersButton.addActionListener(traced("Find Similar Customers", this::findSimilarCustomers));
+        findDuplicateCustomersButton.addActionListener(traced("Find Duplicate Customers", this::findDuplicateCustomers));
 
         tabbedPane.addTab("Customer Management", customerPanel);
     }
@@ -239,17 +380,20 @@ public class SalesManagementSystem extends JFrame {
         saleUnitPriceField.setEditable(false); // Unit price comes from selected product
         saleDate = new JTextField(10); // Format: YYYY-MM-DD
 
-        saleProductComboBox = new JComboBox<>(); // Populated dynamically
-        saleCustomerComboBox = new JComboBox<>(); // Populated dynamically
+        saleProductComboBox = new JComboBox<>(); // Suggestions are filled in while typing
+        saleCustomerComboBox = new JComboBox<>(); // Suggestions are filled in while typing
+        TypeaheadSupport.install(saleProductComboBox, productSearchIndex, MAX_SUGGESTIONS);
+        TypeaheadSupport.install(saleCustomerComboBox, customerSearchIndex, MAX_SUGGESTIONS);
+        saleProductComboBox.setToolTipText("Type part of a product name");
+        saleCustomerComboBox.setToolTipText("Type part of a customer's name, email or phone");
 
         // Listener to update unit price when product selection changes
         saleProductComboBox.addActionListener(e -> {
-            String selectedProductName = (String) saleProductComboBox.getSelectedItem();
-            if (selectedProductName != null && productNameToIdMap.containsKey(selectedProductName)) {
-                int productId = productNameToIdMap.get(selectedProductName);
+            int productId = productSearchIndex.idOf((String) saleProductComboBox.getSelectedItem());
+            if (productId >= 0) {
                 Product product = dbManager.getProductById(productId);
                 if (product != null) {
-                    saleUnitPriceField.setText(String.format("%.2f", product.getPrice()));
+                    saleUnitPriceField.setText(listPriceOn(product, saleDate.getText().trim()).toString());
                 }
             } else {
                 saleUnitPriceField.setText("");
@@ -296,12 +440,13 @@ public class SalesManagementSystem extends JFrame {
                 int selectedRow = salesTable.getSelectedRow();
                 saleIdField.setText(salesTableModel.getValueAt(selectedRow, 0).toString());
 
-                // Set product and customer combo boxes by name
+                // Set product and customer combo boxes to the picker labels of the sale's IDs
+                Sale sale = pageSales.get((Integer) salesTableModel.getValueAt(selectedRow, 0));
                 String productName = salesTableModel.getValueAt(selectedRow, 1).toString();
-                saleProductComboBox.setSelectedItem(productName);
+                saleProductComboBox.setSelectedItem(SearchIndex.label(sale.getProductId(), productName));
 
                 String customerName = salesTableModel.getValueAt(selectedRow, 2).toString();
-                saleCustomerComboBox.setSelectedItem(customerName);
+                saleCustomerComboBox.setSelectedItem(SearchIndex.label(sale.getCustomerId(), customerName));
 
                 saleQuantityField.setText(salesTableModel.getValueAt(selectedRow, 3).toString());
                 saleUnitPriceField.setText(salesTableModel.getValueAt(selectedRow, 4).toString()); // Auto-filled from product selection
@@ -309,17 +454,362 @@ public class SalesManagementSystem extends JFrame {
             }
         });
 
+        // Filters and paging for Sales; the names come joined with each row, so they sort like any column
+        salesPager = new TablePager(salesTable, new String[]{"id", "productName", "customerName", "quantity", "unitPrice", "totalPrice", "saleDate"}, PAGE_SIZE, this::loadSalesData);
+        saleProductFilterComboBox = new JComboBox<>();
+        saleCustomerFilterComboBox = new JComboBox<>();
+        saleProductFilterComboBox.setPrototypeDisplayValue("XXXXXXXXXXXXXXXXXXXX");
+        saleCustomerFilterComboBox.setPrototypeDisplayValue("XXXXXXXXXXXXXXXXXXXX");
+        TypeaheadSupport.install(saleProductFilterComboBox, productSearchIndex, MAX_SUGGESTIONS);
+        TypeaheadSupport.install(saleCustomerFilterComboBox, customerSearchIndex, MAX_SUGGESTIONS);
+        saleFromDateFilterField = new JTextField(8);
+        saleFromDateFilterField.setText(LocalDate.now().minusDays(DEFAULT_SALES_DAYS).toString()); // Recent partitions only
+        saleToDateFilterField = new JTextField(8);
+        JPanel filterPanel = createFilterPanel(this::loadSalesData,
+                "Product:", saleProductFilterComboBox,
+                "Customer:", saleCustomerFilterComboBox,
+                "From (YYYY-MM-DD):", saleFromDateFilterField,
+                "To:", saleToDateFilterField);
+
         JScrollPane saleScrollPane = new JScrollPane(salesTable);
-        salePanel.add(saleScrollPane, BorderLayout.CENTER);
+        salePanel.add(createTablePanel(filterPanel, saleScrollPane, salesPager), BorderLayout.CENTER);
 
         // Add action listeners
-        addSaleButton.addActionListener(e -> addSale());
-        updateSaleButton.addActionListener(e -> updateSale());
-        deleteSaleButton.addActionListener(e -> deleteSale());
+        addSaleButton.addActionListener(traced("Add Sale", this::addSale));
+        updateSaleButton.addActionListener(traced("Update Sale", this::updateSale));
+        deleteSaleButton.addActionListener(traced("Delete Sale", this::deleteSale));
+
+        // Basket for multi-line orders, placed in one transaction
+        if (dbManager instanceof IOrderDAO) {
+            salePanel.add(createBasketPanel(), BorderLayout.EAST);
+        }
 
         tabbedPane.addTab("Sales Management", salePanel);
     }
 
+    /**
+     * Creates a filter bar: label/field pairs followed by Apply and Clear buttons.
+     * Enter in a text field applies the filters as well.
+     * @param apply Reloads the table with the current filters.
+     * @param labelsAndFields Alternating label texts and filter components.
+     */
+    private JPanel createFilterPanel(Runnable apply, Object... labelsAndFields) {
+        JPanel filterPanel = new JPanel(new FlowLayout(FlowLayout.LEFT, 5, 0));
+        List<JComponent> fields = new ArrayList<>();
+        for (int i = 0; i < labelsAndFields.length; i += 2) {
+            JComponent field = (JComponent) labelsAndFields[i + 1];
+            filterPanel.add(new JLabel((String) labelsAndFields[i]));
+            filterPanel.add(field);
+            fields.add(field);
+            if (field instanceof JTextField) {
+                ((JTextField) field).addActionListener(traced("Apply Filter", apply));
+            }
+        }
+        JButton applyButton = new JButton("Apply Filter");
+        JButton clearButton = new JButton("Clear");
+        applyButton.addActionListener(traced("Apply Filter", apply));
+        clearButton.addActionListener(traced("Clear Filter", () -> {
+            for (JComponent field : fields) {
+                if (field instanceof JTextField) {
+                    ((JTextField) field).setText("");
+                } else if (field instanceof JComboBox) {
+                    ((JComboBox<?>) field).setSelectedItem(null);
+                }
+            }
+            apply.run();
+        }));
+        filterPanel.add(applyButton);
+        filterPanel.add(clearButton);
+        return filterPanel;
+    }
+
+    /** Stacks a filter bar, a table and its paging controls. */
+    private JPanel createTablePanel(JPanel filterPanel, JScrollPane scrollPane, TablePager pager) {
+        JPanel tablePanel = new JPanel(new BorderLayout(5, 5));
+        tablePanel.add(filterPanel, BorderLayout.NORTH);
+        tablePanel.add(scrollPane, BorderLayout.CENTER);
+        tablePanel.add(pager.getPanel(), BorderLayout.SOUTH);
+        return tablePanel;
+    }
+
+    /**
+     * Creates the basket panel of the Sale tab. Items are added from the sale fields
+     * and placed together as one order for the selected customer.
+     */
+    private JPanel createBasketPanel() {
+        JPanel basketPanel = new JPanel(new BorderLayout(5, 5));
+        basketPanel.setBorder(BorderFactory.createTitledBorder("Basket"));
+        basketPanel.setPreferredSize(new Dimension(380, 0));
+
+        String[] basketColumnNames = {"Product", "Quantity", "Unit Price", "Line Total"};
+        basketTableModel = new DefaultTableModel(basketColumnNames, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        basketTable = new JTable(basketTableModel);
+        basketTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        basketTable.getTableHeader().setReorderingAllowed(false);
+        basketPanel.add(new JScrollPane(basketTable), BorderLayout.CENTER);
+
+        JPanel basketButtonPanel = new JPanel(new GridLayout(2, 2, 5, 5));
+        addToBasketButton = new JButton("Add to Basket");
+        removeFromBasketButton = new JButton("Remove Item");
+        placeOrderButton = new JButton("Place Order");
+        basketTotalLabel = new JLabel("Total: 0.00");
+        basketButtonPanel.add(addToBasketButton);
+        basketButtonPanel.add(removeFromBasketButton);
+        basketButtonPanel.add(basketTotalLabel);
+        basketButtonPanel.add(placeOrderButton);
+        basketPanel.add(basketButtonPanel, BorderLayout.SOUTH);
+
+        addToBasketButton.addActionListener(traced("Add To Basket", this::addToBasket));
+        removeFromBasketButton.addActionListener(traced("Remove From Basket", this::removeFromBasket));
+        placeOrderButton.addActionListener(traced("Place Order", this::placeOrder));
+        return basketPanel;
+    }
+
+    /**
+     * Sets up the Orders tab (read-only list of placed orders, one row per line item).
+     */
+    private void setupOrderTab() {
+        JPanel orderPanel = new JPanel(new BorderLayout(10, 10));
+        orderPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        String[] orderColumnNames = {"Order ID", "Order Date", "Customer", "Product", "Quantity", "Unit Price", "Line Total", "Order Total"};
+        ordersTableModel = new DefaultTableModel(orderColumnNames, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable ordersTable = new JTable(ordersTableModel);
+        ordersTable.getTableHeader().setReorderingAllowed(false);
+        orderPanel.add(new JScrollPane(ordersTable), BorderLayout.CENTER);
+
+        tabbedPane.addTab("Orders", orderPanel);
+    }
+
+    /**
+     * Sets up the Dashboard tab: revenue, units and sales of the last hour, day and week, sales per minute
+     * and the top movers. Refreshed every second from the in-memory sliding windows, so it costs no queries.
+     */
+    private void setupDashboardTab() {
+        JPanel dashboardPanel = new JPanel(new BorderLayout(10, 10));
+        dashboardPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        String[] windows = {"Last hour", "Last 24 hours", "Last 7 days"};
+        JPanel totalsPanel = new JPanel(new GridLayout(windows.length + 1, 4, 5, 5));
+        totalsPanel.setBorder(BorderFactory.createTitledBorder("Sales booked in this window since " +
+                java.time.LocalTime.now().withNano(0)));
+        totalsPanel.add(new JLabel(""));
+        totalsPanel.add(new JLabel("Revenue"));
+        totalsPanel.add(new JLabel("Units"));
+        totalsPanel.add(new JLabel("Sales"));
+        dashboardTotalLabels = new JLabel[windows.length][3];
+        for (int i = 0; i < windows.length; i++) {
+            totalsPanel.add(new JLabel(windows[i] + ":"));
+            for (int j = 0; j < 3; j++) {
+                dashboardTotalLabels[i][j] = new JLabel("0");
+                totalsPanel.add(dashboardTotalLabels[i][j]);
+            }
+        }
+        dashboardPanel.add(totalsPanel, BorderLayout.NORTH);
+
+        // Sales per minute over the last hour, newest on the right
+        salesPerMinuteChart = new JPanel() {
+            @Override
+            protected void paintComponent(Graphics g) {
+                super.paintComponent(g);
+                long max = 1;
+                for (long count : salesPerMinute) max = Math.max(max, count);
+                int width = getWidth() / Math.max(salesPerMinute.length, 1);
+                g.setColor(new Color(70, 130, 180));
+                for (int i = 0; i < salesPerMinute.length; i++) {
+                    int height = (int) (Math.max(salesPerMinute[i], 0) * (getHeight() - 4) / max);
+                    g.fillRect(i * width + 1, getHeight() - height, Math.max(width - 2, 1), height);
+                }
+            }
+        };
+        salesPerMinuteChart.setPreferredSize(new Dimension(600, 120));
+        salesRateLabel = new JLabel(" ");
+        JPanel ratePanel = new JPanel(new BorderLayout(5, 5));
+        ratePanel.setBorder(BorderFactory.createTitledBorder("Sales per minute (last 60 minutes)"));
+        ratePanel.add(salesRateLabel, BorderLayout.NORTH);
+        ratePanel.add(salesPerMinuteChart, BorderLayout.CENTER);
+
+        String[] moverColumnNames = {"Product", "Units (24 h)", "Revenue (24 h)", "Units (previous 24 h)", "Change"};
+        topMoversTableModel = new DefaultTableModel(moverColumnNames, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable topMoversTable = new JTable(topMoversTableModel);
+        topMoversTable.getTableHeader().setReorderingAllowed(false);
+        JScrollPane moversScrollPane = new JScrollPane(topMoversTable);
+        moversScrollPane.setBorder(BorderFactory.createTitledBorder("Top movers"));
+
+        JPanel centerPanel = new JPanel(new BorderLayout(10, 10));
+        centerPanel.add(ratePanel, BorderLayout.NORTH);
+        centerPanel.add(moversScrollPane, BorderLayout.CENTER);
+        dashboardPanel.add(centerPanel, BorderLayout.CENTER);
+
+        tabbedPane.addTab("Dashboard", dashboardPanel);
+        new Timer(DASHBOARD_REFRESH_MILLIS, e -> {
+            if (tabbedPane.getSelectedComponent() == dashboardPanel) {
+                refreshDashboard();
+            }
+        }).start();
+        tabbedPane.addChangeListener(e -> {
+            if (tabbedPane.getSelectedComponent() == dashboardPanel) {
+                refreshDashboard();
+            }
+        });
+    }
+
+    /**
+     * Sets up the Jobs tab: the scheduled background jobs, their last runs, and buttons to start or
+     * cancel a job. Refreshed whenever a run starts or ends.
+     */
+    private void setupJobsTab() {
+        JPanel jobsPanel = new JPanel(new BorderLayout(10, 10));
+        jobsPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+
+        String[] jobColumnNames = {"Job", "Schedule", "Next Run", "Running", "Last Started", "Last Duration (ms)", "Last Outcome"};
+        jobsTableModel = new DefaultTableModel(jobColumnNames, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        jobsTable = new JTable(jobsTableModel);
+        jobsTable.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        jobsTable.getTableHeader().setReorderingAllowed(false);
+        jobsTable.getSelectionModel().addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                refreshJobHistory();
+            }
+        });
+        JScrollPane jobsScrollPane = new JScrollPane(jobsTable);
+        jobsScrollPane.setPreferredSize(new Dimension(0, 160));
+
+        String[] historyColumnNames = {"Started", "Duration (ms)", "Outcome", "Message"};
+        jobHistoryTableModel = new DefaultTableModel(historyColumnNames, 0) {
+            @Override
+            public boolean isCellEditable(int row, int column) {
+                return false;
+            }
+        };
+        JTable jobHistoryTable = new JTable(jobHistoryTableModel);
+        jobHistoryTable.getTableHeader().setReorderingAllowed(false);
+        JScrollPane historyScrollPane = new JScrollPane(jobHistoryTable);
+        historyScrollPane.setBorder(BorderFactory.createTitledBorder("Run history of the selected job"));
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER, 10, 10));
+        JButton runNowButton = new JButton("Run Now");
+        JButton cancelJobButton = new JButton("Cancel");
+        buttonPanel.add(runNowButton);
+        buttonPanel.add(cancelJobButton);
+        runNowButton.addActionListener(e -> {
+            String job = selectedJobName();
+            if (job != null && !jobScheduler.runNow(job)) {
+                showMessage("The job is already running or all workers are busy.", "Run Now", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+        cancelJobButton.addActionListener(e -> {
+            String job = selectedJobName();
+            if (job != null && jobScheduler.cancel(job) == 0) {
+                showMessage("The job is not running.", "Cancel", JOptionPane.INFORMATION_MESSAGE);
+            }
+        });
+
+        jobsPanel.add(jobsScrollPane, BorderLayout.NORTH);
+        jobsPanel.add(historyScrollPane, BorderLayout.CENTER);
+        jobsPanel.add(buttonPanel, BorderLayout.SOUTH);
+        tabbedPane.addTab("Jobs", jobsPanel);
+
+        jobScheduler.addListener(() -> SwingUtilities.invokeLater(this::refreshJobs));
+        refreshJobs();
+    }
+
+    private void refreshJobs() {
+        String selected = selectedJobName();
+        jobsTableModel.setRowCount(0);
+        for (JobScheduler.JobInfo job : jobScheduler.getJobs()) {
+            JobScheduler.Run lastRun = job.getLastRun();
+            jobsTableModel.addRow(new Object[]{
+                    job.getName(),
+                    job.getTrigger(),
+                    job.getNextRun() == null ? "after this run" : formatTime(job.getNextRun()),
+                    job.getRunning() + " / " + job.getMaxConcurrent(),
+                    lastRun == null ? "" : formatTime(lastRun.getStarted()),
+                    lastRun == null ? "" : lastRun.getDurationMillis(),
+                    lastRun == null ? "" : lastRun.getOutcome()
+            });
+            if (job.getName().equals(selected)) {
+                jobsTable.setRowSelectionInterval(jobsTableModel.getRowCount() - 1, jobsTableModel.getRowCount() - 1);
+            }
+        }
+        refreshJobHistory();
+    }
+
+    private void refreshJobHistory() {
+        jobHistoryTableModel.setRowCount(0);
+        String selected = selectedJobName();
+        if (selected == null) {
+            return;
+        }
+        for (JobScheduler.Run run : jobScheduler.getHistory(selected)) {
+            jobHistoryTableModel.addRow(new Object[]{
+                    formatTime(run.getStarted()),
+                    run.getDurationMillis(),
+                    run.getOutcome(),
+                    run.getMessage() == null ? "" : run.getMessage()
+            });
+        }
+    }
+
+    private String selectedJobName() {
+        int row = jobsTable.getSelectedRow();
+        return row == -1 ? null : (String) jobsTableModel.getValueAt(row, 0);
+    }
+
+    private static String formatTime(java.time.Instant instant) {
+        return java.time.LocalDateTime.ofInstant(instant, java.time.ZoneId.systemDefault()).withNano(0).toString().replace('T', ' ');
+    }
+
+    private void refreshDashboard() {
+        SalesWindowAggregator.Totals[] totals = {salesWindows.getLastHour(), salesWindows.getLastDay(), salesWindows.getLastWeek()};
+        for (int i = 0; i < totals.length; i++) {
+            dashboardTotalLabels[i][0].setText(totals[i].getRevenue().toString());
+            dashboardTotalLabels[i][1].setText(String.valueOf(totals[i].getUnits()));
+            dashboardTotalLabels[i][2].setText(String.valueOf(totals[i].getSales()));
+        }
+
+        salesPerMinute = salesWindows.getSalesPerMinute();
+        long lastFiveMinutes = 0;
+        for (int i = salesPerMinute.length - 5; i < salesPerMinute.length; i++) {
+            lastFiveMinutes += salesPerMinute[i];
+        }
+        salesRateLabel.setText(String.format("This minute: %d   Last 5 minutes: %.1f/min   Last hour: %.1f/min",
+                salesPerMinute[salesPerMinute.length - 1], lastFiveMinutes / 5.0, totals[0].getSales() / 60.0));
+        salesPerMinuteChart.repaint();
+
+        topMoversTableModel.setRowCount(0);
+        for (SalesWindowAggregator.Mover mover : salesWindows.getTopMovers(TOP_MOVERS)) {
+            long change = mover.getUnits() - mover.getPreviousUnits();
+            topMoversTableModel.addRow(new Object[]{
+                    productIdToNameMap.getOrDefault(mover.getProductId(), "Product " + mover.getProductId()),
+                    mover.getUnits(),
+                    mover.getRevenue().toString(),
+                    mover.getPreviousUnits(),
+                    (change > 0 ? "+" : "") + change
+            });
+        }
+    }
+
     // --- Utility Methods for Clearing Fields and Loading Data ---
 
     /** Clears input fields for the Product tab. */
@@ -352,42 +842,218 @@ public class SalesManagementSystem extends JFrame {
         salesTable.clearSelection();
     }
 
-    /** Loads all product data from the database and populates the products JTable and product combo box. */
+    /** Reloads the current page of the Products table. */
     private void loadProductsData() {
-        productsTableModel.setRowCount(0); // Clear existing data
-        productNameToIdMap.clear();
-        productIdToNameMap.clear();
+        FlightEvents.TableReload reload = FlightEvents.TableReload.begin("products");
+        loadProductsPage();
+        reload.finish(productsTableModel.getRowCount());
+    }
 
-        List<Product> products = dbManager.getAllProducts();
-        Vector<String> productNames = new Vector<>();
-        for (Product product : products) {
+    /** Loads the current page of products matching the filters of the Products tab. */
+    private void loadProductsPage() {
+        QuerySpec spec = productsPager.newSpec();
+        String namePrefix = productNameFilterField.getText().trim();
+        if (!namePrefix.isEmpty()) {
+            spec.where("name", QuerySpec.Op.STARTS_WITH, namePrefix);
+        }
+        String maxStock = productMaxStockFilterField.getText().trim();
+        if (!maxStock.isEmpty()) {
+            try {
+                spec.where("stock", QuerySpec.Op.LE, Integer.parseInt(maxStock));
+            } catch (NumberFormatException ex) {
+                showMessage("Stock filter must be a whole number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+        }
+
+        productsTableModel.setRowCount(0); // Clear existing data
+        productVersions.clear();
+        for (Product product : productsPager.showPage(dbManager.queryProducts(spec))) {
+            productVersions.put(product.getProductId(), product.getVersion());
+            if (demandForecaster == null) {
+                productsTableModel.addRow(new Object[]{
+                        product.getProductId(),
+                        product.getName(),
+                        product.getPrice().toString(),
+                        product.getStock()
+                });
+                continue;
+            }
+            DemandForecaster.Forecast forecast = demandForecaster.forecast(product);
+            LocalDate stockOut = forecast.getStockOutDate();
             productsTableModel.addRow(new Object[]{
                     product.getProductId(),
                     product.getName(),
-                    String.format("%.2f", product.getPrice()),
-                    product.getStock()
+                    product.getPrice().toString(),
+                    product.getStock(),
+                    String.format("%.1f", forecast.getDailyDemand()),
+                    forecast.getReorderPoint(),
+                    (forecast.isLow() ? "LOW, " : "") + (stockOut == null ? "-" : stockOut.toString())
             });
-            productNames.add(product.getName());
-            productNameToIdMap.put(product.getName(), product.getProductId());
-            productIdToNameMap.put(product.getProductId(), product.getName());
         }
-        saleProductComboBox.setModel(new DefaultComboBoxModel<>(productNames));
-        if (!productNames.isEmpty()) {
-            saleProductComboBox.setSelectedIndex(0); // Select first item by default
-        } else {
-            saleProductComboBox.setSelectedIndex(-1); // No selection
+    }
+
+    /** Shows the number of low-stock products after a forecaster run and refreshes the forecast columns. */
+    private void refreshStockWarnings() {
+        List<DemandForecaster.Forecast> warnings = demandForecaster.getWarnings();
+        stockWarningLabel.setText(warnings.isEmpty()
+                ? "No products at or below their reorder point."
+                : warnings.size() + " products at or below their reorder point; first stock-out expected "
+                        + warnings.get(0).getStockOutDate() + " (" + warnings.get(0).getProductName() + ").");
+        stockWarningLabel.setForeground(warnings.isEmpty() ? Color.DARK_GRAY : Color.RED.darker());
+        showStockWarningsButton.setEnabled(!warnings.isEmpty());
+        loadProductsPage();
+    }
+
+    /** Lists the low-stock products, the soonest stock-out first. */
+    private void showStockWarnings() {
+        StringBuilder text = new StringBuilder();
+        for (DemandForecaster.Forecast warning : demandForecaster.getWarnings()) {
+            text.append(String.format("%-30s stock %6d, reorder at %6d, %.1f/day, stock-out %s%n",
+                    warning.getProductName(), warning.getStock(), warning.getReorderPoint(),
+                    warning.getDailyDemand(), warning.getStockOutDate()));
         }
+        showTextDialog("Low Stock", text.toString());
     }
 
-    /** Loads all customer data from the database and populates the customers JTable and customer combo box. */
+    /** Reloads the current page of the Customers table. */
     private void loadCustomersData() {
-        customersTableModel.setRowCount(0); // Clear existing data
-        customerNameToIdMap.clear();
-        customerIdToNameMap.clear();
+        FlightEvents.TableReload reload = FlightEvents.TableReload.begin("customers");
+        loadCustomersPage();
+        reload.finish(customersTableModel.getRowCount());
+    }
 
-        List<Customer> customers = dbManager.getAllCustomers();
-        Vector<String> customerNames = new Vector<>();
+    /** The ID-to-name maps read together with the typeahead indexes. */
+    private record Lookups(IntObjectHashMap<String> productNames, IntObjectHashMap<String> customerNames) {
+    }
+
+    /**
+     * Reads all products and customers and rebuilds the typeahead indexes from them. Runs off the EDT;
+     * a backend with one connection per instance is read through an instance of its own, since the EDT
+     * owns dbManager's.
+     * @return The ID-to-name maps, to be swapped in on the EDT with applyLookups.
+     */
+    private Lookups readLookups() {
+        IDataStore store = DataStoreFactory.usesConnectionPerInstance() ? DataStoreFactory.create() : dbManager;
+        try {
+            List<Product> products = store.getAllProducts();
+            List<Customer> customers = store.getAllCustomers();
+            productSearchIndex.rebuild(productDocuments(products));
+            customerSearchIndex.rebuild(customerDocuments(customers));
+            IntObjectHashMap<String> productNames = new IntObjectHashMap<>(products.size());
+            for (Product product : products) {
+                productNames.put(product.getProductId(), product.getName());
+            }
+            IntObjectHashMap<String> customerNames = new IntObjectHashMap<>(customers.size());
+            for (Customer customer : customers) {
+                customerNames.put(customer.getCustomerId(), customer.getFirstName() + " " + customer.getLastName());
+            }
+            return new Lookups(productNames, customerNames);
+        } finally {
+            if (store != dbManager) {
+                store.closeConnection();
+            }
+        }
+    }
+
+    /**
+     * Swaps in lookups from readLookups and refreshes the orders, whose names come from them.
+     * Like the index rebuild, a row change made in this window while they were read may be missed until the next load.
+     */
+    private void applyLookups(Lookups lookups) {
+        productIdToNameMap = lookups.productNames();
+        customerIdToNameMap = lookups.customerNames();
+        loadOrdersData();
+    }
+
+    /** Loads the lookups on a worker thread, so the window opens without reading every product and customer first. */
+    private void loadLookupsInBackground() {
+        new SwingWorker<Lookups, Void>() {
+            @Override
+            protected Lookups doInBackground() {
+                return readLookups();
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    applyLookups(get());
+                } catch (Exception ex) {
+                    System.err.println("Error loading the product and customer lookups: " + ex.getMessage());
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    /**
+     * Job: reloads the lookups and typeahead indexes from fresh data, so they do not drift from the
+     * database through changes made in other windows.
+     */
+    private void rebuildSearchIndexes(JobScheduler.Context context) throws Exception {
+        Lookups lookups = readLookups();
+        context.checkCancelled();
+        SwingUtilities.invokeLater(() -> applyLookups(lookups));
+    }
+
+    // Applies one added or edited product to the lookups; no reload of all products
+    private void putProductLookup(int productId, String name) {
+        productIdToNameMap.put(productId, name);
+        productSearchIndex.put(productId, SearchIndex.label(productId, name), name);
+    }
+
+    private void removeProductLookup(int productId) {
+        productIdToNameMap.remove(productId);
+        productSearchIndex.remove(productId);
+    }
+
+    // Applies one added or edited customer to the lookups; no reload of all customers
+    private void putCustomerLookup(int customerId, String firstName, String lastName, String email, String phone) {
+        String fullName = firstName + " " + lastName;
+        customerIdToNameMap.put(customerId, fullName);
+        customerSearchIndex.put(customerId, SearchIndex.label(customerId, fullName), fullName, email, phone);
+    }
+
+    private void removeCustomerLookup(int customerId) {
+        customerIdToNameMap.remove(customerId);
+        customerSearchIndex.remove(customerId);
+    }
+
+    private static List<SearchIndex.Document> productDocuments(List<Product> products) {
+        List<SearchIndex.Document> documents = new ArrayList<>(products.size());
+        for (Product product : products) {
+            documents.add(new SearchIndex.Document(product.getProductId(),
+                    SearchIndex.label(product.getProductId(), product.getName()), product.getName()));
+        }
+        return documents;
+    }
+
+    private static List<SearchIndex.Document> customerDocuments(List<Customer> customers) {
+        List<SearchIndex.Document> documents = new ArrayList<>(customers.size());
         for (Customer customer : customers) {
+            String fullName = customer.getFirstName() + " " + customer.getLastName();
+            documents.add(new SearchIndex.Document(customer.getCustomerId(),
+                    SearchIndex.label(customer.getCustomerId(), fullName), fullName, customer.getEmail(), customer.getPhone()));
+        }
+        return documents;
+    }
+
+    /** Loads the current page of customers matching the filters of the Customers tab. */
+    private void loadCustomersPage() {
+        QuerySpec spec = customersPager.newSpec();
+        String lastNamePrefix = customerLastNameFilterField.getText().trim();
+        if (!lastNamePrefix.isEmpty()) {
+            spec.where("lastName", QuerySpec.Op.STARTS_WITH, lastNamePrefix);
+        }
+        String emailPrefix = customerEmailFilterField.getText().trim();
+        if (!emailPrefix.isEmpty()) {
+            spec.where("email", QuerySpec.Op.STARTS_WITH, emailPrefix);
+        }
+
+        customersTableModel.setRowCount(0); // Clear existing data
+        customerVersions.clear();
+        for (Customer customer : customersPager.showPage(dbManager.queryCustomers(spec))) {
+            customerVersions.put(customer.getCustomerId(), customer.getVersion());
             customersTableModel.addRow(new Object[]{
                     customer.getCustomerId(),
                     customer.getFirstName(),
@@ -395,37 +1061,91 @@ public class SalesManagementSystem extends JFrame {
                     customer.getEmail(),
                     customer.getPhone()
             });
-            String fullName = customer.getFirstName() + " " + customer.getLastName();
-            customerNames.add(fullName);
-            customerNameToIdMap.put(fullName, customer.getCustomerId());
-            customerIdToNameMap.put(customer.getCustomerId(), fullName);
-        }
-        saleCustomerComboBox.setModel(new DefaultComboBoxModel<>(customerNames));
-        if (!customerNames.isEmpty()) {
-            saleCustomerComboBox.setSelectedIndex(0); // Select first item by default
-        } else {
-            saleCustomerComboBox.setSelectedIndex(-1); // No selection
         }
     }
 
-    /** Loads all sales data from the database and populates the sales JTable. */
+    /** Loads the current page of sales matching the filters of the Sales tab. */
     private void loadSalesData() {
-        salesTableModel.setRowCount(0); // Clear existing data
-        List<Sale> sales = dbManager.getAllSales();
-        for (Sale sale : sales) {
-            String productName = productIdToNameMap.getOrDefault(sale.getProductId(), "Unknown Product");
-            String customerName = customerIdToNameMap.getOrDefault(sale.getCustomerId(), "Unknown Customer");
+        QuerySpec spec = salesPager.newSpec();
+        String productName = (String) saleProductFilterComboBox.getSelectedItem();
+        if (productName != null && !productName.trim().isEmpty()) {
+            // The ID filter uses the sales index; typed text that is not a picked label is matched on the joined name
+            int productId = productSearchIndex.idOf(productName);
+            if (productId >= 0) {
+                spec.where("productId", QuerySpec.Op.EQ, productId);
+            } else {
+                spec.where("productName", QuerySpec.Op.EQ, productName.trim());
+            }
+        }
+        String customerName = (String) saleCustomerFilterComboBox.getSelectedItem();
+        if (customerName != null && !customerName.trim().isEmpty()) {
+            int customerId = customerSearchIndex.idOf(customerName);
+            if (customerId >= 0) {
+                spec.where("customerId", QuerySpec.Op.EQ, customerId);
+            } else {
+                spec.where("customerName", QuerySpec.Op.EQ, customerName.trim());
+            }
+        }
+        try {
+            String fromDate = saleFromDateFilterField.getText().trim();
+            if (!fromDate.isEmpty()) {
+                spec.where("saleDate", QuerySpec.Op.GE, LocalDate.parse(fromDate));
+            }
+            String toDate = saleToDateFilterField.getText().trim();
+            if (!toDate.isEmpty()) {
+                spec.where("saleDate", QuerySpec.Op.LE, LocalDate.parse(toDate));
+            }
+        } catch (DateTimeParseException ex) {
+            showMessage("Invalid filter date format. Please use YYYY-MM-DD.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
 
+        FlightEvents.TableReload reload = FlightEvents.TableReload.begin("sales");
+        salesTableModel.setRowCount(0); // Clear existing data
+        saleVersions.clear();
+        pageSales.clear();
+        for (SaleView view : salesPager.showPage(dbManager.querySaleViews(spec))) {
+            Sale sale = view.getSale();
+            saleVersions.put(sale.getSaleId(), sale.getVersion());
+            pageSales.put(sale.getSaleId(), sale);
             salesTableModel.addRow(new Object[]{
                     sale.getSaleId(),
-                    productName,
-                    customerName,
+                    view.getProductName() != null ? view.getProductName() : "Unknown Product",
+                    view.getCustomerName() != null ? view.getCustomerName() : "Unknown Customer",
                     sale.getQuantity(),
-                    String.format("%.2f", sale.getUnitPriceAtSale()),
-                    String.format("%.2f", sale.getTotalSalePrice()),
+                    sale.getUnitPriceAtSale().toString(),
+                    sale.getTotalSalePrice().toString(),
                     sale.getSaleDate().toString()
             });
         }
+        reload.finish(salesTableModel.getRowCount());
+    }
+
+    /** Loads all orders from the database and populates the orders JTable. */
+    private void loadOrdersData() {
+        if (ordersTableModel == null) {
+            return; // Backend without order support
+        }
+        FlightEvents.TableReload reload = FlightEvents.TableReload.begin("orders");
+        ordersTableModel.setRowCount(0); // Clear existing data
+        List<Order> orders = ((IOrderDAO) dbManager).getAllOrders();
+        for (Order order : orders) {
+            String customerName = customerIdToNameMap.getOrDefault(order.getCustomerId(), "Unknown Customer");
+            String orderTotal = order.getTotalPrice().toString();
+            for (OrderLine line : order.getLines()) {
+                ordersTableModel.addRow(new Object[]{
+                        order.getOrderId(),
+                        order.getOrderDate().toString(),
+                        customerName,
+                        productIdToNameMap.getOrDefault(line.getProductId(), "Unknown Product"),
+                        line.getQuantity(),
+                        line.getUnitPriceAtSale().toString(),
+                        line.getLineTotal().toString(),
+                        orderTotal
+                });
+            }
+        }
+        reload.finish(ordersTableModel.getRowCount());
     }
 
     // --- Action Methods for Product Tab ---
@@ -436,37 +1156,37 @@ public class SalesManagementSystem extends JFrame {
         String stockStr = productStockField.getText().trim();
 
         if (name.isEmpty() || priceStr.isEmpty() || stockStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "All fields are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("All fields are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         try {
-            double price = Double.parseDouble(priceStr);
+            Money price = Money.parse(priceStr);
             int stock = Integer.parseInt(stockStr);
 
-            if (price <= 0 || stock < 0) {
-                JOptionPane.showMessageDialog(this, "Price must be positive and Stock non-negative.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            if (price.compareTo(Money.ZERO) <= 0 || stock < 0) {
+                showMessage("Price must be positive and Stock non-negative.", "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
             Product product = new Product(name, price, stock);
             if (dbManager.addProduct(product)) {
-                JOptionPane.showMessageDialog(this, "Product added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                showMessage("Product added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                putProductLookup(product.getProductId(), name); // addProduct set the generated ID
                 clearProductFields();
-                loadProductsData(); // Refresh product table and combo boxes
-                loadSalesData(); // Refresh sales table as product names might change
+                loadProductsData(); // Refresh product table
             } else {
-                JOptionPane.showMessageDialog(this, "Failed to add product. Name might already exist.", "Database Error", JOptionPane.ERROR_MESSAGE);
+                showMessage("Failed to add product. Name might already exist.", "Database Error", JOptionPane.ERROR_MESSAGE);
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Price and Stock must be valid numbers.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Price and Stock must be valid numbers (price with at most two decimal places).", "Input Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     private void updateProduct() {
         String idStr = productIdField.getText().trim();
         if (idStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please select a product from the table to update.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            showMessage("Please select a product from the table to update.", "Selection Error", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
@@ -475,60 +1195,169 @@ public class SalesManagementSystem extends JFrame {
         String stockStr = productStockField.getText().trim();
 
         if (name.isEmpty() || priceStr.isEmpty() || stockStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "All fields are required for update.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("All fields are required for update.", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         try {
             int productId = Integer.parseInt(idStr);
-            double price = Double.parseDouble(priceStr);
+            Money price = Money.parse(priceStr);
             int stock = Integer.parseInt(stockStr);
 
-            if (price <= 0 || stock < 0) {
-                JOptionPane.showMessageDialog(this, "Price must be positive and Stock non-negative.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            if (price.compareTo(Money.ZERO) <= 0 || stock < 0) {
+                showMessage("Price must be positive and Stock non-negative.", "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
             Product product = new Product(productId, name, price, stock);
-            if (dbManager.updateProduct(product)) {
-                JOptionPane.showMessageDialog(this, "Product updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                clearProductFields();
-                loadProductsData(); // Refresh product table and combo boxes
-                loadSalesData(); // Refresh sales table as product details might change
-            } else {
-                JOptionPane.showMessageDialog(this, "Failed to update product. Name might already exist or ID not found.", "Database Error", JOptionPane.ERROR_MESSAGE);
+            product.setVersion(productVersions.getOrDefault(productId, 0));
+            UpdateResult result = dbManager.tryUpdateProduct(product);
+            if (result == UpdateResult.CONFLICT) {
+                // Changed since it was loaded (e.g. sales took stock): show what is there now and let the user decide
+                Product current = dbManager.getProductById(productId);
+                if (current == null) {
+                    result = UpdateResult.NOT_FOUND;
+                } else if (confirmOverwrite("product", "Name: " + current.getName() +
+                        "\nPrice: " + current.getPrice().toString() + "\nStock: " + current.getStock())) {
+                    product.setVersion(current.getVersion()); // Retry on top of the current version
+                    result = dbManager.tryUpdateProduct(product);
+                } else {
+                    productVersions.put(productId, current.getVersion());
+                    productNameField.setText(current.getName());
+                    productPriceField.setText(current.getPrice().toString());
+                    productStockField.setText(String.valueOf(current.getStock()));
+                    return;
+                }
+            }
+            switch (result) {
+                case SUCCESS:
+                    showMessage("Product updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    putProductLookup(productId, name);
+                    clearProductFields();
+                    loadProductsData(); // Refresh product table
+                    loadSalesData(); // Refresh sales table as product details might change
+                    break;
+                case CONFLICT:
+                    showMessage("The product was changed again meanwhile. Please check it and try again.", "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                    loadProductsPage();
+                    break;
+                case NOT_FOUND:
+                    showMessage("The product was deleted by someone else.", "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                    removeProductLookup(productId);
+                    clearProductFields();
+                    loadProductsData();
+                    break;
+                default:
+                    showMessage("Failed to update product. Name might already exist.", "Database Error", JOptionPane.ERROR_MESSAGE);
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "ID, Price, and Stock must be valid numbers.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("ID, Price, and Stock must be valid numbers.", "Input Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     private void deleteProduct() {
         String idStr = productIdField.getText().trim();
         if (idStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please select a product from the table to delete.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            showMessage("Please select a product from the table to delete.", "Selection Error", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
         try {
             int productId = Integer.parseInt(idStr);
-            int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete this product? This will fail if there are sales associated with it.", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
+            int confirm = showConfirm("Are you sure you want to delete this product? This will fail if there are sales associated with it.", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
                 if (dbManager.deleteProduct(productId)) {
-                    JOptionPane.showMessageDialog(this, "Product deleted successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    showMessage("Product deleted successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    removeProductLookup(productId);
                     clearProductFields();
-                    loadProductsData(); // Refresh product table and combo boxes
+                    loadProductsData(); // Refresh product table
                     loadSalesData(); // Refresh sales table as product might be gone
                 } else {
-                    JOptionPane.showMessageDialog(this, "Failed to delete product. It might be referenced by existing sales.", "Database Error", JOptionPane.ERROR_MESSAGE);
+                    showMessage("Failed to delete product. It might be referenced by existing sales.", "Database Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Invalid Product ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Invalid Product ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Changes the prices of all products on the current page by a percentage, in one transaction.
+     */
+    private void repricePage() {
+        if (productsTableModel.getRowCount() == 0) {
+            showMessage("There are no products on this page.", "Reprice", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        String input = showInput("Change the prices of the " + productsTableModel.getRowCount() +
+                " products on this page by how many percent (e.g. 5 or -10)?", "Reprice Page");
+        if (input == null || input.trim().isEmpty()) {
+            return;
+        }
+        BigDecimal factor;
+        try {
+            factor = BigDecimal.ONE.add(new BigDecimal(input.trim()).movePointLeft(2));
+        } catch (NumberFormatException ex) {
+            showMessage("The percentage must be a number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (factor.signum() <= 0) {
+            showMessage("Prices cannot drop by 100% or more.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        Map<Integer, Money> prices = new LinkedHashMap<>();
+        for (int row = 0; row < productsTableModel.getRowCount(); row++) {
+            int productId = (Integer) productsTableModel.getValueAt(row, 0);
+            Money price = Money.parse(productsTableModel.getValueAt(row, 2).toString());
+            prices.put(productId, Money.of(price.toDecimal().multiply(factor)));
+        }
+        if (dbManager.updatePrices(prices)) {
+            showMessage("Repriced " + prices.size() + " products.", "Success", JOptionPane.INFORMATION_MESSAGE);
+            loadProductsPage();
+        } else {
+            showMessage("Failed to reprice the products; no price was changed.", "Database Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
+    /** Lists the list price changes of the last 30 days from the price history index. */
+    private void showPriceChanges() {
+        LocalDate today = LocalDate.now();
+        long started = System.nanoTime();
+        PriceHistory history = dbManager.getPriceHistory();
+        List<PriceHistory.PriceChange> changes = history.getChangesBetween(today.minusDays(30), today);
+        long elapsedMillis = (System.nanoTime() - started) / 1_000_000;
+        StringBuilder text = new StringBuilder();
+        text.append(changes.size()).append(" price changes in the last 30 days (").append(history.getProductCount())
+                .append(" products, ").append(elapsedMillis).append(" ms)").append(System.lineSeparator()).append(System.lineSeparator());
+        for (PriceHistory.PriceChange change : changes) {
+            Money oldPrice = change.getOldPrice();
+            String percent = oldPrice == null || oldPrice.cents() == 0 ? "new"
+                    : String.format("%+.1f%%", (change.getNewPrice().cents() - oldPrice.cents()) * 100.0 / oldPrice.cents());
+            text.append(String.format("%s  %-30s %10s -> %10s  %s%n", change.getDate(),
+                    productIdToNameMap.getOrDefault(change.getProductId(), "#" + change.getProductId()),
+                    oldPrice == null ? "-" : oldPrice.toString(), change.getNewPrice(), percent));
+        }
+        showTextDialog("Price Changes", text.toString());
+    }
+
+    // The list price of a product on a sale date typed by the user: the current price for today or
+    // an unreadable date, otherwise the price from the price history, if it goes back that far
+    private Money listPriceOn(Product product, String dateText) {
+        try {
+            LocalDate date = LocalDate.parse(dateText);
+            if (date.isBefore(LocalDate.now())) {
+                Money listPrice = dbManager.getPriceAt(product.getProductId(), date);
+                if (listPrice != null) {
+                    return listPrice;
+                }
+            }
+        } catch (DateTimeParseException ex) {
+            // Not a date yet; use the current price
+        }
+        return product.getPrice();
+    }
+
     // --- Action Methods for Customer Tab ---
 
     private void addCustomer() {
@@ -538,25 +1367,37 @@ public class SalesManagementSystem extends JFrame {
         String phone = customerPhoneField.getText().trim();
 
         if (firstName.isEmpty() || lastName.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "First Name and Last Name are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("First Name and Last Name are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         Customer customer = new Customer(firstName, lastName, email, phone);
+
+        // Warn before creating a probable duplicate
+        List<CustomerMatcher.Match> similar = dbManager.findSimilarCustomers(customer, 1);
+        if (!similar.isEmpty() && similar.get(0).getScore() >= CustomerMatcher.DEFAULT_THRESHOLD) {
+            int confirm = showConfirm(
+                    "This looks like an existing customer:\n" + describeCustomer(similar.get(0).getCustomer()) + "\nAdd anyway?",
+                    "Possible Duplicate", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE);
+            if (confirm != JOptionPane.YES_OPTION) {
+                return;
+            }
+        }
+
         if (dbManager.addCustomer(customer)) {
-            JOptionPane.showMessageDialog(this, "Customer added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            showMessage("Customer added successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+            putCustomerLookup(customer.getCustomerId(), firstName, lastName, email, phone); // addCustomer set the generated ID
             clearCustomerFields();
-            loadCustomersData(); // Refresh customer table and combo boxes
-            loadSalesData(); // Refresh sales table as customer names might change
+            loadCustomersData(); // Refresh customer table
         } else {
-            JOptionPane.showMessageDialog(this, "Failed to add customer. Email might already exist.", "Database Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Failed to add customer. Email might already exist.", "Database Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     private void updateCustomer() {
         String idStr = customerIdField.getText().trim();
         if (idStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please select a customer from the table to update.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            showMessage("Please select a customer from the table to update.", "Selection Error", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
@@ -566,52 +1407,274 @@ public class SalesManagementSystem extends JFrame {
         String phone = customerPhoneField.getText().trim();
 
         if (firstName.isEmpty() || lastName.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "First Name and Last Name are required for update.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("First Name and Last Name are required for update.", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         try {
             int customerId = Integer.parseInt(idStr);
             Customer customer = new Customer(customerId, firstName, lastName, email, phone);
-            if (dbManager.updateCustomer(customer)) {
-                JOptionPane.showMessageDialog(this, "Customer updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
-                clearCustomerFields();
-                loadCustomersData(); // Refresh customer table and combo boxes
-                loadSalesData(); // Refresh sales table as customer names might change
-            } else {
-                JOptionPane.showMessageDialog(this, "Failed to update customer. Email might already exist or ID not found.", "Database Error", JOptionPane.ERROR_MESSAGE);
+            customer.setVersion(customerVersions.getOrDefault(customerId, 0));
+            UpdateResult result = dbManager.tryUpdateCustomer(customer);
+            if (result == UpdateResult.CONFLICT) {
+                Customer current = dbManager.getCustomerById(customerId);
+                if (current == null) {
+                    result = UpdateResult.NOT_FOUND;
+                } else if (confirmOverwrite("customer", describeCustomer(current))) {
+                    customer.setVersion(current.getVersion()); // Retry on top of the current version
+                    result = dbManager.tryUpdateCustomer(customer);
+                } else {
+                    customerVersions.put(customerId, current.getVersion());
+                    customerFirstNameField.setText(current.getFirstName());
+                    customerLastNameField.setText(current.getLastName());
+                    customerEmailField.setText(current.getEmail());
+                    customerPhoneField.setText(current.getPhone());
+                    return;
+                }
+            }
+            switch (result) {
+                case SUCCESS:
+                    showMessage("Customer updated successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    putCustomerLookup(customerId, firstName, lastName, email, phone);
+                    clearCustomerFields();
+                    loadCustomersData(); // Refresh customer table
+                    loadSalesData(); // Refresh sales table as customer names might change
+                    break;
+                case CONFLICT:
+                    showMessage("The customer was changed again meanwhile. Please check them and try again.", "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                    loadCustomersPage();
+                    break;
+                case NOT_FOUND:
+                    showMessage("The customer was deleted by someone else.", "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                    removeCustomerLookup(customerId);
+                    clearCustomerFields();
+                    loadCustomersData();
+                    break;
+                default:
+                    showMessage("Failed to update customer. Email might already exist.", "Database Error", JOptionPane.ERROR_MESSAGE);
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Invalid Customer ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Invalid Customer ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
         }
     }
 
     private void deleteCustomer() {
         String idStr = customerIdField.getText().trim();
         if (idStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please select a customer from the table to delete.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            showMessage("Please select a customer from the table to delete.", "Selection Error", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
         try {
             int customerId = Integer.parseInt(idStr);
-            int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete this customer? This will fail if there are sales associated with them.", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
+            int confirm = showConfirm("Are you sure you want to delete this customer? This will fail if there are sales associated with them.", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
                 if (dbManager.deleteCustomer(customerId)) {
-                    JOptionPane.showMessageDialog(this, "Customer deleted successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    showMessage("Customer deleted successfully!", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    removeCustomerLookup(customerId);
                     clearCustomerFields();
-                    loadCustomersData(); // Refresh customer table and combo boxes
+                    loadCustomersData(); // Refresh customer table
                     loadSalesData(); // Refresh sales table as customer might be gone
                 } else {
-                    JOptionPane.showMessageDialog(this, "Failed to delete customer. They might be referenced by existing sales.", "Database Error", JOptionPane.ERROR_MESSAGE);
+                    showMessage("Failed to delete customer. They might be referenced by existing sales.", "Database Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Invalid Customer ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Invalid Customer ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void findSimilarCustomers() {
+        String firstName = customerFirstNameField.getText().trim();
+        String lastName = customerLastNameField.getText().trim();
+        String email = customerEmailField.getText().trim();
+        String phone = customerPhoneField.getText().trim();
+
+        if (firstName.isEmpty() && lastName.isEmpty() && email.isEmpty() && phone.isEmpty()) {
+            showMessage("Enter a name, email or phone to search for.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        List<CustomerMatcher.Match> matches = dbManager.findSimilarCustomers(new Customer(firstName, lastName, email, phone), 20);
+        if (matches.isEmpty()) {
+            showMessage("No similar customers found.", "Find Similar", JOptionPane.INFORMATION_MESSAGE);
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        for (CustomerMatcher.Match match : matches) {
+            text.append(String.format("%3.0f%%  ", match.getScore() * 100)).append(describeCustomer(match.getCustomer())).append('\n');
+        }
+        showTextDialog("Similar Customers", text.toString());
+    }
+
+    /**
+     * Runs duplicate detection over all customers on a worker thread and lists the groups found.
+     * The customers are read here on the EDT, which owns dbManager; the worker only compares them.
+     */
+    private void findDuplicateCustomers() {
+        List<Customer> customers = dbManager.getAllCustomers();
+        findDuplicateCustomersButton.setEnabled(false);
+        setCursor(Cursor.getPredefinedCursor(Cursor.WAIT_CURSOR));
+        new SwingWorker<List<List<Customer>>, Void>() {
+            private long elapsedMillis;
+
+            @Override
+            protected List<List<Customer>> doInBackground() {
+                long start = System.currentTimeMillis();
+                List<List<Customer>> groups = new DuplicateCustomerDetector().findDuplicates(customers);
+                elapsedMillis = System.currentTimeMillis() - start;
+                return groups;
+            }
+
+            @Override
+            protected void done() {
+                findDuplicateCustomersButton.setEnabled(true);
+                setCursor(Cursor.getDefaultCursor());
+                try {
+                    List<List<Customer>> groups = get();
+                    if (groups.isEmpty()) {
+                        showMessage("No duplicate customers found.", "Find Duplicates", JOptionPane.INFORMATION_MESSAGE);
+                        return;
+                    }
+                    StringBuilder text = new StringBuilder(groups.size() + " group(s) of probable duplicates found in " + elapsedMillis + " ms.\n\n");
+                    for (List<Customer> group : groups) {
+                        for (Customer customer : group) {
+                            text.append(describeCustomer(customer)).append('\n');
+                        }
+                        text.append('\n');
+                    }
+                    showTextDialog("Duplicate Customers", text.toString());
+                } catch (Exception ex) {
+                    showMessage("Duplicate detection failed: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+                    ex.printStackTrace();
+                }
+            }
+        }.execute();
+    }
+
+    private static String describeCustomer(Customer customer) {
+        return "#" + customer.getCustomerId() + " " + customer.getFirstName() + " " + customer.getLastName() +
+                (customer.getEmail() == null || customer.getEmail().isEmpty() ? "" : ", " + customer.getEmail()) +
+                (customer.getPhone() == null || customer.getPhone().isEmpty() ? "" : ", " + customer.getPhone());
+    }
+
+    /**
+     * Tells the user that a record was changed by someone else since it was loaded.
+     * @param what What was changed, e.g. "product".
+     * @param currentValues The values now in the database, one per line.
+     * @return true to save the user's values over the current ones; false to load the current values into the form.
+     */
+    @SuppressWarnings("try")
+    private boolean confirmOverwrite(String what, String currentValues) {
+        Object[] options = {"Save My Changes", "Load Current Values"};
+        try (Tracer.Span span = Tracer.startSpan(Tracer.DIALOG_SPAN)) {
+            int choice = JOptionPane.showOptionDialog(this,
+                    "This " + what + " was changed by someone else since you loaded it. It now has:\n\n" + currentValues +
+                            "\n\nSave your changes over it, or load the current values to review them?",
+                    "Update Conflict", JOptionPane.YES_NO_OPTION, JOptionPane.WARNING_MESSAGE, null, options, options[1]);
+            return choice == 0;
+        }
+    }
+
+    // Dialogs shown during a traced action are recorded as dialog spans, so the time the user
+    // spends reading them is not counted as work in the status bar
+    @SuppressWarnings("try")
+    private void showMessage(Object message, String title, int messageType) {
+        try (Tracer.Span span = Tracer.startSpan(Tracer.DIALOG_SPAN)) {
+            JOptionPane.showMessageDialog(this, message, title, messageType);
+        }
+    }
+
+    @SuppressWarnings("try")
+    private String showInput(Object message, String title) {
+        try (Tracer.Span span = Tracer.startSpan(Tracer.DIALOG_SPAN)) {
+            return JOptionPane.showInputDialog(this, message, title, JOptionPane.QUESTION_MESSAGE);
+        }
+    }
+
+    private int showConfirm(Object message, String title, int optionType) {
+        return showConfirm(message, title, optionType, JOptionPane.QUESTION_MESSAGE);
+    }
+
+    @SuppressWarnings("try")
+    private int showConfirm(Object message, String title, int optionType, int messageType) {
+        try (Tracer.Span span = Tracer.startSpan(Tracer.DIALOG_SPAN)) {
+            return JOptionPane.showConfirmDialog(this, message, title, optionType, messageType);
         }
     }
 
+    /**
+     * Wraps a button action in a trace named after the action; the status bar shows its timing breakdown.
+     */
+    @SuppressWarnings("try")
+    private java.awt.event.ActionListener traced(String actionName, Runnable action) {
+        return e -> {
+            try (Tracer.Span span = Tracer.startTrace(actionName)) {
+                action.run();
+            }
+        };
+    }
+
+    /**
+     * Creates the status bar with the timing of the last action and buttons to inspect or save traces.
+     */
+    private JPanel createStatusBar() {
+        JPanel statusBar = new JPanel(new BorderLayout(10, 0));
+        statusBar.setBorder(BorderFactory.createEmptyBorder(2, 10, 4, 10));
+        JLabel lastActionLabel = new JLabel(Tracer.isEnabled() ? "Ready" : "Tracing is off (-Dsales.tracing=false)");
+        JButton detailsButton = new JButton("Details");
+        JButton saveTracesButton = new JButton("Save Traces");
+        detailsButton.setEnabled(false);
+        saveTracesButton.setEnabled(Tracer.isEnabled());
+
+        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 5, 0));
+        buttonPanel.add(detailsButton);
+        buttonPanel.add(saveTracesButton);
+        if (databaseStore != null && DatabaseManager.getSlowQueryLog() != null) {
+            JButton slowQueriesButton = new JButton("Slow Queries");
+            slowQueriesButton.addActionListener(e -> showTextDialog("Slow Queries", DatabaseManager.getSlowQueryLog().report()));
+            buttonPanel.add(slowQueriesButton);
+        }
+        statusBar.add(lastActionLabel, BorderLayout.CENTER);
+        statusBar.add(buttonPanel, BorderLayout.EAST);
+
+        Tracer.addListener(trace -> SwingUtilities.invokeLater(() -> {
+            lastActionLabel.setText(trace.summary());
+            detailsButton.setEnabled(true);
+        }));
+        detailsButton.addActionListener(e -> {
+            List<Tracer.Span> traces = Tracer.recentTraces();
+            if (!traces.isEmpty()) {
+                showTextDialog("Last Action", traces.get(0).format());
+            }
+        });
+        saveTracesButton.addActionListener(e -> saveTraces());
+        return statusBar;
+    }
+
+    /**
+     * Writes the recent traces to traces-<timestamp>.txt in -Dsales.traceDir (default: working directory).
+     */
+    private void saveTraces() {
+        String timestamp = java.time.LocalDateTime.now().format(java.time.format.DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss"));
+        java.nio.file.Path file = java.nio.file.Paths.get(System.getProperty("sales.traceDir", "."), "traces-" + timestamp + ".txt");
+        try {
+            int count = Tracer.dump(file);
+            showMessage("Saved " + count + " traces to " + file.toAbsolutePath() + ".", "Save Traces", JOptionPane.INFORMATION_MESSAGE);
+        } catch (java.io.IOException ex) {
+            System.err.println("Error saving traces: " + ex.getMessage());
+            showMessage("Failed to save traces: " + ex.getMessage(), "Save Traces", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void showTextDialog(String title, String text) {
+        JTextArea textArea = new JTextArea(text, 20, 60);
+        textArea.setEditable(false);
+        textArea.setCaretPosition(0);
+        showMessage(new JScrollPane(textArea), title, JOptionPane.INFORMATION_MESSAGE);
+    }
+
     // --- Action Methods for Sale Tab ---
 
     private void addSale() {
@@ -622,46 +1685,162 @@ public class SalesManagementSystem extends JFrame {
         String saleDateStr = saleDate.getText().trim();
 
         if (selectedProductName == null || selectedCustomerName == null || quantityStr.isEmpty() || saleDateStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Product, Customer, Quantity, and Sale Date are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Product, Customer, Quantity, and Sale Date are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int productId = productSearchIndex.idOf(selectedProductName);
+        int customerId = customerSearchIndex.idOf(selectedCustomerName);
+        if (productId < 0 || customerId < 0) {
+            showMessage("Please pick the product and customer from the suggestions.", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         try {
-            int productId = productNameToIdMap.get(selectedProductName);
-            int customerId = customerNameToIdMap.get(selectedCustomerName);
             int quantity = Integer.parseInt(quantityStr);
-            double unitPriceAtSale = Double.parseDouble(unitPriceStr); // Use the auto-filled price
+            Money unitPriceAtSale = Money.parse(unitPriceStr); // Use the auto-filled price
             LocalDate date = LocalDate.parse(saleDateStr);
 
             if (quantity <= 0) {
-                JOptionPane.showMessageDialog(this, "Quantity must be a positive number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                showMessage("Quantity must be a positive number.", "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
             Sale sale = new Sale(productId, customerId, quantity, unitPriceAtSale, date);
 
             if (dbManager.addSale(sale)) {
-                JOptionPane.showMessageDialog(this, "Sale added successfully! Product stock updated.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                long pendingOffline = databaseStore != null ? databaseStore.getPendingOfflineSaleCount() : 0;
+                if (pendingOffline > 0) {
+                    // Taken offline: stock is checked again when the journal is synced
+                    showMessage("Database unavailable: sale saved to the offline journal (" + pendingOffline +
+                            " pending). It will be synced automatically when the connection is back.", "Saved Offline", JOptionPane.WARNING_MESSAGE);
+                } else {
+                    showMessage("Sale added successfully! Product stock updated.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                }
                 clearSaleFields();
                 loadSalesData(); // Refresh sales table
-                loadProductsData(); // Refresh product table (stock changed)
+                loadProductsPage(); // Refresh product table (stock changed)
             } else {
-                JOptionPane.showMessageDialog(this, "Failed to add sale. Check stock or database connection.", "Database Error", JOptionPane.ERROR_MESSAGE);
+                showMessage("Failed to add sale. Check stock or database connection.", "Database Error", JOptionPane.ERROR_MESSAGE);
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Quantity must be a valid number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Quantity and Unit Price must be valid numbers (price with at most two decimal places).", "Input Error", JOptionPane.ERROR_MESSAGE);
         } catch (DateTimeParseException ex) {
-            JOptionPane.showMessageDialog(this, "Invalid Sale Date format. Please use YYYY-MM-DD.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Invalid Sale Date format. Please use YYYY-MM-DD.", "Input Error", JOptionPane.ERROR_MESSAGE);
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "An unexpected error occurred: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("An unexpected error occurred: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             ex.printStackTrace();
         }
     }
 
+    // --- Action Methods for the Basket ---
+
+    private void addToBasket() {
+        String selectedProductName = (String) saleProductComboBox.getSelectedItem();
+        String quantityStr = saleQuantityField.getText().trim();
+        String unitPriceStr = saleUnitPriceField.getText().trim();
+
+        if (selectedProductName == null || quantityStr.isEmpty() || unitPriceStr.isEmpty()) {
+            showMessage("Product and Quantity are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int productId = productSearchIndex.idOf(selectedProductName);
+        if (productId < 0) {
+            showMessage("Please pick the product from the suggestions.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        try {
+            int quantity = Integer.parseInt(quantityStr);
+            Money unitPriceAtSale = Money.parse(unitPriceStr);
+
+            if (quantity <= 0) {
+                showMessage("Quantity must be a positive number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                return;
+            }
+
+            OrderLine line = new OrderLine(productId, quantity, unitPriceAtSale);
+            basketLines.add(line);
+            basketTableModel.addRow(new Object[]{
+                    selectedProductName,
+                    quantity,
+                    unitPriceAtSale.toString(),
+                    line.getLineTotal().toString()
+            });
+            updateBasketTotal();
+            saleQuantityField.setText("");
+        } catch (NumberFormatException ex) {
+            showMessage("Quantity and Unit Price must be valid numbers (price with at most two decimal places).", "Input Error", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    private void removeFromBasket() {
+        int selectedRow = basketTable.getSelectedRow();
+        if (selectedRow == -1) {
+            showMessage("Please select a basket item to remove.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            return;
+        }
+        basketLines.remove(selectedRow);
+        basketTableModel.removeRow(selectedRow);
+        updateBasketTotal();
+    }
+
+    private void placeOrder() {
+        String selectedCustomerName = (String) saleCustomerComboBox.getSelectedItem();
+        String saleDateStr = saleDate.getText().trim();
+
+        if (basketLines.isEmpty()) {
+            showMessage("The basket is empty.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        if (selectedCustomerName == null || saleDateStr.isEmpty()) {
+            showMessage("Customer and Sale Date are required.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int customerId = customerSearchIndex.idOf(selectedCustomerName);
+        if (customerId < 0) {
+            showMessage("Please pick the customer from the suggestions.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+
+        try {
+            LocalDate date = LocalDate.parse(saleDateStr);
+
+            Order order = new Order(customerId, date);
+            for (OrderLine line : basketLines) {
+                order.addLine(line);
+            }
+
+            if (((IOrderDAO) dbManager).placeOrder(order)) {
+                showMessage("Order " + order.getOrderId() + " placed successfully! Total: " +
+                        order.getTotalPrice().toString(), "Success", JOptionPane.INFORMATION_MESSAGE);
+                basketLines = new ArrayList<>();
+                basketTableModel.setRowCount(0);
+                updateBasketTotal();
+                loadProductsPage(); // Refresh product table (stock changed), once for the whole basket
+                loadOrdersData();
+            } else {
+                showMessage("Failed to place order. Check stock or database connection.", "Database Error", JOptionPane.ERROR_MESSAGE);
+            }
+        } catch (DateTimeParseException ex) {
+            showMessage("Invalid Sale Date format. Please use YYYY-MM-DD.", "Input Error", JOptionPane.ERROR_MESSAGE);
+        } catch (Exception ex) {
+            showMessage("An unexpected error occurred: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            ex.printStackTrace();
+        }
+    }
+
+    private void updateBasketTotal() {
+        long totalCents = 0;
+        for (OrderLine line : basketLines) {
+            totalCents += line.getLineTotal().cents();
+        }
+        basketTotalLabel.setText("Total: " + Money.format(totalCents));
+    }
+
     private void updateSale() {
         String idStr = saleIdField.getText().trim();
         if (idStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please select a sale from the table to update.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            showMessage("Please select a sale from the table to update.", "Selection Error", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
@@ -672,39 +1851,76 @@ public class SalesManagementSystem extends JFrame {
         String saleDateStr = saleDate.getText().trim();
 
         if (selectedProductName == null || selectedCustomerName == null || quantityStr.isEmpty() || saleDateStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "All sale fields are required for update.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("All sale fields are required for update.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            return;
+        }
+        int productId = productSearchIndex.idOf(selectedProductName);
+        int customerId = customerSearchIndex.idOf(selectedCustomerName);
+        if (productId < 0 || customerId < 0) {
+            showMessage("Please pick the product and customer from the suggestions.", "Input Error", JOptionPane.ERROR_MESSAGE);
             return;
         }
 
         try {
             int saleId = Integer.parseInt(idStr);
-            int productId = productNameToIdMap.get(selectedProductName);
-            int customerId = customerNameToIdMap.get(selectedCustomerName);
             int quantity = Integer.parseInt(quantityStr);
-            double unitPriceAtSale = Double.parseDouble(unitPriceStr);
+            Money unitPriceAtSale = Money.parse(unitPriceStr);
             LocalDate date = LocalDate.parse(saleDateStr);
 
             if (quantity <= 0) {
-                JOptionPane.showMessageDialog(this, "Quantity must be a positive number.", "Input Error", JOptionPane.ERROR_MESSAGE);
+                showMessage("Quantity must be a positive number.", "Input Error", JOptionPane.ERROR_MESSAGE);
                 return;
             }
 
-            Sale sale = new Sale(saleId, productId, customerId, quantity, unitPriceAtSale, unitPriceAtSale * quantity, date);
-
-            if (dbManager.updateSale(sale)) {
-                JOptionPane.showMessageDialog(this, "Sale updated successfully! Product stock adjusted.", "Success", JOptionPane.INFORMATION_MESSAGE);
-                clearSaleFields();
-                loadSalesData(); // Refresh sales table
-                loadProductsData(); // Refresh product table (stock changed)
-            } else {
-                JOptionPane.showMessageDialog(this, "Failed to update sale. Check stock, ID, or database connection.", "Database Error", JOptionPane.ERROR_MESSAGE);
+            Sale sale = new Sale(saleId, productId, customerId, quantity, unitPriceAtSale, unitPriceAtSale.times(quantity), date);
+            sale.setVersion(saleVersions.getOrDefault(saleId, 0));
+            UpdateResult result = dbManager.tryUpdateSale(sale);
+            if (result == UpdateResult.CONFLICT) {
+                Sale current = dbManager.getSaleById(saleId);
+                if (current == null) {
+                    result = UpdateResult.NOT_FOUND;
+                } else if (confirmOverwrite("sale", "Product: " + productIdToNameMap.getOrDefault(current.getProductId(), "Unknown Product") +
+                        "\nCustomer: " + customerIdToNameMap.getOrDefault(current.getCustomerId(), "Unknown Customer") +
+                        "\nQuantity: " + current.getQuantity() + "\nSale Date: " + current.getSaleDate())) {
+                    sale.setVersion(current.getVersion()); // Retry on top of the current version
+                    result = dbManager.tryUpdateSale(sale);
+                } else {
+                    saleVersions.put(saleId, current.getVersion());
+                    saleProductComboBox.setSelectedItem(SearchIndex.label(current.getProductId(),
+                            productIdToNameMap.getOrDefault(current.getProductId(), "Unknown Product")));
+                    saleCustomerComboBox.setSelectedItem(SearchIndex.label(current.getCustomerId(),
+                            customerIdToNameMap.getOrDefault(current.getCustomerId(), "Unknown Customer")));
+                    saleQuantityField.setText(String.valueOf(current.getQuantity()));
+                    saleUnitPriceField.setText(current.getUnitPriceAtSale().toString());
+                    saleDate.setText(current.getSaleDate().toString());
+                    return;
+                }
+            }
+            switch (result) {
+                case SUCCESS:
+                    showMessage("Sale updated successfully! Product stock adjusted.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    clearSaleFields();
+                    loadSalesData(); // Refresh sales table
+                    loadProductsPage(); // Refresh product table (stock changed)
+                    break;
+                case CONFLICT:
+                    showMessage("The sale was changed again meanwhile. Please check it and try again.", "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                    loadSalesData();
+                    break;
+                case NOT_FOUND:
+                    showMessage("The sale was deleted by someone else.", "Update Conflict", JOptionPane.WARNING_MESSAGE);
+                    clearSaleFields();
+                    loadSalesData();
+                    break;
+                default:
+                    showMessage("Failed to update sale. Check stock, whether it is archived, or the database connection.", "Database Error", JOptionPane.ERROR_MESSAGE);
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "ID and Quantity must be valid numbers.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("ID, Quantity and Unit Price must be valid numbers (price with at most two decimal places).", "Input Error", JOptionPane.ERROR_MESSAGE);
         } catch (DateTimeParseException ex) {
-            JOptionPane.showMessageDialog(this, "Invalid Sale Date format. Please use YYYY-MM-DD.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Invalid Sale Date format. Please use YYYY-MM-DD.", "Input Error", JOptionPane.ERROR_MESSAGE);
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "An unexpected error occurred: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("An unexpected error occurred: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             ex.printStackTrace();
         }
     }
@@ -712,28 +1928,28 @@ public class SalesManagementSystem extends JFrame {
     private void deleteSale() {
         String idStr = saleIdField.getText().trim();
         if (idStr.isEmpty()) {
-            JOptionPane.showMessageDialog(this, "Please select a sale from the table to delete.", "Selection Error", JOptionPane.WARNING_MESSAGE);
+            showMessage("Please select a sale from the table to delete.", "Selection Error", JOptionPane.WARNING_MESSAGE);
             return;
         }
 
         try {
             int saleId = Integer.parseInt(idStr);
-            int confirm = JOptionPane.showConfirmDialog(this, "Are you sure you want to delete this sale? Product stock will be returned.", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
+            int confirm = showConfirm("Are you sure you want to delete this sale? Product stock will be returned.", "Confirm Deletion", JOptionPane.YES_NO_OPTION);
 
             if (confirm == JOptionPane.YES_OPTION) {
                 if (dbManager.deleteSale(saleId)) {
-                    JOptionPane.showMessageDialog(this, "Sale deleted successfully! Product stock returned.", "Success", JOptionPane.INFORMATION_MESSAGE);
+                    showMessage("Sale deleted successfully! Product stock returned.", "Success", JOptionPane.INFORMATION_MESSAGE);
                     clearSaleFields();
                     loadSalesData(); // Refresh sales table
-                    loadProductsData(); // Refresh product table (stock changed)
+                    loadProductsPage(); // Refresh product table (stock changed)
                 } else {
-                    JOptionPane.showMessageDialog(this, "Failed to delete sale. Check if ID exists.", "Database Error", JOptionPane.ERROR_MESSAGE);
+                    showMessage("Failed to delete sale. Check if ID exists.", "Database Error", JOptionPane.ERROR_MESSAGE);
                 }
             }
         } catch (NumberFormatException ex) {
-            JOptionPane.showMessageDialog(this, "Invalid Sale ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("Invalid Sale ID.", "Input Error", JOptionPane.ERROR_MESSAGE);
         } catch (Exception ex) {
-            JOptionPane.showMessageDialog(this, "An unexpected error occurred during deletion: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
+            showMessage("An unexpected error occurred during deletion: " + ex.getMessage(), "Error", JOptionPane.ERROR_MESSAGE);
             ex.printStackTrace();
         }
     }
@@ -749,7 +1965,13 @@ public class SalesManagementSystem extends JFrame {
         SwingUtilities.invokeLater(new Runnable() {
             @Override
             public void run() {
-                new SalesManagementSystem();
+                try {
+                    new SalesManagementSystem();
+                } catch (IllegalStateException ex) {
+                    JOptionPane.showMessageDialog(null, ex.getMessage(), "Startup Error", JOptionPane.ERROR_MESSAGE);
+                    ex.printStackTrace();
+                    System.exit(1);
+                }
             }
         });
     }
@@ -0,0 +1,312 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.LongSupplier;
+
+/**
+ * Live sales figures for the last hour, 24 hours and 7 days, kept as sliding-window aggregates
+ * that are updated by each sale instead of being queried from the database.
+ *
+ * Sales are counted when they are booked through a data store wrapped with DaoProxies.saleChanges
+ * and this aggregator as the listener: addSale and submitSale (unless a duplicate) add the sale at
+ * the current time; an edit books the difference and a delete books the sale negated, both at the
+ * time of the change, like reversals in a ledger. So the windows show the net sales booked by this process during the window; a fresh
+ * process starts at zero.
+ *
+ * Storage is two ring arrays of time buckets: 60 one-minute buckets and 168 one-hour buckets.
+ * Each window keeps a running total; when the clock moves past a bucket, its contents are
+ * subtracted from the windows it leaves and the slot is reused. Booking a sale and reading the
+ * figures are O(1) apart from the top movers, whose per-product totals are kept per hour for the
+ * last 48 hours. All methods are synchronized; each holds the lock for microseconds.
+ */
+public class SalesWindowAggregator implements SaleChangeListener {
+
+    private static final long MINUTE_MILLIS = 60_000L;
+    private static final long HOUR_MILLIS = 60 * MINUTE_MILLIS;
+    private static final int MINUTES = 60; // Minute ring: the last hour
+    private static final int HOURS = 7 * 24; // Hour ring: the last week
+    private static final int DAY_HOURS = 24;
+    private static final int MOVER_HOURS = 2 * DAY_HOURS; // Per-product totals: this day and the one before
+
+    /** Revenue, units and number of sales of one window. */
+    public static final class Totals {
+        private final long revenueCents;
+        private final long units;
+        private final long sales;
+
+        Totals(long revenueCents, long units, long sales) {
+            this.revenueCents = revenueCents;
+            this.units = units;
+            this.sales = sales;
+        }
+
+        public Money getRevenue() {
+            return Money.ofCents(revenueCents);
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public long getSales() {
+            return sales;
+        }
+    }
+
+    /** A product's units in the last 24 hours compared with the 24 hours before. */
+    public static final class Mover {
+        private final int productId;
+        private final long units;
+        private final long revenueCents;
+        private final long previousUnits;
+
+        Mover(int productId, long units, long revenueCents, long previousUnits) {
+            this.productId = productId;
+            this.units = units;
+            this.revenueCents = revenueCents;
+            this.previousUnits = previousUnits;
+        }
+
+        public int getProductId() {
+            return productId;
+        }
+
+        public long getUnits() {
+            return units;
+        }
+
+        public Money getRevenue() {
+            return Money.ofCents(revenueCents);
+        }
+
+        public long getPreviousUnits() {
+            return previousUnits;
+        }
+    }
+
+    private final LongSupplier clock;
+
+    // Minute ring; slot = minute % MINUTES
+    private final long[] minuteRevenue = new long[MINUTES];
+    private final long[] minuteUnits = new long[MINUTES];
+    private final long[] minuteSales = new long[MINUTES];
+    private long currentMinute;
+
+    // Hour ring; slot = hour % HOURS. Product totals only for the last MOVER_HOURS hours
+    private final long[] hourRevenue = new long[HOURS];
+    private final long[] hourUnits = new long[HOURS];
+    private final long[] hourSales = new long[HOURS];
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private final IntObjectHashMap<long[]>[] hourProducts = new IntObjectHashMap[HOURS]; // productId -> {units, revenueCents}
+    private long currentHour;
+
+    // Running window totals: {revenueCents, units, sales}
+    private final long[] lastHour = new long[3];
+    private final long[] lastDay = new long[3];
+    private final long[] lastWeek = new long[3];
+    private final IntObjectHashMap<long[]> dayProducts = new IntObjectHashMap<>(); // productId -> {units, revenueCents}
+    private final IntObjectHashMap<long[]> previousDayProducts = new IntObjectHashMap<>();
+
+    public SalesWindowAggregator() {
+        this(System::currentTimeMillis);
+    }
+
+    /**
+     * @param clock Supplies the current time in epoch milliseconds.
+     */
+    public SalesWindowAggregator(LongSupplier clock) {
+        this.clock = clock;
+        long now = clock.getAsLong();
+        this.currentMinute = now / MINUTE_MILLIS;
+        this.currentHour = now / HOUR_MILLIS;
+    }
+
+    @Override
+    public void saleAdded(Sale sale) {
+        add(sale, 1);
+    }
+
+    @Override
+    public void saleUpdated(Sale before, Sale after) {
+        if (before != null) {
+            add(before, -1);
+        }
+        add(after, 1);
+    }
+
+    @Override
+    public void saleDeleted(Sale before) {
+        add(before, -1);
+    }
+
+    /**
+     * Books a sale at the current time.
+     * @param sign 1 to add the sale, -1 to take it back.
+     */
+    public synchronized void add(Sale sale, int sign) {
+        advance(clock.getAsLong());
+        long revenue = sign * sale.getTotalSalePrice().cents();
+        long units = (long) sign * sale.getQuantity();
+        int minuteSlot = (int) (currentMinute % MINUTES);
+        minuteRevenue[minuteSlot] += revenue;
+        minuteUnits[minuteSlot] += units;
+        minuteSales[minuteSlot] += sign;
+        int hourSlot = (int) (currentHour % HOURS);
+        hourRevenue[hourSlot] += revenue;
+        hourUnits[hourSlot] += units;
+        hourSales[hourSlot] += sign;
+        addTo(lastHour, revenue, units, sign);
+        addTo(lastDay, revenue, units, sign);
+        addTo(lastWeek, revenue, units, sign);
+
+        if (hourProducts[hourSlot] == null) {
+            hourProducts[hourSlot] = new IntObjectHashMap<>();
+        }
+        addProduct(hourProducts[hourSlot], sale.getProductId(), units, revenue);
+        addProduct(dayProducts, sale.getProductId(), units, revenue);
+    }
+
+    public synchronized Totals getLastHour() {
+        advance(clock.getAsLong());
+        return totals(lastHour);
+    }
+
+    public synchronized Totals getLastDay() {
+        advance(clock.getAsLong());
+        return totals(lastDay);
+    }
+
+    public synchronized Totals getLastWeek() {
+        advance(clock.getAsLong());
+        return totals(lastWeek);
+    }
+
+    /**
+     * @return Sales per minute for the last 60 minutes, oldest first; the last element is the current, partial minute.
+     */
+    public synchronized long[] getSalesPerMinute() {
+        advance(clock.getAsLong());
+        long[] perMinute = new long[MINUTES];
+        for (int i = 0; i < MINUTES; i++) {
+            perMinute[i] = minuteSales[(int) ((currentMinute - MINUTES + 1 + i) % MINUTES)];
+        }
+        return perMinute;
+    }
+
+    /**
+     * @param limit Maximum number of products.
+     * @return The products with the most units in the last 24 hours, most first.
+     */
+    public synchronized List<Mover> getTopMovers(int limit) {
+        advance(clock.getAsLong());
+        List<Mover> movers = new ArrayList<>();
+        dayProducts.forEachKey(productId -> {
+            long[] totals = dayProducts.get(productId);
+            long[] previous = previousDayProducts.get(productId);
+            movers.add(new Mover(productId, totals[0], totals[1], previous == null ? 0 : previous[0]));
+        });
+        movers.sort((a, b) -> Long.compare(b.units, a.units));
+        return movers.size() > limit ? new ArrayList<>(movers.subList(0, limit)) : movers;
+    }
+
+    // --- Window Maintenance ---
+
+    // Moves the rings forward to the given time, retiring the buckets that fall out of each window
+    private void advance(long nowMillis) {
+        long minute = nowMillis / MINUTE_MILLIS;
+        if (minute > currentMinute) {
+            if (minute - currentMinute >= MINUTES) {
+                Arrays.fill(minuteRevenue, 0);
+                Arrays.fill(minuteUnits, 0);
+                Arrays.fill(minuteSales, 0);
+                Arrays.fill(lastHour, 0);
+            } else {
+                for (long m = currentMinute + 1; m <= minute; m++) {
+                    int slot = (int) (m % MINUTES); // Still holds minute m - 60
+                    addTo(lastHour, -minuteRevenue[slot], -minuteUnits[slot], -minuteSales[slot]);
+                    minuteRevenue[slot] = 0;
+                    minuteUnits[slot] = 0;
+                    minuteSales[slot] = 0;
+                }
+            }
+            currentMinute = minute;
+        }
+
+        long hour = nowMillis / HOUR_MILLIS;
+        if (hour > currentHour) {
+            if (hour - currentHour >= HOURS) {
+                Arrays.fill(hourRevenue, 0);
+                Arrays.fill(hourUnits, 0);
+                Arrays.fill(hourSales, 0);
+                Arrays.fill(hourProducts, null);
+                Arrays.fill(lastDay, 0);
+                Arrays.fill(lastWeek, 0);
+                dayProducts.clear();
+                previousDayProducts.clear();
+            } else {
+                for (long h = currentHour + 1; h <= hour; h++) {
+                    retireFromDay((int) ((h - DAY_HOURS + HOURS) % HOURS));
+                    retireFromMovers((int) ((h - MOVER_HOURS + HOURS) % HOURS));
+                    int slot = (int) (h % HOURS); // Still holds hour h - 168
+                    addTo(lastWeek, -hourRevenue[slot], -hourUnits[slot], -hourSales[slot]);
+                    hourRevenue[slot] = 0;
+                    hourUnits[slot] = 0;
+                    hourSales[slot] = 0;
+                    hourProducts[slot] = null;
+                }
+            }
+            currentHour = hour;
+        }
+    }
+
+    // The hour in this slot leaves the 24-hour window; its products move to the previous day
+    private void retireFromDay(int slot) {
+        addTo(lastDay, -hourRevenue[slot], -hourUnits[slot], -hourSales[slot]);
+        IntObjectHashMap<long[]> products = hourProducts[slot];
+        if (products != null) {
+            products.forEachKey(productId -> {
+                long[] totals = products.get(productId);
+                addProduct(dayProducts, productId, -totals[0], -totals[1]);
+                addProduct(previousDayProducts, productId, totals[0], totals[1]);
+            });
+        }
+    }
+
+    // The hour in this slot leaves the previous day; its per-product totals are no longer needed
+    private void retireFromMovers(int slot) {
+        IntObjectHashMap<long[]> products = hourProducts[slot];
+        if (products != null) {
+            products.forEachKey(productId -> {
+                long[] totals = products.get(productId);
+                addProduct(previousDayProducts, productId, -totals[0], -totals[1]);
+            });
+            hourProducts[slot] = null;
+        }
+    }
+
+    // --- Helpers ---
+
+    private static void addTo(long[] window, long revenue, long units, long sales) {
+        window[0] += revenue;
+        window[1] += units;
+        window[2] += sales;
+    }
+
+    // Adds to a product's {units, revenueCents}; drops the product when both reach zero
+    private static void addProduct(IntObjectHashMap<long[]> products, int productId, long units, long revenue) {
+        long[] totals = products.get(productId);
+        if (totals == null) {
+            totals = new long[2];
+            products.put(productId, totals);
+        }
+        totals[0] += units;
+        totals[1] += revenue;
+        if (totals[0] == 0 && totals[1] == 0) {
+            products.remove(productId);
+        }
+    }
+
+    private static Totals totals(long[] window) {
+        return new Totals(window[0], window[1], window[2]);
+    }
+}
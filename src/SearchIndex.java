@@ -0,0 +1,317 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+/**
+ * In-memory prefix index for typeahead search over product and customer names.
+ * Every entry has an int ID, a display label and any number of searchable fields
+ * (name, email, phone, ...). The fields are split into lower-case tokens that are kept
+ * in a sorted map, so all tokens starting with a prefix form one contiguous range.
+ * Labels made with {@link #label} are unique even when names repeat, and {@link #idOf} maps
+ * a picked label back to its entry's ID.
+ *
+ * A query matches an entry when every query token is a prefix of one of the entry's tokens.
+ * Results are ranked: labels starting with the query first, then entries where a query token
+ * matches a whole token, then shorter labels, then alphabetically.
+ *
+ * Thread-safe: searches never lock. Posting lists are copy-on-write int arrays, so single
+ * updates are cheap and a full {@link #rebuild} on a background thread builds a new index
+ * and swaps it in at once.
+ */
+public class SearchIndex {
+
+    private static final int CANDIDATE_LIMIT = 2000; // Candidates ranked per query; keeps each keystroke cheap
+
+    private volatile NavigableMap<String, int[]> tokenToIds = new ConcurrentSkipListMap<>();
+    private volatile Map<Integer, IndexEntry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * One product or customer to index.
+     * @param id The product or customer ID.
+     * @param label The text shown in the picker, see {@link #label}; not searched itself.
+     * @param fields The searchable texts; null fields are skipped.
+     */
+    public record Document(int id, String label, String... fields) {
+    }
+
+    private static class IndexEntry {
+        final String label;
+        final String normalizedLabel;
+        final String[] tokens;
+
+        IndexEntry(String label, String[] tokens) {
+            this.label = label;
+            this.normalizedLabel = label.toLowerCase();
+            this.tokens = tokens;
+        }
+    }
+
+    /**
+     * Builds the label of an entry, e.g. "Jane Doe #42". The ID keeps the labels of equal names apart.
+     * @param id The product or customer ID.
+     * @param name The product or customer name.
+     */
+    public static String label(int id, String name) {
+        return name + " #" + id;
+    }
+
+    /**
+     * Adds or replaces an entry.
+     * @param id The product or customer ID.
+     * @param label The text shown in the picker, see {@link #label}; not searched itself.
+     * @param fields The searchable texts; null fields are skipped.
+     */
+    public synchronized void put(int id, String label, String... fields) {
+        IndexEntry entry = createEntry(label, fields);
+        IndexEntry previous = entries.put(id, entry);
+        if (previous != null) {
+            unlink(id, previous);
+        }
+        for (String token : entry.tokens) {
+            tokenToIds.compute(token, (t, ids) -> append(ids, id));
+        }
+    }
+
+    /**
+     * Replaces the whole index. The new index is built by the calling thread (typically a
+     * background worker) while searches keep using the old one, then swapped in.
+     * Single updates made while the rebuild runs are lost, so rebuild from fresh data.
+     * @param documents All products or customers.
+     */
+    public void rebuild(List<Document> documents) {
+        Map<Integer, IndexEntry> newEntries = new ConcurrentHashMap<>(documents.size() * 2);
+        Map<String, PostingBuilder> postings = new HashMap<>(documents.size() * 4);
+        for (Document document : documents) {
+            IndexEntry entry = createEntry(document.label(), document.fields());
+            newEntries.put(document.id(), entry);
+            for (String token : entry.tokens) {
+                postings.computeIfAbsent(token, t -> new PostingBuilder()).add(document.id());
+            }
+        }
+        String[] tokens = postings.keySet().toArray(new String[0]);
+        Arrays.parallelSort(tokens);
+        NavigableMap<String, int[]> newTokenToIds = new ConcurrentSkipListMap<>();
+        for (String token : tokens) {
+            newTokenToIds.put(token, postings.get(token).toArray()); // Ascending inserts stay near the tail
+        }
+        synchronized (this) {
+            entries = newEntries;
+            tokenToIds = newTokenToIds;
+        }
+    }
+
+    /**
+     * Removes an entry.
+     * @param id The product or customer ID.
+     */
+    public synchronized void remove(int id) {
+        IndexEntry previous = entries.remove(id);
+        if (previous != null) {
+            unlink(id, previous);
+        }
+    }
+
+    /** Removes all entries. */
+    public synchronized void clear() {
+        entries = new ConcurrentHashMap<>();
+        tokenToIds = new ConcurrentSkipListMap<>();
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Maps a label shown in a picker back to its entry.
+     * @param label A label made with {@link #label}, e.g. as picked from the search results.
+     * @return The entry's ID, or -1 if no entry has this label (e.g. for free text or a removed entry).
+     */
+    public int idOf(String label) {
+        int hash = label != null ? label.lastIndexOf(" #") : -1;
+        if (hash < 0) {
+            return -1;
+        }
+        int id;
+        try {
+            id = Integer.parseInt(label.substring(hash + 2));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+        IndexEntry entry = entries.get(id);
+        return entry != null && entry.label.equals(label) ? id : -1;
+    }
+
+    /**
+     * Finds the entries matching a query.
+     * @param query What the user typed so far.
+     * @param limit Maximum number of labels to return.
+     * @return The labels of the best matches, best first. Empty for a blank query.
+     */
+    public List<String> search(String query, int limit) {
+        List<String> queryTokens = new ArrayList<>();
+        tokenize(query, queryTokens);
+        if (queryTokens.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // The longest token is usually the most selective; gather candidates from its prefix range
+        String driver = queryTokens.get(0);
+        for (String token : queryTokens) {
+            if (token.length() > driver.length()) driver = token;
+        }
+        Map<Integer, IndexEntry> currentEntries = entries;
+        Set<Integer> candidates = new HashSet<>();
+        for (int[] ids : tokenToIds.subMap(driver, true, driver + Character.MAX_VALUE, false).values()) {
+            for (int id : ids) {
+                if (candidates.size() >= CANDIDATE_LIMIT) break;
+                candidates.add(id);
+            }
+            if (candidates.size() >= CANDIDATE_LIMIT) break;
+        }
+
+        String normalizedQuery = String.join(" ", queryTokens);
+        List<ScoredLabel> matches = new ArrayList<>();
+        for (Integer id : candidates) {
+            IndexEntry entry = currentEntries.get(id);
+            if (entry == null) continue; // Removed meanwhile
+            int score = score(entry, queryTokens, normalizedQuery);
+            if (score >= 0) {
+                matches.add(new ScoredLabel(entry.label, score));
+            }
+        }
+        matches.sort(Comparator.comparingInt((ScoredLabel m) -> m.score)
+                .thenComparingInt(m -> m.label.length())
+                .thenComparing(m -> m.label, String.CASE_INSENSITIVE_ORDER));
+
+        List<String> labels = new ArrayList<>(Math.min(limit, matches.size()));
+        for (int i = 0; i < matches.size() && i < limit; i++) {
+            labels.add(matches.get(i).label);
+        }
+        return labels;
+    }
+
+    // --- Helpers ---
+
+    private record ScoredLabel(String label, int score) {
+    }
+
+    private static class PostingBuilder {
+        int[] ids = new int[2];
+        int size;
+
+        void add(int id) {
+            if (size == ids.length) ids = Arrays.copyOf(ids, size * 2);
+            ids[size++] = id;
+        }
+
+        int[] toArray() {
+            return size == ids.length ? ids : Arrays.copyOf(ids, size);
+        }
+    }
+
+    // Lower score ranks higher; -1 when some query token matches no token of the entry
+    private static int score(IndexEntry entry, List<String> queryTokens, String normalizedQuery) {
+        boolean allWhole = true;
+        for (String queryToken : queryTokens) {
+            boolean prefixFound = false;
+            boolean wholeFound = false;
+            for (String token : entry.tokens) {
+                if (token.startsWith(queryToken)) {
+                    prefixFound = true;
+                    if (token.length() == queryToken.length()) {
+                        wholeFound = true;
+                        break;
+                    }
+                }
+            }
+            if (!prefixFound) {
+                return -1;
+            }
+            allWhole &= wholeFound;
+        }
+        if (entry.normalizedLabel.startsWith(normalizedQuery)) {
+            return 0;
+        }
+        return allWhole ? 1 : 2;
+    }
+
+    private static IndexEntry createEntry(String label, String... fields) {
+        List<String> tokens = new ArrayList<>();
+        for (String field : fields) {
+            tokenize(field, tokens);
+        }
+        return new IndexEntry(label, tokens.stream().distinct().toArray(String[]::new));
+    }
+
+    private void unlink(int id, IndexEntry entry) {
+        for (String token : entry.tokens) {
+            tokenToIds.computeIfPresent(token, (t, ids) -> without(ids, id));
+        }
+    }
+
+    // Copy-on-write posting list updates; readers may still iterate the old array
+    private static int[] append(int[] ids, int id) {
+        if (ids == null) {
+            return new int[]{id};
+        }
+        int[] copy = Arrays.copyOf(ids, ids.length + 1);
+        copy[ids.length] = id;
+        return copy;
+    }
+
+    private static int[] without(int[] ids, int id) {
+        int[] copy = new int[ids.length];
+        int size = 0;
+        for (int existing : ids) {
+            if (existing != id) copy[size++] = existing;
+        }
+        return size == 0 ? null : Arrays.copyOf(copy, size);
+    }
+
+    // Splits on anything that is not a letter or digit and stops at '@', e.g. "jane.doe@mail.com" -> jane, doe.
+    // (Mail domains are shared by most customers and would only bloat the index.)
+    // Phone-like texts (digits and separators only) are also indexed as one run of digits,
+    // so "555-0100" is found by "5550".
+    private static void tokenize(String text, List<String> tokens) {
+        if (text == null) {
+            return;
+        }
+        StringBuilder digits = new StringBuilder();
+        boolean hasLetter = false;
+        int groups = 0;
+        int start = -1;
+        String lower = text.toLowerCase();
+        int at = lower.indexOf('@');
+        if (at >= 0) {
+            lower = lower.substring(0, at);
+        }
+        for (int i = 0; i <= lower.length(); i++) {
+            boolean letterOrDigit = i < lower.length() && Character.isLetterOrDigit(lower.charAt(i));
+            if (letterOrDigit && start < 0) {
+                start = i;
+            } else if (!letterOrDigit && start >= 0) {
+                tokens.add(lower.substring(start, i));
+                groups++;
+                start = -1;
+            }
+            if (i < lower.length()) {
+                char c = lower.charAt(i);
+                if (Character.isDigit(c)) {
+                    digits.append(c);
+                } else if (Character.isLetter(c)) {
+                    hasLetter = true;
+                }
+            }
+        }
+        if (!hasLetter && groups > 1) {
+            tokens.add(digits.toString());
+        }
+    }
+}
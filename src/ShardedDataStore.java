@@ -0,0 +1,573 @@
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+/**
+ * Spreads sales over several PostgreSQL databases ("shards") by store: the sales of store S live in
+ * shard S mod N, together with that shard's copy of the product stock, so a sale and its stock
+ * change stay one local transaction (see DatabaseManager.addSale).
+ *
+ * Products and customers are reference data and exist in every shard under the same IDs. New rows
+ * get their ID from shard 0 and are then copied to the other shards; edits and deletes are applied
+ * to all shards. Stock is the exception: each shard keeps its own, and this store reads and changes
+ * the stock of its home shard, the shard of the store it runs for (-Dsales.storeId, default 0).
+ *
+ * Each shard's sale ID sequence hands out IDs congruent to shardIndex + 1 modulo N, so lookups by
+ * sale ID go straight to one shard. Queries over all sales are sent to every shard in parallel and
+ * the sorted per-shard results are merged, so only offset + limit rows per shard are read. A query
+ * filtered on one storeId is sent to that store's shard only.
+ *
+ * Configuration: -Dsales.backend=sharded and -Dsales.shards=<comma-separated JDBC URLs>, in shard order.
+ * The number of URLs is the number of shards and must not change once sales are stored.
+ * Like DatabaseManager, an instance holds one connection per shard and is used by one thread at a time.
+ */
+public class ShardedDataStore implements IDataStore {
+
+    public static final String SHARDS_PROPERTY = "sales.shards";
+    public static final String STORE_ID_PROPERTY = "sales.storeId";
+    private static final int DAILY_UNITS_CHUNK = 4096; // Rows per hand-over in forEachDailyUnits
+    private static final int PRICE_READ_CHUNK = 1000; // Product IDs per IN list when reading prices before a repricing
+
+    private final List<DatabaseManager> shards = new ArrayList<>();
+    private final int defaultStoreId;
+    private final DatabaseManager home;
+    private final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor(); // One task per shard per query
+
+    /**
+     * Connects to every shard and prepares its schema.
+     * @param urls JDBC URLs of the shards, in shard order.
+     * @param defaultStoreId Store that sales without a store are booked to; also decides the home shard.
+     */
+    public ShardedDataStore(List<String> urls, int defaultStoreId) {
+        if (urls.isEmpty()) {
+            throw new IllegalArgumentException("At least one shard URL is required.");
+        }
+        for (int i = 0; i < urls.size(); i++) {
+            shards.add(new DatabaseManager(urls.get(i), i, urls.size()));
+        }
+        this.defaultStoreId = defaultStoreId;
+        this.home = shardForStore(defaultStoreId);
+    }
+
+    /**
+     * Creates the store configured by -Dsales.shards and -Dsales.storeId.
+     * @throws IllegalStateException if no shards are configured.
+     */
+    public static ShardedDataStore fromSystemProperties() {
+        List<String> urls = new ArrayList<>();
+        for (String url : System.getProperty(SHARDS_PROPERTY, "").split(",")) {
+            if (!url.trim().isEmpty()) {
+                urls.add(url.trim());
+            }
+        }
+        if (urls.isEmpty()) {
+            throw new IllegalStateException("The sharded backend needs -D" + SHARDS_PROPERTY + "=<jdbc url>,<jdbc url>,...");
+        }
+        return new ShardedDataStore(urls, Integer.getInteger(STORE_ID_PROPERTY, 0));
+    }
+
+    public int getShardCount() {
+        return shards.size();
+    }
+
+    /** @return Offline sales waiting in the journals of all shards. */
+    public long getPendingOfflineSaleCount() {
+        long pending = 0;
+        for (DatabaseManager shard : shards) {
+            pending += shard.getPendingOfflineSaleCount();
+        }
+        return pending;
+    }
+
+    // --- Product DAO Implementation ---
+
+    @Override
+    public boolean addProduct(Product product) {
+        if (!shards.get(0).addProduct(product)) {
+            return false;
+        }
+        return copyToOtherShards(shards.get(0), shard -> shard.replicateProduct(product));
+    }
+
+    @Override
+    public Product getProductById(int productId) {
+        return home.getProductById(productId);
+    }
+
+    @Override
+    public List<Product> getAllProducts() {
+        return home.getAllProducts();
+    }
+
+    @Override
+    public List<Product> queryProducts(QuerySpec spec) {
+        return home.queryProducts(spec);
+    }
+
+    @Override
+    public boolean updateProduct(Product product) {
+        return tryUpdateProduct(product) == UpdateResult.SUCCESS;
+    }
+
+    /**
+     * Checks the version on the home shard, then copies the product to the other shards.
+     * Their versions move on independently; only the home shard's version is handed to callers.
+     */
+    @Override
+    public UpdateResult tryUpdateProduct(Product product) {
+        UpdateResult result = home.tryUpdateProduct(product);
+        if (result != UpdateResult.SUCCESS) {
+            return result;
+        }
+        return copyToOtherShards(home, shard -> shard.replicateProduct(product)) ? UpdateResult.SUCCESS : UpdateResult.ERROR;
+    }
+
+    /** Deletes the product from every shard, or from none if a shard still has sales, archived sales or order lines of it. */
+    @Override
+    public boolean deleteProduct(int productId) {
+        return deleteOnAllShards(shard -> shard.getProductById(productId) != null,
+                shard -> shard.isProductReferenced(productId), shard -> shard.deleteProduct(productId));
+    }
+
+    /**
+     * Reprices in one transaction per shard; the shards are updated one after another, stopping at the
+     * first one that fails. The shards already repriced are then set back to the prices read from
+     * shard 0 beforehand (the set-back is recorded in their price history like any change), so a failed
+     * call leaves all shards on the old prices. Between two shards' commits, readers of different shards
+     * can see different prices.
+     */
+    @Override
+    public boolean updatePrices(Map<Integer, Money> prices) {
+        Map<Integer, Money> previous = currentPrices(shards.get(0), prices.keySet());
+        if (previous == null) {
+            return false;
+        }
+        for (int i = 0; i < shards.size(); i++) {
+            if (!shards.get(i).updatePrices(prices)) {
+                for (int j = 0; j < i; j++) {
+                    if (!shards.get(j).updatePrices(previous)) {
+                        System.err.println("Could not set back the prices of shard " + j +
+                                " after a failed repricing; its prices differ from the other shards until they are set again.");
+                    }
+                }
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public Money getPriceAt(int productId, LocalDate date) {
+        return home.getPriceAt(productId, date);
+    }
+
+    @Override
+    public PriceHistory getPriceHistory() {
+        return home.getPriceHistory();
+    }
+
+    @Override
+    public boolean updateProductStock(int productId, int quantityChange) {
+        return home.updateProductStock(productId, quantityChange);
+    }
+
+    // --- Customer DAO Implementation ---
+
+    @Override
+    public boolean addCustomer(Customer customer) {
+        if (!shards.get(0).addCustomer(customer)) {
+            return false;
+        }
+        return copyToOtherShards(shards.get(0), shard -> shard.replicateCustomer(customer));
+    }
+
+    @Override
+    public Customer getCustomerById(int customerId) {
+        return home.getCustomerById(customerId);
+    }
+
+    @Override
+    public List<Customer> getAllCustomers() {
+        return home.getAllCustomers();
+    }
+
+    @Override
+    public List<Customer> queryCustomers(QuerySpec spec) {
+        return home.queryCustomers(spec);
+    }
+
+    @Override
+    public boolean updateCustomer(Customer customer) {
+        return tryUpdateCustomer(customer) == UpdateResult.SUCCESS;
+    }
+
+    @Override
+    public UpdateResult tryUpdateCustomer(Customer customer) {
+        UpdateResult result = home.tryUpdateCustomer(customer);
+        if (result != UpdateResult.SUCCESS) {
+            return result;
+        }
+        return copyToOtherShards(home, shard -> shard.replicateCustomer(customer)) ? UpdateResult.SUCCESS : UpdateResult.ERROR;
+    }
+
+    /** Deletes the customer from every shard, or from none if a shard still has sales, archived sales or orders of them. */
+    @Override
+    public boolean deleteCustomer(int customerId) {
+        return deleteOnAllShards(shard -> shard.getCustomerById(customerId) != null,
+                shard -> shard.isCustomerReferenced(customerId), shard -> shard.deleteCustomer(customerId));
+    }
+
+    @Override
+    public Customer getCustomerByName(String firstName, String lastName) {
+        return home.getCustomerByName(firstName, lastName);
+    }
+
+    @Override
+    public List<CustomerMatcher.Match> findSimilarCustomers(Customer probe, int limit) {
+        return home.findSimilarCustomers(probe, limit);
+    }
+
+    // --- Sale DAO Implementation ---
+
+    /** Books the sale in the shard of its store; a sale without a store (0) goes to the default store. */
+    @Override
+    public boolean addSale(Sale sale) {
+        if (sale.getStoreId() == 0) {
+            sale.setStoreId(defaultStoreId);
+        }
+        return shardForStore(sale.getStoreId()).addSale(sale);
+    }
+
+    // A retry names the same store, so the key is always looked up in the shard that claimed it
+    @Override
+    public SaleSubmission submitSale(Sale sale, String idempotencyKey) {
+        if (sale.getStoreId() == 0) {
+            sale.setStoreId(defaultStoreId);
+        }
+        return shardForStore(sale.getStoreId()).submitSale(sale, idempotencyKey);
+    }
+
+    @Override
+    public Sale getSaleById(int saleId) {
+        DatabaseManager owner = shardForSaleId(saleId);
+        Sale sale = owner.getSaleById(saleId);
+        if (sale != null) {
+            return sale;
+        }
+        // Sales stored before the shards were aligned may sit in any shard
+        for (DatabaseManager shard : shards) {
+            if (shard != owner && (sale = shard.getSaleById(saleId)) != null) {
+                return sale;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public List<Sale> getAllSales() {
+        return querySales(new QuerySpec());
+    }
+
+    @Override
+    public List<Sale> querySales(QuerySpec spec) {
+        Integer storeId = singleStore(spec);
+        if (storeId != null) {
+            return shardForStore(storeId).querySales(spec);
+        }
+        // Each shard returns its first offset + limit rows in order; the merged stream is then skipped and cut
+        QuerySpec shardSpec = copyFilters(spec).page(0, spec.getLimit() > 0 ? spec.getOffset() + spec.getLimit() : 0);
+        List<List<Sale>> results = scatter(shard -> shard.querySales(shardSpec));
+        return merge(results, QueryColumns.SALES.comparator(spec), spec.getOffset(), spec.getLimit());
+    }
+
+    // Every shard holds all products and customers, so each joins its own sales locally
+    @Override
+    public List<SaleView> querySaleViews(QuerySpec spec) {
+        Integer storeId = singleStore(spec);
+        if (storeId != null) {
+            return shardForStore(storeId).querySaleViews(spec);
+        }
+        QuerySpec shardSpec = copyFilters(spec).page(0, spec.getLimit() > 0 ? spec.getOffset() + spec.getLimit() : 0);
+        List<List<SaleView>> results = scatter(shard -> shard.querySaleViews(shardSpec));
+        return merge(results, QueryColumns.SALE_VIEWS.comparator(spec), spec.getOffset(), spec.getLimit());
+    }
+
+    /**
+     * Streams every shard in parallel and merges the sorted streams, adding up the units of a product
+     * and day sold in several stores. Each shard hands over its rows in chunks through a small bounded
+     * queue, so memory stays flat however long the range is.
+     */
+    @Override
+    public boolean forEachDailyUnits(LocalDate from, LocalDate to, DailyUnitsConsumer consumer) {
+        if (shards.size() == 1) {
+            return shards.get(0).forEachDailyUnits(from, to, consumer);
+        }
+        List<BlockingQueue<long[]>> queues = new ArrayList<>();
+        List<Future<Boolean>> producers = new ArrayList<>();
+        for (DatabaseManager shard : shards) {
+            BlockingQueue<long[]> queue = new ArrayBlockingQueue<>(4);
+            queues.add(queue);
+            producers.add(executor.submit(() -> streamDailyUnits(shard, from, to, queue)));
+        }
+        try {
+            // Heads are {shard, position in its current chunk}, ordered by the key at that position
+            long[][] chunks = new long[shards.size()][];
+            PriorityQueue<int[]> heads = new PriorityQueue<>(Comparator.comparingLong((int[] h) -> chunks[h[0]][h[1]]));
+            for (int i = 0; i < shards.size(); i++) {
+                chunks[i] = queues.get(i).take();
+                if (chunks[i].length > 0) {
+                    heads.add(new int[]{i, 0});
+                }
+            }
+            while (!heads.isEmpty()) {
+                long key = chunks[heads.peek()[0]][heads.peek()[1]];
+                long units = 0;
+                while (!heads.isEmpty() && chunks[heads.peek()[0]][heads.peek()[1]] == key) {
+                    int[] head = heads.poll();
+                    units += chunks[head[0]][head[1] + 1];
+                    head[1] += 2;
+                    if (head[1] == chunks[head[0]].length) {
+                        chunks[head[0]] = queues.get(head[0]).take();
+                        head[1] = 0;
+                    }
+                    if (chunks[head[0]].length > 0) {
+                        heads.add(head);
+                    }
+                }
+                consumer.accept((int) (key >> 32), LocalDate.ofEpochDay(key & 0xFFFFFFFFL), units);
+            }
+            boolean success = true;
+            for (Future<Boolean> producer : producers) {
+                success &= producer.get();
+            }
+            return success;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the shards.", e);
+        } catch (ExecutionException e) {
+            System.err.println("Error reading daily units from a shard: " + e.getCause().getMessage());
+            e.getCause().printStackTrace();
+            return false;
+        } finally {
+            for (Future<Boolean> producer : producers) {
+                producer.cancel(true); // Unblocks producers left waiting on a full queue
+            }
+        }
+    }
+
+    // Puts one shard's rows into the queue as chunks of {key, units} pairs (key = productId << 32 | epochDay),
+    // followed by an empty chunk that marks the end
+    private static boolean streamDailyUnits(DatabaseManager shard, LocalDate from, LocalDate to,
+                                            BlockingQueue<long[]> queue) throws InterruptedException {
+        long[][] chunk = {new long[2 * DAILY_UNITS_CHUNK]};
+        int[] size = {0};
+        boolean success;
+        try {
+            success = shard.forEachDailyUnits(from, to, (productId, day, units) -> {
+                chunk[0][size[0]++] = ((long) productId << 32) | day.toEpochDay();
+                chunk[0][size[0]++] = units;
+                if (size[0] == chunk[0].length) {
+                    try {
+                        queue.put(chunk[0]);
+                    } catch (InterruptedException e) {
+                        throw new CancellationException("Merge abandoned.");
+                    }
+                    chunk[0] = new long[2 * DAILY_UNITS_CHUNK];
+                    size[0] = 0;
+                }
+            });
+        } catch (CancellationException e) {
+            return false;
+        }
+        if (size[0] > 0) {
+            queue.put(Arrays.copyOf(chunk[0], size[0]));
+        }
+        queue.put(new long[0]);
+        return success;
+    }
+
+    /** Updates the sale in the shard that holds it; the store of a sale cannot be changed. */
+    @Override
+    public boolean updateSale(Sale sale) {
+        return tryUpdateSale(sale) == UpdateResult.SUCCESS;
+    }
+
+    @Override
+    public UpdateResult tryUpdateSale(Sale sale) {
+        DatabaseManager owner = shardHoldingSale(sale.getSaleId());
+        return owner == null ? UpdateResult.NOT_FOUND : owner.tryUpdateSale(sale);
+    }
+
+    @Override
+    public boolean deleteSale(int saleId) {
+        DatabaseManager owner = shardHoldingSale(saleId);
+        return owner != null && owner.deleteSale(saleId);
+    }
+
+    @Override
+    public void closeConnection() {
+        executor.shutdown();
+        for (DatabaseManager shard : shards) {
+            shard.closeConnection();
+        }
+    }
+
+    // --- Routing ---
+
+    private DatabaseManager shardForStore(int storeId) {
+        return shards.get(Math.floorMod(storeId, shards.size()));
+    }
+
+    private DatabaseManager shardForSaleId(int saleId) {
+        return shards.get(Math.floorMod(saleId - 1, shards.size()));
+    }
+
+    private DatabaseManager shardHoldingSale(int saleId) {
+        DatabaseManager owner = shardForSaleId(saleId);
+        if (owner.getSaleById(saleId) != null) {
+            return owner;
+        }
+        for (DatabaseManager shard : shards) {
+            if (shard != owner && shard.getSaleById(saleId) != null) {
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    // The store of an "storeId = x" filter, or null if the query spans stores
+    private static Integer singleStore(QuerySpec spec) {
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            if (filter.getField().equals("storeId") && filter.getOp() == QuerySpec.Op.EQ
+                    && filter.getValue() instanceof Number) {
+                return ((Number) filter.getValue()).intValue();
+            }
+        }
+        return null;
+    }
+
+    private static QuerySpec copyFilters(QuerySpec spec) {
+        QuerySpec copy = new QuerySpec();
+        for (QuerySpec.Filter filter : spec.getFilters()) {
+            copy.where(filter.getField(), filter.getOp(), filter.getValue());
+        }
+        if (spec.getSortField() != null) {
+            copy.orderBy(spec.getSortField(), spec.isAscending());
+        }
+        return copy;
+    }
+
+    // Runs the call on every shard in parallel; a shard that fails contributes no rows (like a failed DAO read)
+    private <R> List<R> scatter(Function<DatabaseManager, R> call) {
+        if (shards.size() == 1) {
+            return List.of(call.apply(shards.get(0)));
+        }
+        List<Future<R>> futures = new ArrayList<>();
+        for (DatabaseManager shard : shards) {
+            futures.add(executor.submit(() -> call.apply(shard)));
+        }
+        List<R> results = new ArrayList<>();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                results.add(futures.get(i).get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while querying the shards.", e);
+            } catch (ExecutionException e) {
+                System.err.println("Error querying shard " + i + ": " + e.getCause().getMessage());
+                e.getCause().printStackTrace();
+            }
+        }
+        return results;
+    }
+
+    // K-way merge of sorted lists: skips offset rows, then takes up to limit (0 = all)
+    private static <T> List<T> merge(List<List<T>> sortedLists, Comparator<T> order, int offset, int limit) {
+        PriorityQueue<int[]> heads = new PriorityQueue<>( // {list, position}
+                (a, b) -> order.compare(sortedLists.get(a[0]).get(a[1]), sortedLists.get(b[0]).get(b[1])));
+        for (int i = 0; i < sortedLists.size(); i++) {
+            if (!sortedLists.get(i).isEmpty()) {
+                heads.add(new int[]{i, 0});
+            }
+        }
+        List<T> merged = new ArrayList<>();
+        int skipped = 0;
+        while (!heads.isEmpty() && (limit == 0 || merged.size() < limit)) {
+            int[] head = heads.poll();
+            List<T> list = sortedLists.get(head[0]);
+            if (skipped < offset) {
+                skipped++;
+            } else {
+                merged.add(list.get(head[1]));
+            }
+            if (head[1] + 1 < list.size()) {
+                heads.add(new int[]{head[0], head[1] + 1});
+            }
+        }
+        return merged;
+    }
+
+    // Applies a write to every shard; all shards are tried even if one fails
+    /**
+     * Deletes a product or customer row from the shards that have it, after checking on all of them that
+     * nothing references it. The deletes stop at the first failure; that leaves the row on the later shards
+     * only if a sale referencing it was booked there since the check (or the database failed), and a
+     * repeated delete then finishes the job, as shards without the row are skipped.
+     */
+    private boolean deleteOnAllShards(Function<DatabaseManager, Boolean> exists, Function<DatabaseManager, Boolean> referenced,
+                                      Function<DatabaseManager, Boolean> delete) {
+        List<DatabaseManager> holding = new ArrayList<>();
+        for (DatabaseManager shard : shards) {
+            if (exists.apply(shard)) {
+                if (referenced.apply(shard)) {
+                    return false;
+                }
+                holding.add(shard);
+            }
+        }
+        for (DatabaseManager shard : holding) {
+            if (!delete.apply(shard)) {
+                return false;
+            }
+        }
+        return !holding.isEmpty();
+    }
+
+    // The prices of the given products in one shard, read in chunks of IN lists; null if one is missing or the read failed
+    private static Map<Integer, Money> currentPrices(DatabaseManager shard, Collection<Integer> productIds) {
+        List<Integer> ids = new ArrayList<>(productIds);
+        Map<Integer, Money> prices = new HashMap<>(ids.size() * 2);
+        for (int from = 0; from < ids.size(); from += PRICE_READ_CHUNK) {
+            List<Integer> chunk = ids.subList(from, Math.min(from + PRICE_READ_CHUNK, ids.size()));
+            for (Product product : shard.queryProducts(new QuerySpec().where("id", QuerySpec.Op.IN, chunk))) {
+                prices.put(product.getProductId(), product.getPrice());
+            }
+        }
+        return prices.size() == ids.size() ? prices : null;
+    }
+
+    // Copies reference data written to one shard to all the others
+    private boolean copyToOtherShards(DatabaseManager source, Function<DatabaseManager, Boolean> copy) {
+        boolean success = true;
+        for (DatabaseManager shard : shards) {
+            if (shard != source) {
+                success &= copy.apply(shard);
+            }
+        }
+        return success;
+    }
+}
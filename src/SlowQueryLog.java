@@ -0,0 +1,353 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+
+/**
+ * Logs SQL statements that took longer than a threshold, with their bound parameters and row count,
+ * and groups them by normalized SQL (literals and parameters replaced by '?') to show which
+ * statements need an index.
+ *
+ * Statements are timed by TracedConnection. Recording a slow statement only offers it to a bounded
+ * queue; a background thread normalizes, aggregates and writes it, so the sale path never waits for
+ * logging. When the queue is full the entry is dropped and counted. Detailed log lines are limited to
+ * maxLinesPerSecond; the aggregates always include every slow statement.
+ *
+ * With explain on, the background thread also captures a plan once per normalized statement every
+ * {@value #EXPLAIN_INTERVAL_MINUTES} minutes on its own connection: EXPLAIN (ANALYZE, BUFFERS) for
+ * plain SELECTs (run in a transaction that is rolled back), plain EXPLAIN for everything else, so
+ * writes are never executed twice and no row locks are taken.
+ *
+ * Configuration (see {@link #fromSystemProperties}):
+ *   -Dsales.slowQuery.thresholdMillis  default 200; negative turns the log off
+ *   -Dsales.slowQuery.explain          default false
+ *   -Dsales.slowQuery.maxLinesPerSecond default 10
+ *   -Dsales.slowQuery.file             default: standard error
+ */
+public class SlowQueryLog {
+
+    private static final int QUEUE_CAPACITY = 1000;
+    private static final int MAX_PARAM_LENGTH = 100;
+    private static final int REPORT_SIZE = 20;
+    private static final long EXPLAIN_INTERVAL_MINUTES = 10;
+    private static final int EXPLAIN_TIMEOUT_SECONDS = 10;
+
+    private static final Pattern STRING_LITERAL = Pattern.compile("'(?:[^']|'')*'");
+    private static final Pattern NUMBER_LITERAL = Pattern.compile("\\b\\d+(?:\\.\\d+)?\\b");
+    private static final Pattern PLACEHOLDER_LIST = Pattern.compile("\\?(?:\\s*,\\s*\\?)+");
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * One slow execution, captured on the executing thread.
+     */
+    public static final class Entry {
+        private final String sql;
+        private final List<Object> params; // By placeholder index, starting at 1
+        private final long elapsedNanos;
+        private final LocalDateTime executedAt = LocalDateTime.now();
+        private final String threadName = Thread.currentThread().getName();
+        private long rows = -1; // -1 = unknown
+
+        Entry(String sql, List<Object> params, long elapsedNanos) {
+            this.sql = sql;
+            this.params = params;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        void setRows(long rows) {
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Aggregates of one normalized statement. Written by the logging thread only.
+     */
+    private static final class Stats {
+        volatile long count;
+        volatile long totalNanos;
+        volatile long maxNanos;
+        volatile long totalRows;
+        volatile String plan;
+        volatile long planCapturedAtNanos;
+    }
+
+    private final long thresholdNanos;
+    private final boolean explain;
+    private final int maxLinesPerSecond;
+    private final PrintStream out;
+    private final ConnectionSource explainConnectionSource;
+    private final BlockingQueue<Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Map<String, Stats> statsBySql = new ConcurrentHashMap<>();
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private Connection explainConnection; // Used by the logging thread only
+
+    // Rate limiting state, logging thread only
+    private long currentSecond;
+    private int linesThisSecond;
+    private long suppressedLines;
+
+    /**
+     * Creates the log and starts its background thread.
+     * @param thresholdMillis Statements taking at least this long are logged.
+     * @param explain Whether to capture plans of slow statements.
+     * @param maxLinesPerSecond Detailed log lines written per second at most.
+     * @param out Where log lines go.
+     * @param explainConnectionSource Opens the connection plans are captured on. It must not be timed
+     *                                itself (e.g. a plain DriverManager connection).
+     */
+    public SlowQueryLog(long thresholdMillis, boolean explain, int maxLinesPerSecond, PrintStream out,
+                        ConnectionSource explainConnectionSource) {
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.explain = explain;
+        this.maxLinesPerSecond = maxLinesPerSecond;
+        this.out = out;
+        this.explainConnectionSource = explainConnectionSource;
+        this.writer = new Thread(this::writeLoop, "slow-query-log");
+        writer.setDaemon(true);
+        writer.setPriority(Thread.MIN_PRIORITY);
+        writer.start();
+    }
+
+    /**
+     * Creates the log configured by the sales.slowQuery.* system properties.
+     * @param explainConnectionSource Opens an untimed connection for EXPLAIN.
+     * @return The log, or null if it is turned off.
+     */
+    public static SlowQueryLog fromSystemProperties(ConnectionSource explainConnectionSource) {
+        long thresholdMillis = Long.getLong("sales.slowQuery.thresholdMillis", 200);
+        if (thresholdMillis < 0) {
+            return null;
+        }
+        PrintStream out = System.err;
+        String file = System.getProperty("sales.slowQuery.file");
+        if (file != null) {
+            try {
+                out = new PrintStream(new FileOutputStream(file, true), true, StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                System.err.println("Cannot open slow query log " + file + ", using standard error: " + e.getMessage());
+            }
+        }
+        return new SlowQueryLog(thresholdMillis,
+                Boolean.parseBoolean(System.getProperty("sales.slowQuery.explain", "false")),
+                Integer.getInteger("sales.slowQuery.maxLinesPerSecond", 10), out, explainConnectionSource);
+    }
+
+    /** @return Executions taking at least this many nanoseconds are slow. */
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /**
+     * Records a slow execution without blocking; drops it if the logging thread is behind.
+     * @param entry The execution, with its row count set if known.
+     */
+    public void record(Entry entry) {
+        if (!queue.offer(entry)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Renders the slowest normalized statements by total time, with their plans if captured.
+     * @return A plain-text report.
+     */
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("Statements slower than %d ms, by total time (%d dropped while the log was behind)%n%n",
+                TimeUnit.NANOSECONDS.toMillis(thresholdNanos), dropped.get()));
+        sb.append(String.format("%8s %10s %10s %10s %10s  %s%n", "count", "total ms", "avg ms", "max ms", "avg rows", "statement"));
+        for (Map.Entry<String, Stats> entry : topStatements()) {
+            Stats stats = entry.getValue();
+            sb.append(String.format("%8d %10d %10d %10d %10d  %s%n", stats.count, millis(stats.totalNanos),
+                    millis(stats.totalNanos / stats.count), millis(stats.maxNanos), stats.totalRows / stats.count, entry.getKey()));
+        }
+        for (Map.Entry<String, Stats> entry : topStatements()) {
+            if (entry.getValue().plan != null) {
+                sb.append("\nPlan of: ").append(entry.getKey()).append('\n').append(entry.getValue().plan);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Renders the same aggregates as {@link #report()} as a JSON object.
+     */
+    public String toJson() {
+        StringBuilder json = new StringBuilder("{\"thresholdMillis\":").append(millis(thresholdNanos))
+                .append(",\"dropped\":").append(dropped.get()).append(",\"statements\":[");
+        boolean first = true;
+        for (Map.Entry<String, Stats> entry : topStatements()) {
+            if (!first) json.append(',');
+            first = false;
+            Stats stats = entry.getValue();
+            json.append("{\"sql\":").append(JsonUtil.quote(entry.getKey()))
+                    .append(",\"count\":").append(stats.count)
+                    .append(",\"totalMillis\":").append(millis(stats.totalNanos))
+                    .append(",\"maxMillis\":").append(millis(stats.maxNanos))
+                    .append(",\"avgRows\":").append(stats.totalRows / stats.count);
+            if (stats.plan != null) {
+                json.append(",\"plan\":").append(JsonUtil.quote(stats.plan));
+            }
+            json.append('}');
+        }
+        return json.append("]}").toString();
+    }
+
+    /**
+     * Normalizes a statement for grouping: literals and placeholder lists become '?', whitespace is collapsed.
+     */
+    static String normalize(String sql) {
+        String normalized = STRING_LITERAL.matcher(sql).replaceAll("?");
+        normalized = NUMBER_LITERAL.matcher(normalized).replaceAll("?");
+        normalized = PLACEHOLDER_LIST.matcher(normalized).replaceAll("?, ...");
+        return WHITESPACE.matcher(normalized).replaceAll(" ").trim();
+    }
+
+    // --- Logging Thread ---
+
+    private void writeLoop() {
+        while (true) {
+            try {
+                process(queue.take());
+            } catch (InterruptedException e) {
+                return;
+            } catch (RuntimeException e) {
+                System.err.println("Error writing slow query log: " + e.getMessage());
+            }
+        }
+    }
+
+    private void process(Entry entry) {
+        String normalized = normalize(entry.sql);
+        Stats stats = statsBySql.computeIfAbsent(normalized, sql -> new Stats());
+        stats.count++;
+        stats.totalNanos += entry.elapsedNanos;
+        stats.maxNanos = Math.max(stats.maxNanos, entry.elapsedNanos);
+        stats.totalRows += Math.max(entry.rows, 0);
+
+        String plan = null;
+        if (explain && (stats.plan == null
+                || System.nanoTime() - stats.planCapturedAtNanos > TimeUnit.MINUTES.toNanos(EXPLAIN_INTERVAL_MINUTES))) {
+            plan = captureExplain(entry);
+            if (plan != null) {
+                stats.plan = plan;
+                stats.planCapturedAtNanos = System.nanoTime();
+            }
+        }
+
+        if (!acquireLine()) {
+            return;
+        }
+        StringBuilder line = new StringBuilder("[slow query] ").append(entry.executedAt)
+                .append(' ').append(entry.threadName)
+                .append(' ').append(millis(entry.elapsedNanos)).append(" ms")
+                .append(", rows=").append(entry.rows >= 0 ? String.valueOf(entry.rows) : "?")
+                .append(": ").append(WHITESPACE.matcher(entry.sql).replaceAll(" ").trim());
+        if (!entry.params.isEmpty()) {
+            line.append(" params=").append(describeParams(entry.params));
+        }
+        out.println(line);
+        if (plan != null) {
+            out.println(plan);
+        }
+    }
+
+    // Allows maxLinesPerSecond detailed lines per wall-clock second and reports the rest as suppressed
+    private boolean acquireLine() {
+        long second = System.currentTimeMillis() / 1000;
+        if (second != currentSecond) {
+            if (suppressedLines > 0) {
+                out.println("[slow query] " + suppressedLines + " more slow statements not logged (rate limit)");
+            }
+            currentSecond = second;
+            linesThisSecond = 0;
+            suppressedLines = 0;
+        }
+        if (linesThisSecond < maxLinesPerSecond) {
+            linesThisSecond++;
+            return true;
+        }
+        suppressedLines++;
+        return false;
+    }
+
+    private String captureExplain(Entry entry) {
+        String sql = entry.sql.trim();
+        String upper = sql.toUpperCase(Locale.ROOT);
+        if (!(upper.startsWith("SELECT") || upper.startsWith("WITH") || upper.startsWith("INSERT")
+                || upper.startsWith("UPDATE") || upper.startsWith("DELETE"))) {
+            return null; // DDL and session commands have no plan
+        }
+        // ANALYZE executes the statement: only for reads that take no row locks
+        boolean analyze = upper.startsWith("SELECT") && !upper.contains("FOR UPDATE");
+        String explainSQL = (analyze ? "EXPLAIN (ANALYZE, BUFFERS) " : "EXPLAIN ") + sql;
+        try {
+            if (explainConnection == null || explainConnection.isClosed()) {
+                explainConnection = explainConnectionSource.open();
+            }
+            explainConnection.setAutoCommit(false);
+            try (PreparedStatement pstmt = explainConnection.prepareStatement(explainSQL)) {
+                pstmt.setQueryTimeout(EXPLAIN_TIMEOUT_SECONDS);
+                for (int i = 0; i < entry.params.size(); i++) {
+                    pstmt.setObject(i + 1, entry.params.get(i));
+                }
+                StringBuilder plan = new StringBuilder();
+                try (ResultSet rs = pstmt.executeQuery()) {
+                    while (rs.next()) {
+                        plan.append("    ").append(rs.getString(1)).append('\n');
+                    }
+                }
+                return plan.toString();
+            } finally {
+                explainConnection.rollback();
+                explainConnection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            System.err.println("Error capturing plan of slow statement: " + e.getMessage());
+            return null;
+        }
+    }
+
+    // --- Helpers ---
+
+    private List<Map.Entry<String, Stats>> topStatements() {
+        List<Map.Entry<String, Stats>> statements = new ArrayList<>(statsBySql.entrySet());
+        statements.removeIf(entry -> entry.getValue().count == 0);
+        statements.sort((a, b) -> Long.compare(b.getValue().totalNanos, a.getValue().totalNanos));
+        return statements.subList(0, Math.min(REPORT_SIZE, statements.size()));
+    }
+
+    private static String describeParams(List<Object> params) {
+        Map<Integer, String> described = new LinkedHashMap<>();
+        for (int i = 0; i < params.size(); i++) {
+            Object value = params.get(i);
+            String text = value instanceof String ? "'" + value + "'" : String.valueOf(value);
+            if (text.length() > MAX_PARAM_LENGTH) {
+                text = text.substring(0, MAX_PARAM_LENGTH) + "...";
+            }
+            described.put(i + 1, text);
+        }
+        return described.toString();
+    }
+
+    private static long millis(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(nanos);
+    }
+}
@@ -0,0 +1,122 @@
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Paging and sorting controls for a JTable that shows one page of a DAO query.
+ * Clicking a column header sorts by that column on the server (clicking again reverses the order);
+ * the Previous/Next buttons move between pages. The owner builds each query with {@link #newSpec()},
+ * adds its filters, and hands the result to {@link #showPage(List)} before filling the table.
+ */
+public class TablePager {
+
+    private final int pageSize;
+    private final String[] sortFields; // Query field per table column; null = not sortable
+    private final Runnable reload;
+
+    private int offset;
+    private String sortField;
+    private boolean ascending = true;
+
+    private final JPanel panel;
+    private final JButton previousButton;
+    private final JButton nextButton;
+    private final JLabel pageLabel;
+
+    /**
+     * @param table The table showing the page.
+     * @param sortFields The query field behind each table column, or null for columns that cannot be sorted.
+     * @param pageSize Rows per page.
+     * @param reload Reloads the table; called after the page or the sort order changed.
+     */
+    public TablePager(JTable table, String[] sortFields, int pageSize, Runnable reload) {
+        this.pageSize = pageSize;
+        this.sortFields = sortFields;
+        this.reload = reload;
+
+        previousButton = new JButton("< Previous");
+        nextButton = new JButton("Next >");
+        pageLabel = new JLabel();
+        panel = new JPanel(new FlowLayout(FlowLayout.RIGHT, 10, 0));
+        panel.add(pageLabel);
+        panel.add(previousButton);
+        panel.add(nextButton);
+
+        previousButton.addActionListener(e -> {
+            offset = Math.max(0, offset - this.pageSize);
+            this.reload.run();
+        });
+        nextButton.addActionListener(e -> {
+            offset += this.pageSize;
+            this.reload.run();
+        });
+
+        table.getTableHeader().addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                int column = table.columnAtPoint(e.getPoint());
+                if (column >= 0) {
+                    sortBy(table.convertColumnIndexToModel(column));
+                }
+            }
+        });
+        table.getTableHeader().setToolTipText("Click a column header to sort");
+    }
+
+    /** @return The Previous/Next controls, to be placed below the table. */
+    public JPanel getPanel() {
+        return panel;
+    }
+
+    /** Goes back to the first page, e.g. after the filters changed. */
+    public void firstPage() {
+        offset = 0;
+    }
+
+    /**
+     * Creates a query for the current page and sort order. It asks for one row more than
+     * a page, so {@link #showPage(List)} can tell whether there is a next page without counting.
+     */
+    public QuerySpec newSpec() {
+        QuerySpec spec = new QuerySpec();
+        if (sortField != null) {
+            spec.orderBy(sortField, ascending);
+        }
+        return spec.page(offset, pageSize + 1);
+    }
+
+    /**
+     * Updates the controls for a query result and returns the rows to show.
+     * @param rows The result of a query built with {@link #newSpec()}.
+     * @return At most one page of rows.
+     */
+    public <T> List<T> showPage(List<T> rows) {
+        boolean hasNext = rows.size() > pageSize;
+        List<T> page = hasNext ? new ArrayList<>(rows.subList(0, pageSize)) : rows;
+        previousButton.setEnabled(offset > 0);
+        nextButton.setEnabled(hasNext);
+        if (page.isEmpty()) {
+            pageLabel.setText(offset == 0 ? "No rows" : "No more rows");
+        } else {
+            pageLabel.setText("Rows " + (offset + 1) + " - " + (offset + page.size()));
+        }
+        return page;
+    }
+
+    private void sortBy(int column) {
+        if (column >= sortFields.length || sortFields[column] == null) {
+            return;
+        }
+        if (sortFields[column].equals(sortField)) {
+            ascending = !ascending;
+        } else {
+            sortField = sortFields[column];
+            ascending = true;
+        }
+        offset = 0;
+        reload.run();
+    }
+}
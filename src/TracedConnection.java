@@ -0,0 +1,233 @@
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Wraps a JDBC connection so that every statement execution is timed.
+ *
+ * Within an active trace (see {@link Tracer}), each execution, commit and rollback is a span;
+ * statement spans are named {@value Tracer#SQL_SPAN} and carry the SQL text. Executions slower than
+ * the slow query log's threshold are handed to the log with their bound parameters and row count.
+ * For queries the rows are counted as the result set is read and the entry is recorded when it is
+ * exhausted or closed. Executions, commits and rollbacks are also Flight Recorder events
+ * (see {@link FlightEvents.Sql}), written only while a recording has them enabled.
+ */
+public final class TracedConnection {
+
+    private static final int MAX_SQL_LENGTH = 200;
+
+    private TracedConnection() {
+    }
+
+    /**
+     * @param connection The connection to wrap (may be null).
+     * @param slowQueryLog Receives slow executions, or null.
+     * @return The wrapped connection, or the connection itself when neither tracing, the log nor JFR events are on.
+     */
+    @SuppressWarnings("try")
+    public static Connection wrap(Connection connection, SlowQueryLog slowQueryLog) {
+        if (connection == null || (!Tracer.isEnabled() && slowQueryLog == null && !FlightEvents.isEnabled())) {
+            return connection;
+        }
+        InvocationHandler handler = (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.equals("commit") || name.equals("rollback")) {
+                FlightEvents.Sql event = new FlightEvents.Sql();
+                event.begin();
+                try (Tracer.Span span = Tracer.startSpan(name)) {
+                    return invoke(connection, method, args);
+                } finally {
+                    event.end();
+                    if (event.shouldCommit()) {
+                        event.sql = name.toUpperCase(Locale.ROOT);
+                        event.rows = -1;
+                        event.commit();
+                    }
+                }
+            }
+            Object result = invoke(connection, method, args);
+            if (result instanceof CallableStatement) {
+                return wrapStatement((Statement) result, CallableStatement.class, (String) args[0], slowQueryLog);
+            } else if (result instanceof PreparedStatement) {
+                return wrapStatement((Statement) result, PreparedStatement.class, (String) args[0], slowQueryLog);
+            } else if (result instanceof Statement) {
+                return wrapStatement((Statement) result, Statement.class, null, slowQueryLog);
+            }
+            return result;
+        };
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, handler);
+    }
+
+    private static Statement wrapStatement(Statement statement, Class<? extends Statement> type, String preparedSql,
+                                           SlowQueryLog slowQueryLog) {
+        return (Statement) Proxy.newProxyInstance(Statement.class.getClassLoader(), new Class<?>[]{type},
+                new StatementHandler(statement, preparedSql, slowQueryLog));
+    }
+
+    /**
+     * Times execute* calls; the SQL is the prepared text, or the argument for plain statements.
+     * A statement is used by one thread at a time, like the JDBC statement it wraps.
+     */
+    private static final class StatementHandler implements InvocationHandler {
+        private final Statement statement;
+        private final String preparedSql;
+        private final SlowQueryLog slowQueryLog;
+        private final Map<Integer, Object> params; // Bound values by index, only kept for the slow query log
+        private ResultSet pendingResultSet; // Result set still being read for a slow query entry or JFR event
+        private SlowQueryLog.Entry pendingQuery; // or null
+        private FlightEvents.Sql pendingEvent; // or null
+        private long pendingRows;
+
+        StatementHandler(Statement statement, String preparedSql, SlowQueryLog slowQueryLog) {
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+            this.slowQueryLog = slowQueryLog;
+            this.params = slowQueryLog != null && preparedSql != null ? new TreeMap<>() : null;
+        }
+
+        @Override
+        @SuppressWarnings("try")
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if (!name.startsWith("execute")) {
+                if (params != null && name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+                    params.put((Integer) args[0], name.equals("setNull") ? null : args[1]);
+                } else if (params != null && name.equals("clearParameters")) {
+                    params.clear();
+                } else if (name.equals("close")) {
+                    finishPendingQuery();
+                }
+                return TracedConnection.invoke(statement, method, args);
+            }
+
+            finishPendingQuery();
+            String sql = preparedSql;
+            if (args != null && args.length > 0 && args[0] instanceof String) {
+                sql = (String) args[0];
+            }
+            String detail = Tracer.isTracing()
+                    ? abbreviate(name.equals("executeBatch") ? "[batch] " + sql : sql) : null;
+            FlightEvents.Sql event = new FlightEvents.Sql();
+            event.begin();
+            long start = System.nanoTime();
+            Object result;
+            try (Tracer.Span span = Tracer.startSpan(Tracer.SQL_SPAN, detail)) {
+                result = TracedConnection.invoke(statement, method, args);
+            }
+            long elapsedNanos = System.nanoTime() - start;
+            event.end();
+            boolean slow = slowQueryLog != null && elapsedNanos >= slowQueryLog.getThresholdNanos();
+            boolean recorded = event.shouldCommit();
+            if (!slow && !recorded) {
+                return result;
+            }
+
+            SlowQueryLog.Entry entry = slow ? new SlowQueryLog.Entry(sql, boundParams(), elapsedNanos) : null;
+            if (recorded) {
+                event.sql = name.equals("executeBatch") ? "[batch] " + sql : sql;
+            }
+            if (result instanceof ResultSet) {
+                pendingResultSet = (ResultSet) result;
+                pendingQuery = entry;
+                pendingEvent = recorded ? event : null;
+                pendingRows = 0;
+                return countRows(pendingResultSet);
+            }
+            long rows = rowCount(result);
+            if (entry != null) {
+                entry.setRows(rows);
+                slowQueryLog.record(entry);
+            }
+            if (recorded) {
+                event.rows = rows;
+                event.commit();
+            }
+            return result;
+        }
+
+        // Counts next() calls that found a row; records the pending entry when the rows run out or the set is closed
+        private ResultSet countRows(ResultSet resultSet) {
+            InvocationHandler handler = (proxy, method, args) -> {
+                Object result = TracedConnection.invoke(resultSet, method, args);
+                if (method.getName().equals("next")) {
+                    if ((Boolean) result) {
+                        if (pendingResultSet == resultSet) pendingRows++;
+                    } else if (pendingResultSet == resultSet) {
+                        finishPendingQuery();
+                    }
+                } else if (method.getName().equals("close") && pendingResultSet == resultSet) {
+                    finishPendingQuery();
+                }
+                return result;
+            };
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[]{ResultSet.class}, handler);
+        }
+
+        private void finishPendingQuery() {
+            if (pendingResultSet == null) {
+                return;
+            }
+            if (pendingQuery != null) {
+                pendingQuery.setRows(pendingRows);
+                slowQueryLog.record(pendingQuery);
+            }
+            if (pendingEvent != null) {
+                pendingEvent.rows = pendingRows;
+                pendingEvent.commit(); // Keeps the duration taken at end(): the execution, not the reading
+            }
+            pendingResultSet = null;
+            pendingQuery = null;
+            pendingEvent = null;
+        }
+
+        private List<Object> boundParams() {
+            List<Object> values = new ArrayList<>();
+            if (params != null) {
+                for (Map.Entry<Integer, Object> param : params.entrySet()) {
+                    while (values.size() < param.getKey() - 1) values.add(null);
+                    values.add(param.getValue());
+                }
+            }
+            return values;
+        }
+
+        private long rowCount(Object result) {
+            if (result instanceof Number) {
+                return ((Number) result).longValue(); // executeUpdate, executeLargeUpdate
+            } else if (result instanceof int[]) {
+                long rows = 0;
+                for (int count : (int[]) result) rows += Math.max(count, 0); // SUCCESS_NO_INFO is negative
+                return rows;
+            }
+            return -1; // execute(): the caller reads the result
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static String abbreviate(String sql) {
+        if (sql == null) {
+            return null;
+        }
+        String compact = sql.replaceAll("\\s+", " ").trim();
+        return compact.length() <= MAX_SQL_LENGTH ? compact : compact.substring(0, MAX_SQL_LENGTH) + "...";
+    }
+}
@@ -0,0 +1,284 @@
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
+
+/**
+ * Lightweight in-process tracing: a trace is a tree of timed spans started by one user action
+ * (e.g. the "Add Sale" button), with DAO calls and SQL statements nested inside it.
+ *
+ * Spans are kept per thread; a span started while no trace is active on the thread is a no-op,
+ * so instrumented code costs one ThreadLocal lookup when nothing is traced. Completed traces go
+ * into a ring buffer of the last {@value #CAPACITY} traces and are passed to listeners.
+ * Tracing is on by default; -Dsales.tracing=false turns it off.
+ *
+ * Usage:
+ *   try (Tracer.Span span = Tracer.startTrace("Add Sale")) { ... }       // root, e.g. a button action
+ *   try (Tracer.Span span = Tracer.startSpan("SQL", sql)) { ... }        // nested, only while tracing
+ */
+public final class Tracer {
+
+    /** Name of spans that wait for the user (modal dialogs); they are reported apart from work. */
+    public static final String DIALOG_SPAN = "dialog";
+    /** Name of SQL statement spans. */
+    public static final String SQL_SPAN = "SQL";
+
+    private static final int CAPACITY = 256;
+    private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty("sales.tracing", "true"));
+
+    private static final ThreadLocal<Span> CURRENT = new ThreadLocal<>();
+    private static final AtomicReferenceArray<Span> RECENT = new AtomicReferenceArray<>(CAPACITY);
+    private static final AtomicLong completed = new AtomicLong();
+    private static final List<Consumer<Span>> listeners = new CopyOnWriteArrayList<>();
+    private static final Span NOOP = new Span(null, null, null);
+
+    private Tracer() {
+    }
+
+    /**
+     * One timed step. Closing it ends the step; closing a root span completes the trace.
+     * A span and its children are only touched by the thread that created them until the trace completes.
+     */
+    public static final class Span implements AutoCloseable {
+        private final String name;
+        private final String detail;
+        private final Span parent;
+        private final long startNanos;
+        private final long startMillis;
+        private long durationNanos = -1;
+        private List<Span> children;
+
+        private Span(String name, String detail, Span parent) {
+            this.name = name;
+            this.detail = detail;
+            this.parent = parent;
+            this.startNanos = name == null ? 0 : System.nanoTime();
+            this.startMillis = name == null || parent != null ? 0 : System.currentTimeMillis();
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /** @return Extra information, e.g. the SQL of a statement span, or null. */
+        public String getDetail() {
+            return detail;
+        }
+
+        public double getDurationMillis() {
+            return durationNanos / 1_000_000.0;
+        }
+
+        public List<Span> getChildren() {
+            return children == null ? List.of() : children;
+        }
+
+        @Override
+        public void close() {
+            if (this == NOOP || durationNanos >= 0) {
+                return;
+            }
+            durationNanos = System.nanoTime() - startNanos;
+            CURRENT.set(parent);
+            if (parent == null) {
+                record(this);
+            }
+        }
+
+        /**
+         * One-line breakdown for a status bar, e.g.
+         * "Add Sale 182 ms: addSale 41 ms, querySales 120 ms | SQL 6x 150 ms".
+         */
+        public String summary() {
+            double dialogMillis = totalMillis(this, DIALOG_SPAN);
+            StringBuilder sb = new StringBuilder(name).append(' ')
+                    .append(formatMillis(getDurationMillis() - dialogMillis));
+            // Top-level steps, same-named ones merged (e.g. several reloads)
+            Map<String, double[]> steps = new LinkedHashMap<>();
+            for (Span child : getChildren()) {
+                if (!child.name.equals(DIALOG_SPAN)) {
+                    double[] step = steps.computeIfAbsent(child.name, n -> new double[2]);
+                    step[0]++;
+                    step[1] += child.getDurationMillis() - totalMillis(child, DIALOG_SPAN);
+                }
+            }
+            String separator = ": ";
+            for (Map.Entry<String, double[]> step : steps.entrySet()) {
+                sb.append(separator).append(step.getKey());
+                if (step.getValue()[0] > 1) sb.append(' ').append((int) step.getValue()[0]).append('x');
+                sb.append(' ').append(formatMillis(step.getValue()[1]));
+                separator = ", ";
+            }
+            int[] sqlCount = new int[1];
+            double sqlMillis = totalMillis(this, SQL_SPAN, sqlCount);
+            sb.append(" | SQL ").append(sqlCount[0]).append("x ").append(formatMillis(sqlMillis));
+            if (dialogMillis > 0) {
+                sb.append(" | dialogs ").append(formatMillis(dialogMillis));
+            }
+            return sb.toString();
+        }
+
+        /** @return The whole tree, one span per line, indented by depth. */
+        public String format() {
+            StringBuilder sb = new StringBuilder();
+            sb.append(Instant.ofEpochMilli(startMillis)).append('\n');
+            format(sb, 0);
+            return sb.toString();
+        }
+
+        private void format(StringBuilder sb, int depth) {
+            sb.append("  ".repeat(depth)).append(name).append(' ').append(formatMillis(getDurationMillis()));
+            if (detail != null) {
+                sb.append("  ").append(detail);
+            }
+            sb.append('\n');
+            for (Span child : getChildren()) {
+                child.format(sb, depth + 1);
+            }
+        }
+    }
+
+    /**
+     * Starts a trace (or, if one is already active on this thread, a child span of it).
+     * @param name The action, e.g. "Add Sale".
+     */
+    public static Span startTrace(String name) {
+        if (!ENABLED) {
+            return NOOP;
+        }
+        return start(name, null, CURRENT.get());
+    }
+
+    /**
+     * Starts a span inside the active trace; a no-op if this thread is not tracing.
+     * @param name The step, e.g. a DAO method name.
+     */
+    public static Span startSpan(String name) {
+        return startSpan(name, null);
+    }
+
+    /**
+     * Starts a span with a detail text inside the active trace; a no-op if this thread is not tracing.
+     * @param name The step, e.g. "SQL".
+     * @param detail Extra information, e.g. the SQL text.
+     */
+    public static Span startSpan(String name, String detail) {
+        Span parent = CURRENT.get();
+        return parent == null ? NOOP : start(name, detail, parent);
+    }
+
+    /** @return Whether tracing is switched on for this JVM. */
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    /** @return Whether the calling thread is inside a trace. */
+    public static boolean isTracing() {
+        return CURRENT.get() != null;
+    }
+
+    /** Registers a listener that receives every completed trace, on the thread that completed it. */
+    public static void addListener(Consumer<Span> listener) {
+        listeners.add(listener);
+    }
+
+    /** @return The completed traces still in the ring buffer, newest first. */
+    public static List<Span> recentTraces() {
+        List<Span> traces = new ArrayList<>();
+        long newest = completed.get();
+        for (long i = newest - 1; i >= 0 && i >= newest - CAPACITY; i--) {
+            Span trace = RECENT.get((int) (i % CAPACITY));
+            if (trace != null) {
+                traces.add(trace);
+            }
+        }
+        return traces;
+    }
+
+    /**
+     * Writes all traces in the ring buffer to a text file, newest first.
+     * @param file The target file (overwritten).
+     * @return The number of traces written.
+     * @throws IOException if the file cannot be written.
+     */
+    public static int dump(Path file) throws IOException {
+        List<Span> traces = recentTraces();
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (Span trace : traces) {
+                writer.write(trace.format());
+                writer.write('\n');
+            }
+        }
+        return traces.size();
+    }
+
+    /**
+     * Proxy layer (see DaoProxies) that makes every call of the wrapped store a span named after the method.
+     * Calls the store makes on itself are not traced, but the SQL spans inside them still are.
+     * @return The layer, or null when tracing is off.
+     */
+    @SuppressWarnings("try")
+    public static DaoProxies.Interceptor callSpans() {
+        if (!ENABLED) {
+            return null;
+        }
+        return (target, method, args, next) -> {
+            try (Span span = startSpan(method.getName())) {
+                return next.proceed();
+            }
+        };
+    }
+
+    // --- Helpers ---
+
+    private static Span start(String name, String detail, Span parent) {
+        Span span = new Span(name, detail, parent);
+        if (parent != null) {
+            if (parent.children == null) {
+                parent.children = new ArrayList<>();
+            }
+            parent.children.add(span);
+        }
+        CURRENT.set(span);
+        return span;
+    }
+
+    private static void record(Span trace) {
+        long index = completed.getAndIncrement();
+        RECENT.set((int) (index % CAPACITY), trace);
+        for (Consumer<Span> listener : listeners) {
+            listener.accept(trace);
+        }
+    }
+
+    private static double totalMillis(Span span, String name) {
+        return totalMillis(span, name, new int[1]);
+    }
+
+    // Total duration of the outermost spans with the given name below (and including) span
+    private static double totalMillis(Span span, String name, int[] count) {
+        if (name.equals(span.name) && span.parent != null) {
+            count[0]++;
+            return span.getDurationMillis();
+        }
+        double total = 0;
+        for (Span child : span.getChildren()) {
+            total += totalMillis(child, name, count);
+        }
+        return total;
+    }
+
+    private static String formatMillis(double millis) {
+        return millis >= 10 ? Math.round(millis) + " ms" : String.format("%.1f ms", millis);
+    }
+}
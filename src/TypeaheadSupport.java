@@ -0,0 +1,73 @@
+import javax.swing.*;
+import javax.swing.text.JTextComponent;
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.util.List;
+import java.util.Vector;
+
+/**
+ * Turns a JComboBox into a searchable picker backed by a SearchIndex.
+ * The combo box becomes editable; on every keystroke its list is replaced by the best
+ * matches for the typed text, so it never has to hold all products or customers.
+ * The selected item stays the plain label, which SearchIndex.idOf maps back to the ID.
+ */
+public final class TypeaheadSupport {
+
+    private TypeaheadSupport() {
+    }
+
+    /**
+     * Installs typeahead search on a combo box.
+     * @param comboBox The combo box to make searchable.
+     * @param index The index to search.
+     * @param maxResults Maximum number of suggestions shown.
+     */
+    public static void install(JComboBox<String> comboBox, SearchIndex index, int maxResults) {
+        comboBox.setEditable(true);
+        JTextComponent editor = (JTextComponent) comboBox.getEditor().getEditorComponent();
+        editor.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyReleased(KeyEvent e) {
+                if (isNavigationKey(e)) {
+                    return; // Arrows, Enter etc. operate the popup instead of searching
+                }
+                String text = editor.getText();
+                int caret = editor.getCaretPosition();
+                List<String> matches = index.search(text, maxResults);
+
+                DefaultComboBoxModel<String> model = new DefaultComboBoxModel<>(new Vector<>(matches));
+                model.setSelectedItem(text); // Keep what the user typed in the editor
+                comboBox.setModel(model);
+                editor.setText(text);
+                editor.setCaretPosition(Math.min(caret, text.length()));
+
+                if (matches.isEmpty()) {
+                    comboBox.hidePopup();
+                } else if (editor.isFocusOwner()) {
+                    comboBox.hidePopup(); // Resizes the popup to the new list
+                    comboBox.showPopup();
+                }
+            }
+        });
+    }
+
+    private static boolean isNavigationKey(KeyEvent e) {
+        switch (e.getKeyCode()) {
+            case KeyEvent.VK_UP:
+            case KeyEvent.VK_DOWN:
+            case KeyEvent.VK_LEFT:
+            case KeyEvent.VK_RIGHT:
+            case KeyEvent.VK_ENTER:
+            case KeyEvent.VK_ESCAPE:
+            case KeyEvent.VK_TAB:
+            case KeyEvent.VK_HOME:
+            case KeyEvent.VK_END:
+            case KeyEvent.VK_SHIFT:
+            case KeyEvent.VK_CONTROL:
+            case KeyEvent.VK_ALT:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
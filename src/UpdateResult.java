@@ -0,0 +1,14 @@
+/**
+ * Outcome of an optimistic update (see the tryUpdate methods of the DAO interfaces).
+ * An update carries the row version its caller read; it only succeeds if the row still has that version.
+ */
+public enum UpdateResult {
+    /** The row was updated; the object now carries the new version. */
+    SUCCESS,
+    /** Someone else changed the row since it was read; reload it and decide whether to apply the change again. */
+    CONFLICT,
+    /** The row no longer exists. */
+    NOT_FOUND,
+    /** The update was rejected (e.g. insufficient stock, duplicate name) or the database failed; see the log. */
+    ERROR
+}